@@ -0,0 +1,242 @@
+package org.wikapidia.cookbook.wikiwalker;
+
+import java.util.BitSet;
+
+/**
+ * Finds shortest link paths in a LinkGraph with a breadth first search that grows from
+ * both ends at once.
+ *
+ * Each round expands one whole level of the smaller frontier: forward along out-links
+ * from the start, or backward along in-links from the end. A page reached by both
+ * searches joins the two halves of a path. Once a level produces such a page, the
+ * shortest path through any page of that level is a shortest path overall. Two searches
+ * that each cover half the distance visit far fewer pages than one search covering all
+ * of it, because the number of pages grows quickly with the distance.
+ *
+ * Pages with more out-links than a limit can be excluded from the middle of paths,
+ * like the "uninteresting" pages skipped by Node.getChildren().
+ *
+ * The visited sets, parents, and frontiers are kept between searches, so a search
+ * allocates nothing but its result. A searcher is not thread-safe; use one per thread.
+ */
+public class BidirectionalSearcher {
+    public static final int DEFAULT_MAX_DEPTH = 20;
+    private static final int MAX_DEPTH = Byte.MAX_VALUE;
+    private static final int TIME_CHECK_INTERVAL = 1 << 16;     // links visited between clock checks
+
+    private final LinkGraph graph;
+    private final int outOffsets[];
+    private final int outTargets[];
+    private final int inOffsets[];
+    private final int inTargets[];
+
+    private final BitSet visitedForward;
+    private final BitSet visitedBackward;
+    private final int parentForward[];
+    private final int parentBackward[];
+    private final byte depthForward[];
+    private final byte depthBackward[];
+    private int frontierForward[];
+    private int frontierBackward[];
+    private int nextFrontier[];
+
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private long timeoutMillis = 0;
+    private int maxOutDegree = Integer.MAX_VALUE;
+
+    private boolean timedOut = false;
+    private long numLinksVisited = 0;
+
+    public BidirectionalSearcher(LinkGraph graph) {
+        int n = graph.getNumPages();
+        this.graph = graph;
+        this.outOffsets = graph.getOutOffsets();
+        this.outTargets = graph.getOutTargets();
+        this.inOffsets = graph.getInOffsets();
+        this.inTargets = graph.getInTargets();
+        this.visitedForward = new BitSet(n);
+        this.visitedBackward = new BitSet(n);
+        this.parentForward = new int[n];
+        this.parentBackward = new int[n];
+        this.depthForward = new byte[n];
+        this.depthBackward = new byte[n];
+        this.frontierForward = new int[n];
+        this.frontierBackward = new int[n];
+        this.nextFrontier = new int[n];
+    }
+
+    /**
+     * @param maxDepth The longest path searched for, at most 127 links.
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0 || maxDepth > MAX_DEPTH) {
+            throw new IllegalArgumentException("invalid max depth: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @param timeoutMillis The longest time a search may take, or 0 for no limit.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param maxOutDegree Pages with more out-links are not used inside paths.
+     *                     The start and end of a path are always allowed.
+     */
+    public void setMaxOutDegree(int maxOutDegree) {
+        this.maxOutDegree = maxOutDegree;
+    }
+
+    /**
+     * @return True if the last search ran out of time before it finished.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return The number of links followed by the last search.
+     */
+    public long getNumLinksVisited() {
+        return numLinksVisited;
+    }
+
+    /**
+     * @return The number of links on the shortest path between the pages, or -1 if
+     * there is no path within the maximum depth.
+     */
+    public int shortestDistance(int startPageId, int endPageId) {
+        int path[] = shortestPath(startPageId, endPageId);
+        return (path == null) ? -1 : path.length - 1;
+    }
+
+    /**
+     * @param startPageId
+     * @param endPageId
+     * @return The page ids of a shortest path, starting with startPageId and ending
+     * with endPageId, or null if there is no path within the maximum depth or the
+     * search timed out.
+     */
+    public int[] shortestPath(int startPageId, int endPageId) {
+        timedOut = false;
+        numLinksVisited = 0;
+        int start = graph.getIndex(startPageId);
+        int end = graph.getIndex(endPageId);
+        if (start < 0 || end < 0) {
+            return null;
+        }
+        if (start == end) {
+            return new int[] { startPageId };
+        }
+        long deadline = (timeoutMillis > 0) ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+
+        visitedForward.clear();
+        visitedBackward.clear();
+        visitedForward.set(start);
+        parentForward[start] = -1;
+        depthForward[start] = 0;
+        visitedBackward.set(end);
+        parentBackward[end] = -1;
+        depthBackward[end] = 0;
+        frontierForward[0] = start;
+        frontierBackward[0] = end;
+        int numForward = 1;
+        int numBackward = 1;
+        int levelForward = 0;
+        int levelBackward = 0;
+
+        int meeting = -1;
+        int meetingLength = Integer.MAX_VALUE;
+        while (numForward > 0 && numBackward > 0 && levelForward + levelBackward < maxDepth) {
+            boolean forward = numForward <= numBackward;
+            int frontier[] = forward ? frontierForward : frontierBackward;
+            int numFrontier = forward ? numForward : numBackward;
+            int offsets[] = forward ? outOffsets : inOffsets;
+            int targets[] = forward ? outTargets : inTargets;
+            BitSet visited = forward ? visitedForward : visitedBackward;
+            BitSet visitedOther = forward ? visitedBackward : visitedForward;
+            int parent[] = forward ? parentForward : parentBackward;
+            byte depth[] = forward ? depthForward : depthBackward;
+            byte depthOther[] = forward ? depthBackward : depthForward;
+            byte nextDepth = (byte) ((forward ? levelForward : levelBackward) + 1);
+
+            int numNext = 0;
+            for (int f = 0; f < numFrontier; f++) {
+                int u = frontier[f];
+                for (int j = offsets[u]; j < offsets[u + 1]; j++) {
+                    int v = targets[j];
+                    if (visited.get(v) || !isAllowed(v, start, end)) {
+                        continue;
+                    }
+                    visited.set(v);
+                    parent[v] = u;
+                    depth[v] = nextDepth;
+                    nextFrontier[numNext++] = v;
+                    if (visitedOther.get(v) && nextDepth + depthOther[v] < meetingLength) {
+                        meeting = v;
+                        meetingLength = nextDepth + depthOther[v];
+                    }
+                }
+                numLinksVisited += offsets[u + 1] - offsets[u];
+                if ((numLinksVisited & (TIME_CHECK_INTERVAL - 1)) < offsets[u + 1] - offsets[u]
+                        && System.currentTimeMillis() > deadline) {
+                    timedOut = true;
+                    return null;
+                }
+            }
+
+            // the next frontier becomes this side's frontier, and its old array is reused
+            nextFrontier = swapFrontier(forward, nextFrontier);
+            if (forward) {
+                numForward = numNext;
+                levelForward++;
+            } else {
+                numBackward = numNext;
+                levelBackward++;
+            }
+            if (meeting >= 0) {
+                return buildPath(meeting);
+            }
+            if (System.currentTimeMillis() > deadline) {
+                timedOut = true;
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private boolean isAllowed(int index, int start, int end) {
+        return index == start || index == end || outOffsets[index + 1] - outOffsets[index] <= maxOutDegree;
+    }
+
+    private int[] swapFrontier(boolean forward, int next[]) {
+        int old[];
+        if (forward) {
+            old = frontierForward;
+            frontierForward = next;
+        } else {
+            old = frontierBackward;
+            frontierBackward = next;
+        }
+        return old;
+    }
+
+    /**
+     * Joins the forward path to the meeting page with the backward path from it.
+     */
+    private int[] buildPath(int meeting) {
+        int path[] = new int[depthForward[meeting] + depthBackward[meeting] + 1];
+        int i = depthForward[meeting];
+        for (int u = meeting; u >= 0; u = parentForward[u]) {
+            path[i--] = graph.getPageId(u);
+        }
+        i = depthForward[meeting];
+        for (int u = meeting; u >= 0; u = parentBackward[u]) {
+            path[i++] = graph.getPageId(u);
+        }
+        return path;
+    }
+}
@@ -14,12 +14,46 @@ public class GraphSearcher {
      */
     private final WikAPIdiaWrapper wrapper;
 
+    /**
+     * In-memory link graph, or null to walk the graph through the wrapper.
+     */
+    private final LinkGraph graph;
+
+    /**
+     * Searchers over the graph. They reuse their buffers, so each thread gets its own.
+     */
+    private final ThreadLocal<BidirectionalSearcher> searchers = new ThreadLocal<BidirectionalSearcher>() {
+        @Override
+        protected BidirectionalSearcher initialValue() {
+            BidirectionalSearcher searcher = new BidirectionalSearcher(graph);
+            searcher.setMaxOutDegree(WikAPIdiaWrapper.MAX_INTERESTING_OUT_LINKS);
+            return searcher;
+        }
+    };
+
     /**
      * Creates the new graph searcher.
      * @param wrapper
      */
     public GraphSearcher(WikAPIdiaWrapper wrapper) {
+        this(wrapper, null);
+    }
+
+    /**
+     * Creates a graph searcher that searches pages in the language of the graph in memory.
+     * Pages in other languages are walked through the wrapper.
+     * @param wrapper
+     * @param graph
+     */
+    public GraphSearcher(WikAPIdiaWrapper wrapper, LinkGraph graph) {
         this.wrapper = wrapper;
+        this.graph = graph;
+    }
+
+    private boolean inGraph(LocalPage start, LocalPage end) {
+        return graph != null
+                && start.getLanguage().equals(graph.getLanguage())
+                && end.getLanguage().equals(graph.getLanguage());
     }
 
     private Node walk(LocalPage start, LocalPage end) {
@@ -53,6 +87,9 @@ public class GraphSearcher {
      * @return The distance between two pages, or -1 if they are not connected.
      */
     public int shortestDistance(LocalPage start, LocalPage end) {
+        if (inGraph(start, end)) {
+            return searchers.get().shortestDistance(start.getLocalId(), end.getLocalId());
+        }
         markAsInteresting(start, end);
         Node last = walk(start, end);
         return (last == null) ? -1 : last.getDepth();
@@ -67,6 +104,17 @@ public class GraphSearcher {
      * or null if no path exists.
      */
     public List<LocalPage> shortestPath(LocalPage start, LocalPage end) {
+        if (inGraph(start, end)) {
+            int ids[] = searchers.get().shortestPath(start.getLocalId(), end.getLocalId());
+            if (ids == null) {
+                return null;
+            }
+            List<LocalPage> path = new ArrayList<LocalPage>();
+            for (int id : ids) {
+                path.add(wrapper.getLocalPageById(graph.getLanguage(), id));
+            }
+            return path;
+        }
         markAsInteresting(start, end);
 
         Node last = walk(start, end);
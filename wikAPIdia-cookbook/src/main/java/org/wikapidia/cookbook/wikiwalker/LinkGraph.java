@@ -0,0 +1,282 @@
+package org.wikapidia.cookbook.wikiwalker;
+
+import org.wikapidia.core.dao.matrix.MatrixLocalLinkDao;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LocalId;
+import org.wikapidia.matrix.SparseMatrix;
+import org.wikapidia.matrix.SparseMatrixRow;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * The article link graph of one language, held in memory as primitive arrays.
+ *
+ * Pages are numbered densely in the order of their ids. The out-links and in-links
+ * of each page are stored in compressed sparse row form: the neighbors of page i are
+ * targets[offsets[i]] through targets[offsets[i + 1] - 1]. This needs about eight bytes
+ * per link for both directions, and visiting a neighbor is an array lookup.
+ *
+ * A graph is built from the adjacency matrix of a MatrixLocalLinkDao, or read from a
+ * snapshot written by write().
+ */
+public class LinkGraph {
+    private static final Logger LOG = Logger.getLogger(LinkGraph.class.getName());
+
+    /**
+     * Version of the snapshot format. Snapshots written by other versions are rejected.
+     */
+    public static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4c6e6b47;     // "LnkG"
+
+    private final Language language;
+    private final int ids[];          // sorted page ids
+    private final int outOffsets[];
+    private final int outTargets[];
+    private final int inOffsets[];
+    private final int inTargets[];
+
+    /**
+     * @param language
+     * @param ids The sorted page ids.
+     * @param outOffsets Offsets of each page's out-links, with one extra entry at the end.
+     * @param outTargets Indexes of the pages linked to.
+     */
+    LinkGraph(Language language, int ids[], int outOffsets[], int outTargets[]) {
+        this.language = language;
+        this.ids = ids;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.inOffsets = new int[ids.length + 1];
+        this.inTargets = new int[outTargets.length];
+
+        // transpose with a counting sort
+        for (int t : outTargets) {
+            inOffsets[t + 1]++;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+        int next[] = Arrays.copyOf(inOffsets, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = outOffsets[i]; j < outOffsets[i + 1]; j++) {
+                inTargets[next[outTargets[j]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Builds the graph of one language from the adjacency matrix of a link dao.
+     * @param dao
+     * @param language
+     * @return The graph.
+     * @throws IOException If the dao has no matrix or it could not be read.
+     */
+    public static LinkGraph build(MatrixLocalLinkDao dao, Language language) throws IOException {
+        if (dao.getMatrix() == null) {
+            throw new IOException("link dao has no adjacency matrix");
+        }
+        return build(dao.getMatrix(), language);
+    }
+
+    /**
+     * Builds the graph of one language from an adjacency matrix whose row and column
+     * ids are packed local ids.
+     */
+    public static LinkGraph build(SparseMatrix matrix, Language language) throws IOException {
+        LOG.info("building link graph for " + language + " from " + matrix.getPath());
+        int rowIds[] = getSortedRowIds(matrix, language);
+
+        // first pass: the pages, including pages without out-links
+        int ids[] = new int[Math.max(1024, 2 * rowIds.length)];
+        int n = 0;
+        for (int rowId : rowIds) {
+            SparseMatrixRow row = matrix.getRow(new LocalId(language, rowId).toInt());
+            if (n + row.getNumCols() + 1 > ids.length) {
+                n = dedup(ids, n);
+                if (n + row.getNumCols() + 1 > ids.length / 2) {
+                    ids = Arrays.copyOf(ids, 2 * (ids.length + row.getNumCols() + 1));
+                }
+            }
+            ids[n++] = rowId;
+            for (int i = 0; i < row.getNumCols(); i++) {
+                ids[n++] = LocalId.fromInt(row.getColIndex(i)).getId();
+            }
+        }
+        ids = Arrays.copyOf(ids, dedup(ids, n));
+
+        // second pass: the links
+        int outOffsets[] = new int[ids.length + 1];
+        int targets[] = new int[1024];
+        int numLinks = 0;
+        int next = 0;     // the next page whose offset is unset
+        for (int rowId : rowIds) {
+            SparseMatrixRow row = matrix.getRow(new LocalId(language, rowId).toInt());
+            int src = Arrays.binarySearch(ids, rowId);
+            while (next <= src) {
+                outOffsets[next++] = numLinks;
+            }
+            if (numLinks + row.getNumCols() > targets.length) {
+                targets = Arrays.copyOf(targets, Math.max(2 * targets.length, numLinks + row.getNumCols()));
+            }
+            for (int i = 0; i < row.getNumCols(); i++) {
+                targets[numLinks++] = Arrays.binarySearch(ids, LocalId.fromInt(row.getColIndex(i)).getId());
+            }
+        }
+        while (next <= ids.length) {
+            outOffsets[next++] = numLinks;
+        }
+        LinkGraph graph = new LinkGraph(language, ids, outOffsets, Arrays.copyOf(targets, numLinks));
+        LOG.info("built link graph with " + graph.getNumPages() + " pages and " + graph.getNumLinks() + " links");
+        return graph;
+    }
+
+    /**
+     * @return The sorted page ids of the rows in a language.
+     */
+    private static int[] getSortedRowIds(SparseMatrix matrix, Language language) {
+        int rowIds[] = matrix.getRowIds();
+        int localIds[] = new int[rowIds.length];
+        int n = 0;
+        for (int rowId : rowIds) {
+            LocalId lid = LocalId.fromInt(rowId);
+            if (lid.getLanguage().equals(language)) {
+                localIds[n++] = lid.getId();
+            }
+        }
+        localIds = Arrays.copyOf(localIds, n);
+        Arrays.sort(localIds);
+        return localIds;
+    }
+
+    /**
+     * Sorts the first n values and removes duplicates.
+     * @return The number of distinct values.
+     */
+    private static int dedup(int values[], int n) {
+        Arrays.sort(values, 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || values[i] != values[m - 1]) {
+                values[m++] = values[i];
+            }
+        }
+        return m;
+    }
+
+    public Language getLanguage() {
+        return language;
+    }
+
+    public int getNumPages() {
+        return ids.length;
+    }
+
+    public int getNumLinks() {
+        return outTargets.length;
+    }
+
+    /**
+     * @return The dense index of a page, or -1 if it is not in the graph.
+     */
+    public int getIndex(int pageId) {
+        int i = Arrays.binarySearch(ids, pageId);
+        return (i < 0) ? -1 : i;
+    }
+
+    public int getPageId(int index) {
+        return ids[index];
+    }
+
+    public int getOutDegree(int index) {
+        return outOffsets[index + 1] - outOffsets[index];
+    }
+
+    public int getInDegree(int index) {
+        return inOffsets[index + 1] - inOffsets[index];
+    }
+
+    /**
+     * @return The indexes of the pages a page links to.
+     */
+    public int[] getOutLinks(int index) {
+        return Arrays.copyOfRange(outTargets, outOffsets[index], outOffsets[index + 1]);
+    }
+
+    /**
+     * @return The indexes of the pages that link to a page.
+     */
+    public int[] getInLinks(int index) {
+        return Arrays.copyOfRange(inTargets, inOffsets[index], inOffsets[index + 1]);
+    }
+
+    // Direct access for the searcher, which must not allocate per node.
+    int[] getOutOffsets() { return outOffsets; }
+    int[] getOutTargets() { return outTargets; }
+    int[] getInOffsets() { return inOffsets; }
+    int[] getInTargets() { return inTargets; }
+
+    /**
+     * Writes a snapshot that read() loads without the link dao.
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(language.getId());
+            out.writeInt(ids.length);
+            out.writeInt(outTargets.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+            for (int offset : outOffsets) {
+                out.writeInt(offset);
+            }
+            for (int target : outTargets) {
+                out.writeInt(target);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot written by write().
+     * @throws IOException If the file has the wrong format or version.
+     */
+    public static LinkGraph read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 20 || buffer.getInt() != MAGIC) {
+                throw new IOException("" + file + " is not a link graph");
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("" + file + " has link graph version " + version + ", expected " + FORMAT_VERSION);
+            }
+            Language language = Language.getById(buffer.getInt());
+            int numPages = buffer.getInt();
+            int numLinks = buffer.getInt();
+            if (buffer.remaining() != 4L * (2L * numPages + 1 + numLinks)) {
+                throw new IOException("" + file + " is truncated");
+            }
+            int ids[] = new int[numPages];
+            int outOffsets[] = new int[numPages + 1];
+            int outTargets[] = new int[numLinks];
+            buffer.asIntBuffer().get(ids);
+            buffer.position(buffer.position() + 4 * numPages);
+            buffer.asIntBuffer().get(outOffsets);
+            buffer.position(buffer.position() + 4 * (numPages + 1));
+            buffer.asIntBuffer().get(outTargets);
+            return new LinkGraph(language, ids, outOffsets, outTargets);
+        } finally {
+            raf.close();
+        }
+    }
+}
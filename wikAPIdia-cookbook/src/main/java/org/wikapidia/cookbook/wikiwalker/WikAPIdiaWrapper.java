@@ -23,6 +23,10 @@ import java.util.List;
  * @author Shilad Sen
  */
 public class WikAPIdiaWrapper {
+    /**
+     * Pages with more out-links than this (lists, dates, years, etc.) are uninteresting.
+     */
+    public static final int MAX_INTERESTING_OUT_LINKS = 30;
 
     private final Env env;
     private final RawPageDao rpDao;
@@ -169,7 +173,7 @@ public class WikAPIdiaWrapper {
     public synchronized boolean isInteresting(Language lang, int id) {
         long packed = new LocalId(lang, id).toLong();
         if (!idsAreInteresting.containsKey(packed)) {
-            setInteresting(lang, id, getNumOutLinks(lang, id) <= 30);
+            setInteresting(lang, id, getNumOutLinks(lang, id) <= MAX_INTERESTING_OUT_LINKS);
         }
         return idsAreInteresting.get(packed) == INTERESTING;
     }
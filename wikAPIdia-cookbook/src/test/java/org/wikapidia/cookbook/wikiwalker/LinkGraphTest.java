@@ -0,0 +1,220 @@
+package org.wikapidia.cookbook.wikiwalker;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LocalId;
+import org.wikapidia.matrix.SparseMatrix;
+import org.wikapidia.matrix.SparseMatrixRow;
+import org.wikapidia.matrix.SparseMatrixWriter;
+import org.wikapidia.matrix.ValueConf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LinkGraphTest {
+    private static final Language SIMPLE = Language.getByLangCode("simple");
+    private static final Language EN = Language.getByLangCode("en");
+    private static final int NUM_PAGES = 400;
+
+    /**
+     * Out-links of the pages with ids 0 through NUM_PAGES - 1 in simple english.
+     */
+    private static Map<Integer, List<Integer>> links = new HashMap<Integer, List<Integer>>();
+    private static LinkGraph graph;
+
+    @BeforeClass
+    public static void createGraph() throws IOException {
+        Random random = new Random(42);
+        File file = File.createTempFile("links", ".matrix");
+        file.deleteOnExit();
+        SparseMatrixWriter writer = new SparseMatrixWriter(file, new ValueConf());
+        for (int id = 0; id < NUM_PAGES; id++) {
+            // every tenth page has no out-links, and a few pages have many
+            int numLinks = (id % 10 == 0) ? 0 : (id % 37 == 1) ? 40 : random.nextInt(4);
+            Set<Integer> dests = new LinkedHashSet<Integer>();
+            while (dests.size() < numLinks) {
+                dests.add(random.nextInt(NUM_PAGES));
+            }
+            links.put(id, new ArrayList<Integer>(dests));
+            if (numLinks > 0) {
+                writer.writeRow(row(SIMPLE, id, dests));
+            }
+        }
+        // another language in the same matrix
+        writer.writeRow(row(EN, 5, Arrays.asList(6, 7)));
+        writer.finish();
+        graph = LinkGraph.build(new SparseMatrix(file), SIMPLE);
+    }
+
+    private static SparseMatrixRow row(Language language, int id, Collection<Integer> dests) {
+        int cols[] = new int[dests.size()];
+        int i = 0;
+        for (int dest : dests) {
+            cols[i++] = new LocalId(language, dest).toInt();
+        }
+        return new SparseMatrixRow(new ValueConf(), new LocalId(language, id).toInt(), cols, new short[cols.length]);
+    }
+
+    /**
+     * The distance found by a breadth first search over the out-links.
+     */
+    private static int bfsDistance(int start, int end, int maxOutDegree) {
+        Map<Integer, Integer> distances = new HashMap<Integer, Integer>();
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        distances.put(start, 0);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            int id = queue.remove();
+            if (id == end) {
+                return distances.get(id);
+            }
+            for (int dest : links.get(id)) {
+                boolean allowed = dest == end || links.get(dest).size() <= maxOutDegree;
+                if (allowed && !distances.containsKey(dest)) {
+                    distances.put(dest, distances.get(id) + 1);
+                    queue.add(dest);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void checkPath(int path[], int start, int end, int maxOutDegree) {
+        assertEquals(start, path[0]);
+        assertEquals(end, path[path.length - 1]);
+        for (int i = 0; i + 1 < path.length; i++) {
+            assertTrue(links.get(path[i]).contains(path[i + 1]));
+            if (i > 0) {
+                assertTrue(links.get(path[i]).size() <= maxOutDegree);
+            }
+        }
+    }
+
+    @Test
+    public void testStructure() {
+        assertEquals(SIMPLE, graph.getLanguage());
+        int numLinks = 0;
+        int inDegrees[] = new int[NUM_PAGES];
+        for (int id = 0; id < NUM_PAGES; id++) {
+            numLinks += links.get(id).size();
+            for (int dest : links.get(id)) {
+                inDegrees[dest]++;
+            }
+        }
+        assertEquals(numLinks, graph.getNumLinks());
+        assertEquals(-1, graph.getIndex(NUM_PAGES + 1));
+        for (int id = 0; id < NUM_PAGES; id++) {
+            int index = graph.getIndex(id);
+            if (index < 0) {
+                // only pages without links in either direction are missing
+                assertTrue(links.get(id).isEmpty());
+                assertEquals(0, inDegrees[id]);
+                continue;
+            }
+            assertEquals(id, graph.getPageId(index));
+            assertEquals(links.get(id).size(), graph.getOutDegree(index));
+            assertEquals(inDegrees[id], graph.getInDegree(index));
+            Set<Integer> dests = new HashSet<Integer>();
+            for (int i : graph.getOutLinks(index)) {
+                dests.add(graph.getPageId(i));
+            }
+            assertEquals(new HashSet<Integer>(links.get(id)), dests);
+            for (int i : graph.getInLinks(index)) {
+                assertTrue(links.get(graph.getPageId(i)).contains(id));
+            }
+        }
+    }
+
+    @Test
+    public void testShortestPaths() {
+        BidirectionalSearcher searcher = new BidirectionalSearcher(graph);
+        Random random = new Random(7);
+        int numFound = 0;
+        for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(NUM_PAGES);
+            int end = random.nextInt(NUM_PAGES);
+            if (graph.getIndex(start) < 0 || graph.getIndex(end) < 0) {
+                continue;
+            }
+            int expected = bfsDistance(start, end, Integer.MAX_VALUE);
+            int path[] = searcher.shortestPath(start, end);
+            if (expected < 0) {
+                assertNull(path);
+            } else {
+                assertNotNull(path);
+                assertEquals(expected, path.length - 1);
+                checkPath(path, start, end, Integer.MAX_VALUE);
+                numFound++;
+            }
+            assertFalse(searcher.isTimedOut());
+        }
+        assertTrue(numFound > 100);
+    }
+
+    @Test
+    public void testMaxOutDegree() {
+        BidirectionalSearcher searcher = new BidirectionalSearcher(graph);
+        searcher.setMaxOutDegree(3);
+        Random random = new Random(8);
+        for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(NUM_PAGES);
+            int end = random.nextInt(NUM_PAGES);
+            if (graph.getIndex(start) < 0 || graph.getIndex(end) < 0) {
+                continue;
+            }
+            int expected = bfsDistance(start, end, 3);
+            int path[] = searcher.shortestPath(start, end);
+            assertEquals(expected, (path == null) ? -1 : path.length - 1);
+            if (path != null) {
+                checkPath(path, start, end, 3);
+            }
+        }
+    }
+
+    @Test
+    public void testMaxDepth() {
+        BidirectionalSearcher searcher = new BidirectionalSearcher(graph);
+        Random random = new Random(9);
+        for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(NUM_PAGES);
+            int end = random.nextInt(NUM_PAGES);
+            if (graph.getIndex(start) < 0 || graph.getIndex(end) < 0) {
+                continue;
+            }
+            int expected = bfsDistance(start, end, Integer.MAX_VALUE);
+            searcher.setMaxDepth(3);
+            int distance = searcher.shortestDistance(start, end);
+            assertEquals(expected <= 3 ? expected : -1, distance);
+        }
+    }
+
+    @Test
+    public void testSamePage() {
+        BidirectionalSearcher searcher = new BidirectionalSearcher(graph);
+        assertEquals(0, searcher.shortestDistance(1, 1));
+        assertNull(searcher.shortestPath(1, NUM_PAGES + 1));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        File file = File.createTempFile("links", ".graph");
+        try {
+            graph.write(file);
+            LinkGraph copy = LinkGraph.read(file);
+            assertEquals(graph.getLanguage(), copy.getLanguage());
+            assertEquals(graph.getNumPages(), copy.getNumPages());
+            assertEquals(graph.getNumLinks(), copy.getNumLinks());
+            for (int i = 0; i < graph.getNumPages(); i++) {
+                assertEquals(graph.getPageId(i), copy.getPageId(i));
+                assertTrue(Arrays.equals(graph.getOutLinks(i), copy.getOutLinks(i)));
+                assertTrue(Arrays.equals(graph.getInLinks(i), copy.getInLinks(i)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
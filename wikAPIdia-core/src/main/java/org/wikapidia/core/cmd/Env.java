@@ -84,6 +84,9 @@ public class Env {
         LOG.info("using languages " + getLanguages());
         LOG.info("using maxThreads " + WpThreadUtils.getMaxThreads());
         LOG.info("using tmpDir " + tmpDir);
+
+        // construct components that should be ready before their first use
+        configurator.warmUp();
     }
 
     public List<File> getFiles(FileMatcher ... matchers) {
@@ -22,6 +22,7 @@ import java.util.Collection;
  * - Disambiguation flag     (LocalPage, RawPage) <p>
  * - LocationType collection (LocalLink) <p>
  * - Source ID collection    (LocalLink, Redirect, UniversalLink) <p>
+ * - Source ID range         (LocalLink) <p>
  * - Dest ID collection      (LocalLink, Redirect, UniversalLink) <p>
  * - Parseable flag          (LocalLink, Redirect) <p>
  * - Algorithm ID collection (UniversalPage, UniversalLink) <p>
@@ -49,6 +50,8 @@ public class DaoFilter {
     private Boolean isDisambig;
     private Collection<Short> locTypeIds;
     private Collection<Integer> sourceIds;
+    private Integer minSourceId;
+    private Integer maxSourceId;
     private Collection<Integer> destIds;
     private Boolean isParseable;
     private Collection<Integer> algorithmIds;
@@ -61,6 +64,8 @@ public class DaoFilter {
         isRedirect = null;
         isDisambig = null;
         sourceIds = null;
+        minSourceId = null;
+        maxSourceId = null;
         destIds = null;
         locTypeIds = null;
         isParseable = null;
@@ -91,6 +96,14 @@ public class DaoFilter {
         return sourceIds;
     }
 
+    public Integer getMinSourceId() {
+        return minSourceId;
+    }
+
+    public Integer getMaxSourceId() {
+        return maxSourceId;
+    }
+
     public Collection<Integer> getDestIds() {
         return destIds;
     }
@@ -246,6 +259,19 @@ public class DaoFilter {
         return setSourceIds(Arrays.asList(sourceId));
     }
 
+    /**
+     * Sets the source ID range filter to [minSourceId, maxSourceId).
+     * Used only by LocalLink.
+     * @param minSourceId lowest acceptable source id (inclusive)
+     * @param maxSourceId highest acceptable source id (exclusive)
+     * @return
+     */
+    public DaoFilter setSourceIdRange(int minSourceId, int maxSourceId) {
+        this.minSourceId = minSourceId;
+        this.maxSourceId = maxSourceId;
+        return this;
+    }
+
     /**
      * Sets the DestinationIds filter to the specified collection.
      * Used by LocalLink, UniversalLink, and Redirect.
@@ -0,0 +1,246 @@
+package org.wikapidia.core.dao.live;
+
+import com.typesafe.config.Config;
+import org.apache.commons.io.FileUtils;
+import org.wikapidia.conf.Configuration;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.utils.WpIOUtils;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Caches the responses of another transport on disk.
+ *
+ * Responses are keyed by the language and the normalized query, and each one is stored
+ * in its own file, named by a hash of the key, with the key on the first line.
+ * Responses older than the time to live are fetched again. When the files exceed the
+ * size limit, the least recently written responses are deleted until the cache is
+ * back at 90% of the limit.
+ */
+public class CachingLiveTransport implements LiveTransport {
+    private static final Logger LOG = Logger.getLogger(CachingLiveTransport.class.getName());
+
+    private final LiveTransport delegate;
+    private final File dir;
+    private final long ttlMillis;
+    private final long maxBytes;
+
+    private final AtomicLong numBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param delegate The transport that fetches responses that are not cached.
+     * @param dir The directory holding the cached responses.
+     * @param ttlMillis The time to live of a response, in milliseconds.
+     * @param maxBytes The maximum total size of the cached responses.
+     */
+    public CachingLiveTransport(LiveTransport delegate, File dir, long ttlMillis, long maxBytes) {
+        this.delegate = delegate;
+        this.dir = dir;
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+        WpIOUtils.mkdirsQuietly(dir);
+        for (File f : listFiles()) {
+            numBytes.addAndGet(f.length());
+        }
+    }
+
+    @Override
+    public String get(Language language, String query) throws IOException {
+        String key = LiveAPIQuery.normalizeQuery(language, query);
+        File file = getFile(key);
+        String response = read(file, key);
+        if (response != null) {
+            hits.incrementAndGet();
+            return response;
+        }
+        misses.incrementAndGet();
+        response = delegate.get(language, query);
+        write(file, key, response);
+        return response;
+    }
+
+    /**
+     * @return The cached response, or null if it is missing or has expired.
+     */
+    private String read(File file, String key) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        if (System.currentTimeMillis() - file.lastModified() > ttlMillis) {
+            delete(file);
+            return null;
+        }
+        String contents;
+        try {
+            contents = FileUtils.readFileToString(file, "UTF-8");
+        } catch (FileNotFoundException e) {
+            return null;    // evicted by another thread
+        }
+        int i = contents.indexOf('\n');
+        if (i < 0 || !contents.substring(0, i).equals(key)) {
+            return null;    // a hash collision or a damaged file
+        }
+        return contents.substring(i + 1);
+    }
+
+    private void write(File file, String key, String response) throws IOException {
+        WpIOUtils.mkdirsQuietly(file.getParentFile());
+        File tmp = File.createTempFile("response", ".tmp", file.getParentFile());
+        FileUtils.write(tmp, key + "\n" + response, "UTF-8");
+        long oldLength = file.length();
+        if (!tmp.renameTo(file)) {
+            FileUtils.deleteQuietly(tmp);
+            throw new IOException("renaming " + tmp + " to " + file + " failed");
+        }
+        if (numBytes.addAndGet(file.length() - oldLength) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently written responses until the cache is at 90% of its size limit.
+     */
+    private synchronized void evict() {
+        if (numBytes.get() <= maxBytes) {
+            return;
+        }
+        List<File> files = listFiles();
+        final Map<File, Long> modified = new HashMap<File, Long>();
+        for (File f : files) {
+            modified.put(f, f.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return modified.get(f1).compareTo(modified.get(f2));
+            }
+        });
+        long target = maxBytes / 10 * 9;
+        for (File f : files) {
+            if (numBytes.get() <= target) {
+                break;
+            }
+            delete(f);
+            evictions.incrementAndGet();
+        }
+        LOG.fine("evicted cached responses in " + dir + "; " + this);
+    }
+
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            numBytes.addAndGet(-length);
+        }
+    }
+
+    private List<File> listFiles() {
+        List<File> files = new ArrayList<File>();
+        File subdirs[] = dir.listFiles();
+        if (subdirs != null) {
+            for (File subdir : subdirs) {
+                File children[] = subdir.listFiles();
+                if (children != null) {
+                    for (File f : children) {
+                        if (f.isFile() && !f.getName().endsWith(".tmp")) {
+                            files.add(f);
+                        }
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    private File getFile(String key) {
+        String hash = sha1Hex(key);
+        return new File(new File(dir, hash.substring(0, 2)), hash);
+    }
+
+    private static String sha1Hex(String s) {
+        try {
+            byte digest[] = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM supports SHA-1
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deletes all cached responses.
+     */
+    public synchronized void clear() {
+        for (File f : listFiles()) {
+            delete(f);
+        }
+    }
+
+    public long getNumBytes() {
+        return numBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingLiveTransport{" +
+                "bytes=" + numBytes.get() + "/" + maxBytes +
+                ", hits=" + hits.get() +
+                ", misses=" + misses.get() +
+                ", evictions=" + evictions.get() +
+                '}';
+    }
+
+    public static class Provider extends org.wikapidia.conf.Provider<LiveTransport> {
+        public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
+            super(configurator, config);
+        }
+
+        @Override
+        public Class getType() {
+            return LiveTransport.class;
+        }
+
+        @Override
+        public String getPath() {
+            return "dao.liveTransport";
+        }
+
+        @Override
+        public LiveTransport get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+            if (!config.getString("type").equals("cached")) {
+                return null;
+            }
+            return new CachingLiveTransport(
+                    getConfigurator().get(LiveTransport.class, config.getString("delegate")),
+                    new File(config.getString("path")),
+                    config.getLong("ttlSeconds") * 1000,
+                    config.getLong("maxMegabytes") * 1024 * 1024);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.wikapidia.core.dao.live;
+
+import com.typesafe.config.Config;
+import org.apache.commons.io.IOUtils;
+import org.wikapidia.conf.Configuration;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
+import org.wikapidia.core.lang.Language;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends queries to a MediaWiki API endpoint over HTTP.
+ *
+ * The endpoint is a URL template in which "{lang}" is replaced by the language code,
+ * so a local fixture server can stand in for Wikipedia.
+ *
+ * Responses are requested gzipped, and every response body, including the body of an
+ * error, is read to the end and closed, so the JDK returns the connection to its
+ * keep-alive pool and later requests to the same server skip the TCP handshake.
+ */
+public class HttpLiveTransport implements LiveTransport {
+    public static final String DEFAULT_URL = "http://{lang}.wikipedia.org/w/api.php";
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private final String urlTemplate;
+    private int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    public HttpLiveTransport() {
+        this(DEFAULT_URL);
+    }
+
+    /**
+     * @param urlTemplate The API endpoint, in which "{lang}" is replaced by the language code.
+     */
+    public HttpLiveTransport(String urlTemplate) {
+        this.urlTemplate = urlTemplate;
+    }
+
+    public void setTimeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public String get(Language language, String query) throws IOException {
+        URL url = new URL(urlTemplate.replace("{lang}", language.getLangCode()) + "?" + query);
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setRequestProperty("User-Agent", "wikAPIdia");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        InputStream in;
+        try {
+            in = connection.getInputStream();
+        } catch (IOException e) {
+            drainErrorStream(connection);
+            throw e;
+        }
+        try {
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Reads the body of an error response so the connection can be reused.
+     */
+    private static void drainErrorStream(URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            InputStream err = ((HttpURLConnection) connection).getErrorStream();
+            if (err != null) {
+                try {
+                    IOUtils.toByteArray(err);
+                } catch (IOException e) {
+                    // the connection will not be reused
+                } finally {
+                    IOUtils.closeQuietly(err);
+                }
+            }
+        }
+    }
+
+    public static class Provider extends org.wikapidia.conf.Provider<LiveTransport> {
+        public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
+            super(configurator, config);
+        }
+
+        @Override
+        public Class getType() {
+            return LiveTransport.class;
+        }
+
+        @Override
+        public String getPath() {
+            return "dao.liveTransport";
+        }
+
+        @Override
+        public LiveTransport get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+            if (!config.getString("type").equals("http")) {
+                return null;
+            }
+            HttpLiveTransport transport = new HttpLiveTransport(config.getString("url"));
+            if (config.hasPath("timeoutMillis")) {
+                transport.setTimeoutMillis(config.getInt("timeoutMillis"));
+            }
+            return transport;
+        }
+    }
+}
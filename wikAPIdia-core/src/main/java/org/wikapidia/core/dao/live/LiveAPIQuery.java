@@ -5,20 +5,23 @@ package org.wikapidia.core.dao.live;
  * author: derian
  */
 
-import org.apache.commons.io.IOUtils;
-import org.wikapidia.core.WikapidiaException;
+import com.typesafe.config.Config;
+import org.apache.commons.lang3.StringUtils;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
 import org.wikapidia.core.dao.DaoException;
 import org.wikapidia.core.lang.Language;
 
-import java.io.InputStream;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.util.*;
 
 public class LiveAPIQuery {
 
+    /**
+     * The transport used by queries whose builder does not set one.
+     */
+    private static volatile LiveTransport defaultTransport = new HttpLiveTransport();
+
     private final Language lang;
     private final String outputFormat = "json"; //only JSON currently supported    
     private final String queryAction;
@@ -37,11 +40,19 @@ public class LiveAPIQuery {
     private Integer namespace;
     private String prop = null; //only used in all-links queries, ensures that ids and titles of links will be returned
 
+    /**
+     * The largest number of titles or page ids the API accepts in one request.
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private final LiveTransport transport;
+    private final Map<String, String> titleMapping = new HashMap<String, String>();
     private String queryUrl;
     private String queryResult = ""; //text representing the raw output of the query
 
     private LiveAPIQuery(LiveAPIQueryBuilder builder) {
         this.lang = builder.lang;
+        this.transport = (builder.transport == null) ? defaultTransport : builder.transport;
         if (builder.redirects != null) {
             this.redirects = builder.redirects;
         }
@@ -124,10 +135,11 @@ public class LiveAPIQuery {
         constructQueryUrl();
     }
 
+    /**
+     * Builds the query string sent to the transport. The endpoint is chosen by the transport.
+     */
     public void constructQueryUrl() {
-        String http = "http://";
-        String host = ".wikipedia.org";
-        String queryUrl = http + lang.getLangCode() + host + "/w/api.php?action=query&format=" + outputFormat +
+        String queryUrl = "action=query&format=" + outputFormat +
                 "&" + queryAction + "=" + queryType + "&" + queryLimitPrefix + "limit=500";
         if (!this.titles.isEmpty()) {
             queryUrl += "&" + queryInfoPrefix + "title" + (pluralPage ? "s" : "") + "=" + titles.get(0);
@@ -177,6 +189,7 @@ public class LiveAPIQuery {
 
             //parse the queryResult and add the resulting QueryReply objects to values
             parser.getQueryReturnValues(lang, queryResult, queryResultDataSection, values);
+            parser.getTitleMapping(queryResult, titleMapping);
 
             /*
              * Determine whether or not the query result contained continue info, meaning there were too many
@@ -191,33 +204,88 @@ public class LiveAPIQuery {
         return values;
     }
 
+    /**
+     * Follows the title normalizations and redirects reported by the server, so that pages
+     * returned by a query for several titles can be matched with the requested titles.
+     * Only valid after getValuesFromQueryResult().
+     * @param title a requested title
+     * @return the title of the page returned for the requested title
+     */
+    public String resolveTitle(String title) {
+        for (int i = 0; i < 3 && titleMapping.containsKey(title); i++) {
+            title = titleMapping.get(title);    // normalization, then redirect
+        }
+        return title;
+    }
+
+    /**
+     * Splits a list into consecutive batches that fit in one request.
+     * @param values
+     * @return batches of at most MAX_BATCH_SIZE values
+     */
+    public static <T> List<List<T>> partition(List<T> values) {
+        List<List<T>> batches = new ArrayList<List<T>>();
+        for (int i = 0; i < values.size(); i += MAX_BATCH_SIZE) {
+            batches.add(new ArrayList<T>(values.subList(i, Math.min(values.size(), i + MAX_BATCH_SIZE))));
+        }
+        return batches;
+    }
+
     /**
      * queries the wikipedia server for text output that can be parsed to create a wikAPIdia data object
      * sets the class attribute queryResult to the value of this raw output
-     * @return
+     * @param query the query string, without the endpoint
      * @throws org.wikapidia.core.dao.DaoException
      */
-    private void getRawQueryText(String url) throws DaoException {
-        String info = new String();
-        InputStream inputStr;
-
-        try{
-            inputStr = new URL(url).openStream();
-            try {
-                info = IOUtils.toString(inputStr);
-            }
-            catch(Exception e){
-                throw new DaoException("Error parsing URL");
-            }
-            finally {
-                IOUtils.closeQuietly(inputStr);
-            }
+    private void getRawQueryText(String query) throws DaoException {
+        try {
+            queryResult = transport.get(lang, query);
+        } catch (IOException e) {
+            throw new DaoException("Error getting page from the Wikipedia Server", e);
         }
-        catch(Exception e){
-            throw new DaoException("Error getting page from the Wikipedia Server ");
+    }
+
+    /**
+     * Builds a key that identifies a query regardless of the order of its parameters.
+     * @param lang
+     * @param query the query string, without the endpoint
+     * @return the language code and the sorted, non-empty parameters
+     */
+    public static String normalizeQuery(Language lang, String query) {
+        List<String> params = new ArrayList<String>();
+        for (String param : query.split("&")) {
+            if (!param.isEmpty()) {
+                params.add(param);
+            }
         }
+        Collections.sort(params);
+        return lang.getLangCode() + "?" + StringUtils.join(params, "&");
+    }
 
-        queryResult = info;
+    public static LiveTransport getDefaultTransport() {
+        return defaultTransport;
+    }
+
+    /**
+     * Sets the transport used by queries whose builder does not set one, and by
+     * live DAOs created without one. Configured live DAOs are given their transport.
+     * @param transport
+     */
+    public static void setDefaultTransport(LiveTransport transport) {
+        defaultTransport = transport;
+    }
+
+    /**
+     * Returns the transport named by the "transport" key of a live DAO's configuration,
+     * or the default transport configuration. The configurator creates each named
+     * transport once, so DAOs that name the same transport share it.
+     * @param configurator
+     * @param config the configuration of a live DAO
+     * @throws ConfigurationException
+     */
+    public static LiveTransport getConfiguredTransport(Configurator configurator, Config config) throws ConfigurationException {
+        String name = config.hasPath("transport") ? config.getString("transport") : null;
+        return configurator.get(LiveTransport.class, name);
     }
 
     //Builder used by client DAOs to create instances of LiveAPIQuery
@@ -231,6 +299,7 @@ public class LiveAPIQuery {
         private String filterredir;
         private String from;
         private Integer namespace;
+        private LiveTransport transport;
         private Map<String, Integer> queryTypeMap = new HashMap<String, Integer>();
 
         public LiveAPIQueryBuilder(String queryType, Language lang) {
@@ -289,6 +358,11 @@ public class LiveAPIQuery {
             return this;
         }
 
+        public LiveAPIQueryBuilder setTransport(LiveTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
         public LiveAPIQuery build() {
             return new LiveAPIQuery(this);
         }
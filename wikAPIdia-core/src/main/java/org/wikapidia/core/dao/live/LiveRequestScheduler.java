@@ -0,0 +1,155 @@
+package org.wikapidia.core.dao.live;
+
+import com.typesafe.config.Config;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.utils.Function;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the requests of the live DAOs with a bounded number of requests in flight.
+ *
+ * The threads are shared by all live DAOs, so the bound applies to the whole process
+ * and the Wikipedia servers never see more than a few connections from it at once.
+ * Idle threads exit after a minute. Unlike ParallelForEach, a failed request is not
+ * swallowed: the remaining requests are cancelled and the failure is rethrown.
+ */
+public class LiveRequestScheduler {
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    private static volatile LiveRequestScheduler defaultScheduler =
+            new LiveRequestScheduler(DEFAULT_MAX_CONCURRENT_REQUESTS);
+
+    // schedulers shared by the live DAOs configured with the same bound
+    private static final Map<Integer, LiveRequestScheduler> shared = new HashMap<Integer, LiveRequestScheduler>();
+
+    private final int maxConcurrentRequests;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param maxConcurrentRequests The maximum number of requests in flight.
+     */
+    public LiveRequestScheduler(int maxConcurrentRequests) {
+        if (maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("invalid number of concurrent requests: " + maxConcurrentRequests);
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                maxConcurrentRequests, maxConcurrentRequests, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "live-request-" + counter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static LiveRequestScheduler getDefault() {
+        return defaultScheduler;
+    }
+
+    /**
+     * Sets the scheduler used by the live DAOs. Requests already running on the old
+     * scheduler finish normally, and its threads exit once idle.
+     * @param scheduler
+     */
+    public static void setDefault(LiveRequestScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    /**
+     * Returns the scheduler for the "maxConcurrentRequests" key of a live DAO's
+     * configuration, or the default scheduler if there is no such key. Live DAOs
+     * configured with the same bound share a scheduler.
+     * @param config the configuration of a live DAO
+     */
+    public static LiveRequestScheduler getConfiguredScheduler(Config config) {
+        if (!config.hasPath("maxConcurrentRequests")) {
+            return getDefault();
+        }
+        int n = config.getInt("maxConcurrentRequests");
+        if (n == DEFAULT_MAX_CONCURRENT_REQUESTS) {
+            return getDefault();
+        }
+        synchronized (shared) {
+            if (!shared.containsKey(n)) {
+                shared.put(n, new LiveRequestScheduler(n));
+            }
+            return shared.get(n);
+        }
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Applies a function to each item, running at most the maximum number of
+     * concurrent requests at once. A single item runs on the calling thread.
+     *
+     * @param items
+     * @param fn A function that issues one or more requests. It must not call map()
+     *           itself, or it may wait for threads that are waiting for it.
+     * @return The results, in the order of the items.
+     * @throws DaoException If any call failed. Calls that had not finished are cancelled.
+     */
+    public <T, R> List<R> map(List<T> items, final Function<T, R> fn) throws DaoException {
+        List<R> results = new ArrayList<R>();
+        if (items.size() == 1) {
+            results.add(call(fn, items.get(0)));
+            return results;
+        }
+        List<Future<R>> futures = new ArrayList<Future<R>>();
+        try {
+            for (final T item : items) {
+                futures.add(executor.submit(new Callable<R>() {
+                    @Override
+                    public R call() throws Exception {
+                        return fn.call(item);
+                    }
+                }));
+            }
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("interrupted while waiting for live requests", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DaoException) {
+                throw (DaoException) cause;
+            }
+            throw new DaoException("live request failed", e);
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T, R> R call(Function<T, R> fn, T item) throws DaoException {
+        try {
+            return fn.call(item);
+        } catch (DaoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DaoException("live request failed", e);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,26 @@
+package org.wikapidia.core.dao.live;
+
+import org.wikapidia.core.lang.Language;
+
+import java.io.IOException;
+
+/**
+ * Sends MediaWiki API queries for the live DAOs and returns the raw responses.
+ *
+ * The default transport talks to Wikipedia over HTTP. Other transports cache
+ * responses or replay recorded ones, so tests and benchmarks can run offline.
+ * Each live DAO takes its transport as a constructor argument.
+ *
+ * @see LocalLinkLiveDao#LocalLinkLiveDao(LiveTransport, LiveRequestScheduler)
+ * @see RedirectLiveDao#RedirectLiveDao(LiveTransport)
+ */
+public interface LiveTransport {
+
+    /**
+     * @param language The language edition of Wikipedia to query.
+     * @param query The query string of an API request, without the leading "?".
+     * @return The body of the response.
+     * @throws IOException
+     */
+    public String get(Language language, String query) throws IOException;
+}
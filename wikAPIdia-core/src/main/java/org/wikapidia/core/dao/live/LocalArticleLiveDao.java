@@ -25,6 +25,10 @@ public class LocalArticleLiveDao extends LocalPageLiveDao<LocalArticle> implemen
     public LocalArticleLiveDao() throws DaoException {
         super();
     }
+
+    public LocalArticleLiveDao(LiveTransport transport, LiveRequestScheduler scheduler) throws DaoException {
+        super(transport, scheduler);
+    }
     /**
      * Returns a LocalArticle based on language and title, with namespace assumed as ARTICLE.
      *
@@ -70,7 +74,9 @@ public class LocalArticleLiveDao extends LocalPageLiveDao<LocalArticle> implemen
                 return null;
             }
             try{
-                return new LocalArticleLiveDao();
+                return new LocalArticleLiveDao(
+                        LiveAPIQuery.getConfiguredTransport(getConfigurator(), config),
+                        LiveRequestScheduler.getConfiguredScheduler(config));
             }
             catch (DaoException e) {
                 throw new ConfigurationException(e);
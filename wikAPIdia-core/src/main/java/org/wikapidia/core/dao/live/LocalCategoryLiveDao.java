@@ -20,10 +20,14 @@ import java.util.Map;
  */
 public class LocalCategoryLiveDao extends LocalPageLiveDao<LocalCategory> implements LocalCategoryDao {
 
-    public LocalCategoryLiveDao() throws DaoException{
+    public LocalCategoryLiveDao() throws DaoException {
         super();
     }
 
+    public LocalCategoryLiveDao(LiveTransport transport, LiveRequestScheduler scheduler) throws DaoException {
+        super(transport, scheduler);
+    }
+
     /**
      * Returns a LocalCategory based on language and title, with namespace assumed as CATEGORY.
      *
@@ -74,7 +78,9 @@ public class LocalCategoryLiveDao extends LocalPageLiveDao<LocalCategory> implem
                 return null;
             }
             try {
-                return new LocalCategoryLiveDao();
+                return new LocalCategoryLiveDao(
+                        LiveAPIQuery.getConfiguredTransport(getConfigurator(), config),
+                        LiveRequestScheduler.getConfiguredScheduler(config));
 
             } catch (DaoException e) {
                 throw new ConfigurationException(e);
@@ -21,8 +21,27 @@ import java.util.*;
  */
 public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
 
-    public LocalCategoryMemberLiveDao() throws DaoException{
+    private final LiveTransport transport;
+    private final LiveRequestScheduler scheduler;
 
+    /**
+     * Uses the default transport and request scheduler.
+     */
+    public LocalCategoryMemberLiveDao() throws DaoException {
+        this(LiveAPIQuery.getDefaultTransport(), LiveRequestScheduler.getDefault());
+    }
+
+    /**
+     * @param transport Sends the queries of this DAO.
+     * @param scheduler Runs the concurrent requests of this DAO.
+     */
+    public LocalCategoryMemberLiveDao(LiveTransport transport, LiveRequestScheduler scheduler) throws DaoException {
+        this.transport = transport;
+        this.scheduler = scheduler;
+    }
+
+    private LiveAPIQuery.LiveAPIQueryBuilder newQuery(String queryType, Language language) {
+        return new LiveAPIQuery.LiveAPIQueryBuilder(queryType, language).setTransport(transport);
     }
 
 
@@ -68,7 +87,7 @@ public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
      * @throws DaoException
      */
     public Collection<Integer> getCategoryMemberIds(Language language, int categoryId) throws DaoException {
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("CATEGORYMEMBERS", language)
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("CATEGORYMEMBERS", language)
                 .addPageid(categoryId);
         List<QueryReply> replies = builder.build().getValuesFromQueryResult();
         List<Integer> categoryMemberIds = new ArrayList<Integer>();
@@ -98,7 +117,7 @@ public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
      */
     public Map<Integer, LocalPage> getCategoryMembers(Language language, int categoryId) throws DaoException {
         Collection<Integer> articleIds = getCategoryMemberIds(language, categoryId);
-        LocalPageLiveDao dao = new LocalPageLiveDao();
+        LocalPageLiveDao dao = new LocalPageLiveDao(transport, scheduler);
         return dao.getByIds(language, articleIds);
     }
 
@@ -110,7 +129,7 @@ public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
      */
     public Map<Integer, LocalPage> getCategoryMembers(LocalCategory localCategory) throws DaoException {
         Collection<Integer> articleIds = getCategoryMemberIds(localCategory);
-        LocalPageLiveDao dao = new LocalPageLiveDao();
+        LocalPageLiveDao dao = new LocalPageLiveDao(transport, scheduler);
         return dao.getByIds(localCategory.getLanguage(), articleIds);
     }
 
@@ -122,7 +141,7 @@ public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
      * @throws DaoException
      */
     public Collection<Integer> getCategoryIds(Language language, int articleId) throws DaoException {
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("CATEGORIES", language).addPageid(articleId);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("CATEGORIES", language).addPageid(articleId);
         List<Integer> categoryIdsList = new ArrayList<Integer>();
         List<QueryReply> replies = builder.build().getValuesFromQueryResult();
         for (QueryReply reply : replies) {
@@ -152,7 +171,7 @@ public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
     @Override
     public Map<Integer, LocalCategory> getCategories(Language language, int articleId) throws DaoException {
         Collection<Integer> categoryIds = getCategoryIds(language, articleId);
-        LocalCategoryLiveDao dao = new LocalCategoryLiveDao();
+        LocalCategoryLiveDao dao = new LocalCategoryLiveDao(transport, scheduler);
         return dao.getByIds(language, categoryIds);
     }
 
@@ -165,7 +184,7 @@ public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
     @Override
     public Map<Integer, LocalCategory> getCategories(LocalPage localArticle) throws DaoException {
         Collection<Integer> categoryIds = getCategoryIds(localArticle);
-        LocalCategoryLiveDao dao = new LocalCategoryLiveDao();
+        LocalCategoryLiveDao dao = new LocalCategoryLiveDao(transport, scheduler);
         return dao.getByIds(localArticle.getLanguage(), categoryIds);
     }
 
@@ -192,7 +211,9 @@ public class LocalCategoryMemberLiveDao implements LocalCategoryMemberDao{
                 return null;
             }
             try {
-                return new LocalCategoryMemberLiveDao();
+                return new LocalCategoryMemberLiveDao(
+                        LiveAPIQuery.getConfiguredTransport(getConfigurator(), config),
+                        LiveRequestScheduler.getConfiguredScheduler(config));
             } catch (DaoException e) {
                 throw new ConfigurationException(e);
             }
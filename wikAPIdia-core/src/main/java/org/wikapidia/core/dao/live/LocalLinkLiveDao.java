@@ -16,6 +16,7 @@ import org.wikapidia.core.lang.Language;
 import org.wikapidia.core.lang.LanguageSet;
 import org.wikapidia.core.model.LocalLink;
 import org.wikapidia.core.model.Title;
+import org.wikapidia.utils.Function;
 
 import java.util.*;
 
@@ -28,7 +29,28 @@ import java.util.*;
  */
 public class LocalLinkLiveDao implements LocalLinkDao {
 
-    public LocalLinkLiveDao() throws DaoException {}
+    private final LiveTransport transport;
+    private final LiveRequestScheduler scheduler;
+
+    /**
+     * Uses the default transport and request scheduler.
+     */
+    public LocalLinkLiveDao() throws DaoException {
+        this(LiveAPIQuery.getDefaultTransport(), LiveRequestScheduler.getDefault());
+    }
+
+    /**
+     * @param transport Sends the queries of this DAO.
+     * @param scheduler Runs the concurrent requests of this DAO.
+     */
+    public LocalLinkLiveDao(LiveTransport transport, LiveRequestScheduler scheduler) throws DaoException {
+        this.transport = transport;
+        this.scheduler = scheduler;
+    }
+
+    private LiveAPIQuery.LiveAPIQueryBuilder newQuery(String queryType, Language language) {
+        return new LiveAPIQuery.LiveAPIQueryBuilder(queryType, language).setTransport(transport);
+    }
 
     //Notice: A DaoException will be thrown if you call the methods below!
     public void clear()throws DaoException{
@@ -61,56 +83,76 @@ public class LocalLinkLiveDao implements LocalLinkDao {
         if(a.getSourceIds() == null && a.getDestIds() == null)
             throw new UnsupportedOperationException("Can't use this method for remote wiki server!");
         else if (a.getSourceIds() != null && a.getDestIds() == null){
-            Set<LocalLink> set = new HashSet<LocalLink>();
-            for (short langId : a.getLangIds()){
-                for (int srcId : a.getSourceIds()){
-                    for(LocalLink link: getLinks(Language.getById(langId), srcId, true))
-                        set.add(link);
-                }
-            }
-            return set;
+            return inSourceIdRange(getLinks(a.getLangIds(), a.getSourceIds(), true), a);
         }
         else if (a.getSourceIds() == null && a.getDestIds() != null){
-            Set<LocalLink> set = new HashSet<LocalLink>();
-            for (short langId : a.getLangIds()){
-                for (int dstId : a.getDestIds()){
-                    for(LocalLink link: getLinks(Language.getById(langId), dstId, false))
-                        set.add(link);
-                }
-            }
-            return set;
+            return inSourceIdRange(getLinks(a.getLangIds(), a.getDestIds(), false), a);
         }
         else{
-            Set<LocalLink> inSet = new HashSet<LocalLink>();
-            for (short langId : a.getLangIds()){
-                for (int srcId : a.getSourceIds()){
-                    for(LocalLink link: getLinks(Language.getById(langId), srcId, true))
-                        inSet.add(link);
-                }
-            }
-            Set<LocalLink> outSet = new HashSet<LocalLink>();
-            for (short langId : a.getLangIds()){
-                for (int dstId : a.getDestIds()){
-                    for(LocalLink link: getLinks(Language.getById(langId), dstId, false))
-                        outSet.add(link);
-                }
-            }
+            Set<LocalLink> inSet = getLinks(a.getLangIds(), a.getSourceIds(), true);
+            Set<LocalLink> outSet = getLinks(a.getLangIds(), a.getDestIds(), false);
             Set<LocalLink> interSec = new HashSet<LocalLink>();
             for (LocalLink link: inSet){
                 if (outSet.contains(link))
                     interSec.add(link);
             }
-            return interSec;
+            return inSourceIdRange(interSec, a);
+        }
+
+    }
+
+    /**
+     * Removes the links whose source ids are outside the filter's source id range,
+     * so that partitions of a language by source id range stay disjoint.
+     */
+    private Set<LocalLink> inSourceIdRange(Set<LocalLink> links, DaoFilter a) {
+        if (a.getMinSourceId() == null && a.getMaxSourceId() == null) {
+            return links;
+        }
+        Set<LocalLink> inRange = new HashSet<LocalLink>();
+        for (LocalLink link : links) {
+            if ((a.getMinSourceId() == null || link.getSourceId() >= a.getMinSourceId())
+            &&  (a.getMaxSourceId() == null || link.getSourceId() < a.getMaxSourceId())) {
+                inRange.add(link);
+            }
         }
+        return inRange;
+    }
 
+    /**
+     * Fetches the links of many pages. The server cannot list the links of several pages
+     * in one request without losing track of which page each link belongs to, so each
+     * page is a separate request, and the requests run concurrently on the default
+     * LiveRequestScheduler.
+     */
+    private Set<LocalLink> getLinks(Collection<Short> langIds, Collection<Integer> localIds, final boolean outlinks) throws DaoException {
+        Set<LocalLink> set = new HashSet<LocalLink>();
+        for (short langId : langIds){
+            final Language language = Language.getById(langId);
+            List<Iterable<LocalLink>> results = scheduler.map(
+                    new ArrayList<Integer>(localIds),
+                    new Function<Integer, Iterable<LocalLink>>() {
+                        @Override
+                        public Iterable<LocalLink> call(Integer localId) throws Exception {
+                            return getLinks(language, localId, outlinks);
+                        }
+                    });
+            for (Iterable<LocalLink> links : results) {
+                for (LocalLink link : links) {
+                    set.add(link);
+                }
+            }
+        }
+        return set;
     }
+
     public LanguageSet getLoadedLanguages() throws DaoException {
         throw new UnsupportedOperationException("Can't use this method for remote wiki server!");
     }
     
     public LocalLink getLink(Language language, int sourceId, int destId) throws DaoException {
         //get list of pageids and titles of all outlinks from sourceId
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("LINKS", language);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("LINKS", language);
         builder.addPageid(sourceId);
         LiveAPIQuery query = builder.build();
         List<QueryReply> replyObjects = query.getValuesFromQueryResult();
@@ -135,10 +177,10 @@ public class LocalLinkLiveDao implements LocalLinkDao {
         List<LocalLink> links = new ArrayList<LocalLink>();
         LiveAPIQuery.LiveAPIQueryBuilder builder;
         if (outlinks) {
-            builder = new LiveAPIQuery.LiveAPIQueryBuilder("LINKS", language);
+            builder = newQuery("LINKS", language);
         }
         else {
-            builder = new LiveAPIQuery.LiveAPIQueryBuilder("BACKLINKS", language);
+            builder = newQuery("BACKLINKS", language);
         }
         builder.addPageid(localId);
         LiveAPIQuery query = builder.build();
@@ -174,7 +216,9 @@ public class LocalLinkLiveDao implements LocalLinkDao {
                 return null;
             }
             try {
-                return new LocalLinkLiveDao();
+                return new LocalLinkLiveDao(
+                        LiveAPIQuery.getConfiguredTransport(getConfigurator(), config),
+                        LiveRequestScheduler.getConfiguredScheduler(config));
 
             } catch (DaoException e) {
                 throw new ConfigurationException(e);
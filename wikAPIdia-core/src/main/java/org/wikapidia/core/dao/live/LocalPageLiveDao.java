@@ -19,6 +19,7 @@ import org.wikapidia.core.model.NameSpace;
 import org.wikapidia.core.model.LocalPage;
 
 import org.wikapidia.core.model.Title;
+import org.wikapidia.utils.Function;
 
 import java.util.*;
 
@@ -40,7 +41,27 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
 
     private boolean followRedirects = true;
 
+    private final LiveTransport transport;
+    private final LiveRequestScheduler scheduler;
+
+    /**
+     * Uses the default transport and request scheduler.
+     */
     public LocalPageLiveDao() throws DaoException {
+        this(LiveAPIQuery.getDefaultTransport(), LiveRequestScheduler.getDefault());
+    }
+
+    /**
+     * @param transport Sends the queries of this DAO.
+     * @param scheduler Runs the concurrent requests of this DAO.
+     */
+    public LocalPageLiveDao(LiveTransport transport, LiveRequestScheduler scheduler) throws DaoException {
+        this.transport = transport;
+        this.scheduler = scheduler;
+    }
+
+    private LiveAPIQuery.LiveAPIQueryBuilder newQuery(String queryType, Language language) {
+        return new LiveAPIQuery.LiveAPIQueryBuilder(queryType, language).setTransport(transport);
     }
 
     //Notice: A DaoException will be thrown if you call the methods below!
@@ -82,7 +103,7 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
 
     public T getByTitle(Title title, NameSpace ns) throws DaoException{
         Language lang = title.getLanguage();
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", lang)
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("INFO", lang)
                 .addTitle(title.getCanonicalTitle().replace(" ", "_")).setRedirects(followRedirects);
         QueryReply info = builder.build().getValuesFromQueryResult().get(0);
         return (T)info.getLocalPage(lang);
@@ -90,49 +111,121 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
 
 
     public T getById(Language language, int pageId) throws DaoException{
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", language)
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("INFO", language)
                 .addPageid(pageId).setRedirects(followRedirects);
         QueryReply info = builder.build().getValuesFromQueryResult().get(0);
         return (T)info.getLocalPage(language);
     }
 
     /**
-     * Get a set of pages by their ids
+     * Get a set of pages by their ids. Ids are requested in batches of up to
+     * LiveAPIQuery.MAX_BATCH_SIZE, and the batches run concurrently on the default
+     * LiveRequestScheduler. Ids of missing pages are left out of the map.
      * @param language the language of the pages
      * @param pageIds a Collection of page ids
      * @return a map of ids to pages
      * @throws org.wikapidia.core.dao.DaoException if there was an error retrieving the pages
      */
-    public Map<Integer, T> getByIds(Language language, Collection<Integer> pageIds) throws DaoException{
+    public Map<Integer, T> getByIds(final Language language, Collection<Integer> pageIds) throws DaoException{
+        List<List<Integer>> batches = LiveAPIQuery.partition(new ArrayList<Integer>(new LinkedHashSet<Integer>(pageIds)));
+        List<Map<Integer, T>> results = scheduler.map(batches, new Function<List<Integer>, Map<Integer, T>>() {
+            @Override
+            public Map<Integer, T> call(List<Integer> batch) throws Exception {
+                return getBatchByIds(language, batch);
+            }
+        });
         Map<Integer,T> pageMap = new HashMap<Integer, T>();
-        for(Integer pageId : pageIds){
-            LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", language)
-                    .addPageid(pageId).setRedirects(followRedirects);
-            QueryReply info = builder.build().getValuesFromQueryResult().get(0);
-            pageMap.put(pageId, (T)info.getLocalPage(language));
+        for (Map<Integer, T> result : results) {
+            pageMap.putAll(result);
         }
         return pageMap;
     }
 
     /**
-     * Get a map of pages by their titles
+     * Get a map of pages by their titles. Titles are requested in batches of up to
+     * LiveAPIQuery.MAX_BATCH_SIZE, and the batches run concurrently on the default
+     * LiveRequestScheduler. Titles of missing pages are left out of the map.
      * @param language the language of the pages
      * @param titles a Collection of page titles
      * @param ns the namespace of the pages
      * @return a map of titles to pages
      * @throws org.wikapidia.core.dao.DaoException if there was an error retrieving the pages
      */
-    public Map<Title, T> getByTitles(Language language, Collection<Title> titles, NameSpace ns) throws DaoException{
+    public Map<Title, T> getByTitles(final Language language, Collection<Title> titles, NameSpace ns) throws DaoException{
+        Map<String, Title> requested = new LinkedHashMap<String, Title>();
+        for (Title title : titles) {
+            requested.put(title.getCanonicalTitle().replace(" ", "_"), title);
+        }
+        List<List<String>> batches = LiveAPIQuery.partition(new ArrayList<String>(requested.keySet()));
+        List<Map<String, T>> results = scheduler.map(batches, new Function<List<String>, Map<String, T>>() {
+            @Override
+            public Map<String, T> call(List<String> batch) throws Exception {
+                return getBatchByTitles(language, batch, followRedirects);
+            }
+        });
         Map<Title, T> pageMap = new HashMap<Title, T>();
-        for(Title title : titles){
-            LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", language)
-                    .addTitle(title.getCanonicalTitle().replace(" ", "_")).setRedirects(followRedirects);
-            QueryReply info = builder.build().getValuesFromQueryResult().get(0);
-            pageMap.put(title, (T)info.getLocalPage(language));
+        for (Map<String, T> result : results) {
+            for (Map.Entry<String, T> entry : result.entrySet()) {
+                pageMap.put(requested.get(entry.getKey()), entry.getValue());
+            }
         }
         return pageMap;
     }
 
+    /**
+     * Fetches one batch of pages by id. If redirects are followed, the targets of the
+     * redirects in the batch are fetched with a second request by title, because the
+     * server only reports redirects by title.
+     */
+    private Map<Integer, T> getBatchByIds(Language language, List<Integer> pageIds) throws DaoException {
+        LiveAPIQuery query = newQuery("INFO", language)
+                .setPageids(pageIds).build();
+        Map<Integer, T> pages = new HashMap<Integer, T>();
+        Map<String, Integer> redirects = new HashMap<String, Integer>();
+        for (QueryReply reply : query.getValuesFromQueryResult()) {
+            if (reply.pageId < 0 || reply.nameSpace < 0) {
+                continue;   // missing
+            }
+            if (followRedirects && reply.isRedirect) {
+                redirects.put(reply.title.replace(" ", "_"), reply.pageId);
+            } else {
+                pages.put(reply.pageId, (T)reply.getLocalPage(language));
+            }
+        }
+        if (!redirects.isEmpty()) {
+            Map<String, T> targets = getBatchByTitles(language, new ArrayList<String>(redirects.keySet()), true);
+            for (Map.Entry<String, Integer> entry : redirects.entrySet()) {
+                T target = targets.get(entry.getKey());
+                if (target != null) {
+                    pages.put(entry.getValue(), target);
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Fetches one batch of pages by title.
+     * @return a map from each requested title to its page
+     */
+    private Map<String, T> getBatchByTitles(Language language, List<String> titles, boolean redirects) throws DaoException {
+        LiveAPIQuery query = newQuery("INFO", language)
+                .setTitles(titles).setRedirects(redirects).build();
+        Map<String, QueryReply> replies = new HashMap<String, QueryReply>();
+        for (QueryReply reply : query.getValuesFromQueryResult()) {
+            if (reply.pageId >= 0) {
+                replies.put(reply.title, reply);
+            }
+        }
+        Map<String, T> pages = new HashMap<String, T>();
+        for (String title : titles) {
+            QueryReply reply = replies.get(query.resolveTitle(title));
+            if (reply != null) {
+                pages.put(title, (T)reply.getLocalPage(language));
+            }
+        }
+        return pages;
+    }
 
     /**
      * Get an id from a title. Returns -1 if it doesn't exist.
@@ -142,7 +235,7 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
      * @return
      */
     public int getIdByTitle(String title, Language language, NameSpace nameSpace) throws DaoException{
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", language)
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("INFO", language)
                 .addTitle(title).setRedirects(followRedirects);
         QueryReply info = builder.build().getValuesFromQueryResult().get(0);
         return info.getId();
@@ -154,7 +247,7 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
      * @return
      */
     public int getIdByTitle(Title title) throws DaoException{
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", title.getLanguage())
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("INFO", title.getLanguage())
                 .addTitle(title.getCanonicalTitle().replace(" ", "_")).setRedirects(followRedirects);
         QueryReply info = builder.build().getValuesFromQueryResult().get(0);
         return info.getId();
@@ -168,7 +261,7 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
      */
     public TIntList getAllPageIdsInNamespace(Language lang, NameSpace ns) throws DaoException {
         TIntList pages = new TIntArrayList();
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("ALLPAGES", lang);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("ALLPAGES", lang);
         builder.setNamespace(ns.getValue());
         LiveAPIQuery query = builder.build();
         List<QueryReply> replyObjects = query.getValuesFromQueryResult();
@@ -188,7 +281,7 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
      */
     public TIntIntMap getAllPageIdNamespaceMappings(Language lang) throws DaoException {
         TIntIntMap pages = new TIntIntHashMap();
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("ALLPAGES", lang);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("ALLPAGES", lang);
         LiveAPIQuery query = builder.build();
         List<QueryReply> replyObjects = query.getValuesFromQueryResult();
 
@@ -220,7 +313,9 @@ public class LocalPageLiveDao<T extends LocalPage> implements LocalPageDao<T> {
                 return null;
             }
             try {
-                return new LocalPageLiveDao();
+                return new LocalPageLiveDao(
+                        LiveAPIQuery.getConfiguredTransport(getConfigurator(), config),
+                        LiveRequestScheduler.getConfiguredScheduler(config));
 
             } catch (DaoException e) {
                 throw new ConfigurationException(e);
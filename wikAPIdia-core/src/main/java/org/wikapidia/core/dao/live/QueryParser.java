@@ -65,6 +65,27 @@ public class QueryParser {
         }
     }
 
+    /**
+     * adds the title normalizations and redirects reported by a query result to a map
+     * @param queryResult raw text output of query
+     * @param mapping map from each requested title to the title it was normalized or redirected to
+     */
+    public void getTitleMapping(String queryResult, Map<String, String> mapping) {
+        JsonObject queryReplyObject = parseQueryObject(queryResult, "query");
+        if (queryReplyObject == null) {
+            return;
+        }
+        for (String section : new String[] {"normalized", "redirects"}) {
+            JsonElement elem = queryReplyObject.get(section);
+            if (elem != null && elem.isJsonArray()) {
+                for (JsonElement entry : elem.getAsJsonArray()) {
+                    JsonObject jo = entry.getAsJsonObject();
+                    mapping.put(jo.get("from").getAsString(), jo.get("to").getAsString());
+                }
+            }
+        }
+    }
+
     /**
      *
      * @param text raw query output JSON
@@ -29,7 +29,25 @@ import java.util.Map;
  */
 public class RedirectLiveDao implements RedirectDao {
 
-    public RedirectLiveDao() throws DaoException {}
+    private final LiveTransport transport;
+
+    /**
+     * Uses the default transport.
+     */
+    public RedirectLiveDao() throws DaoException {
+        this(LiveAPIQuery.getDefaultTransport());
+    }
+
+    /**
+     * @param transport Sends the queries of this DAO.
+     */
+    public RedirectLiveDao(LiveTransport transport) throws DaoException {
+        this.transport = transport;
+    }
+
+    private LiveAPIQuery.LiveAPIQueryBuilder newQuery(String queryType, Language language) {
+        return new LiveAPIQuery.LiveAPIQueryBuilder(queryType, language).setTransport(transport);
+    }
 
     //Notice: A DaoException will be thrown if you call the methods below!
     public void clear()throws DaoException{
@@ -60,7 +78,7 @@ public class RedirectLiveDao implements RedirectDao {
 
     public Integer resolveRedirect(Language lang, int id) throws DaoException {
         //get pageid of page that id redirects to
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", lang);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("INFO", lang);
         builder.addPageid(id).setRedirects(true);
         LiveAPIQuery query = builder.build();
         int redirectId = query.getValuesFromQueryResult().get(0).pageId;
@@ -71,7 +89,7 @@ public class RedirectLiveDao implements RedirectDao {
     }
 
     public boolean isRedirect(Language lang, int id) throws DaoException {
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("INFO", lang);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("INFO", lang);
         builder.addPageid(id);
         LiveAPIQuery query = builder.build();
         return query.getValuesFromQueryResult().get(0).isRedirect;
@@ -85,7 +103,7 @@ public class RedirectLiveDao implements RedirectDao {
 
     public List<Integer> getRedirectsFromId(Language lang, int localId) throws DaoException {
         List<Integer> redirectIds = new ArrayList<Integer>();
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("BACKLINKS", lang);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("BACKLINKS", lang);
         builder.addPageid(localId).setFilterredir("redirects");
         LiveAPIQuery query = builder.build();
         List<QueryReply> replyObjects = query.getValuesFromQueryResult();
@@ -97,7 +115,7 @@ public class RedirectLiveDao implements RedirectDao {
 
     public TIntIntMap getAllRedirectIdsToDestIds(Language lang) throws DaoException {
         TIntIntMap redirects = new TIntIntHashMap();
-        LiveAPIQuery.LiveAPIQueryBuilder builder = new LiveAPIQuery.LiveAPIQueryBuilder("ALLPAGES", lang);
+        LiveAPIQuery.LiveAPIQueryBuilder builder = newQuery("ALLPAGES", lang);
         builder.setFilterredir("redirects").setFrom("");
         LiveAPIQuery query = builder.build();
         List<QueryReply> replyObjects = query.getValuesFromQueryResult();
@@ -131,7 +149,7 @@ public class RedirectLiveDao implements RedirectDao {
                 return null;
             }
             try {
-                return new RedirectLiveDao();
+                return new RedirectLiveDao(LiveAPIQuery.getConfiguredTransport(getConfigurator(), config));
 
             } catch (DaoException e) {
                 throw new ConfigurationException(e);
@@ -0,0 +1,108 @@
+package org.wikapidia.core.dao.live;
+
+import com.typesafe.config.Config;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.wikapidia.conf.Configuration;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
+import org.wikapidia.core.lang.Language;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers queries from a file of recorded responses, so the live DAOs can run offline
+ * and tests can run without network access.
+ *
+ * Each line of the file holds an escaped key, a tab, and the escaped response. Keys are
+ * the language and the normalized query, so the order of the query parameters does not
+ * matter. If a recorder is given, queries that are not in the file are sent to the
+ * recorder and their responses are appended to the file. Otherwise they fail.
+ */
+public class ReplayLiveTransport implements LiveTransport {
+    private final File file;
+    private final LiveTransport recorder;
+    private final Map<String, String> responses = new HashMap<String, String>();
+
+    /**
+     * @param file The recorded responses.
+     * @param recorder The transport used for queries that were not recorded, or null.
+     * @throws IOException If the file could not be read.
+     */
+    public ReplayLiveTransport(File file, LiveTransport recorder) throws IOException {
+        this.file = file;
+        this.recorder = recorder;
+        if (file.isFile()) {
+            for (String line : FileUtils.readLines(file, "UTF-8")) {
+                int i = line.indexOf('\t');
+                if (i > 0) {
+                    responses.put(
+                            StringEscapeUtils.unescapeJava(line.substring(0, i)),
+                            StringEscapeUtils.unescapeJava(line.substring(i + 1)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized String get(Language language, String query) throws IOException {
+        String key = LiveAPIQuery.normalizeQuery(language, query);
+        String response = responses.get(key);
+        if (response != null) {
+            return response;
+        }
+        if (recorder == null) {
+            throw new IOException("no recorded response for " + key + " in " + file);
+        }
+        response = recorder.get(language, query);
+        responses.put(key, response);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            out.write(StringEscapeUtils.escapeJava(key) + "\t" + StringEscapeUtils.escapeJava(response) + "\n");
+        } finally {
+            out.close();
+        }
+        return response;
+    }
+
+    /**
+     * @return The number of recorded responses.
+     */
+    public synchronized int size() {
+        return responses.size();
+    }
+
+    public static class Provider extends org.wikapidia.conf.Provider<LiveTransport> {
+        public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
+            super(configurator, config);
+        }
+
+        @Override
+        public Class getType() {
+            return LiveTransport.class;
+        }
+
+        @Override
+        public String getPath() {
+            return "dao.liveTransport";
+        }
+
+        @Override
+        public LiveTransport get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+            if (!config.getString("type").equals("replay")) {
+                return null;
+            }
+            LiveTransport recorder = null;
+            if (config.hasPath("recorder")) {
+                recorder = getConfigurator().get(LiveTransport.class, config.getString("recorder"));
+            }
+            try {
+                return new ReplayLiveTransport(new File(config.getString("path")), recorder);
+            } catch (IOException e) {
+                throw new ConfigurationException(e);
+            }
+        }
+    }
+}
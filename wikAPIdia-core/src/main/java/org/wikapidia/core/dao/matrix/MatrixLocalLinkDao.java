@@ -20,6 +20,7 @@ import org.wikapidia.utils.ObjectDb;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -86,7 +87,7 @@ public class MatrixLocalLinkDao implements LocalLinkDao {
         try {
             objectDbPath = File.createTempFile("local-links", "odb");
             FileUtils.forceDeleteOnExit(objectDbPath);
-            objectDb = new ObjectDb<int[]>(objectDbPath, true);
+            objectDb = new ObjectDb<int[]>(objectDbPath, true, ObjectDb.Mode.BULK_LOAD, new ObjectDb.IntArrayCodec());
 
             // Initialize object database with existing links
             if (matrix != null) {
@@ -149,12 +150,16 @@ public class MatrixLocalLinkDao implements LocalLinkDao {
             LOG.info("writing adjacency matrix rows");
             ValueConf vconf = new ValueConf();   // unused because there are no values.
             SparseMatrixWriter writer = new SparseMatrixWriter(getMatrixFile(), vconf);
+            writer.setCompressColumnIds(true);
             for (Pair<String, int[]> entry : objectDb) {
+                // sorted rows are written compressed
+                int dests[] = entry.getValue();
+                Arrays.sort(dests);
                 SparseMatrixRow row = new SparseMatrixRow(
                         vconf,
                         Integer.valueOf(entry.getKey()),
-                        entry.getValue(),
-                        new short[entry.getValue().length]
+                        dests,
+                        new short[dests.length]
                 );
                 writer.writeRow(row);
             }
@@ -233,6 +238,10 @@ public class MatrixLocalLinkDao implements LocalLinkDao {
         if (daoFilter.getLocTypes() != null || daoFilter.isParseable() != null) {
             return delegate.get(daoFilter);
         }
+        // or source id ranges
+        if (daoFilter.getMinSourceId() != null || daoFilter.getMaxSourceId() != null) {
+            return delegate.get(daoFilter);
+        }
 
         // collect link set
         List<LocalLink> links = new ArrayList<LocalLink>();
@@ -277,6 +286,10 @@ public class MatrixLocalLinkDao implements LocalLinkDao {
         if (daoFilter.getLocTypes() != null || daoFilter.isParseable() != null) {
             return delegate.getCount(daoFilter);
         }
+        // or source id ranges
+        if (daoFilter.getMinSourceId() != null || daoFilter.getMaxSourceId() != null) {
+            return delegate.getCount(daoFilter);
+        }
 
         // collect link count
         try {
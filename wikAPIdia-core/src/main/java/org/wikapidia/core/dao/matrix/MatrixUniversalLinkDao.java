@@ -0,0 +1,377 @@
+package org.wikapidia.core.dao.matrix;
+
+import com.typesafe.config.Config;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.wikapidia.conf.Configuration;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.dao.DaoFilter;
+import org.wikapidia.core.dao.UniversalLinkDao;
+import org.wikapidia.core.lang.LanguageSet;
+import org.wikapidia.core.model.UniversalLink;
+import org.wikapidia.core.model.UniversalLinkGroup;
+import org.wikapidia.matrix.*;
+import org.wikapidia.utils.ObjectDb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wraps a universal link dao delegate and builds a sparse adjacency matrix, its
+ * transpose, and the in and out degrees of every concept for each algorithm id.
+ *
+ * Rows and columns are universal ids. getOutlinkIds() and getInlinkIds() are
+ * answered from the matrices when the algorithm has been loaded.
+ *
+ * getLinks() and getNumLinks() give metrics direct access to the rows
+ * and degrees without building sets. Degrees count distinct concepts, while
+ * getCount() counts the delegate's links, so a pair of concepts linked in
+ * several languages counts once in a degree but several times in getCount().
+ *
+ * All other calls are delegated to the passed-in delegate.
+ *
+ * Note that this dao also loads the links into the delegate.
+ */
+public class MatrixUniversalLinkDao implements UniversalLinkDao {
+    private static final Logger LOG = Logger.getLogger(MatrixUniversalLinkDao.class.getName());
+    private static final Pattern MATRIX_NAME = Pattern.compile("links-(\\d+)\\.matrix");
+
+    private final File dir;
+    private UniversalLinkDao delegate;
+    private final TIntObjectMap<AlgorithmMatrices> matrices = new TIntObjectHashMap<AlgorithmMatrices>();
+
+    // used during building
+    private File objectDbPath = null;
+    private ObjectDb<int[]> objectDb = null;
+
+    public MatrixUniversalLinkDao(UniversalLinkDao delegate, File dir) throws DaoException {
+        this.delegate = delegate;
+        this.dir = dir;
+        dir.mkdirs();
+        try {
+            load();
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    /**
+     * The links of one algorithm id.
+     */
+    private static class AlgorithmMatrices {
+        SparseMatrix matrix;
+        SparseMatrix transpose;
+        Degrees outDegrees;
+        Degrees inDegrees;
+
+        AlgorithmMatrices(File matrixFile, File transposeFile) throws IOException {
+            matrix = new SparseMatrix(matrixFile);
+            transpose = new SparseMatrix(transposeFile);
+            outDegrees = new Degrees(matrix);
+            inDegrees = new Degrees(transpose);
+        }
+    }
+
+    /**
+     * The number of columns in each row of a matrix, computed in a single scan when
+     * the matrix is opened. Lookups are a binary search over the sorted row ids.
+     */
+    private static class Degrees {
+        final int ids[];
+        final int degrees[];
+
+        Degrees(SparseMatrix matrix) {
+            int n = matrix.getNumRows();
+            long packed[] = new long[n];
+            int i = 0;
+            for (SparseMatrixRow row : matrix) {
+                packed[i++] = ((long) row.getRowIndex() << 32) | row.getNumCols();
+            }
+            Arrays.sort(packed, 0, i);
+            ids = new int[i];
+            degrees = new int[i];
+            for (int j = 0; j < i; j++) {
+                ids[j] = (int) (packed[j] >> 32);
+                degrees[j] = (int) packed[j];
+            }
+        }
+
+        int get(int id) {
+            int i = Arrays.binarySearch(ids, id);
+            return (i < 0) ? 0 : degrees[i];
+        }
+    }
+
+    private void load() throws IOException {
+        File files[] = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Matcher m = MATRIX_NAME.matcher(file.getName());
+            if (!m.matches()) {
+                continue;
+            }
+            int algorithmId = Integer.valueOf(m.group(1));
+            if (!getTransposeFile(algorithmId).isFile()) {
+                LOG.warning("Matrix " + getTransposeFile(algorithmId) + " missing, disabling fast lookups.");
+                continue;
+            }
+            matrices.put(algorithmId, new AlgorithmMatrices(file, getTransposeFile(algorithmId)));
+        }
+        if (matrices.isEmpty()) {
+            LOG.warning("No universal link matrices in " + dir + ", disabling fast lookups.");
+        }
+    }
+
+    public File getMatrixFile(int algorithmId) {
+        return new File(dir, "links-" + algorithmId + ".matrix");
+    }
+
+    public File getTransposeFile(int algorithmId) {
+        return new File(dir, "links-" + algorithmId + "-transpose.matrix");
+    }
+
+    /**
+     * @return True if the links of the algorithm are in the matrices.
+     */
+    public boolean hasMatrix(int algorithmId) {
+        return matrices.containsKey(algorithmId);
+    }
+
+    /**
+     * Returns the universal ids linked to or from a concept as a matrix row.
+     * @param univId
+     * @param algorithmId
+     * @param outlinks If true, the row holds the outlinks, otherwise the inlinks.
+     * @return The row, or null if the concept has no such links.
+     * @throws IllegalArgumentException If the algorithm has no matrix.
+     */
+    public SparseMatrixRow getLinks(int univId, int algorithmId, boolean outlinks) throws DaoException {
+        AlgorithmMatrices m = getMatrices(algorithmId);
+        try {
+            return outlinks ? m.matrix.getRow(univId) : m.transpose.getRow(univId);
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    /**
+     * @param univId
+     * @param algorithmId
+     * @param outlinks If true, the out degree is returned, otherwise the in degree.
+     * @return The number of distinct concepts linked to or from a concept.
+     * @throws IllegalArgumentException If the algorithm has no matrix.
+     */
+    public int getNumLinks(int univId, int algorithmId, boolean outlinks) {
+        AlgorithmMatrices m = getMatrices(algorithmId);
+        return outlinks ? m.outDegrees.get(univId) : m.inDegrees.get(univId);
+    }
+
+    private AlgorithmMatrices getMatrices(int algorithmId) {
+        AlgorithmMatrices m = matrices.get(algorithmId);
+        if (m == null) {
+            throw new IllegalArgumentException("no universal link matrix for algorithm " + algorithmId);
+        }
+        return m;
+    }
+
+    @Override
+    public void beginLoad() throws DaoException {
+        delegate.beginLoad();
+        try {
+            objectDbPath = File.createTempFile("universal-links", "odb");
+            FileUtils.forceDeleteOnExit(objectDbPath);
+            objectDb = new ObjectDb<int[]>(objectDbPath, true, ObjectDb.Mode.BULK_LOAD, new ObjectDb.IntArrayCodec());
+
+            // Initialize object database with existing links
+            for (int algorithmId : matrices.keys()) {
+                for (SparseMatrixRow row : matrices.get(algorithmId).matrix) {
+                    objectDb.put(key(algorithmId, row.getRowIndex()), row.getColIndexes());
+                }
+            }
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    private static String key(int algorithmId, int sourceId) {
+        return algorithmId + "_" + sourceId;
+    }
+
+    @Override
+    public void save(UniversalLink item) throws DaoException {
+        delegate.save(item);
+        // skip red links
+        if (item.getDestId() < 0 || item.getSourceId() < 0) {
+            return;
+        }
+        String key = key(item.getAlgorithmId(), item.getSourceId());
+        try {
+            // loaders save from several threads
+            synchronized (objectDb) {
+                int[] val = objectDb.get(key);
+                objectDb.put(key, ArrayUtils.add(val, item.getDestId()));
+            }
+        } catch (IOException e) {
+            throw new DaoException(e);
+        } catch (ClassNotFoundException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    @Override
+    public void clear() throws DaoException {
+        delegate.clear();
+        for (int algorithmId : matrices.keys()) {
+            FileUtils.deleteQuietly(getMatrixFile(algorithmId));
+            FileUtils.deleteQuietly(getTransposeFile(algorithmId));
+        }
+        matrices.clear();
+    }
+
+    @Override
+    public void endLoad() throws DaoException {
+        delegate.endLoad();
+        objectDb.flush();
+
+        try {
+            LOG.info("writing universal adjacency matrix rows");
+            ValueConf vconf = new ValueConf();   // unused because there are no values.
+            TIntObjectMap<SparseMatrixWriter> writers = new TIntObjectHashMap<SparseMatrixWriter>();
+            for (Pair<String, int[]> entry : objectDb) {
+                String key = entry.getKey();
+                int i = key.indexOf('_');
+                int algorithmId = Integer.valueOf(key.substring(0, i));
+                if (!writers.containsKey(algorithmId)) {
+                    SparseMatrixWriter writer = new SparseMatrixWriter(getMatrixFile(algorithmId), vconf);
+                    writer.setCompressColumnIds(true);
+                    writers.put(algorithmId, writer);
+                }
+                // a concept pair is saved once for each language that links it
+                int dests[] = new TIntHashSet(entry.getValue()).toArray();
+                Arrays.sort(dests);
+                writers.get(algorithmId).writeRow(new SparseMatrixRow(
+                        vconf,
+                        Integer.valueOf(key.substring(i + 1)),
+                        dests,
+                        new short[dests.length]
+                ));
+            }
+            for (int algorithmId : writers.keys()) {
+                LOG.info("finalizing universal adjacency matrix for algorithm " + algorithmId);
+                writers.get(algorithmId).finish();
+
+                LOG.info("writing transpose of universal adjacency matrix for algorithm " + algorithmId);
+                SparseMatrix matrix = new SparseMatrix(getMatrixFile(algorithmId));
+                new SparseMatrixTransposer(matrix, getTransposeFile(algorithmId)).transpose();
+                matrices.put(algorithmId, new AlgorithmMatrices(getMatrixFile(algorithmId), getTransposeFile(algorithmId)));
+            }
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    @Override
+    public TIntSet getOutlinkIds(int sourceId, int algorithmId) throws DaoException {
+        if (!hasMatrix(algorithmId)) {
+            return delegate.getOutlinkIds(sourceId, algorithmId);
+        }
+        return toSet(getLinks(sourceId, algorithmId, true));
+    }
+
+    @Override
+    public TIntSet getInlinkIds(int destId, int algorithmId) throws DaoException {
+        if (!hasMatrix(algorithmId)) {
+            return delegate.getInlinkIds(destId, algorithmId);
+        }
+        return toSet(getLinks(destId, algorithmId, false));
+    }
+
+    private static TIntSet toSet(SparseMatrixRow row) {
+        if (row == null) {
+            return new TIntHashSet();
+        }
+        return new TIntHashSet(row.getColIndexes());
+    }
+
+    /**
+     * Counts the links stored by the delegate, which may hold one link per language
+     * for a pair of concepts. Use getNumLinks() for the number of distinct concepts.
+     */
+    @Override
+    public int getCount(DaoFilter daoFilter) throws DaoException {
+        return delegate.getCount(daoFilter);
+    }
+
+    @Override
+    public Iterable<UniversalLink> get(DaoFilter daoFilter) throws DaoException {
+        return delegate.get(daoFilter);
+    }
+
+    @Override
+    public LanguageSet getLoadedLanguages() throws DaoException {
+        return delegate.getLoadedLanguages();
+    }
+
+    @Override
+    public UniversalLinkGroup getOutlinks(int sourceId, int algorithmId) throws DaoException {
+        return delegate.getOutlinks(sourceId, algorithmId);
+    }
+
+    @Override
+    public UniversalLinkGroup getInlinks(int destId, int algorithmId) throws DaoException {
+        return delegate.getInlinks(destId, algorithmId);
+    }
+
+    @Override
+    public UniversalLink getUniversalLink(int sourceId, int destId, int algorithmId) throws DaoException {
+        return delegate.getUniversalLink(sourceId, destId, algorithmId);
+    }
+
+    public static class Provider extends org.wikapidia.conf.Provider<UniversalLinkDao> {
+        public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
+            super(configurator, config);
+        }
+
+        @Override
+        public Class<UniversalLinkDao> getType() {
+            return UniversalLinkDao.class;
+        }
+
+        @Override
+        public String getPath() {
+            return "dao.universalLink";
+        }
+
+        @Override
+        public MatrixUniversalLinkDao get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+            if (!config.getString("type").equals("matrix")) {
+                return null;
+            }
+            try {
+                return new MatrixUniversalLinkDao(
+                        getConfigurator().get(
+                                UniversalLinkDao.class,
+                                config.getString("delegate")),
+                        new File(config.getString("path"))
+                );
+            } catch (DaoException e) {
+                throw new ConfigurationException(e);
+            }
+        }
+    }
+}
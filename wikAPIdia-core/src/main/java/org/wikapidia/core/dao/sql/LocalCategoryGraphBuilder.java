@@ -1,6 +1,7 @@
 package org.wikapidia.core.dao.sql;
 
 import com.typesafe.config.Config;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntIntHashMap;
 import org.wikapidia.conf.Configuration;
 import org.wikapidia.conf.ConfigurationException;
@@ -31,17 +32,22 @@ public class LocalCategoryGraphBuilder {
      * @throws DaoException
      */
     public CategoryGraph build(Language language, LocalPageDao lpDao, LocalCategoryMemberDao lcmDao) throws DaoException {
-        CategoryGraph graph = new CategoryGraph(language);
+        GraphData graph = new GraphData(language);
         loadCategories(graph, lpDao);
         buildGraph(graph, lcmDao);
         computePageRanks(graph);
-        return graph;
+        return new CategoryGraph(language, graph.catIds, graph.cats, graph.catCosts, graph.minCost,
+                graph.catParentOffsets, graph.catParents,
+                graph.catChildOffsets, graph.catChildren,
+                graph.catPageOffsets, graph.catPages,
+                graph.pageIds, graph.pageCatOffsets, graph.pageCats);
     }
 
-    private void loadCategories(CategoryGraph graph, LocalPageDao lpDao) throws DaoException {
+    private void loadCategories(GraphData graph, LocalPageDao lpDao) throws DaoException {
         LOG.info("loading categories...");
         graph.catIndexes = new TIntIntHashMap();
         List<String> catList = new ArrayList<String>();
+        TIntArrayList catIdList = new TIntArrayList();
         Iterable<LocalPage> catIter = lpDao.get(new DaoFilter()
                 .setNameSpaces(NameSpace.CATEGORY)
                 .setLanguages(graph.language)
@@ -49,29 +55,26 @@ public class LocalCategoryGraphBuilder {
         for (LocalPage cat : catIter) {
             if (cat != null) {
                 catList.add(cat.getTitle().getCanonicalTitle());
+                catIdList.add(cat.getLocalId());
                 graph.catIndexes.put (cat.getLocalId(),graph.catIndexes.size());
             }
         }
         graph.cats = catList.toArray(new String[0]);
+        graph.catIds = catIdList.toArray();
         LOG.info("finished loading " + graph.cats.length + " categories");
     }
 
-    private void buildGraph(CategoryGraph graph, LocalCategoryMemberDao lcmDao) throws DaoException {
+    private void buildGraph(GraphData graph, LocalCategoryMemberDao lcmDao) throws DaoException {
         LOG.info("building category graph");
-        graph.catPages = new int[graph.catIndexes.size()][];
-        graph.catParents = new int[graph.catIndexes.size()][];
-        graph.catChildren = new int[graph.catIndexes.size()][];
-        graph.catCosts = new double[graph.catIndexes.size()];
+        int numCats = graph.catIndexes.size();
+        graph.catCosts = new double[numCats];
 
-        Arrays.fill(graph.catPages, new int[0]);
-        Arrays.fill(graph.catParents, new int[0]);
-        Arrays.fill(graph.catChildren, new int[0]);
-
-        // count reverse edges
+        // count edges
         int totalEdges = 0;
-        int numCatChildren[] = new int[graph.catIndexes.size()];
-        int numCatParents[] = new int[graph.catIndexes.size()];
-        int numCatPages[] = new int[graph.catIndexes.size()];
+        int numCatChildren[] = new int[numCats];
+        int numCatParents[] = new int[numCats];
+        int numCatPages[] = new int[numCats];
+        TIntIntHashMap numPageCats = new TIntIntHashMap();
 
         DaoFilter filter = new DaoFilter().setLanguages(graph.language);
         for (LocalCategoryMember lcm : lcmDao.get(filter)) {
@@ -83,44 +86,74 @@ public class LocalCategoryGraphBuilder {
             } else if (catIndex2 >= 0) {
                 numCatPages[catIndex2]++;
             }
+            if (catIndex2 >= 0) {
+                numPageCats.adjustOrPutValue(lcm.getArticleId(), 1, 1);
+            }
             totalEdges++;
         }
 
         // allocate space
-        for (int i = 0; i < graph.catIndexes.size(); i++) {
-            graph.catPages[i] = new int[numCatPages[i]];
-            graph.catChildren[i] = new int[numCatChildren[i]];
-            graph.catParents[i] = new int[numCatParents[i]];
+        graph.catChildOffsets = toOffsets(numCatChildren);
+        graph.catParentOffsets = toOffsets(numCatParents);
+        graph.catPageOffsets = toOffsets(numCatPages);
+        graph.catChildren = new int[graph.catChildOffsets[numCats]];
+        graph.catParents = new int[graph.catParentOffsets[numCats]];
+        graph.catPages = new int[graph.catPageOffsets[numCats]];
+
+        graph.pageIds = numPageCats.keys();
+        Arrays.sort(graph.pageIds);
+        int numPageCatsByIndex[] = new int[graph.pageIds.length];
+        for (int i = 0; i < graph.pageIds.length; i++) {
+            numPageCatsByIndex[i] = numPageCats.get(graph.pageIds[i]);
         }
+        numPageCats = null;
+        graph.pageCatOffsets = toOffsets(numPageCatsByIndex);
+        graph.pageCats = new int[graph.pageCatOffsets[graph.pageIds.length]];
 
-        // fill it
+        // fill it, moving each cursor from the end of its row to the start
         for (LocalCategoryMember lcm : lcmDao.get(filter)) {
             int catIndex1 = graph.getCategoryIndex(lcm.getArticleId());     // cat index for page (probably -1)
             int catIndex2 = graph.getCategoryIndex(lcm.getCategoryId());    // cat index for cat
             if (catIndex1 >= 0 && catIndex2 >= 0) {
-                graph.catChildren[catIndex2][--numCatChildren[catIndex2]] = catIndex1;
-                graph.catParents[catIndex1][--numCatParents[catIndex1]] = catIndex2;
+                graph.catChildren[graph.catChildOffsets[catIndex2] + --numCatChildren[catIndex2]] = catIndex1;
+                graph.catParents[graph.catParentOffsets[catIndex1] + --numCatParents[catIndex1]] = catIndex2;
             } else if (catIndex2 >= 0) {
-                graph.catPages[catIndex2][--numCatPages[catIndex2]] = lcm.getArticleId();
+                graph.catPages[graph.catPageOffsets[catIndex2] + --numCatPages[catIndex2]] = lcm.getArticleId();
+            }
+            if (catIndex2 >= 0) {
+                int pageIndex = graph.getPageIndex(lcm.getArticleId());
+                graph.pageCats[graph.pageCatOffsets[pageIndex] + --numPageCatsByIndex[pageIndex]] = catIndex2;
             }
         }
 
         for (int n : numCatChildren) { assert(n == 0); }
         for (int n : numCatPages) { assert(n == 0); }
         for (int n : numCatParents) { assert(n == 0); }
+        for (int n : numPageCatsByIndex) { assert(n == 0); }
         LOG.info("loaded " + totalEdges + " edges in category graph");
     }
 
-    public void computePageRanks(CategoryGraph graph) {
+    /**
+     * Converts per-row counts to CSR offsets.
+     * @param counts
+     * @return An array of length counts.length + 1 whose last entry is the total count.
+     */
+    private static int[] toOffsets(int counts[]) {
+        int offsets[] = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            offsets[i + 1] = offsets[i] + counts[i];
+        }
+        return offsets;
+    }
+
+    private void computePageRanks(GraphData graph) {
         LOG.info("computing category page ranks...");
 
         // initialize page rank
-        long sumCredits = graph.catPages.length;    // each category gets 1 credit to start
-        for (int i = 0; i < graph.catPages.length; i++) {
-            sumCredits += graph.catPages[i].length; // one more credit per page that references it.
-        }
-        for (int i = 0; i < graph.catPages.length; i++) {
-            graph.catCosts[i] = (1.0 + graph.catPages[i].length) / sumCredits;
+        int numCats = graph.getNumCategories();
+        long sumCredits = numCats + graph.catPages.length;    // each category gets 1 credit to start, one more per page that references it.
+        for (int i = 0; i < numCats; i++) {
+            graph.catCosts[i] = (1.0 + graph.getNumPages(i)) / sumCredits;
         }
 
         for (int i = 0; i < 20; i++) {
@@ -132,7 +165,7 @@ public class LocalCategoryGraphBuilder {
             }
         }
         Integer sortedIndexes[] = new Integer[graph.catCosts.length];
-        for (int i = 0; i < graph.catParents.length; i++) {
+        for (int i = 0; i < numCats; i++) {
             graph.catCosts[i] = 1.0/-Math.log(graph.catCosts[i]);
             sortedIndexes[i] = i;
         }
@@ -148,7 +181,7 @@ public class LocalCategoryGraphBuilder {
         });
 
         StringBuilder b = new StringBuilder();
-        for (int i = 0; i < 20; i++) {
+        for (int i = 0; i < Math.min(20, sortedIndexes.length); i++) {
             int j = sortedIndexes[i];
             b.append("" + i + ". " + graph.cats[j] + "=" + graph.catCosts[j]);
             b.append(", ");
@@ -160,22 +193,67 @@ public class LocalCategoryGraphBuilder {
     }
 
     private static final double DAMPING_FACTOR = 0.85;
-    public double onePageRankIteration(CategoryGraph graph) {
+    private double onePageRankIteration(GraphData graph) {
         double nextRanks [] = new double[graph.catCosts.length];
         Arrays.fill(nextRanks, (1.0 - DAMPING_FACTOR) / graph.catCosts.length);
-        for (int i = 0; i < graph.catParents.length; i++) {
-            int d = graph.catParents[i].length;   // degree
+        for (int i = 0; i < graph.getNumCategories(); i++) {
+            int d = graph.getNumParents(i);   // degree
             double pr = graph.catCosts[i];    // current page-rank
-            for (int j : graph.catParents[i]) {
-                nextRanks[j] += DAMPING_FACTOR * pr / d;
+            for (int k = graph.catParentOffsets[i]; k < graph.catParentOffsets[i + 1]; k++) {
+                nextRanks[graph.catParents[k]] += DAMPING_FACTOR * pr / d;
             }
         }
         double diff = 0.0;
-        for (int i = 0; i < graph.catParents.length; i++) {
+        for (int i = 0; i < graph.getNumCategories(); i++) {
             diff += Math.abs(graph.catCosts[i] - nextRanks[i]);
         }
         graph.catCosts = nextRanks;
         return diff;
     }
 
+    /**
+     * The arrays of a graph under construction.
+     */
+    private static class GraphData {
+        Language language;
+        TIntIntHashMap catIndexes;
+        int catIds[];
+        String cats[];
+        double catCosts[];
+        double minCost = -1;
+        int catParentOffsets[];
+        int catParents[];
+        int catChildOffsets[];
+        int catChildren[];
+        int catPageOffsets[];
+        int catPages[];
+        int pageIds[];
+        int pageCatOffsets[];
+        int pageCats[];
+
+        GraphData(Language language) {
+            this.language = language;
+        }
+
+        int getNumCategories() {
+            return cats.length;
+        }
+
+        int getCategoryIndex(int catId) {
+            return catIndexes.containsKey(catId) ?  catIndexes.get(catId) : -1;
+        }
+
+        int getPageIndex(int pageId) {
+            return Arrays.binarySearch(pageIds, pageId);
+        }
+
+        int getNumParents(int catIndex) {
+            return catParentOffsets[catIndex + 1] - catParentOffsets[catIndex];
+        }
+
+        int getNumPages(int catIndex) {
+            return catPageOffsets[catIndex + 1] - catPageOffsets[catIndex];
+        }
+    }
+
 }
@@ -12,9 +12,12 @@ import org.wikapidia.core.lang.Language;
 import org.wikapidia.core.model.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
@@ -24,6 +27,7 @@ import java.util.Map;
  *
  */
 public class LocalCategoryMemberSqlDao extends AbstractSqlDao<LocalCategoryMember> implements LocalCategoryMemberDao {
+    private static final Logger LOG = Logger.getLogger(LocalCategoryMemberSqlDao.class.getName());
 
     private static final TableField [] INSERT_FIELDS = new TableField[] {
             Tables.CATEGORY_MEMBERS.LANG_ID,
@@ -165,19 +169,41 @@ public class LocalCategoryMemberSqlDao extends AbstractSqlDao<LocalCategoryMembe
         return localCategoryDao.getByIds(localArticle.getLanguage(), categoryIds);
     }
 
+    /**
+     * Returns the category graph, memory-mapped from a binary file in the cache
+     * directory. The file is rebuilt when it is missing, stale, or has an older
+     * format version, and it is written under a temporary name and renamed so that
+     * other processes never map a partial file.
+     */
     @Override
     public CategoryGraph getGraph(Language language) throws DaoException {
-        String key = "cat-graph-" + language.getLangCode();
-        if (cache != null) {
-            CategoryGraph graph = (CategoryGraph) cache.get(key, LocalPage.class, LocalCategoryMember.class);
-            if (graph != null) {
-                return graph;
+        LocalCategoryGraphBuilder builder = new LocalCategoryGraphBuilder();
+        if (cache == null) {
+            return builder.build(language, localPageDao, this);
+        }
+        String key = "cat-graph-" + language.getLangCode() + ".bin";
+        File file = cache.getFile(key);
+        if (cache.isUpToDate(key, LocalPage.class, LocalCategoryMember.class)) {
+            try {
+                return CategoryGraph.read(file);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "rebuilding unreadable category graph " + file, e);
             }
         }
-        LocalCategoryGraphBuilder builder = new LocalCategoryGraphBuilder();
-        CategoryGraph graph =  builder.build(language, localPageDao, this);
-        cache.put(key, graph);
-        return graph;
+        CategoryGraph graph = builder.build(language, localPageDao, this);
+        try {
+            File tmp = File.createTempFile(key, ".tmp", file.getParentFile());
+            graph.write(tmp);
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("renaming " + tmp + " to " + file + " failed");
+                }
+            }
+            return CategoryGraph.read(file);
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
     }
 
     private Collection<Integer> extractIds(Result<Record> result, boolean categoryIds) {
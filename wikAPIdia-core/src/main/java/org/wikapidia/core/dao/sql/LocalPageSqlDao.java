@@ -178,7 +178,20 @@ public class LocalPageSqlDao<T extends LocalPage> extends AbstractSqlDao<T> impl
         }
         Map<Integer, T> map = new HashMap<Integer, T>();
         for (Integer pageId : pageIds){
-            map.put(pageId, getById(language, pageId));
+            map.put(pageId, null);
+        }
+        DSLContext context = getJooq();
+        try {
+            Cursor<Record> cursor = context.select().
+                    from(Tables.LOCAL_PAGE).
+                    where(Tables.LOCAL_PAGE.PAGE_ID.in(pageIds)).
+                    and(Tables.LOCAL_PAGE.LANG_ID.eq(language.getId())).
+                    fetchLazy(getFetchSize());
+            for (Record record : cursor) {
+                map.put(record.getValue(Tables.LOCAL_PAGE.PAGE_ID), (T)buildLocalPage(record));
+            }
+        } finally {
+            freeJooq(context);
         }
         return map;
     }
@@ -43,7 +43,17 @@ public class SqlCache {
     }
 
     /**
-     * Returns the object if it exists and is up to date, otherwise returns null.
+     * Returns the file in the cache directory for a named entry. Callers that
+     * manage their own file formats can write it directly and check it with isUpToDate().
+     * @param name
+     * @return
+     */
+    public File getFile(String name) {
+        return getCacheFile(name);
+    }
+
+    /**
+     * Returns true iff the named entry exists and is up to date.
      *
      * @param name Name of the object as passed to "put"
      * @param dependsOn List of classes the object depends on.
@@ -53,10 +63,10 @@ public class SqlCache {
      * @return
      * @throws DaoException
      */
-    public Object get(String name, Class ... dependsOn) throws DaoException {
+    public boolean isUpToDate(String name, Class ... dependsOn) throws DaoException {
         File cacheFile = getCacheFile(name);
         if (!cacheFile.isFile()) {
-            return null;
+            return false;
         }
         Date cacheTstamp = new Date(cacheFile.lastModified());
         for (Class klass : dependsOn) {
@@ -66,9 +76,27 @@ public class SqlCache {
             }
             Date tableTstamp = info.getLastUpdated();
             if (tableTstamp == null || tableTstamp.after(cacheTstamp)) {
-                return null;
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * Returns the object if it exists and is up to date, otherwise returns null.
+     *
+     * @param name Name of the object as passed to "put"
+     * @param dependsOn List of classes the object depends on.
+     *                  The cache is up to date iff for each class k in dependsOn:
+     *                  - The MetaInfoDao knows about k
+     *                  - The cache entry was created after k was last updated.
+     * @return
+     * @throws DaoException
+     */
+    public Object get(String name, Class ... dependsOn) throws DaoException {
+        if (!isUpToDate(name, dependsOn)) {
+            return null;
+        }
         try {
             FileInputStream fis = new FileInputStream(getCacheFile(name));
             ObjectInputStream ois = new ObjectInputStream(fis);
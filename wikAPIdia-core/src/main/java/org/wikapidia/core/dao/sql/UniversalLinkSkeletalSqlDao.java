@@ -53,14 +53,19 @@ public class UniversalLinkSkeletalSqlDao extends AbstractSqlDao<UniversalLink> i
             path = File.createTempFile("univ-links", "odb");
             if (path.isFile()) { path.delete(); }
             path.mkdirs();
-            objectDb = new ObjectDb<byte[]>(path, true);
+            objectDb = new ObjectDb<byte[]>(path, true, ObjectDb.Mode.BULK_LOAD, new ObjectDb.BytesCodec());
         } catch (IOException e) {
             throw new DaoException(e);
         }
     }
 
+    /**
+     * Merges the language set of the link into the pending entry for its ids.
+     * Synchronized because the read-modify-write on the object db must be atomic
+     * when links are loaded by several threads at once.
+     */
     @Override
-    public void save(UniversalLink item) throws DaoException {
+    public synchronized void save(UniversalLink item) throws DaoException {
         try {
             int sourceId = item.getSourceId();
             int destId = item.getDestId();
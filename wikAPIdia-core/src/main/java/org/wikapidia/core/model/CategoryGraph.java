@@ -1,41 +1,374 @@
 package org.wikapidia.core.model;
 
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.set.TIntSet;
 import org.wikapidia.core.lang.Language;
 
-import java.io.Serializable;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * A compact graph representation of the category structure.
  *
+ * Adjacency is stored in compressed sparse row (CSR) form: the neighbors of
+ * category index i are the entries of an index buffer between offsets[i] (inclusive)
+ * and offsets[i+1] (exclusive). Besides the category to category and category to
+ * page edges, the graph stores the reverse page to category edges for every member
+ * page (articles and categories alike), so a traversal can start from a page without
+ * consulting the database.
+ *
+ * All data lives in buffers. A graph built in memory wraps heap arrays, while a graph
+ * read from a file written by write() maps each section of the file read-only.
+ * A mapped graph is paged in by the operating system as it is accessed and is shared
+ * by all processes that map the same file, so it costs little heap and opens quickly.
+ *
  * The internals of this data structure are public for historical reasons.
  * TODO: It would probably be better to not expose the internal id scheme if it's not a performance hit.
  *
  * @author Matt Lesicko
  * @author Shilad Sen
  */
-public class CategoryGraph implements Serializable{
-    public Language language;
+public class CategoryGraph {
+    /**
+     * Version of the file format. Files written by other versions are rejected.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x43617447;     // "CatG"
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int HEADER_BYTES = 128;
+
+    public final Language language;
+    public final double minCost;
+
+    // Local page id of each category index.
+    public final IntBuffer catIds;
+
+    // Category local ids in sorted order and their category indexes.
+    public final IntBuffer sortedCatIds;
+    public final IntBuffer sortedCatIndexes;
+
+    public final DoubleBuffer catCosts;  // the cost of travelling through each category
+
+    // Parent category indexes of each category.
+    public final IntBuffer catParentOffsets;
+    public final IntBuffer catParents;
+
+    // Child category indexes of each category.
+    public final IntBuffer catChildOffsets;
+    public final IntBuffer catChildren;
+
+    // Local ids of the non-category member pages of each category.
+    public final IntBuffer catPageOffsets;
+    public final IntBuffer catPages;
+
+    // Sorted local ids of all member pages and the category indexes each belongs to.
+    public final IntBuffer pageIds;
+    public final IntBuffer pageCatOffsets;
+    public final IntBuffer pageCats;
+
+    // UTF-8 encoded category titles.
+    private final IntBuffer catNameOffsets;
+    private final ByteBuffer catNames;
+
+    /**
+     * Creates a graph backed by heap arrays. The arrays are not copied.
+     */
+    public CategoryGraph(Language language, int catIds[], String cats[], double catCosts[], double minCost,
+                         int catParentOffsets[], int catParents[],
+                         int catChildOffsets[], int catChildren[],
+                         int catPageOffsets[], int catPages[],
+                         int pageIds[], int pageCatOffsets[], int pageCats[]) {
+        this.language = language;
+        this.minCost = minCost;
+        this.catIds = IntBuffer.wrap(catIds);
+        this.catCosts = DoubleBuffer.wrap(catCosts);
+        this.catParentOffsets = IntBuffer.wrap(catParentOffsets);
+        this.catParents = IntBuffer.wrap(catParents);
+        this.catChildOffsets = IntBuffer.wrap(catChildOffsets);
+        this.catChildren = IntBuffer.wrap(catChildren);
+        this.catPageOffsets = IntBuffer.wrap(catPageOffsets);
+        this.catPages = IntBuffer.wrap(catPages);
+        this.pageIds = IntBuffer.wrap(pageIds);
+        this.pageCatOffsets = IntBuffer.wrap(pageCatOffsets);
+        this.pageCats = IntBuffer.wrap(pageCats);
 
-    // Mapping from local page id to internal dense index.
-    public TIntIntMap catIndexes;
+        long sorted[] = new long[catIds.length];
+        for (int i = 0; i < catIds.length; i++) {
+            sorted[i] = ((long) catIds[i] << 32) | i;
+        }
+        Arrays.sort(sorted);
+        this.sortedCatIds = IntBuffer.allocate(catIds.length);
+        this.sortedCatIndexes = IntBuffer.allocate(catIds.length);
+        for (int i = 0; i < sorted.length; i++) {
+            sortedCatIds.put(i, (int) (sorted[i] >> 32));
+            sortedCatIndexes.put(i, (int) sorted[i]);
+        }
 
-    public double[] catCosts;  // the cost of travelling through each category
-    public int[][] catParents;
-    public int[][] catPages;
-    public int[][] catChildren;
-    public String[] cats;
-    public double minCost = -1;
+        byte encoded[][] = new byte[cats.length][];
+        this.catNameOffsets = IntBuffer.allocate(cats.length + 1);
+        for (int i = 0; i < cats.length; i++) {
+            encoded[i] = cats[i].getBytes(UTF8);
+            catNameOffsets.put(i + 1, catNameOffsets.get(i) + encoded[i].length);
+        }
+        this.catNames = ByteBuffer.allocate(catNameOffsets.get(cats.length));
+        for (int i = 0; i < cats.length; i++) {
+            catNames.put(encoded[i]);
+        }
+        catNames.clear();
+    }
 
-    public CategoryGraph(Language language){
+    private CategoryGraph(Language language, double minCost, Buffer sections[]) {
         this.language = language;
+        this.minCost = minCost;
+        this.catIds = (IntBuffer) sections[0];
+        this.sortedCatIds = (IntBuffer) sections[1];
+        this.sortedCatIndexes = (IntBuffer) sections[2];
+        this.catCosts = (DoubleBuffer) sections[3];
+        this.catParentOffsets = (IntBuffer) sections[4];
+        this.catParents = (IntBuffer) sections[5];
+        this.catChildOffsets = (IntBuffer) sections[6];
+        this.catChildren = (IntBuffer) sections[7];
+        this.catPageOffsets = (IntBuffer) sections[8];
+        this.catPages = (IntBuffer) sections[9];
+        this.pageIds = (IntBuffer) sections[10];
+        this.pageCatOffsets = (IntBuffer) sections[11];
+        this.pageCats = (IntBuffer) sections[12];
+        this.catNameOffsets = (IntBuffer) sections[13];
+        this.catNames = (ByteBuffer) sections[14];
+    }
+
+    public int getNumCategories() {
+        return catIds.capacity();
     }
 
     public int getCategoryIndex(int catId) {
-        return catIndexes.containsKey(catId) ?  catIndexes.get(catId) : -1;
+        int i = binarySearch(sortedCatIds, catId);
+        return i >= 0 ? sortedCatIndexes.get(i) : -1;
+    }
+
+    public int getCategoryId(int catIndex) {
+        return catIds.get(catIndex);
+    }
+
+    public String getCategoryName(int catIndex) {
+        int begin = catNameOffsets.get(catIndex);
+        byte bytes[] = new byte[catNameOffsets.get(catIndex + 1) - begin];
+        ByteBuffer view = catNames.duplicate();
+        view.position(begin);
+        view.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    public double getCategoryCost(int catIndex) {
+        return catCosts.get(catIndex);
+    }
+
+    /**
+     * @param pageId A local page id.
+     * @return The dense index of the page in pageIds, or a negative number if the
+     * page is not a member of any category.
+     */
+    public int getPageIndex(int pageId) {
+        return binarySearch(pageIds, pageId);
+    }
+
+    public int getNumParents(int catIndex) {
+        return catParentOffsets.get(catIndex + 1) - catParentOffsets.get(catIndex);
+    }
+
+    public int getNumChildren(int catIndex) {
+        return catChildOffsets.get(catIndex + 1) - catChildOffsets.get(catIndex);
+    }
+
+    public int getNumPages(int catIndex) {
+        return catPageOffsets.get(catIndex + 1) - catPageOffsets.get(catIndex);
+    }
+
+    /**
+     * Returns the category indexes of the categories that contain a page.
+     * This allocates a new array; traversals should read pageCats directly.
+     * @param pageId A local page id.
+     * @return The category indexes, or an empty array.
+     */
+    public int[] getPageCategories(int pageId) {
+        int i = getPageIndex(pageId);
+        if (i < 0) {
+            return new int[0];
+        }
+        int result[] = new int[pageCatOffsets.get(i + 1) - pageCatOffsets.get(i)];
+        for (int j = 0; j < result.length; j++) {
+            result[j] = pageCats.get(pageCatOffsets.get(i) + j);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the graph in the binary format read by read().
+     * The file is written in native byte order, which is recorded in its header.
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        Buffer sections[] = getSections();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(language.getId());
+        header.putInt(sections.length);
+        header.putDouble(minCost);
+        for (Buffer b : sections) {
+            header.putInt(b.capacity());
+        }
+        if (header.position() > HEADER_BYTES) {
+            throw new IllegalStateException();
+        }
+        header.clear();
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            writeFully(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 20).order(ByteOrder.nativeOrder());
+            for (Buffer b : sections) {
+                writeSection(channel, chunk, b);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Memory-maps a graph written by write(). The file must not change while it is mapped.
+     * @param file
+     * @return The graph.
+     * @throws IOException If the file is truncated or has the wrong format or version.
+     */
+    public static CategoryGraph read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.BIG_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("" + file + " is not a category graph");
+                }
+            }
+            ByteOrder order = header.order();
+            header.position(4);
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("" + file + " has category graph version " + version + ", expected " + FORMAT_VERSION);
+            }
+            Language language = Language.getById(header.getInt());
+            int numSections = header.getInt();
+            double minCost = header.getDouble();
+
+            Buffer sections[] = new Buffer[numSections];
+            long offset = HEADER_BYTES;
+            for (int i = 0; i < numSections; i++) {
+                int n = header.getInt();
+                int width = getWidth(i);
+                long bytes = (long) n * width;
+                if (offset + bytes > channel.size()) {
+                    throw new IOException("" + file + " is truncated");
+                }
+                ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes).order(order);
+                if (width == 1) {
+                    sections[i] = section;
+                } else if (width == 4) {
+                    sections[i] = section.asIntBuffer();
+                } else {
+                    sections[i] = section.asDoubleBuffer();
+                }
+                offset += align(bytes);
+            }
+            return new CategoryGraph(language, minCost, sections);
+        } finally {
+            raf.close();    // mappings remain valid after the channel is closed
+        }
+    }
+
+    private Buffer[] getSections() {
+        return new Buffer[] {
+                catIds, sortedCatIds, sortedCatIndexes, catCosts,
+                catParentOffsets, catParents, catChildOffsets, catChildren,
+                catPageOffsets, catPages, pageIds, pageCatOffsets, pageCats,
+                catNameOffsets, catNames
+        };
+    }
+
+    /**
+     * @return The number of bytes per element in the section at the given position.
+     */
+    private static int getWidth(int section) {
+        if (section == 3) {
+            return 8;           // catCosts
+        } else if (section == 14) {
+            return 1;           // catNames
+        } else {
+            return 4;
+        }
+    }
+
+    private static void writeSection(FileChannel channel, ByteBuffer chunk, Buffer section) throws IOException {
+        long bytes = 0;
+        chunk.clear();
+        for (int i = 0; i < section.capacity(); i++) {
+            if (chunk.remaining() < 8) {
+                chunk.flip();
+                writeFully(channel, chunk);
+                chunk.clear();
+            }
+            if (section instanceof IntBuffer) {
+                chunk.putInt(((IntBuffer) section).get(i));
+                bytes += 4;
+            } else if (section instanceof DoubleBuffer) {
+                chunk.putDouble(((DoubleBuffer) section).get(i));
+                bytes += 8;
+            } else {
+                chunk.put(((ByteBuffer) section).get(i));
+                bytes++;
+            }
+        }
+        while (bytes < align(bytes)) {
+            chunk.put((byte) 0);
+            bytes++;
+        }
+        chunk.flip();
+        writeFully(channel, chunk);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Sections start at multiples of eight bytes so mapped views stay aligned.
+     */
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static int binarySearch(IntBuffer sorted, int key) {
+        int low = 0;
+        int high = sorted.capacity() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midVal = sorted.get(mid);
+            if (midVal < key) {
+                low = mid + 1;
+            } else if (midVal > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
     }
 }
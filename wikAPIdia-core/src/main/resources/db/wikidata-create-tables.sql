@@ -31,9 +31,11 @@ CREATE TABLE IF NOT EXISTS WIKIDATA_STATEMENT (
   -- Property id (starts with a p)
   PROP_ID int NOT NULL,
 
-  -- Property value
+  -- Property value. VAL_STR holds the raw text of string values and the json of all other values.
+  -- VAL_NUM holds the item id of item values, the integer of int values, and the epoch milliseconds of time values.
   VAL_TYPE VARCHAR(50) NOT NULL,
   VAL_STR TEXT NOT NULL,
+  VAL_NUM BIGINT,
 
   -- Property rank: 0 = deprecated, 1 = normal, 2 = preferred
   RANK SMALLINT NOT NULL
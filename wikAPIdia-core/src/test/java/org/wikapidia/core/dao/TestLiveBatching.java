@@ -0,0 +1,202 @@
+package org.wikapidia.core.dao;
+
+import org.junit.Test;
+import org.wikapidia.core.dao.live.LiveAPIQuery;
+import org.wikapidia.core.dao.live.LiveRequestScheduler;
+import org.wikapidia.core.dao.live.LiveTransport;
+import org.wikapidia.core.dao.live.LocalPageLiveDao;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.model.LocalPage;
+import org.wikapidia.core.model.NameSpace;
+import org.wikapidia.core.model.Title;
+import org.wikapidia.utils.Function;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestLiveBatching {
+    private static final Language EN = Language.getByLangCode("en");
+
+    /**
+     * Answers info queries for pages titled "Page N" with id N. Page 7 redirects to
+     * page 8 and page 999 is missing.
+     */
+    static class InfoTransport implements LiveTransport {
+        List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public String get(Language language, String query) throws IOException {
+            queries.add(query);
+            Map<String, String> params = new HashMap<String, String>();
+            for (String param : query.split("&")) {
+                int i = param.indexOf('=');
+                params.put(param.substring(0, i), param.substring(i + 1));
+            }
+            List<String> pages = new ArrayList<String>();
+            List<String> normalized = new ArrayList<String>();
+            List<String> redirects = new ArrayList<String>();
+            if (params.containsKey("pageids")) {
+                for (String id : params.get("pageids").split("\\|")) {
+                    pages.add(page(Integer.valueOf(id)));
+                }
+            }
+            if (params.containsKey("titles")) {
+                for (String title : params.get("titles").split("\\|")) {
+                    String t = title.replace('_', ' ');
+                    if (!t.equals(title)) {
+                        normalized.add("{\"from\":\"" + title + "\",\"to\":\"" + t + "\"}");
+                    }
+                    int id = Integer.valueOf(t.substring("Page ".length()));
+                    if (id == 7 && params.containsKey("redirects")) {
+                        redirects.add("{\"from\":\"Page 7\",\"to\":\"Page 8\"}");
+                        id = 8;
+                    }
+                    pages.add(page(id));
+                }
+            }
+            return "{\"query\":{"
+                    + "\"normalized\":[" + join(normalized) + "],"
+                    + "\"redirects\":[" + join(redirects) + "],"
+                    + "\"pages\":{" + join(pages) + "}}}";
+        }
+
+        private static String page(int id) {
+            if (id == 999) {
+                return "\"999\":{\"pageid\":999,\"missing\":\"\"}";
+            }
+            return "\"" + id + "\":{\"pageid\":" + id + ",\"ns\":0,\"title\":\"Page " + id + "\""
+                    + (id == 7 ? ",\"redirect\":\"\"" : "") + "}";
+        }
+
+        private static String join(List<String> values) {
+            StringBuilder sb = new StringBuilder();
+            for (String v : values) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(v);
+            }
+            return sb.toString();
+        }
+    }
+
+    @Test
+    public void testGetByIds() throws DaoException {
+        InfoTransport transport = new InfoTransport();
+        LiveTransport old = LiveAPIQuery.getDefaultTransport();
+        LiveAPIQuery.setDefaultTransport(transport);
+        try {
+            List<Integer> ids = new ArrayList<Integer>();
+            for (int i = 1; i <= 120; i++) {
+                ids.add(i);
+            }
+            ids.add(999);
+            Map<Integer, LocalPage> pages = new LocalPageLiveDao<LocalPage>().getByIds(EN, ids);
+            assertEquals(120, pages.size());
+            assertEquals("Page 42", pages.get(42).getTitle().getCanonicalTitle());
+            assertEquals(8, pages.get(7).getLocalId());       // followed the redirect
+            assertFalse(pages.containsKey(999));
+
+            // three batches of ids and one request for the redirect
+            assertEquals(4, transport.queries.size());
+        } finally {
+            LiveAPIQuery.setDefaultTransport(old);
+        }
+    }
+
+    @Test
+    public void testGetByIdsWithoutRedirects() throws DaoException {
+        InfoTransport transport = new InfoTransport();
+        LiveTransport old = LiveAPIQuery.getDefaultTransport();
+        LiveAPIQuery.setDefaultTransport(transport);
+        try {
+            LocalPageLiveDao<LocalPage> dao = new LocalPageLiveDao<LocalPage>();
+            dao.setFollowRedirects(false);
+            Map<Integer, LocalPage> pages = dao.getByIds(EN, Arrays.asList(6, 7));
+            assertEquals(7, pages.get(7).getLocalId());
+            assertTrue(pages.get(7).isRedirect());
+            assertEquals(1, transport.queries.size());
+        } finally {
+            LiveAPIQuery.setDefaultTransport(old);
+        }
+    }
+
+    @Test
+    public void testGetByTitles() throws DaoException {
+        InfoTransport transport = new InfoTransport();
+        LiveTransport old = LiveAPIQuery.getDefaultTransport();
+        LiveAPIQuery.setDefaultTransport(transport);
+        try {
+            List<Title> titles = new ArrayList<Title>();
+            for (int i = 1; i <= 60; i++) {
+                titles.add(new Title("Page " + i, EN));
+            }
+            Map<Title, LocalPage> pages = new LocalPageLiveDao<LocalPage>().getByTitles(EN, titles, NameSpace.ARTICLE);
+            assertEquals(60, pages.size());
+            assertEquals(3, pages.get(new Title("Page 3", EN)).getLocalId());
+            assertEquals(8, pages.get(new Title("Page 7", EN)).getLocalId());
+            assertEquals(2, transport.queries.size());
+        } finally {
+            LiveAPIQuery.setDefaultTransport(old);
+        }
+    }
+
+    @Test
+    public void testPartition() {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 101; i++) {
+            values.add(i);
+        }
+        List<List<Integer>> batches = LiveAPIQuery.partition(values);
+        assertEquals(3, batches.size());
+        assertEquals(LiveAPIQuery.MAX_BATCH_SIZE, batches.get(0).size());
+        assertEquals(1, batches.get(2).size());
+        assertEquals(100, batches.get(2).get(0).intValue());
+    }
+
+    @Test
+    public void testScheduler() throws DaoException {
+        LiveRequestScheduler scheduler = new LiveRequestScheduler(3);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 30; i++) {
+            items.add(i);
+        }
+        List<Integer> results = scheduler.map(items, new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer i) throws Exception {
+                int n = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), n));
+                }
+                Thread.sleep(5);
+                running.decrementAndGet();
+                return i * i;
+            }
+        });
+        assertEquals(30, results.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i * i, results.get(i).intValue());
+        }
+        assertTrue(maxRunning.get() <= 3);
+        assertTrue(maxRunning.get() > 1);
+
+        try {
+            scheduler.map(items, new Function<Integer, Integer>() {
+                @Override
+                public Integer call(Integer i) throws Exception {
+                    if (i == 17) {
+                        throw new DaoException("failed " + i);
+                    }
+                    return i;
+                }
+            });
+            fail("the failure should be rethrown");
+        } catch (DaoException e) {
+            assertEquals("failed 17", e.getMessage());
+        }
+        scheduler.shutdown();
+    }
+}
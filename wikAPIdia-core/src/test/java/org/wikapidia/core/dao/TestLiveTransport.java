@@ -0,0 +1,160 @@
+package org.wikapidia.core.dao;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikapidia.core.dao.live.*;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.model.LocalPage;
+import org.wikapidia.core.model.NameSpace;
+import org.wikapidia.utils.WpIOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestLiveTransport {
+    private static final Language EN = Language.getByLangCode("en");
+
+    /**
+     * Returns a canned response and remembers the queries it was asked.
+     */
+    static class FakeTransport implements LiveTransport {
+        List<String> queries = new ArrayList<String>();
+        String response;
+
+        FakeTransport(String response) {
+            this.response = response;
+        }
+
+        @Override
+        public String get(Language language, String query) throws IOException {
+            queries.add(query);
+            return response;
+        }
+    }
+
+    @Test
+    public void testNormalizeQuery() {
+        assertEquals("en?a=1&b=2", LiveAPIQuery.normalizeQuery(EN, "b=2&a=1"));
+        assertEquals("en?a=1&b=2", LiveAPIQuery.normalizeQuery(EN, "a=1&&b=2&"));
+        assertEquals(
+                LiveAPIQuery.normalizeQuery(EN, "action=query&format=json&titles=X"),
+                LiveAPIQuery.normalizeQuery(EN, "titles=X&format=json&action=query"));
+        assertFalse(LiveAPIQuery.normalizeQuery(EN, "a=1").equals(
+                LiveAPIQuery.normalizeQuery(Language.getByLangCode("simple"), "a=1")));
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        File dir = WpIOUtils.createTempDirectory("live-cache");
+        try {
+            FakeTransport fake = new FakeTransport("response \u00e9\nsecond line");
+            CachingLiveTransport cache = new CachingLiveTransport(fake, dir, 60000, 1024 * 1024);
+            assertEquals("response \u00e9\nsecond line", cache.get(EN, "a=1&b=2"));
+            assertEquals("response \u00e9\nsecond line", cache.get(EN, "b=2&a=1"));
+            assertEquals(1, fake.queries.size());
+            assertEquals(1L, cache.getHits());
+            assertEquals(1L, cache.getMisses());
+
+            // responses survive a restart
+            CachingLiveTransport cache2 = new CachingLiveTransport(fake, dir, 60000, 1024 * 1024);
+            assertTrue(cache2.getNumBytes() > 0);
+            assertEquals(cache.getNumBytes(), cache2.getNumBytes());
+            assertEquals("response \u00e9\nsecond line", cache2.get(EN, "a=1&b=2"));
+            assertEquals(1, fake.queries.size());
+
+            // expired responses are fetched again
+            CachingLiveTransport expired = new CachingLiveTransport(fake, dir, -1, 1024 * 1024);
+            expired.get(EN, "a=1&b=2");
+            assertEquals(2, fake.queries.size());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File dir = WpIOUtils.createTempDirectory("live-cache");
+        try {
+            FakeTransport fake = new FakeTransport(new String(new char[100]).replace('\0', 'x'));
+            CachingLiveTransport cache = new CachingLiveTransport(fake, dir, 60000, 1000);
+            for (int i = 0; i < 30; i++) {
+                cache.get(EN, "id=" + i);
+                assertTrue(cache.getNumBytes() <= 1000);
+            }
+            assertTrue(cache.getEvictions() > 0);
+            assertEquals(30L, cache.getMisses());
+            long total = 0;
+            for (File f : FileUtils.listFiles(dir, null, true)) {
+                total += f.length();
+            }
+            assertEquals(total, cache.getNumBytes());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        File file = File.createTempFile("live-replay", ".txt");
+        file.delete();
+        try {
+            FakeTransport fake = new FakeTransport("{\"a\":\"tab\there\"}\nline");
+            ReplayLiveTransport recorder = new ReplayLiveTransport(file, fake);
+            assertEquals("{\"a\":\"tab\there\"}\nline", recorder.get(EN, "x=1&y=2"));
+            assertEquals(1, fake.queries.size());
+
+            ReplayLiveTransport replay = new ReplayLiveTransport(file, null);
+            assertEquals(1, replay.size());
+            assertEquals("{\"a\":\"tab\there\"}\nline", replay.get(EN, "y=2&x=1"));
+            try {
+                replay.get(EN, "x=2");
+                fail("unrecorded query should fail");
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLiveDao() throws DaoException {
+        FakeTransport fake = new FakeTransport(
+                "{\"query\":{\"pages\":{\"12\":{\"pageid\":12,\"ns\":0,\"title\":\"Anarchism\"}}}}");
+        LiveTransport old = LiveAPIQuery.getDefaultTransport();
+        LiveAPIQuery.setDefaultTransport(fake);
+        try {
+            LocalPage page = new LocalPageLiveDao<LocalPage>().getById(EN, 12);
+            assertEquals(12, page.getLocalId());
+            assertEquals("Anarchism", page.getTitle().getCanonicalTitle());
+            assertEquals(NameSpace.ARTICLE, page.getNameSpace());
+            assertEquals(1, fake.queries.size());
+            assertTrue(fake.queries.get(0).contains("pageids=12"));
+            assertFalse(fake.queries.get(0).startsWith("http"));
+        } finally {
+            LiveAPIQuery.setDefaultTransport(old);
+        }
+    }
+
+    @Test
+    public void testTransportPerDao() throws DaoException {
+        String response = "{\"query\":{\"pages\":{\"12\":{\"pageid\":12,\"ns\":0,\"title\":\"Anarchism\"}}}}";
+        FakeTransport fake1 = new FakeTransport(response);
+        FakeTransport fake2 = new FakeTransport(response);
+        LocalPageLiveDao<LocalPage> dao1 = new LocalPageLiveDao<LocalPage>(fake1, LiveRequestScheduler.getDefault());
+        LocalPageLiveDao<LocalPage> dao2 = new LocalPageLiveDao<LocalPage>(fake2, LiveRequestScheduler.getDefault());
+
+        // creating a dao with another transport doesn't change the first dao's transport
+        dao1.getById(EN, 12);
+        dao2.getById(EN, 12);
+        dao1.getById(EN, 12);
+        assertEquals(2, fake1.queries.size());
+        assertEquals(1, fake2.queries.size());
+        assertNotSame(fake1, LiveAPIQuery.getDefaultTransport());
+        assertNotSame(fake2, LiveAPIQuery.getDefaultTransport());
+    }
+}
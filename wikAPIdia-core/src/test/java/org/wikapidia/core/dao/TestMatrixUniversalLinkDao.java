@@ -0,0 +1,89 @@
+package org.wikapidia.core.dao;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikapidia.core.dao.matrix.MatrixUniversalLinkDao;
+import org.wikapidia.core.dao.sql.TestDaoUtil;
+import org.wikapidia.core.dao.sql.UniversalLinkSqlDao;
+import org.wikapidia.core.dao.sql.WpDataSource;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.model.LocalLink;
+import org.wikapidia.core.model.UniversalLink;
+import org.wikapidia.utils.WpIOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestMatrixUniversalLinkDao {
+    private static final Language SIMPLE = Language.getByLangCode("simple");
+    private static final Language EN = Language.getByLangCode("en");
+
+    private static UniversalLink link(int src, int dest, int algorithmId, Language language) {
+        Multimap<Language, LocalLink> locals = HashMultimap.create();
+        locals.put(language, new LocalLink(language, "anchor", src + 100, dest + 100, true, 0, true, LocalLink.LocationType.NONE));
+        return new UniversalLink(src, dest, algorithmId, locals);
+    }
+
+    @Test
+    public void testLinks() throws ClassNotFoundException, IOException, DaoException {
+        WpDataSource ds = TestDaoUtil.getWpDataSource();
+        File dir = WpIOUtils.createTempDirectory("universal-links");
+        try {
+            UniversalLinkSqlDao sqlDao = new UniversalLinkSqlDao(ds, null);
+            MatrixUniversalLinkDao dao = new MatrixUniversalLinkDao(sqlDao, dir);
+            assertFalse(dao.hasMatrix(0));
+            dao.beginLoad();
+            for (int i = 1; i <= 50; i++) {
+                for (int j = i + 1; j <= 50; j++) {
+                    dao.save(link(i, j, 0, SIMPLE));
+                    if (j % 2 == 0) {
+                        dao.save(link(i, j, 0, EN));    // the same concept pair in another language
+                    }
+                }
+                dao.save(link(i, i + 1, 1, SIMPLE));
+            }
+            dao.save(link(1, -1, 0, SIMPLE));    // red link
+            dao.endLoad();
+
+            // reopen from disk
+            dao = new MatrixUniversalLinkDao(sqlDao, dir);
+            assertTrue(dao.hasMatrix(0));
+            assertTrue(dao.hasMatrix(1));
+            for (int i = 1; i <= 50; i++) {
+                assertEquals(rangeSet(i + 1, 50), dao.getOutlinkIds(i, 0));
+                assertEquals(rangeSet(1, i - 1), dao.getInlinkIds(i, 0));
+                assertEquals(50 - i, dao.getNumLinks(i, 0, true));
+                assertEquals(i - 1, dao.getNumLinks(i, 0, false));
+                assertEquals(1, dao.getNumLinks(i, 1, true));
+                assertEquals(rangeSet(i + 1, i + 1), dao.getOutlinkIds(i, 1));
+            }
+            assertEquals(0, dao.getNumLinks(51, 0, true));
+            assertNull(dao.getLinks(51, 0, true));
+            assertEquals(0, dao.getOutlinkIds(51, 0).size());
+
+            // counts are the delegate's, whatever the filter
+            DaoFilter filter = new DaoFilter().setAlgorithmIds(0).setSourceIds(Arrays.asList(1, 2));
+            assertEquals(sqlDao.getCount(filter), dao.getCount(filter));
+            filter = new DaoFilter().setAlgorithmIds(0).setDestIds(50);
+            assertEquals(sqlDao.getCount(filter), dao.getCount(filter));
+            assertTrue(dao.getCount(filter) > dao.getNumLinks(50, 0, false));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static TIntSet rangeSet(int from, int to) {
+        TIntSet set = new TIntHashSet();
+        for (int i = from; i <= to; i++) {
+            set.add(i);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,90 @@
+package org.wikapidia.core.model;
+
+import org.junit.Test;
+import org.wikapidia.core.lang.Language;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestCategoryGraph {
+
+    private CategoryGraph makeGraph() {
+        return new CategoryGraph(
+                Language.getByLangCode("simple"),
+                new int[] { 13, 10, 12, 11 },
+                new String[] { "Z\u00fcrich", "Root", "B", "A" },
+                new double[] { 0.25, 0.5, 1.0, 2.0 },
+                0.125,
+                new int[] { 0, 1, 1, 2, 3 }, new int[] { 3, 1, 1 },
+                new int[] { 0, 0, 2, 2, 3 }, new int[] { 2, 3, 0 },
+                new int[] { 0, 1, 1, 2, 3 }, new int[] { 100, 101, 102 },
+                new int[] { 11, 12, 13, 100, 101, 102 },
+                new int[] { 0, 1, 2, 3, 4, 5, 6 },
+                new int[] { 1, 1, 3, 0, 2, 3 });
+    }
+
+    @Test
+    public void testLookups() {
+        check(makeGraph());
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        File file = File.createTempFile("cat-graph", ".bin");
+        file.deleteOnExit();
+        makeGraph().write(file);
+        CategoryGraph graph = CategoryGraph.read(file);
+        check(graph);
+        assertEquals(Language.getByLangCode("simple"), graph.language);
+        assertEquals(0.125, graph.minCost, 0.0);
+        assertEquals(2, graph.getNumChildren(1));
+        assertEquals(1, graph.getNumPages(3));
+    }
+
+    @Test
+    public void testBadFiles() throws IOException {
+        File file = File.createTempFile("cat-graph", ".bin");
+        file.deleteOnExit();
+        makeGraph().write(file);
+
+        // truncated
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 8);
+        raf.close();
+        try {
+            CategoryGraph.read(file);
+            fail();
+        } catch (IOException e) {
+        }
+
+        // not a graph
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[256]);
+        out.close();
+        try {
+            CategoryGraph.read(file);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    private void check(CategoryGraph graph) {
+        assertEquals(4, graph.getNumCategories());
+        assertEquals(1, graph.getCategoryIndex(10));
+        assertEquals(0, graph.getCategoryIndex(13));
+        assertEquals(-1, graph.getCategoryIndex(14));
+        assertEquals(12, graph.getCategoryId(2));
+        assertEquals("Z\u00fcrich", graph.getCategoryName(0));
+        assertEquals("A", graph.getCategoryName(3));
+        assertEquals(2.0, graph.getCategoryCost(3), 0.0);
+        assertEquals(1, graph.getNumParents(0));
+        assertTrue(Arrays.equals(new int[] { 2 }, graph.getPageCategories(101)));
+        assertEquals(0, graph.getPageCategories(999).length);
+        assertTrue(graph.getPageIndex(999) < 0);
+    }
+}
@@ -2,14 +2,13 @@ package org.wikapidia.download;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.common.collect.Multimap;
 import org.apache.commons.cli.*;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.wikapidia.conf.ConfigurationException;
 import org.wikapidia.conf.Configurator;
@@ -19,12 +18,19 @@ import org.wikapidia.core.cmd.Env;
 import org.wikapidia.core.cmd.EnvBuilder;
 import org.wikapidia.core.cmd.FileMatcher;
 import org.wikapidia.core.lang.Language;
-import org.wikapidia.utils.WpIOUtils;
+import org.wikapidia.utils.ParallelForEach;
+import org.wikapidia.utils.Procedure;
 
 /**
  *
  * Downloads dumps from a specified tsv file containing lines of dump links.
  *
+ * Files are downloaded in parallel into a partial directory inside the output directory,
+ * and their MD5 checksums are computed while they are written. An interrupted download
+ * is resumed from its partial file by the next run. Once every file of one type for one
+ * language has been downloaded and verified, the files are moved to the destination
+ * directory together.
+ *
  * @author Ari Weiland
  *
  */
@@ -32,92 +38,138 @@ import org.wikapidia.utils.WpIOUtils;
 public class DumpFileDownloader {
 
     private static final Logger LOG = Logger.getLogger(DumpFileDownloader.class.getName());
-    private static final int SLEEP_TIME = 10000;    // getOneFile takes a break from downloading
-    private static final int MAX_ATTEMPT = 30;      // number of attempts before getOneFile gives up downloading the dump
-    private static final int DISPLAY_INFO = 10000;  // amount of time between displaying download progress
+    public static final int DEFAULT_NUM_THREADS = 2;   // Wikimedia asks for at most a few connections per client
+    private static final String PARTIAL_DIR = ".partial";
 
-    private FileDownloader downloader = new FileDownloader();
-    private final File tmpDir;
+    private ResumableDownloader downloader = new ResumableDownloader();
     private final File outputDir;
+    private final File partialDir;
+    private int numThreads = DEFAULT_NUM_THREADS;
 
     public DumpFileDownloader(File outputDir) {
         this.outputDir = outputDir;
-        try {
-            tmpDir = WpIOUtils.createTempDirectory("download");
-        } catch (IOException e) {
-            throw new RuntimeException(e);  // shouldn't happen.
-        }
+        this.partialDir = new File(outputDir, PARTIAL_DIR);
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public ResumableDownloader getDownloader() {
+        return downloader;
     }
 
     /**
-     * Attempts to download the specified file. Returns the success of the download.
+     * Downloads the specified file into the partial directory and verifies its checksum.
+     * If a partial file from an earlier attempt exists, the download resumes after it.
+     * A file with the wrong checksum is deleted and downloaded again once.
      * @param link
-     * @return true if successful, else false
+     * @return the downloaded file
+     * @throws IOException if the download failed or the checksum did not match
      * @throws InterruptedException
      */
     public File getOneFile(DumpLinkInfo link) throws InterruptedException, IOException {
-        return downloader.download(link.getUrl(), new File(tmpDir, link.getFileName()));
+        File partial = getPartialFile(link);
+        for (int attempt = 1; ; attempt++) {
+            String md5 = downloader.download(link.getUrl(), partial);
+            if (link.getMd5() == null || link.getMd5().equalsIgnoreCase(md5)) {
+                return partial;
+            }
+            FileUtils.deleteQuietly(partial);
+            if (attempt >= 2) {
+                throw new IOException("MD5 of " + link.getUrl() + " is " + md5 + ", expected " + link.getMd5());
+            }
+            LOG.log(Level.WARNING, "MD5 strings do not match for " + link.getUrl() + "; downloading it again");
+        }
+    }
+
+    private File getPartialFile(DumpLinkInfo link) {
+        return new File(partialDir, link.getLocalPath() + "/" + link.getFileName());
+    }
+
+    private File getDestination(DumpLinkInfo link) {
+        return new File(outputDir, link.getLocalPath() + "/" + link.getFileName());
     }
 
     /**
      * Processes a tsv file containing dump link info and initiates the download process
-     * on that info. Files are downloaded one language at a time, then one type at a time.
-     * Within each language, all of one type is downloaded before moving the files
-     * to the destination directory.
+     * on that info. All missing files are downloaded in parallel. The files of one type
+     * for one language are moved to the destination directory once all of them are verified.
      * @param file the tsv file containing the dump link info
      * @throws InterruptedException
+     * @throws WikapidiaException if any file could not be downloaded. Files of other
+     * types and languages are still moved, and partial files are kept for the next run.
      */
     public void downloadFrom(File file) throws InterruptedException, WikapidiaException, IOException {
-        if (tmpDir.isDirectory()) {
-            if (tmpDir.listFiles().length != 0) {
-                for (File f : tmpDir.listFiles()) {
-                    f.delete();
-                }
-            }
-        } else {
-            tmpDir.mkdirs();
-        }
         DumpLinkCluster linkCluster = DumpLinkInfo.parseFile(file);
         int numTotalFiles = linkCluster.size();
         LOG.log(Level.INFO, "Starting to download " + numTotalFiles + " files");
-        int success = 0;
 
+        List<DumpLinkInfo> missing = new ArrayList<DumpLinkInfo>();
         for (Language language : linkCluster) {
-            success = downloadLanguageFiles(linkCluster, numTotalFiles, success, language);
-        }
-        LOG.log(Level.INFO, success + " files downloaded out of " + numTotalFiles + " files.");
-        tmpDir.delete();
-    }
-
-    private int downloadLanguageFiles(DumpLinkCluster linkCluster, int numTotalFiles, int success, Language language) throws InterruptedException, IOException, WikapidiaException {
-        Multimap<FileMatcher, DumpLinkInfo> map = linkCluster.get(language);
-        for (FileMatcher linkMatcher : map.keySet()) {
-            for (DumpLinkInfo link : map.get(linkMatcher)) {
-                File download = new File(outputDir, link.getLocalPath()+"/"+link.getFileName());
-                if (download.exists()) {
-                    success++;
+            for (DumpLinkInfo link : linkCluster.get(language).values()) {
+                if (getDestination(link).exists()) {
                     LOG.log(Level.INFO, "File already downloaded: " + link.getFileName());
                 } else {
-                    download = getOneFile(link);
-                    if (download == null) {
-                        throw new WikapidiaException("Download malfunction! Download timed out!");
+                    missing.add(link);
+                }
+            }
+        }
+
+        // only files whose download finished and passed the checksum are ever moved
+        final Set<DumpLinkInfo> succeeded = Collections.synchronizedSet(new HashSet<DumpLinkInfo>());
+        final AtomicInteger success = new AtomicInteger(numTotalFiles - missing.size());
+        final int total = numTotalFiles;
+        if (!missing.isEmpty()) {
+            ParallelForEach.loop(missing, Math.max(1, Math.min(numThreads, missing.size())), new Procedure<DumpLinkInfo>() {
+                @Override
+                public void call(DumpLinkInfo link) throws Exception {
+                    try {
+                        getOneFile(link);
+                        succeeded.add(link);
+                        LOG.log(Level.INFO, success.incrementAndGet() + "/" + total + " file(s) downloaded");
+                    } catch (InterruptedException e) {
+                        LOG.log(Level.WARNING, "Download of " + link.getUrl() + " was interrupted");
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        LOG.log(Level.WARNING, "Download of " + link.getUrl() + " failed", e);
+                    }
+                }
+            }, 1);
+        }
+
+        int numFailed = missing.size() - succeeded.size();
+        for (Language language : linkCluster) {
+            Multimap<FileMatcher, DumpLinkInfo> map = linkCluster.get(language);
+            for (FileMatcher linkMatcher : map.keySet()) {
+                boolean complete = true;
+                for (DumpLinkInfo link : map.get(linkMatcher)) {
+                    if (!succeeded.contains(link) && !getDestination(link).exists()) {
+                        complete = false;
                     }
-                    success++;
-                    LOG.log(Level.INFO, success + "/" + numTotalFiles + " file(s) downloaded");
                 }
-                String md5 = DigestUtils.md5Hex(FileUtils.openInputStream(download));
-                if (!link.getMd5().equalsIgnoreCase(md5)) {
-                    throw new WikapidiaException("Download malfunction! MD5 strings do not match!");
+                if (complete) {
+                    moveToDestination(map.get(linkMatcher), succeeded);
                 }
             }
-            for (DumpLinkInfo link : map.get(linkMatcher)) {
-                File download = new File(tmpDir, link.getFileName());
-                File target = new File(outputDir, link.getLocalPath());
-                if (!target.exists()) target.mkdirs();
-                download.renameTo(new File(target, download.getName()));
+        }
+        LOG.log(Level.INFO, success.get() + " files downloaded out of " + numTotalFiles + " files.");
+        if (numFailed > 0) {
+            throw new WikapidiaException("Download malfunction! " + numFailed + " file(s) could not be downloaded");
+        }
+    }
+
+    private void moveToDestination(Collection<DumpLinkInfo> links, Set<DumpLinkInfo> succeeded) throws IOException {
+        for (DumpLinkInfo link : links) {
+            File partial = getPartialFile(link);
+            File destination = getDestination(link);
+            if (succeeded.contains(link) && partial.isFile() && !destination.exists()) {
+                destination.getParentFile().mkdirs();
+                if (!partial.renameTo(destination)) {
+                    throw new IOException("renaming " + partial + " to " + destination + " failed");
+                }
             }
         }
-        return success;
     }
 
     public static void main(String[] args) throws ConfigurationException, WikapidiaException, IOException, InterruptedException {
@@ -134,6 +186,12 @@ public class DumpFileDownloader {
                         .withLongOpt("input")
                         .withDescription("Path to input tsv file.")
                         .create("i"));
+        options.addOption(
+                new DefaultOptionBuilder()
+                        .hasArg()
+                        .withLongOpt("transfers")
+                        .withDescription("Number of files downloaded in parallel.")
+                        .create("t"));
 
         EnvBuilder.addStandardOptions(options);
         CommandLineParser parser = new PosixParser();
@@ -157,6 +215,11 @@ public class DumpFileDownloader {
         }
 
         DumpFileDownloader downloader = new DumpFileDownloader(new File(filePath));
+        if (cmd.hasOption("t")) {
+            downloader.setNumThreads(Integer.valueOf(cmd.getOptionValue("t")));
+        } else if (conf.getConf().get().hasPath("download.threads")) {
+            downloader.setNumThreads(conf.getConf().get().getInt("download.threads"));
+        }
         for (Object path : argList) {
             downloader.downloadFrom(new File((String) path));
         }
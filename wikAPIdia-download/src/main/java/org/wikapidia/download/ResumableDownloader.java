@@ -0,0 +1,219 @@
+package org.wikapidia.download;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a url to a file, resuming partial downloads with HTTP range requests.
+ *
+ * The MD5 checksum of the file is computed while the data is written, so a finished
+ * download never has to be read again to verify it. When a download resumes, only the
+ * bytes already on disk are read to restore the checksum. A failed attempt keeps the
+ * bytes it wrote, and the next attempt continues after them. If the server ignores the
+ * range request, the download starts over.
+ *
+ * Downloaders are thread-safe. Each call to download() uses its own connection.
+ */
+public class ResumableDownloader {
+    public static final Logger LOG = Logger.getLogger(ResumableDownloader.class.getName());
+
+    private static final int MAX_ATTEMPT = 10;      // number of attempts before download gives up
+    private static final int BACKOFF_TIME = 20000;  // multiplied by the number of failed attempts
+    private static final int DISPLAY_INFO = 10000;  // amount of time between displaying download progress
+    private static final int TIMEOUT = 60000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private int maxAttempts = MAX_ATTEMPT;
+    private int backoffTime = BACKOFF_TIME;
+    private int displayInfo = DISPLAY_INFO;
+    private int timeout = TIMEOUT;
+
+    public ResumableDownloader() {
+    }
+
+    /**
+     * Downloads a url, retrying with increasing backoffs upon failure.
+     *
+     * @param url
+     * @param file The destination. If it exists, it is treated as the beginning of the download.
+     * @return The hex MD5 checksum of the complete file.
+     * @throws IOException If every attempt failed.
+     * @throws InterruptedException
+     */
+    public String download(URL url, File file) throws IOException, InterruptedException {
+        LOG.info("beginning download of " + url + " to " + file);
+        for (int i = 1; ; i++) {
+            try {
+                String md5 = downloadOnce(url, file);
+                LOG.log(Level.INFO, "Download complete: " + file.getName());
+                return md5;
+            } catch (IOException e) {
+                if (i >= maxAttempts) {
+                    LOG.log(Level.WARNING, "Failed to download " + url + " to " + file, e);
+                    throw e;
+                }
+                LOG.log(Level.INFO, "Failed to download " + url + " (" + e.getMessage() + ")" +
+                        ". Resuming in " + (i * backoffTime / 1000) + " seconds");
+                Thread.sleep((long) backoffTime * i);
+            }
+        }
+    }
+
+    private String downloadOnce(URL url, File file) throws IOException {
+        MessageDigest md5 = newMd5();
+        long offset = file.isFile() ? digestFile(file, md5) : 0;
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+        int code = connection.getResponseCode();
+        boolean append;
+        if (offset > 0 && code == 416) {
+            // nothing after the offset: the file was already complete
+            drain(connection.getErrorStream());
+            return hex(md5);
+        } else if (offset > 0 && code == HttpURLConnection.HTTP_PARTIAL) {
+            String range = connection.getHeaderField("Content-Range");
+            if (range == null || !range.startsWith("bytes " + offset + "-")) {
+                drain(connection.getInputStream());
+                throw new IOException("unexpected content range " + range + " for offset " + offset);
+            }
+            append = true;
+        } else if (code == HttpURLConnection.HTTP_OK) {
+            if (offset > 0) {
+                LOG.info("server ignored range request for " + url + "; restarting download");
+                md5.reset();
+                offset = 0;
+            }
+            append = false;
+        } else {
+            drain(connection.getErrorStream());
+            throw new IOException("HTTP " + code + " for " + url);
+        }
+
+        long expected = getContentLength(connection);
+        InputStream in = new DigestInputStream(connection.getInputStream(), md5);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file, append), BUFFER_SIZE);
+        long count = 0;
+        try {
+            byte buffer[] = new byte[BUFFER_SIZE];
+            long last = System.currentTimeMillis();
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                count += n;
+                long now = System.currentTimeMillis();
+                if (now > last + displayInfo) {
+                    last = now;
+                    logProgress(url, offset + count, expected < 0 ? -1 : offset + expected);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+            out.close();
+        }
+        if (expected >= 0 && count != expected) {
+            throw new IOException("received " + count + " of " + expected + " bytes from " + url);
+        }
+        return hex(md5);
+    }
+
+    /**
+     * Adds the contents of a file to a digest.
+     * @return The length of the file.
+     */
+    private static long digestFile(File file, MessageDigest md5) throws IOException {
+        InputStream in = new DigestInputStream(new FileInputStream(file), md5);
+        try {
+            byte buffer[] = new byte[BUFFER_SIZE];
+            long count = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                count += n;
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return The length of the response body, or -1 if it is unknown.
+     * Unlike HttpURLConnection.getContentLength(), this works for files over 2GB.
+     */
+    private static long getContentLength(HttpURLConnection connection) {
+        String length = connection.getHeaderField("Content-Length");
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void drain(InputStream in) {
+        if (in != null) {
+            try {
+                IOUtils.toByteArray(in);
+            } catch (IOException e) {
+                // the connection will not be reused
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    private static void logProgress(URL url, long count, long length) {
+        if (length > 0) {
+            LOG.log(Level.INFO, String.format("%s %.1f of %.1f MB (%.1f%%)",
+                    url, count / (1024 * 1024.0), length / (1024 * 1024.0), count * 100.0 / length));
+        } else {
+            LOG.log(Level.INFO, String.format("%s %.1f MB", url, count / (1024 * 1024.0)));
+        }
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM supports MD5
+        }
+    }
+
+    private static String hex(MessageDigest md5) {
+        return new String(Hex.encodeHex(md5.digest()));
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setBackoffTime(int backoffTime) {
+        this.backoffTime = backoffTime;
+    }
+
+    public void setDisplayInfo(int displayInfo) {
+        this.displayInfo = displayInfo;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,283 @@
+package org.wikapidia.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wikapidia.core.WikapidiaException;
+import org.wikapidia.utils.WpIOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestResumableDownloader {
+    private HttpServer server;
+    private Map<String, byte[]> files = new HashMap<String, byte[]>();
+    private List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+    private volatile boolean supportRanges = true;
+    private volatile int failuresLeft = 0;      // responses cut off half way
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        byte data[] = files.get(exchange.getRequestURI().getPath());
+        if (data == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        ranges.add(range);
+        int offset = 0;
+        int code = 200;
+        if (range != null && supportRanges) {
+            offset = Integer.valueOf(range.substring("bytes=".length(), range.length() - 1));
+            if (offset >= data.length) {
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            code = 206;
+            exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + offset + "-" + (data.length - 1) + "/" + data.length);
+        }
+        int length = data.length - offset;
+        exchange.sendResponseHeaders(code, length);
+        OutputStream out = exchange.getResponseBody();
+        if (failuresLeft > 0) {
+            failuresLeft--;
+            out.write(data, offset, length / 2);
+            out.flush();
+            exchange.close();   // the client sees a truncated body
+            return;
+        }
+        out.write(data, offset, length);
+        out.close();
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static byte[] randomBytes(int n, long seed) {
+        byte data[] = new byte[n];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private ResumableDownloader newDownloader() {
+        ResumableDownloader downloader = new ResumableDownloader();
+        downloader.setBackoffTime(1);
+        downloader.setMaxAttempts(3);
+        return downloader;
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        byte data[] = randomBytes(300000, 1);
+        files.put("/a.bin", data);
+        File file = File.createTempFile("download", ".bin");
+        file.delete();
+        try {
+            String md5 = newDownloader().download(url("/a.bin"), file);
+            assertEquals(DigestUtils.md5Hex(data), md5);
+            assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+            assertEquals(Arrays.asList((String) null), ranges);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte data[] = randomBytes(300000, 2);
+        files.put("/a.bin", data);
+        File file = File.createTempFile("download", ".bin");
+        try {
+            FileUtils.writeByteArrayToFile(file, Arrays.copyOf(data, 1000));
+            String md5 = newDownloader().download(url("/a.bin"), file);
+            assertEquals(DigestUtils.md5Hex(data), md5);
+            assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+            assertEquals(Arrays.asList("bytes=1000-"), ranges);
+
+            // a complete file only needs its checksum
+            ranges.clear();
+            assertEquals(DigestUtils.md5Hex(data), newDownloader().download(url("/a.bin"), file));
+            assertEquals(Arrays.asList("bytes=300000-"), ranges);
+            assertEquals(300000L, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testResumeAfterFailure() throws Exception {
+        byte data[] = randomBytes(300000, 3);
+        files.put("/a.bin", data);
+        failuresLeft = 1;
+        File file = File.createTempFile("download", ".bin");
+        file.delete();
+        try {
+            String md5 = newDownloader().download(url("/a.bin"), file);
+            assertEquals(DigestUtils.md5Hex(data), md5);
+            assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+            assertEquals(2, ranges.size());
+            assertNull(ranges.get(0));
+            assertNotNull(ranges.get(1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testServerWithoutRanges() throws Exception {
+        byte data[] = randomBytes(5000, 4);
+        files.put("/a.bin", data);
+        supportRanges = false;
+        File file = File.createTempFile("download", ".bin");
+        try {
+            FileUtils.writeByteArrayToFile(file, Arrays.copyOf(data, 1000));
+            String md5 = newDownloader().download(url("/a.bin"), file);
+            assertEquals(DigestUtils.md5Hex(data), md5);
+            assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(file)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        File file = File.createTempFile("download", ".bin");
+        file.delete();
+        try {
+            newDownloader().download(url("/missing.bin"), file);
+            fail("a missing file should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDumpFileDownloader() throws Exception {
+        byte data1[] = randomBytes(200000, 5);
+        byte data2[] = randomBytes(100000, 6);
+        files.put("/simplewiki-20130101-pages-articles.xml.bz2", data1);
+        files.put("/simplewiki-20130101-pagelinks.sql.gz", data2);
+        File dir = WpIOUtils.createTempDirectory("dump-download");
+        try {
+            File list = new File(dir, "list.tsv");
+            FileUtils.writeLines(list, Arrays.asList(
+                    "simple\t20130101\tarticles\t0\t" + url("/simplewiki-20130101-pages-articles.xml.bz2")
+                            + "\t" + DigestUtils.md5Hex(data1),
+                    "simple\t20130101\tlinks\t0\t" + url("/simplewiki-20130101-pagelinks.sql.gz")
+                            + "\t" + DigestUtils.md5Hex(data2)));
+
+            // a partial file left by an earlier run
+            File output = new File(dir, "output");
+            File partial = new File(output, ".partial/simple/20130101/simplewiki-20130101-pages-articles.xml.bz2");
+            FileUtils.writeByteArrayToFile(partial, Arrays.copyOf(data1, 5000));
+
+            DumpFileDownloader downloader = new DumpFileDownloader(output);
+            downloader.getDownloader().setBackoffTime(1);
+            downloader.setNumThreads(2);
+            downloader.downloadFrom(list);
+
+            File f1 = new File(output, "simple/20130101/simplewiki-20130101-pages-articles.xml.bz2");
+            File f2 = new File(output, "simple/20130101/simplewiki-20130101-pagelinks.sql.gz");
+            assertTrue(Arrays.equals(data1, FileUtils.readFileToByteArray(f1)));
+            assertTrue(Arrays.equals(data2, FileUtils.readFileToByteArray(f2)));
+            assertTrue(ranges.contains("bytes=5000-"));
+
+            // finished files are not downloaded again
+            ranges.clear();
+            downloader.downloadFrom(list);
+            assertTrue(ranges.isEmpty());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testDumpFileDownloaderBadChecksum() throws Exception {
+        byte data[] = randomBytes(1000, 7);
+        files.put("/simplewiki-20130101-pages-articles.xml.bz2", data);
+        File dir = WpIOUtils.createTempDirectory("dump-download");
+        try {
+            File list = new File(dir, "list.tsv");
+            FileUtils.writeLines(list, Arrays.asList(
+                    "simple\t20130101\tarticles\t0\t" + url("/simplewiki-20130101-pages-articles.xml.bz2")
+                            + "\t" + DigestUtils.md5Hex("something else")));
+            File output = new File(dir, "output");
+            DumpFileDownloader downloader = new DumpFileDownloader(output);
+            downloader.getDownloader().setBackoffTime(1);
+            try {
+                downloader.downloadFrom(list);
+                fail("a bad checksum should fail");
+            } catch (WikapidiaException e) {
+                // expected
+            }
+            assertFalse(new File(output, "simple/20130101/simplewiki-20130101-pages-articles.xml.bz2").exists());
+            assertEquals(2, ranges.size());     // downloaded again once
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testDumpFileDownloaderUnexpectedFailure() throws Exception {
+        final byte data[] = randomBytes(1000, 8);
+        files.put("/simplewiki-20130101-pages-articles.xml.bz2", data);
+        File dir = WpIOUtils.createTempDirectory("dump-download");
+        try {
+            File list = new File(dir, "list.tsv");
+            FileUtils.writeLines(list, Arrays.asList(
+                    "simple\t20130101\tarticles\t0\t" + url("/simplewiki-20130101-pages-articles.xml.bz2")
+                            + "\t" + DigestUtils.md5Hex(data)));
+            File output = new File(dir, "output");
+
+            // the download leaves a partial file and then fails with an unchecked exception
+            DumpFileDownloader downloader = new DumpFileDownloader(output) {
+                @Override
+                public File getOneFile(DumpLinkInfo link) throws InterruptedException, IOException {
+                    File partial = super.getOneFile(link);
+                    FileUtils.writeByteArrayToFile(partial, Arrays.copyOf(data, 500));
+                    throw new IllegalStateException("unexpected failure");
+                }
+            };
+            try {
+                downloader.downloadFrom(list);
+                fail("an unexpected failure should fail the download");
+            } catch (WikapidiaException e) {
+                // expected
+            }
+            assertFalse(new File(output, "simple/20130101/simplewiki-20130101-pages-articles.xml.bz2").exists());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
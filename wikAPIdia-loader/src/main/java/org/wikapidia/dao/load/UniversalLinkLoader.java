@@ -16,10 +16,15 @@ import org.wikapidia.core.model.LocalLink;
 import org.wikapidia.core.lang.LanguageSet;
 import org.wikapidia.core.model.UniversalLink;
 import org.wikapidia.mapper.ConceptMapper;
+import org.wikapidia.utils.ParallelForEach;
+import org.wikapidia.utils.Procedure;
+import org.wikapidia.utils.WpThreadUtils;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +38,8 @@ import java.util.logging.Logger;
 public class UniversalLinkLoader {
     private static final Logger LOG = Logger.getLogger(UniversalLinkLoader.class.getName());
 
+    private static final int PARTITIONS_PER_THREAD = 4;
+
     private final LanguageSet languageSet;
     private final LocalLinkDao localLinkDao;
     private final UniversalPageDao universalPageDao;
@@ -63,43 +70,127 @@ public class UniversalLinkLoader {
      * @throws WikapidiaException
      */
     public void loadLinkMap(int algorithmId) throws WikapidiaException {
+        loadLinkMap(algorithmId, WpThreadUtils.getMaxThreads());
+    }
+
+    /**
+     * Loads the database of UniversalLinks using several worker threads.
+     * The links are partitioned by language and by ranges of local source ids.
+     * Each worker maps the links in its partition through a local to universal id table
+     * that is fetched once up front, and saves the resulting links in the daos, whose
+     * fast loaders batch the inserts.
+     *
+     * @param algorithmId
+     * @param numThreads
+     * @throws WikapidiaException
+     */
+    public void loadLinkMap(final int algorithmId, int numThreads) throws WikapidiaException {
         try {
-            Iterable<LocalLink> localLinks = localLinkDao.get(new DaoFilter().setLanguages(languageSet));
             LOG.log(Level.INFO, "Fetching ID map");
-            Map<Language, TIntIntMap> map = universalPageDao.getAllLocalToUnivIdsMap(algorithmId, languageSet);
-            LOG.log(Level.INFO, "Loading links");
+            final Map<Language, TIntIntMap> map = universalPageDao.getAllLocalToUnivIdsMap(algorithmId, languageSet);
+            List<LinkPartition> partitions = new ArrayList<LinkPartition>();
+            for (Language language : languageSet) {
+                partitions.addAll(partition(language, map.get(language), numThreads * PARTITIONS_PER_THREAD));
+            }
+            LOG.log(Level.INFO, "Loading links in " + partitions.size() + " partitions with " + numThreads + " threads");
             long start = System.currentTimeMillis();
-            int i=0;
-            for (LocalLink localLink : localLinks) {
-                i++;
-                if (i%100000 == 0)
-                    LOG.log(Level.INFO, "UniversalLinks loaded: " + i);
-                int univSourceId, univDestId;
-                if (localLink.getSourceId() < 0) {
-                    univSourceId = -1;
-                } else {
-                    univSourceId = map.get(localLink.getLanguage()).get(localLink.getSourceId());
+            final AtomicInteger counter = new AtomicInteger();
+            final List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+            ParallelForEach.loop(partitions, numThreads, new Procedure<LinkPartition>() {
+                @Override
+                public void call(LinkPartition partition) throws Exception {
+                    try {
+                        loadPartition(algorithmId, partition, map.get(partition.language), counter);
+                    } catch (Exception e) {
+                        LOG.log(Level.SEVERE, "Loading UniversalLinks in partition " + partition + " failed", e);
+                        failures.add(e);
+                    }
                 }
-                if (localLink.getDestId() < 0) {
-                    univDestId = -1;
-                } else {
-                    univDestId = map.get(localLink.getLanguage()).get(localLink.getDestId());
-                }
-                Multimap<Language, LocalLink> linkMap = HashMultimap.create();
-                linkMap.put(localLink.getLanguage(), localLink);
-                UniversalLink link = new UniversalLink(univSourceId, univDestId, algorithmId, linkMap);
-                universalLinkDao.save(link);
-                universalLinkSkeletalDao.save(link);
+            }, 1);
+            if (!failures.isEmpty()) {
+                Exception e = failures.get(0);
+                throw (e instanceof DaoException)
+                        ? (DaoException) e
+                        : new DaoException("Loading UniversalLinks failed in " + failures.size() + " partitions", e);
             }
             long end = System.currentTimeMillis();
             double seconds = (end - start) / 1000.0;
             LOG.log(Level.INFO, "Time (s): " + seconds);
-            LOG.log(Level.INFO, "All UniversalLinks loaded: " + i);
+            LOG.log(Level.INFO, "All UniversalLinks loaded: " + counter.get());
         } catch (DaoException e) {
             throw new WikapidiaException(e);
         }
     }
 
+    private void loadPartition(int algorithmId, LinkPartition partition, TIntIntMap ids, AtomicInteger counter) throws DaoException {
+        DaoFilter filter = new DaoFilter()
+                .setLanguages(partition.language)
+                .setSourceIdRange(partition.minSourceId, partition.maxSourceId);
+        for (LocalLink localLink : localLinkDao.get(filter)) {
+            int univSourceId = (localLink.getSourceId() < 0) ? -1 : ids.get(localLink.getSourceId());
+            int univDestId = (localLink.getDestId() < 0) ? -1 : ids.get(localLink.getDestId());
+            Multimap<Language, LocalLink> linkMap = HashMultimap.create(1, 1);
+            linkMap.put(localLink.getLanguage(), localLink);
+            UniversalLink link = new UniversalLink(univSourceId, univDestId, algorithmId, linkMap);
+            universalLinkDao.save(link);
+            universalLinkSkeletalDao.save(link);
+            if (counter.incrementAndGet() % 100000 == 0) {
+                LOG.log(Level.INFO, "UniversalLinks loaded: " + counter.get());
+            }
+        }
+    }
+
+    /**
+     * Splits the local id space of a language into ranges that hold roughly
+     * the same number of mapped pages.
+     *
+     * @param language
+     * @param ids local to universal ids for the language
+     * @param numPartitions
+     * @return
+     */
+    static List<LinkPartition> partition(Language language, TIntIntMap ids, int numPartitions) {
+        List<LinkPartition> partitions = new ArrayList<LinkPartition>();
+        int localIds[] = (ids == null) ? new int[0] : ids.keys();
+        if (localIds.length == 0) {
+            // still scan the language once so that red links are loaded
+            partitions.add(new LinkPartition(language, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            return partitions;
+        }
+        Arrays.sort(localIds);
+        int perPartition = Math.max(1, localIds.length / Math.max(1, numPartitions));
+        int lower = Integer.MIN_VALUE;
+        for (int i = perPartition; i < localIds.length; i += perPartition) {
+            int upper = localIds[i];
+            if (upper > lower) {
+                partitions.add(new LinkPartition(language, lower, upper));
+                lower = upper;
+            }
+        }
+        partitions.add(new LinkPartition(language, lower, Integer.MAX_VALUE));
+        return partitions;
+    }
+
+    /**
+     * A range of local source ids, [minSourceId, maxSourceId), in a single language.
+     */
+    static class LinkPartition {
+        final Language language;
+        final int minSourceId;
+        final int maxSourceId;
+
+        LinkPartition(Language language, int minSourceId, int maxSourceId) {
+            this.language = language;
+            this.minSourceId = minSourceId;
+            this.maxSourceId = maxSourceId;
+        }
+
+        @Override
+        public String toString() {
+            return language + " [" + minSourceId + ", " + maxSourceId + ")";
+        }
+    }
+
     public void endLoad() throws DaoException {
         LOG.log(Level.INFO, "End Load");
         long start = System.currentTimeMillis();
@@ -0,0 +1,65 @@
+package org.wikapidia.dao.load;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.dao.DaoFilter;
+import org.wikapidia.core.dao.sql.LocalLinkSqlDao;
+import org.wikapidia.core.dao.sql.TestDaoUtil;
+import org.wikapidia.core.dao.sql.WpDataSource;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.model.LocalLink;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestUniversalLinkLoader {
+
+    @Test
+    public void testPartitionsAreDisjointAndComplete() throws ClassNotFoundException, IOException, DaoException {
+        WpDataSource ds = TestDaoUtil.getWpDataSource();
+        LocalLinkSqlDao dao = new LocalLinkSqlDao(ds);
+        Language en = Language.getByLangCode("en");
+
+        // mapped pages have ids 10 to 109, links also come from unmapped pages outside that range
+        TIntIntMap ids = new TIntIntHashMap();
+        for (int i = 10; i < 110; i++) {
+            ids.put(i, 1000 + i);
+        }
+        Set<String> all = new HashSet<String>();
+        Random random = new Random(1);
+        dao.beginLoad();
+        for (int i = 0; i < 500; i++) {
+            int src = random.nextInt(130) - 5;
+            int dest = random.nextInt(130) - 5;
+            dao.save(new LocalLink(en, "anchor", src, dest, true, i, true, LocalLink.LocationType.NONE));
+            all.add(key(src, dest, i));
+        }
+        dao.endLoad();
+
+        List<UniversalLinkLoader.LinkPartition> partitions = UniversalLinkLoader.partition(en, ids, 7);
+        assertTrue(partitions.size() > 1);
+        Set<String> seen = new HashSet<String>();
+        for (UniversalLinkLoader.LinkPartition p : partitions) {
+            DaoFilter filter = new DaoFilter()
+                    .setLanguages(en)
+                    .setSourceIdRange(p.minSourceId, p.maxSourceId);
+            for (LocalLink link : dao.get(filter)) {
+                // a link in two partitions would be loaded twice
+                assertTrue(seen.add(key(link.getSourceId(), link.getDestId(), link.getLocation())));
+            }
+        }
+        assertEquals(all, seen);
+    }
+
+    private static String key(int src, int dest, int location) {
+        return src + ":" + dest + ":" + location;
+    }
+}
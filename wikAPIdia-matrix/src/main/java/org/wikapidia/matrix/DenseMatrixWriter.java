@@ -28,6 +28,9 @@ public class DenseMatrixWriter {
     private int colIds[];
 
     public DenseMatrixWriter(File path, ValueConf conf) throws IOException {
+        if (!conf.isDefaultCodec()) {
+            throw new IllegalArgumentException("Dense matrices only support linear 16 bit values");
+        }
         this.path = path;
         this.vconf = conf;
         info("writing matrix to " + path);
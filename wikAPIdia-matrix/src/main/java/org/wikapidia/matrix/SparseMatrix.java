@@ -26,6 +26,12 @@ public class SparseMatrix implements Matrix<SparseMatrixRow> {
 
     public static final int FILE_HEADER = 0xabcdef;
 
+    /**
+     * Marks files whose values use a codec other than linear 16 bit values.
+     * The codec, bits, and codebook follow the number of rows in the header.
+     */
+    public static final int FILE_HEADER_CODEC = 0xabcdf0;
+
     MemoryMappedMatrix rowBuffers;
 
     private TIntLongHashMap rowOffsets = new TIntLongHashMap();
@@ -51,12 +57,17 @@ public class SparseMatrix implements Matrix<SparseMatrixRow> {
     private void readHeaders() throws IOException {
         long size = Math.min(channel.size(), DEFAULT_HEADER_SIZE);
         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
-        if (buffer.getInt(0) != FILE_HEADER) {
-            throw new IOException("invalid file header: " + buffer.getInt(0));
+        int fileHeader = buffer.getInt(0);
+        if (fileHeader == FILE_HEADER) {
+            this.vconf = new ValueConf(buffer.getFloat(4), buffer.getFloat(8));
+        } else if (fileHeader == FILE_HEADER_CODEC) {
+            this.vconf = readValueConf(buffer);
+        } else {
+            throw new IOException("invalid file header: " + fileHeader);
         }
-        this.vconf = new ValueConf(buffer.getFloat(4), buffer.getFloat(8));
         int numRows = buffer.getInt(12);
-        int headerSize = 16 + 12*numRows;
+        int offsetsStart = getCodecHeaderSize(vconf);
+        int headerSize = offsetsStart + 12*numRows;
         if (headerSize > DEFAULT_HEADER_SIZE) {
             info("maxPageSize not large enough for entire header. Resizing to " + headerSize);
             buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
@@ -65,7 +76,7 @@ public class SparseMatrix implements Matrix<SparseMatrixRow> {
         rowIds = new int[numRows];
         rowOffsets.ensureCapacity(numRows);
         for (int i = 0; i < numRows; i++) {
-            int pos = 16 + 12 * i;
+            int pos = offsetsStart + 12 * i;
             int rowIndex = buffer.getInt(pos);
             long rowOffset = buffer.getLong(pos + 4);
             rowOffsets.put(rowIndex, rowOffset);
@@ -75,6 +86,33 @@ public class SparseMatrix implements Matrix<SparseMatrixRow> {
         debug("read " + numRows + " offsets");
     }
 
+    private ValueConf readValueConf(ByteBuffer buffer) throws IOException {
+        ValueConf.Codec codecs[] = ValueConf.Codec.values();
+        int codec = buffer.getInt(16);
+        if (codec < 0 || codec >= codecs.length) {
+            throw new IOException("unknown value codec: " + codec);
+        }
+        float codebook[] = null;
+        int codebookSize = buffer.getInt(24);
+        if (codebookSize > 0) {
+            codebook = new float[codebookSize];
+            for (int i = 0; i < codebookSize; i++) {
+                codebook[i] = buffer.getFloat(28 + 4 * i);
+            }
+        }
+        return new ValueConf(codecs[codec], buffer.getInt(20), buffer.getFloat(4), buffer.getFloat(8), codebook);
+    }
+
+    /**
+     * @return The number of bytes in the file header before the row offsets.
+     */
+    static int getCodecHeaderSize(ValueConf vconf) {
+        if (vconf.isDefaultCodec()) {
+            return 16;
+        }
+        float codebook[] = vconf.getCodebook();
+        return 28 + 4 * (codebook == null ? 0 : codebook.length);
+    }
 
     @Override
     public SparseMatrixRow getRow(int rowId) throws IOException {
@@ -12,10 +12,22 @@ import java.util.logging.Logger;
 /**
  * A single sparse matrix row backed by a byte buffer. The row contains:
  * - a row id (int),
- * - a set of n columns, each with an id (int) and value (float packed into two bytes)
+ * - a set of n columns, each with an id (int) and value (float packed into two bytes,
+ *   or one byte if the value conf uses 8 bit values)
  *
  * The row can either be created from the component data, or from a byte buffer.
  * This means that the object can wrap data from an mmap'd file in the correct format.
+ *
+ * Rows whose column ids are sorted can be compressed (see {@link #compress()}).
+ * A compressed row has its own header and stores:
+ * - the number of bytes in the encoded ids (int),
+ * - a skip table with the first id (int) and byte offset (int) of each block of
+ *   BLOCK_SIZE ids,
+ * - the differences between the other consecutive ids in each block as varints,
+ * - the values as in an uncompressed row.
+ * A column id is found by decoding its block, which is kept until another block is
+ * needed, so reading the columns in order decodes each block once. Because of this,
+ * a compressed row should not be shared between threads.
  */
 public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
     Logger LOG = Logger.getLogger(SparseMatrixRow.class.getName());
@@ -26,6 +38,11 @@ public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
     public static final int PACKED_RANGE = (Short.MAX_VALUE - Short.MIN_VALUE);
 
     public static final int HEADER = 0xfefefefe;
+    public static final int COMPRESSED_HEADER = 0xfefefefd;
+
+    public static final int BLOCK_SIZE = 16;
+    private static final int BLOCK_SHIFT = 4;
+    private static final int SKIP_TABLE_OFFSET = 16;
 
     /**
      * The main "source" buffer.
@@ -43,11 +60,29 @@ public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
     private IntBuffer idBuffer;
 
     /**
-     * A view buffer that points to the values.
+     * A view buffer that points to 16 bit values, or null for 8 bit values.
      */
     private ShortBuffer valBuffer;
+
+    /**
+     * The position of the first value in the main buffer.
+     */
+    private int valOffset;
     private ValueConf vconf;
 
+    private boolean compressed = false;
+
+    /**
+     * The position of the first encoded id in the main buffer of a compressed row.
+     */
+    private int idOffset;
+
+    /**
+     * The ids in the most recently decoded block of a compressed row.
+     */
+    private int blockIds[];
+    private int decodedBlock = -1;
+
     public SparseMatrixRow(ValueConf vconf, int rowIndex, TIntFloatMap row) {
         this(vconf, rowIndex, row.keys(), row.values());
     }
@@ -73,6 +108,15 @@ public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
         createBuffer(rowIndex, colIds, colVals);
     }
 
+    private SparseMatrixRow(ValueConf vconf, int rowIndex, int sortedColIds[], short colVals[], boolean compressed) {
+        this.vconf = vconf;
+        if (compressed) {
+            createCompressedBuffer(rowIndex, sortedColIds, colVals);
+        } else {
+            createBuffer(rowIndex, sortedColIds, colVals);
+        }
+    }
+
     public void createBuffer(int rowIndex, int colIds[], short colVals[]) {
         assert(colIds.length == colVals.length);
 
@@ -81,7 +125,7 @@ public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
                 4 +                 // row index
                 4 +                 // num cols
                 4 * colVals.length +    // col indexes
-                2 * colVals.length      // col values
+                vconf.getBytesPerValue() * colVals.length      // col values
         );
         createViewBuffers(colVals.length);
 
@@ -89,7 +133,61 @@ public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
         headerBuffer.put(1, rowIndex);
         headerBuffer.put(2, colVals.length);
         idBuffer.put(colIds, 0, colIds.length);
-        valBuffer.put(colVals, 0, colVals.length);
+        putValues(colVals);
+    }
+
+    private void createCompressedBuffer(int rowIndex, int colIds[], short colVals[]) {
+        assert(colIds.length == colVals.length);
+
+        int numBlocks = (colIds.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int skipTable[] = new int[numBlocks * 2];
+        byte encoded[] = new byte[colIds.length * 5];
+        int numBytes = 0;
+        for (int i = 0; i < colIds.length; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                skipTable[2 * (i / BLOCK_SIZE)] = colIds[i];
+                skipTable[2 * (i / BLOCK_SIZE) + 1] = numBytes;
+                continue;
+            }
+            // differences wrap around for negative ids, so they are unsigned
+            int delta = colIds[i] - colIds[i - 1];
+            while ((delta & ~0x7f) != 0) {
+                encoded[numBytes++] = (byte) ((delta & 0x7f) | 0x80);
+                delta >>>= 7;
+            }
+            encoded[numBytes++] = (byte) delta;
+        }
+
+        buffer = ByteBuffer.allocate(
+                4 +                 // header
+                4 +                 // row index
+                4 +                 // num cols
+                4 +                 // num bytes in encoded ids
+                8 * numBlocks +     // skip table
+                numBytes +          // encoded ids
+                vconf.getBytesPerValue() * colVals.length      // col values
+        );
+        buffer.putInt(0, COMPRESSED_HEADER);
+        buffer.putInt(4, rowIndex);
+        buffer.putInt(8, colIds.length);
+        buffer.putInt(12, numBytes);
+        for (int i = 0; i < skipTable.length; i++) {
+            buffer.putInt(SKIP_TABLE_OFFSET + 4 * i, skipTable[i]);
+        }
+        createCompressedViewBuffers(colIds.length);
+        buffer.position(idOffset);
+        buffer.put(encoded, 0, numBytes);
+        putValues(colVals);
+    }
+
+    private void putValues(short colVals[]) {
+        if (valBuffer != null) {
+            valBuffer.put(colVals, 0, colVals.length);
+        } else {
+            for (int i = 0; i < colVals.length; i++) {
+                buffer.put(valOffset + i, (byte) colVals[i]);
+            }
+        }
     }
 
     private void createViewBuffers(int numColumns) {
@@ -97,8 +195,23 @@ public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
         headerBuffer = buffer.asIntBuffer();
         buffer.position(3 * 4);
         idBuffer = buffer.asIntBuffer();
-        buffer.position(3 * 4 + numColumns * 4);
-        valBuffer = buffer.asShortBuffer();
+        valOffset = 3 * 4 + numColumns * 4;
+        buffer.position(valOffset);
+        valBuffer = (vconf.getBytesPerValue() == 2) ? buffer.asShortBuffer() : null;
+    }
+
+    private void createCompressedViewBuffers(int numColumns) {
+        compressed = true;
+        buffer.position(0);
+        headerBuffer = buffer.asIntBuffer();
+        idOffset = SKIP_TABLE_OFFSET + 8 * getNumBlocks(numColumns);
+        valOffset = idOffset + buffer.getInt(12);
+        buffer.position(valOffset);
+        valBuffer = (vconf.getBytesPerValue() == 2) ? buffer.asShortBuffer() : null;
+    }
+
+    private static int getNumBlocks(int numColumns) {
+        return (numColumns + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
     }
 
     /**
@@ -108,24 +221,140 @@ public final class SparseMatrixRow extends BaseMatrixRow implements MatrixRow {
     public SparseMatrixRow(ValueConf vconf, ByteBuffer buffer) {
         this.vconf = vconf;
         this.buffer = buffer;
-        if (this.buffer.getInt(0) != HEADER) {
+        int header = this.buffer.getInt(0);
+        if (header == HEADER) {
+            createViewBuffers(buffer.getInt(8));
+        } else if (header == COMPRESSED_HEADER) {
+            createCompressedViewBuffers(buffer.getInt(8));
+        } else {
             throw new IllegalArgumentException("Invalid header in byte buffer");
         }
-        createViewBuffers(buffer.getInt(8));
+    }
+
+    /**
+     * Returns a compressed copy of this row.
+     * If the column ids are not sorted, or compression would not make the row
+     * smaller, the row itself is returned.
+     */
+    public SparseMatrixRow compress() {
+        if (compressed) {
+            return this;
+        }
+        int n = getNumCols();
+        int colIds[] = getColIndexes();
+        long encodedSize = 4 + 8 * getNumBlocks(n);
+        for (int i = 1; i < n; i++) {
+            if (colIds[i] < colIds[i - 1]) {
+                return this;
+            }
+            long delta = (long) colIds[i] - colIds[i - 1];
+            encodedSize += (delta < (1 << 7)) ? 1 : (delta < (1 << 14)) ? 2 : (delta < (1 << 21)) ? 3 : (delta < (1 << 28)) ? 4 : 5;
+        }
+        if (encodedSize >= 4 * n) {
+            return this;
+        }
+        short colVals[] = new short[n];
+        for (int i = 0; i < n; i++) {
+            colVals[i] = getPackedColValue(i);
+        }
+        return new SparseMatrixRow(vconf, getRowIndex(), colIds, colVals, true);
+    }
+
+    public boolean isCompressed() {
+        return compressed;
     }
 
     @Override
     public final int getColIndex(int i) {
-        return idBuffer.get(i);
+        if (!compressed) {
+            return idBuffer.get(i);
+        }
+        int block = i >> BLOCK_SHIFT;
+        if (block != decodedBlock) {
+            if (blockIds == null) {
+                blockIds = new int[BLOCK_SIZE];
+            }
+            decodeBlock(block, blockIds, 0);
+            decodedBlock = block;
+        }
+        return blockIds[i & (BLOCK_SIZE - 1)];
+    }
+
+    /**
+     * @return All column ids, decoded in a single pass for compressed rows.
+     */
+    public int[] getColIndexes() {
+        int colIds[] = new int[getNumCols()];
+        if (!compressed) {
+            IntBuffer ids = idBuffer.duplicate();
+            ids.position(0);
+            ids.get(colIds);
+        } else {
+            for (int block = 0; block < getNumBlocks(colIds.length); block++) {
+                decodeBlock(block, colIds, block << BLOCK_SHIFT);
+            }
+        }
+        return colIds;
+    }
+
+    private void decodeBlock(int block, int dest[], int destOffset) {
+        int n = Math.min(BLOCK_SIZE, getNumCols() - (block << BLOCK_SHIFT));
+        int id = buffer.getInt(SKIP_TABLE_OFFSET + 8 * block);
+        int pos = idOffset + buffer.getInt(SKIP_TABLE_OFFSET + 8 * block + 4);
+        dest[destOffset] = id;
+        for (int j = 1; j < n; j++) {
+            int b = buffer.get(pos++);
+            int delta = b & 0x7f;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = buffer.get(pos++);
+                delta |= (b & 0x7f) << shift;
+            }
+            id += delta;
+            dest[destOffset + j] = id;
+        }
+    }
+
+    /**
+     * Compressed rows are sorted, so the skip table narrows the search to one block.
+     */
+    @Override
+    public int getIndexForId(int id) {
+        if (!compressed) {
+            return super.getIndexForId(id);
+        }
+        int lo = 0;
+        int hi = getNumBlocks(getNumCols()) - 1;
+        if (hi < 0 || id < buffer.getInt(SKIP_TABLE_OFFSET)) {
+            return -1;
+        }
+        // find the last block whose first id is less than id; repeated ids may
+        // continue into the next block
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (buffer.getInt(SKIP_TABLE_OFFSET + 8 * mid) < id) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        for (int i = lo << BLOCK_SHIFT; i < getNumCols(); i++) {
+            int colId = getColIndex(i);
+            if (colId == id) {
+                return i;
+            } else if (colId > id) {
+                break;
+            }
+        }
+        return -1;
     }
 
     @Override
     public final float getColValue(int i) {
-        return vconf.unpack(valBuffer.get(i));
+        return vconf.unpack(getPackedColValue(i));
     }
 
     public final short getPackedColValue(int i) {
-        return valBuffer.get(i);
+        return (valBuffer != null) ? valBuffer.get(i) : buffer.get(valOffset + i);
     }
 
     @Override
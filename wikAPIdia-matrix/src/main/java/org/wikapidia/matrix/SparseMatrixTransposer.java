@@ -31,6 +31,7 @@ public class SparseMatrixTransposer {
     public SparseMatrixTransposer(SparseMatrix m, File f, int bufferMb) throws IOException {
         this.matrix = m;
         this.writer = new SparseMatrixWriter(f, m.getValueConf());
+        this.writer.setCompressColumnIds(true);
         this.bufferMb = bufferMb;
         this.numColsTransposed = 0;
     }
@@ -126,8 +127,24 @@ public class SparseMatrixTransposer {
         RowAccumulator(int id) {
             this.id = id;
         }
+        /**
+         * Sorts the columns by id, so the row can be compressed.
+         */
         SparseMatrixRow toRow(ValueConf vconf) {
-            return new SparseMatrixRow(vconf, id, colIds.toArray(), colVals.toArray());
+            int n = colIds.size();
+            long sorted[] = new long[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = ((long) colIds.get(i) << 32) | i;
+            }
+            Arrays.sort(sorted);
+            int ids[] = new int[n];
+            short vals[] = new short[n];
+            for (int i = 0; i < n; i++) {
+                int j = (int) (sorted[i] & 0xffffffffL);
+                ids[i] = colIds.get(j);
+                vals[i] = colVals.get(j);
+            }
+            return new SparseMatrixRow(vconf, id, ids, vals);
         }
         void addCol(int id, short val) {
             this.colIds.add(id);
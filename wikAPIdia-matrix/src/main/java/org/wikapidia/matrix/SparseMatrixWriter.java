@@ -24,6 +24,7 @@ public class SparseMatrixWriter {
     private BufferedOutputStream body;
     private long bodyOffset = 0;
     private ValueConf vconf;
+    private boolean compressColumnIds = false;
 
     public SparseMatrixWriter(File path, ValueConf conf) throws IOException {
         this.path = path;
@@ -42,6 +43,9 @@ public class SparseMatrixWriter {
         if (!row.getValueConf().almostEquals(vconf)) {
             throw new IllegalArgumentException("Value conf for row does not match the writer's value conf");
         }
+        if (compressColumnIds) {
+            row = row.compress();
+        }
         row.getBuffer().rewind();
         byte[] bytes = new byte[row.getBuffer().remaining()];
         row.getBuffer().get(bytes, 0, bytes.length);
@@ -65,12 +69,24 @@ public class SparseMatrixWriter {
 
         // write offset file
         info("generating header");
-        int sizeHeader = 16 + rowOffsets.size() * 12;
+        int sizeHeader = SparseMatrix.getCodecHeaderSize(vconf) + rowOffsets.size() * 12;
         body = new BufferedOutputStream(new FileOutputStream(path));
-        body.write(intToBytes(SparseMatrix.FILE_HEADER));
+        body.write(intToBytes(vconf.isDefaultCodec() ? SparseMatrix.FILE_HEADER : SparseMatrix.FILE_HEADER_CODEC));
         body.write(floatToBytes(vconf.minScore));
         body.write(floatToBytes(vconf.maxScore));
         body.write(intToBytes(rowOffsets.size()));
+        if (!vconf.isDefaultCodec()) {
+            // files with the default codec keep the original header
+            float codebook[] = vconf.getCodebook();
+            body.write(intToBytes(vconf.getCodec().ordinal()));
+            body.write(intToBytes(vconf.getBits()));
+            body.write(intToBytes(codebook == null ? 0 : codebook.length));
+            if (codebook != null) {
+                for (float level : codebook) {
+                    body.write(floatToBytes(level));
+                }
+            }
+        }
         for (int i = 0; i < rowIndexes.size(); i++) {
             int rowIndex = rowIndexes.get(i);
             long rowOffset = rowOffsets.get(rowIndex);
@@ -104,6 +120,14 @@ public class SparseMatrixWriter {
         w.finish();
     }
 
+    /**
+     * @param compressColumnIds If true, rows with sorted column ids are written
+     *                          in the compressed row format.
+     */
+    public void setCompressColumnIds(boolean compressColumnIds) {
+        this.compressColumnIds = compressColumnIds;
+    }
+
     public ValueConf getValueConf() {
         return vconf;
     }
@@ -1,51 +1,269 @@
 package org.wikapidia.matrix;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Configuration for the values in a sparse matrix row.
  * This class handles packing and unpacking of values.
- * Right now it uses a simple scheme, and packs the float
+ *
+ * By default it uses a simple scheme, and packs the float
  * into a short. This will work well if the floats are
  * uniformly distributed across the range in [minScore, maxScore].
+ *
+ * Heavy-tailed scores are better served by one of the other codecs:
+ * - LOG packs the sign and the logarithm of the magnitude of a score,
+ *   so scores near zero keep more precision than scores far from it.
+ *   The packed values are spread over the logarithms of [minScore, maxScore],
+ *   so a range such as [-1.1, 1.1] packs zero in the middle.
+ * - QUANTILE uses a codebook trained from a sample of the scores
+ *   (see {@link #trainQuantiles(float[], int)}), so each packed value
+ *   covers about the same number of scores.
+ *
+ * Any codec can pack values into 16 or 8 bits. Packed values are always
+ * handed around as shorts; 8 bit values lie in [Byte.MIN_VALUE, Byte.MAX_VALUE]
+ * and take a single byte in a SparseMatrixRow.
  */
 public class ValueConf implements Serializable {
     public static final Float MIN_SCORE = -1.1f;
     public static final Float MAX_SCORE = 1.1f;
 
+    public static enum Codec {
+        LINEAR,
+        LOG,
+        QUANTILE
+    }
+
+    /**
+     * How strongly the LOG codec favors scores near zero.
+     */
+    public static final float LOG_SCALE = 1000.0f;
+
     public final float minScore;
     public final float maxScore;
     public final float range;
     public static final int PACKED_RANGE = (Short.MAX_VALUE - Short.MIN_VALUE);
 
+    private final Codec codec;
+    private final int bits;
+    private final int minPacked;
+    private final int packedRange;
+
+    /**
+     * The largest magnitude of a score, and the span of the logarithms
+     * of [minScore, maxScore], for the LOG codec.
+     */
+    private final double maxMagnitude;
+    private final double minLog;
+    private final double logRange;
+
+    /**
+     * The sorted values of a QUANTILE codec, or null.
+     */
+    private final float codebook[];
+
+    /**
+     * The unpacked value of every packed value, for non-linear codecs.
+     */
+    private transient float decoded[];
+
     public ValueConf() {
         this(MIN_SCORE, MAX_SCORE);
     }
 
     public ValueConf(float minScore, float maxScore) {
+        this(minScore, maxScore, Codec.LINEAR, 16);
+    }
+
+    /**
+     * @param minScore
+     * @param maxScore
+     * @param codec LINEAR or LOG. Use trainQuantiles() for a QUANTILE codec.
+     * @param bits 16 or 8.
+     */
+    public ValueConf(float minScore, float maxScore, Codec codec, int bits) {
+        this(codec, bits, minScore, maxScore, null);
+        if (codec == Codec.QUANTILE) {
+            throw new IllegalArgumentException("quantile codecs must be trained from a sample");
+        }
+    }
+
+    ValueConf(Codec codec, int bits, float minScore, float maxScore, float codebook[]) {
+        if (bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("values must be packed into 8 or 16 bits, not " + bits);
+        }
+        if (codec == Codec.QUANTILE && (codebook == null || codebook.length == 0 || codebook.length > (1 << bits))) {
+            throw new IllegalArgumentException("invalid codebook for " + bits + " bit values");
+        }
+        this.codec = codec;
+        this.bits = bits;
+        this.codebook = codebook;
         this.minScore = minScore;
         this.maxScore = maxScore;
-        range = maxScore - minScore;
+        this.range = maxScore - minScore;
+        this.minPacked = (bits == 16) ? Short.MIN_VALUE : Byte.MIN_VALUE;
+        this.packedRange = (bits == 16) ? PACKED_RANGE : (Byte.MAX_VALUE - Byte.MIN_VALUE);
+        this.maxMagnitude = Math.max(Math.abs(minScore), Math.abs(maxScore));
+        this.minLog = signedLog(minScore);
+        this.logRange = signedLog(maxScore) - minLog;
+        buildDecoded();
+    }
+
+    /**
+     * Creates a QUANTILE codec whose values are the quantiles of a sample of scores.
+     * The smallest and largest scores in the sample become minScore and maxScore.
+     *
+     * @param sample Scores representative of those that will be packed.
+     * @param bits 16 or 8.
+     */
+    public static ValueConf trainQuantiles(float sample[], int bits) {
+        if (sample.length == 0) {
+            throw new IllegalArgumentException("cannot train a codebook from an empty sample");
+        }
+        float sorted[] = Arrays.copyOf(sample, sample.length);
+        Arrays.sort(sorted);
+        int numLevels = Math.min(1 << bits, sorted.length);
+        float levels[] = new float[numLevels];
+        for (int i = 0; i < numLevels; i++) {
+            // the middle of each equally sized bucket of scores
+            levels[i] = sorted[(int) ((i + 0.5) * sorted.length / numLevels)];
+        }
+        levels[0] = sorted[0];
+        levels[numLevels - 1] = sorted[sorted.length - 1];
+
+        // tied scores share a level
+        int n = 0;
+        for (int i = 0; i < numLevels; i++) {
+            if (n == 0 || levels[i] != levels[n - 1]) {
+                levels[n++] = levels[i];
+            }
+        }
+        levels = Arrays.copyOf(levels, n);
+        return new ValueConf(Codec.QUANTILE, bits, levels[0], levels[n - 1], levels);
+    }
+
+    private void buildDecoded() {
+        if (codec == Codec.QUANTILE) {
+            decoded = codebook;
+        } else if (codec == Codec.LOG) {
+            decoded = new float[packedRange + 1];
+            for (int i = 0; i < decoded.length; i++) {
+                decoded[i] = pinchScore((float) signedExp(minLog + logRange * i / packedRange));
+            }
+        }
+    }
+
+    /**
+     * @return The sign of s times the scaled logarithm of its magnitude, in [-1, 1].
+     */
+    private double signedLog(double s) {
+        if (maxMagnitude == 0.0) {
+            return 0.0;
+        }
+        double magnitude = Math.log1p(Math.abs(s) / maxMagnitude * LOG_SCALE) / Math.log1p(LOG_SCALE);
+        return (s < 0) ? -magnitude : magnitude;
+    }
+
+    /**
+     * The inverse of signedLog().
+     */
+    private double signedExp(double l) {
+        double magnitude = Math.expm1(Math.abs(l) * Math.log1p(LOG_SCALE)) / LOG_SCALE * maxMagnitude;
+        return (l < 0) ? -magnitude : magnitude;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildDecoded();
     }
 
     public final short pack(float s) {
-        float normalized = (pinchScore(s) - minScore) / range;
-        return  (short)(normalized * PACKED_RANGE + Short.MIN_VALUE);
+        switch (codec) {
+            case LINEAR: {
+                float normalized = (pinchScore(s) - minScore) / range;
+                return  (short)(normalized * packedRange + minPacked);
+            }
+            case LOG: {
+                double normalized = (signedLog(pinchScore(s)) - minLog) / logRange;
+                return (short) (Math.round(normalized * packedRange) + minPacked);
+            }
+            default: {
+                return (short) (nearestLevel(s) + minPacked);
+            }
+        }
     }
 
     public final float unpack(short s) {
-        float f = (1.0f * (s - Short.MIN_VALUE) / PACKED_RANGE) * range + minScore;
+        if (decoded != null) {
+            return decoded[s - minPacked];
+        }
+        float f = (1.0f * (s - minPacked) / packedRange) * range + minScore;
         assert(minScore <= f && f <= maxScore);
         return f;
     }
 
+    private int nearestLevel(float s) {
+        int i = Arrays.binarySearch(codebook, s);
+        if (i >= 0) {
+            return i;
+        }
+        int above = -i - 1;
+        if (above == 0) {
+            return 0;
+        } else if (above == codebook.length) {
+            return codebook.length - 1;
+        } else if (codebook[above] - s < s - codebook[above - 1]) {
+            return above;
+        } else {
+            return above - 1;
+        }
+    }
+
     public final float pinchScore(float s) {
         if (s > maxScore) return maxScore;
         else if (s < minScore) return minScore;
         else return s;
     }
 
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return The number of bits in a packed value: 16 or 8.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    public int getBytesPerValue() {
+        return bits / 8;
+    }
+
+    /**
+     * @return The levels of a QUANTILE codec, or null for other codecs.
+     */
+    public float[] getCodebook() {
+        return codebook;
+    }
+
+    /**
+     * @return True if values are packed linearly into 16 bits, the format
+     * understood by every version of the matrix files.
+     */
+    public boolean isDefaultCodec() {
+        return codec == Codec.LINEAR && bits == 16;
+    }
+
     public boolean almostEquals(ValueConf vconf) {
+        if (codec != vconf.codec || bits != vconf.bits) {
+            return false;
+        }
+        if (codec == Codec.QUANTILE) {
+            return Arrays.equals(codebook, vconf.codebook);
+        }
         double delta = 0.001 * Math.min(range, vconf.range);   // allowed error
         return (
                 (Math.abs(minScore - vconf.minScore) < delta) &&
@@ -2,9 +2,15 @@ package org.wikapidia.matrix;
 
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TestSparseMatrixRow {
     private int[] keys = new int[] { 9, 11, 3, 26, 54 };
@@ -30,6 +36,101 @@ public class TestSparseMatrixRow {
         }
     }
 
+    @Test
+    public void testCompress() {
+        Random random = new Random(3);
+        for (int n : new int[] { 0, 1, 15, 16, 17, 100, 1000 }) {
+            int ids[] = new int[n];
+            short vals[] = new short[n];
+            int id = -500;
+            for (int i = 0; i < n; i++) {
+                // mostly small gaps, with a few repeats and one huge jump
+                int gap = (i == 50) ? Integer.MAX_VALUE / 4 : (i % 13 == 0) ? 0 : random.nextInt(300);
+                id += gap;
+                ids[i] = id;
+                vals[i] = (short) random.nextInt();
+            }
+            SparseMatrixRow row = new SparseMatrixRow(new ValueConf(), ROW_INDEX, ids, vals);
+            SparseMatrixRow compressed = row.compress();
+            if (n < 16) {
+                continue;
+            }
+            assertTrue(compressed.isCompressed());
+            assertTrue(compressed.getBuffer().capacity() < row.getBuffer().capacity());
+
+            // wrap the buffer, as a matrix does
+            SparseMatrixRow wrapped = new SparseMatrixRow(new ValueConf(), compressed.getBuffer());
+            assertTrue(wrapped.isCompressed());
+            assertEquals(ROW_INDEX, wrapped.getRowIndex());
+            assertEquals(n, wrapped.getNumCols());
+            assertTrue(Arrays.equals(ids, wrapped.getColIndexes()));
+            for (int i = n - 1; i >= 0; i--) {
+                assertEquals(ids[i], wrapped.getColIndex(i));
+                assertEquals(vals[i], wrapped.getPackedColValue(i));
+                assertEquals(row.getIndexForId(ids[i]), wrapped.getIndexForId(ids[i]));
+            }
+            assertEquals(-1, wrapped.getIndexForId(ids[0] - 1));
+            assertEquals(-1, wrapped.getIndexForId(ids[n - 1] + 1));
+        }
+    }
+
+    @Test
+    public void testCompressUnsorted() {
+        SparseMatrixRow row = (SparseMatrixRow) createRow();
+        assertFalse(row.compress().isCompressed());
+
+        // rows with large gaps are not worth compressing
+        int ids[] = new int[] { 0, 1 << 30, Integer.MAX_VALUE };
+        row = new SparseMatrixRow(new ValueConf(), ROW_INDEX, ids, new short[ids.length]);
+        assertFalse(row.compress().isCompressed());
+    }
+
+    @Test
+    public void testCompressedMatrix() throws IOException {
+        ValueConf vconf = new ValueConf(0.0f, 1.0f, ValueConf.Codec.LINEAR, 8);
+        File file = File.createTempFile("matrix", null);
+        File transposed = File.createTempFile("matrix", null);
+        file.deleteOnExit();
+        transposed.deleteOnExit();
+        SparseMatrixWriter writer = new SparseMatrixWriter(file, vconf);
+        writer.setCompressColumnIds(true);
+        for (int i = 0; i < 100; i++) {
+            int ids[] = new int[i];
+            float vals[] = new float[i];
+            for (int j = 0; j < i; j++) {
+                ids[j] = 2 * j;
+                vals[j] = 0.01f * j;
+            }
+            writer.writeRow(new SparseMatrixRow(vconf, i, ids, vals));
+        }
+        writer.finish();
+
+        SparseMatrix matrix = new SparseMatrix(file);
+        for (int i = 0; i < 100; i++) {
+            SparseMatrixRow row = matrix.getRow(i);
+            if (i >= 16) {
+                assertTrue(row.isCompressed());
+            }
+            assertEquals(i, row.getNumCols());
+            for (int j = 0; j < i; j++) {
+                assertEquals(2 * j, row.getColIndex(j));
+                assertEquals(0.01f * j, row.getColValue(j), 0.01);
+            }
+        }
+
+        // column j of the transpose holds rows j / 2 + 1 through 99
+        new SparseMatrixTransposer(matrix, transposed, 1).transpose();
+        SparseMatrix transpose = new SparseMatrix(transposed);
+        for (int j = 0; j < 99; j++) {
+            SparseMatrixRow row = transpose.getRow(2 * j);
+            assertEquals(99 - j, row.getNumCols());
+            for (int k = 0; k < row.getNumCols(); k++) {
+                assertEquals(j + 1 + k, row.getColIndex(k));
+                assertEquals(0.01f * j, row.getColValue(k), 0.01);
+            }
+        }
+    }
+
     public MatrixRow createRow() {
         LinkedHashMap<Integer, Float> m = new LinkedHashMap<Integer, Float>();
         assertEquals(keys.length, vals.length);
@@ -0,0 +1,178 @@
+package org.wikapidia.matrix;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestValueConf {
+
+    /**
+     * Heavy-tailed scores in [0, 1], most of them close to zero.
+     */
+    private static float[] createScores(int n, Random random) {
+        float scores[] = new float[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = (float) Math.pow(random.nextDouble(), 6);
+        }
+        return scores;
+    }
+
+    @Test
+    public void testLinear() {
+        for (int bits : new int[] { 16, 8 }) {
+            ValueConf vconf = new ValueConf(-1.0f, 1.0f, ValueConf.Codec.LINEAR, bits);
+            float maxError = 2.0f / ((1 << bits) - 1);
+            for (float s = -1.0f; s <= 1.0f; s += 0.01f) {
+                short packed = vconf.pack(s);
+                assertEquals(s, vconf.unpack(packed), maxError);
+                if (bits == 8) {
+                    assertTrue(packed >= Byte.MIN_VALUE && packed <= Byte.MAX_VALUE);
+                }
+            }
+        }
+        // the default codec is unchanged
+        ValueConf vconf = new ValueConf();
+        assertTrue(vconf.isDefaultCodec());
+        assertEquals(Short.MIN_VALUE, vconf.pack(-5.0f));
+        assertEquals(Short.MAX_VALUE, vconf.pack(5.0f));
+    }
+
+    @Test
+    public void testLog() {
+        ValueConf vconf = new ValueConf(0.0f, 1.0f, ValueConf.Codec.LOG, 8);
+        ValueConf linear = new ValueConf(0.0f, 1.0f, ValueConf.Codec.LINEAR, 8);
+        for (float s : new float[] { 0.01f, 0.1f, 0.5f, 1.0f }) {
+            float unpacked = vconf.unpack(vconf.pack(s));
+            // small scores keep about the same relative precision as large ones
+            assertEquals(s, unpacked, s * 0.05);
+        }
+        // tiny scores are packed almost linearly, with a fine step
+        assertEquals(0.0001f, vconf.unpack(vconf.pack(0.0001f)), 0.00003);
+        float small = 0.003f;
+        assertTrue(Math.abs(vconf.unpack(vconf.pack(small)) - small)
+                < Math.abs(linear.unpack(linear.pack(small)) - small));
+        assertEquals(0.0f, vconf.unpack(vconf.pack(-1.0f)), 0.0);
+        assertEquals(1.0f, vconf.unpack(vconf.pack(2.0f)), 0.0);
+    }
+
+    @Test
+    public void testSignedLog() {
+        // the default range of SR scores is anchored at zero, not at minScore
+        ValueConf vconf = new ValueConf(-1.1f, 1.1f, ValueConf.Codec.LOG, 8);
+        ValueConf linear = new ValueConf(-1.1f, 1.1f, ValueConf.Codec.LINEAR, 8);
+        for (float s : new float[] { 0.01f, 0.1f, 0.5f, 1.0f }) {
+            assertEquals(s, vconf.unpack(vconf.pack(s)), s * 0.05);
+            assertEquals(-s, vconf.unpack(vconf.pack(-s)), s * 0.05);
+        }
+        assertEquals(0.0f, vconf.unpack(vconf.pack(0.0f)), 0.0001);
+        float small = 0.003f;
+        assertTrue(Math.abs(vconf.unpack(vconf.pack(small)) - small)
+                < Math.abs(linear.unpack(linear.pack(small)) - small));
+        assertEquals(-1.1f, vconf.unpack(vconf.pack(-2.0f)), 0.0);
+        assertEquals(1.1f, vconf.unpack(vconf.pack(2.0f)), 0.0);
+    }
+
+    @Test
+    public void testQuantiles() {
+        Random random = new Random(1);
+        float sample[] = createScores(10000, random);
+        ValueConf vconf = ValueConf.trainQuantiles(sample, 8);
+        ValueConf linear = new ValueConf(0.0f, 1.0f, ValueConf.Codec.LINEAR, 8);
+        assertEquals(ValueConf.Codec.QUANTILE, vconf.getCodec());
+        assertTrue(vconf.getCodebook().length <= 256);
+
+        double error = 0.0;
+        double linearError = 0.0;
+        for (float s : createScores(10000, random)) {
+            short packed = vconf.pack(s);
+            assertTrue(packed >= Byte.MIN_VALUE && packed <= Byte.MAX_VALUE);
+            error += Math.abs(vconf.unpack(packed) - s);
+            linearError += Math.abs(linear.unpack(linear.pack(s)) - s);
+        }
+        assertTrue(error < linearError);
+
+        // few distinct scores are packed exactly
+        vconf = ValueConf.trainQuantiles(new float[] { 0.5f, 0.25f, 0.5f, 3.0f }, 16);
+        assertEquals(3, vconf.getCodebook().length);
+        for (float s : new float[] { 0.25f, 0.5f, 3.0f }) {
+            assertEquals(s, vconf.unpack(vconf.pack(s)), 0.0);
+        }
+        assertEquals(0.25f, vconf.unpack(vconf.pack(0.3f)), 0.0);
+    }
+
+    @Test
+    public void testAlmostEquals() {
+        ValueConf vconf = new ValueConf(0.0f, 1.0f, ValueConf.Codec.LOG, 8);
+        assertTrue(vconf.almostEquals(new ValueConf(0.0f, 1.0f, ValueConf.Codec.LOG, 8)));
+        assertFalse(vconf.almostEquals(new ValueConf(0.0f, 1.0f, ValueConf.Codec.LOG, 16)));
+        assertFalse(vconf.almostEquals(new ValueConf(0.0f, 1.0f)));
+    }
+
+    @Test
+    public void testMatrices() throws IOException {
+        Random random = new Random(2);
+        ValueConf vconfs[] = new ValueConf[] {
+                new ValueConf(0.0f, 1.0f, ValueConf.Codec.LINEAR, 8),
+                new ValueConf(0.0f, 1.0f, ValueConf.Codec.LOG, 16),
+                ValueConf.trainQuantiles(createScores(1000, random), 8),
+        };
+        for (ValueConf vconf : vconfs) {
+            File file = File.createTempFile("matrix", null);
+            File transposed = File.createTempFile("matrix", null);
+            file.deleteOnExit();
+            transposed.deleteOnExit();
+
+            SparseMatrixWriter writer = new SparseMatrixWriter(file, vconf);
+            SparseMatrixRow rows[] = new SparseMatrixRow[50];
+            for (int i = 0; i < rows.length; i++) {
+                int numCols = random.nextInt(20);
+                int colIds[] = new int[numCols];
+                for (int j = 0; j < numCols; j++) {
+                    colIds[j] = j * 3 + 1;
+                }
+                rows[i] = new SparseMatrixRow(vconf, i, colIds, createScores(numCols, random));
+                writer.writeRow(rows[i]);
+            }
+            writer.finish();
+
+            SparseMatrix matrix = new SparseMatrix(file);
+            assertTrue(vconf.almostEquals(matrix.getValueConf()));
+            for (SparseMatrixRow row : rows) {
+                SparseMatrixRow row2 = matrix.getRow(row.getRowIndex());
+                assertEquals(row.getNumCols(), row2.getNumCols());
+                for (int j = 0; j < row.getNumCols(); j++) {
+                    assertEquals(row.getColIndex(j), row2.getColIndex(j));
+                    assertEquals(row.getPackedColValue(j), row2.getPackedColValue(j));
+                    assertEquals(row.getColValue(j), row2.getColValue(j), 0.0);
+                }
+            }
+
+            new SparseMatrixTransposer(matrix, transposed, 1).transpose();
+            SparseMatrix transpose = new SparseMatrix(transposed);
+            assertTrue(vconf.almostEquals(transpose.getValueConf()));
+            for (SparseMatrixRow row : rows) {
+                for (int j = 0; j < row.getNumCols(); j++) {
+                    SparseMatrixRow column = transpose.getRow(row.getColIndex(j));
+                    int k = Arrays.binarySearch(toArray(column), row.getRowIndex());
+                    assertTrue(k >= 0);
+                    assertEquals(row.getColValue(j), column.getColValue(k), 0.0);
+                }
+            }
+        }
+    }
+
+    private static int[] toArray(SparseMatrixRow row) {
+        int ids[] = new int[row.getNumCols()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = row.getColIndex(i);
+        }
+        return ids;
+    }
+}
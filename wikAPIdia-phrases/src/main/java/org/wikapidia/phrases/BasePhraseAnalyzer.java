@@ -1,6 +1,7 @@
 package org.wikapidia.phrases;
 
-import com.google.code.externalsorting.ExternalSort;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.wikapidia.core.dao.DaoException;
 import org.wikapidia.core.dao.LocalPageDao;
 import org.wikapidia.core.lang.Language;
@@ -8,12 +9,16 @@ import org.wikapidia.core.lang.LanguageSet;
 import org.wikapidia.core.lang.StringNormalizer;
 import org.wikapidia.core.model.LocalPage;
 import org.wikapidia.core.model.Title;
+import org.wikapidia.utils.ParallelForEach;
+import org.wikapidia.utils.Procedure;
 import org.wikapidia.utils.WpIOUtils;
+import org.wikapidia.utils.WpThreadUtils;
 
 import java.io.*;
-import java.nio.charset.Charset;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -77,19 +82,39 @@ public abstract class BasePhraseAnalyzer implements PhraseAnalyzer {
     /**
      * Loads a specific corpus into the dao.
      *
+     * Entries are split into temp files by language and record type. The files are
+     * cut into chunks sized to the heap that are sorted in parallel. Each file's sorted
+     * chunks are then merged, grouped, pruned and saved in a single pass, with
+     * several files (and thus languages) loaded at once.
+     *
+     * If the load fails, the dao is aborted so that the partial corpus is not
+     * persisted but its files are still released.
+     *
      * @throws DaoException
      * @throws IOException
      */
     @Override
     public void loadCorpus(LanguageSet langs) throws DaoException, IOException {
-        // create temp files for storing corpus entries by phrase and local id.
+        boolean loaded = false;
+        try {
+            loadEntries(langs);
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                try {
+                    phraseDao.abort();
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "aborting phrase dao after a failed load failed", e);
+                }
+            }
+        }
+        phraseDao.close();
+    }
+
+    private void loadEntries(LanguageSet langs) throws DaoException, IOException {
+        // create temp files for storing corpus entries by phrase and local id for each language.
         // these will ultimately be sorted to group together records with the same phrase / id.
-        File byWpIdFile = File.createTempFile("wp_phrases_by_id", "txt");
-        byWpIdFile.deleteOnExit();
-        BufferedWriter byWpId = WpIOUtils.openWriter(byWpIdFile);
-        File byPhraseFile = File.createTempFile("wp_phrases_by_phrase", "txt");
-        byPhraseFile.deleteOnExit();
-        BufferedWriter byPhrase = WpIOUtils.openWriter(byPhraseFile);
+        Map<Language, CorpusFiles> files = new HashMap<Language, CorpusFiles>();
 
         // Iterate over each entry in the corpus.
         // Throws away entries in languages we don't care about.
@@ -118,22 +143,52 @@ public abstract class BasePhraseAnalyzer implements PhraseAnalyzer {
                 continue;
             }
             numEntriesRetained++;
+            CorpusFiles cf = files.get(e.language);
+            if (cf == null) {
+                cf = new CorpusFiles(e.language);
+                files.put(e.language, cf);
+            }
             e.phrase = e.phrase.replace("\n", " ").replace("\t", " ");
             // phrase is last because it may contain tabs.
             String line = e.language.getLangCode() + "\t" + e.localId + "\t" + e.count + "\t" + e.phrase + "\n";
-            byPhrase.write(e.language.getLangCode() + ":" + normalize(e.language, e.phrase) + "\t" + line);
-            byWpId.write(e.language.getLangCode() + ":" + e.localId + "\t" + line);
+            cf.byPhrase.write(e.language.getLangCode() + ":" + normalize(e.language, e.phrase) + "\t" + line);
+            cf.byWpId.write(e.language.getLangCode() + ":" + e.localId + "\t" + line);
+        }
+
+        final List<LoadTask> tasks = new ArrayList<LoadTask>();
+        for (CorpusFiles cf : files.values()) {
+            cf.close();
+            tasks.add(new LoadTask(RecordType.PAGES, cf.byWpIdFile, phrasePruner));
+            tasks.add(new LoadTask(RecordType.PHRASES, cf.byPhraseFile, pagePruner));
         }
-        byWpId.close();
-        byPhrase.close();
 
-        // sort phrases by phrase / id and load them
-        sortInPlace(byWpIdFile);
-        loadFromFile(RecordType.PAGES, byWpIdFile, phrasePruner);
-        sortInPlace(byPhraseFile);
-        loadFromFile(RecordType.PHRASES, byPhraseFile, pagePruner);
+        // sort chunks of all files in parallel, then merge and load several files at once.
+        int numThreads = WpThreadUtils.getMaxThreads();
+        sortChunks(tasks, numThreads);
+        final List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+        ParallelForEach.loop(tasks, numThreads, new Procedure<LoadTask>() {
+            @Override
+            public void call(LoadTask task) throws Exception {
+                try {
+                    mergeAndLoad(task);
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "loading of " + task.input + " failed", e);
+                    failures.add(e);
+                }
+            }
+        }, 1);
 
-        phraseDao.close();
+        // a partial corpus must not be persisted as if the load succeeded
+        if (!failures.isEmpty()) {
+            Exception e = failures.get(0);
+            if (e instanceof DaoException) {
+                throw (DaoException) e;
+            } else if (e instanceof IOException) {
+                throw (IOException) e;
+            } else {
+                throw new DaoException("loading of " + failures.size() + " phrase files failed", e);
+            }
+        }
     }
 
     /**
@@ -150,18 +205,208 @@ public abstract class BasePhraseAnalyzer implements PhraseAnalyzer {
         PAGES, PHRASES
     }
 
+    /**
+     * Temp files holding the entries for a single language.
+     */
+    private static class CorpusFiles {
+        File byWpIdFile;
+        File byPhraseFile;
+        BufferedWriter byWpId;
+        BufferedWriter byPhrase;
+
+        CorpusFiles(Language lang) throws IOException {
+            byWpIdFile = File.createTempFile("wp_phrases_by_id_" + lang.getLangCode(), "txt");
+            byWpIdFile.deleteOnExit();
+            byWpId = WpIOUtils.openWriter(byWpIdFile);
+            byPhraseFile = File.createTempFile("wp_phrases_by_phrase_" + lang.getLangCode(), "txt");
+            byPhraseFile.deleteOnExit();
+            byPhrase = WpIOUtils.openWriter(byPhraseFile);
+        }
+
+        void close() throws IOException {
+            byWpId.close();
+            byPhrase.close();
+        }
+    }
+
+    /**
+     * A single temp file that is sorted into chunks and then merged into the dao.
+     */
+    private static class LoadTask {
+        final RecordType type;
+        final File input;
+        final PrunedCounts.Pruner pruner;
+        final List<File> chunks = Collections.synchronizedList(new ArrayList<File>());
+
+        LoadTask(RecordType type, File input, PrunedCounts.Pruner pruner) {
+            this.type = type;
+            this.input = input;
+            this.pruner = pruner;
+        }
+    }
+
+    /**
+     * Splits each task's input into chunks that are sorted and written by a pool of threads.
+     * At most numThreads chunks are held in memory at once, and chunks are sized so that
+     * together they use a fraction of the heap.
+     */
+    private void sortChunks(List<LoadTask> tasks, int numThreads) throws IOException {
+        long maxChunkBytes = Runtime.getRuntime().maxMemory() / (4 * (numThreads + 1));
+        ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+        Semaphore permits = new Semaphore(numThreads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (LoadTask task : tasks) {
+                LOG.info("sorting " + task.input + " in chunks of at most " + maxChunkBytes + " bytes");
+                BufferedReader reader = WpIOUtils.openBufferedReader(task.input);
+                try {
+                    List<String> lines = new ArrayList<String>();
+                    long bytes = 0;
+                    while (true) {
+                        String line = reader.readLine();
+                        if (line == null) {
+                            break;
+                        }
+                        lines.add(line);
+                        bytes += 2 * line.length() + 64;    // rough size of the string on the heap
+                        if (bytes >= maxChunkBytes) {
+                            futures.add(submitChunk(exec, permits, task, lines));
+                            lines = new ArrayList<String>();
+                            bytes = 0;
+                        }
+                    }
+                    if (!lines.isEmpty()) {
+                        futures.add(submitChunk(exec, permits, task, lines));
+                    }
+                } finally {
+                    reader.close();
+                }
+                task.input.delete();
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    private Future<?> submitChunk(ExecutorService exec, final Semaphore permits, final LoadTask task, final List<String> lines) throws InterruptedException {
+        permits.acquire();
+        return exec.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                try {
+                    Collections.sort(lines);
+                    File chunk = File.createTempFile("wp_phrases_chunk", "txt");
+                    chunk.deleteOnExit();
+                    BufferedWriter writer = WpIOUtils.openWriter(chunk);
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                    writer.close();
+                    task.chunks.add(chunk);
+                    return null;
+                } finally {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a file whose lines are already sorted by key into the dao.
+     */
     protected void loadFromFile(RecordType ltype, File input, PrunedCounts.Pruner pruner) throws IOException, DaoException {
         BufferedReader reader = WpIOUtils.openBufferedReader(input);
+        try {
+            loadSortedLines(ltype, new MergingIterator(Arrays.asList(reader)), input.toString(), pruner);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Merges the sorted chunks of a task and loads the merged records into the dao.
+     */
+    private void mergeAndLoad(LoadTask task) throws IOException, DaoException {
+        List<BufferedReader> readers = new ArrayList<BufferedReader>();
+        try {
+            for (File chunk : task.chunks) {
+                readers.add(WpIOUtils.openBufferedReader(chunk));
+            }
+            loadSortedLines(task.type, new MergingIterator(readers), task.input.toString(), task.pruner);
+        } finally {
+            for (BufferedReader reader : readers) {
+                IOUtils.closeQuietly(reader);
+            }
+            for (File chunk : task.chunks) {
+                chunk.delete();
+            }
+        }
+    }
+
+    /**
+     * Iterates over the lines of several sorted readers in sorted order.
+     */
+    private static class MergingIterator implements Iterator<String> {
+        private final PriorityQueue<Pair<String, BufferedReader>> heads;
+
+        MergingIterator(List<BufferedReader> readers) throws IOException {
+            heads = new PriorityQueue<Pair<String, BufferedReader>>(
+                    Math.max(1, readers.size()),
+                    new Comparator<Pair<String, BufferedReader>>() {
+                        @Override
+                        public int compare(Pair<String, BufferedReader> p1, Pair<String, BufferedReader> p2) {
+                            return p1.getKey().compareTo(p2.getKey());
+                        }
+                    });
+            for (BufferedReader reader : readers) {
+                String line = reader.readLine();
+                if (line != null) {
+                    heads.add(Pair.of(line, reader));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            Pair<String, BufferedReader> head = heads.poll();
+            try {
+                String line = head.getValue().readLine();
+                if (line != null) {
+                    heads.add(Pair.of(line, head.getValue()));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return head.getKey();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private void loadSortedLines(RecordType ltype, Iterator<String> lines, String input, PrunedCounts.Pruner pruner) throws DaoException {
         String lastKey = null;
 
         int maxBufferSize = 1000;
         List<Entry> buffer = new ArrayList<Entry>();
 
-        while (true) {
-            String line = reader.readLine();
-            if (line == null) {
-                break;
-            }
+        while (lines.hasNext()) {
+            String line = lines.next();
             String tokens[] = line.split("\t", 5);
             if (tokens.length != 5) {
                 LOG.warning("invalid line in file " + input + ": " + line);
@@ -245,24 +490,10 @@ public abstract class BasePhraseAnalyzer implements PhraseAnalyzer {
         }
     }
 
-    private void sortInPlace(File file) throws IOException {
-        int maxFiles = Math.max(100, (int) (file.length() / (Runtime.getRuntime().maxMemory() / 20)));
-        LOG.info("sorting " + file + " using max of " + maxFiles);
-        Comparator<String> comparator = new Comparator<String>() {
-            public int compare(String r1, String r2){
-                return r1.compareTo(r2);}};
-        List<File> l = ExternalSort.sortInBatch(file, comparator, maxFiles, Charset.forName("utf-8"), null, false);
-        LOG.info("merging " + file);
-        ExternalSort.mergeSortedFiles(l, file, comparator, Charset.forName("utf-8"));
-        LOG.info("finished sorting" + file);
-    }
-
-
     @Override
     public LinkedHashMap<String, Float> describe(Language language, LocalPage page, int maxPhrases) throws DaoException {
         LinkedHashMap<String, Float> result = new LinkedHashMap<String, Float>();
         PrunedCounts<String> counts = phraseDao.getPageCounts(language, page.getLocalId(), maxPhrases);
-        System.out.println(counts);
         if (counts == null) {
             return null;
         }
@@ -282,10 +513,17 @@ public abstract class BasePhraseAnalyzer implements PhraseAnalyzer {
         if (counts == null) {
             return null;
         }
+        if (counts.isEmpty()) {
+            return result;
+        }
+        Map<Integer, LocalPage> pages = pageDao.getByIds(language, counts.keySet());
         for (Integer wpId : counts.keySet()) {
-            result.put(pageDao.getById(language, wpId),
-                    (float)1.0 * counts.get(wpId) / counts.getTotal());
-            if (counts.size() >= maxPages) {
+            LocalPage page = pages.get(wpId);
+            if (page == null) {
+                continue;
+            }
+            result.put(page, (float)1.0 * counts.get(wpId) / counts.getTotal());
+            if (result.size() >= maxPages) {
                 break;
             }
         }
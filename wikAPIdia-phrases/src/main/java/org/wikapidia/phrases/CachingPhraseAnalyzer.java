@@ -0,0 +1,162 @@
+package org.wikapidia.phrases;
+
+import com.typesafe.config.Config;
+import org.wikapidia.conf.Configuration;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LanguageSet;
+import org.wikapidia.core.lang.StringNormalizer;
+import org.wikapidia.core.model.LocalPage;
+import org.wikapidia.utils.BoundedCache;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the results of another phrase analyzer (often a cascading analyzer).
+ *
+ * Resolve results are keyed by language, normalized phrase, and the maximum number
+ * of pages. Describe results are keyed by language, page id, and the maximum number
+ * of phrases. Both caches are bounded by the total number of entries in the cached
+ * results and record hits, misses, and evictions.
+ */
+public class CachingPhraseAnalyzer implements PhraseAnalyzer {
+
+    // Markers for cached null results.
+    private static final LinkedHashMap NO_PHRASES = new LinkedHashMap();
+    private static final LinkedHashMap NO_PAGES = new LinkedHashMap();
+
+    private final PhraseAnalyzer delegate;
+    private final StringNormalizer normalizer;
+    private final BoundedCache<Key, LinkedHashMap<String, Float>> describeCache;
+    private final BoundedCache<Key, LinkedHashMap<LocalPage, Float>> resolveCache;
+
+    /**
+     * @param delegate
+     * @param normalizer Normalizes phrases before they are used as cache keys.
+     * @param maxEntries The maximum number of phrases or pages held by each cache.
+     */
+    public CachingPhraseAnalyzer(PhraseAnalyzer delegate, StringNormalizer normalizer, long maxEntries) {
+        this.delegate = delegate;
+        this.normalizer = normalizer;
+        this.describeCache = new BoundedCache<Key, LinkedHashMap<String, Float>>(maxEntries, new SizeWeigher<String>());
+        this.resolveCache = new BoundedCache<Key, LinkedHashMap<LocalPage, Float>>(maxEntries, new SizeWeigher<LocalPage>());
+    }
+
+    @Override
+    public void loadCorpus(LanguageSet langs) throws DaoException, IOException {
+        delegate.loadCorpus(langs);
+        describeCache.clear();
+        resolveCache.clear();
+    }
+
+    @Override
+    public LinkedHashMap<String, Float> describe(Language language, LocalPage page, int maxPhrases) throws DaoException {
+        Key key = new Key(language, page.getLocalId(), maxPhrases);
+        LinkedHashMap<String, Float> result = describeCache.get(key);
+        if (result == null) {
+            result = delegate.describe(language, page, maxPhrases);
+            describeCache.put(key, (result == null) ? NO_PHRASES : result);
+        } else if (result == NO_PHRASES) {
+            return null;
+        }
+        return (result == null) ? null : new LinkedHashMap<String, Float>(result);
+    }
+
+    @Override
+    public LinkedHashMap<LocalPage, Float> resolve(Language language, String phrase, int maxPages) throws DaoException {
+        Key key = new Key(language, normalizer.normalize(language, phrase), maxPages);
+        LinkedHashMap<LocalPage, Float> result = resolveCache.get(key);
+        if (result == null) {
+            result = delegate.resolve(language, phrase, maxPages);
+            resolveCache.put(key, (result == null) ? NO_PAGES : result);
+        } else if (result == NO_PAGES) {
+            return null;
+        }
+        return (result == null) ? null : new LinkedHashMap<LocalPage, Float>(result);
+    }
+
+    public PhraseAnalyzer getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return The cache of describe results, which exposes hit, miss, and eviction counts.
+     */
+    public BoundedCache<?, ?> getDescribeCache() {
+        return describeCache;
+    }
+
+    /**
+     * @return The cache of resolve results, which exposes hit, miss, and eviction counts.
+     */
+    public BoundedCache<?, ?> getResolveCache() {
+        return resolveCache;
+    }
+
+    private static class SizeWeigher<T> implements BoundedCache.Weigher<Key, LinkedHashMap<T, Float>> {
+        @Override
+        public int weigh(Key key, LinkedHashMap<T, Float> value) {
+            return value.size() + 1;
+        }
+    }
+
+    private static class Key {
+        private final short langId;
+        private final Object subject;
+        private final int limit;
+
+        Key(Language language, Object subject, int limit) {
+            this.langId = language.getId();
+            this.subject = subject;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return langId == key.langId && limit == key.limit && subject.equals(key.subject);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = langId;
+            result = 31 * result + subject.hashCode();
+            result = 31 * result + limit;
+            return result;
+        }
+    }
+
+    public static class Provider extends org.wikapidia.conf.Provider<PhraseAnalyzer> {
+        public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
+            super(configurator, config);
+        }
+
+        @Override
+        public Class<PhraseAnalyzer> getType() {
+            return PhraseAnalyzer.class;
+        }
+
+        @Override
+        public String getPath() {
+            return "phrases.analyzer";
+        }
+
+        @Override
+        public PhraseAnalyzer get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+            if (!config.getString("type").equals("caching")) {
+                return null;
+            }
+            return new CachingPhraseAnalyzer(
+                    getConfigurator().get(PhraseAnalyzer.class, config.getString("delegate")),
+                    getConfigurator().get(StringNormalizer.class, config.getString("normalizer")),
+                    config.getLong("maxEntries")
+            );
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.wikapidia.phrases;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * An immutable, memory mapped dictionary from byte keys to byte values.
+ *
+ * The file contains a header, the entries sorted by unsigned byte order of their keys,
+ * and a table with the file offset of each entry. Lookups binary search the offset table
+ * and return a read-only view of the value without copying or deserializing it.
+ * Each lookup works on its own duplicate of the mapped buffers, so any number of threads
+ * can read the dictionary concurrently.
+ *
+ * File layout:
+ * int magic, int version, int numEntries, long tableOffset,
+ * numEntries x (varint keyLength, key, varint valueLength, value),
+ * numEntries x long entryOffset
+ */
+public class MappedPhraseDictionary {
+    private static final Logger LOG = Logger.getLogger(MappedPhraseDictionary.class.getName());
+
+    public static final int MAGIC = 0x57504844;     // "WPHD"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    // Mapped segments are split at entry boundaries, so they can't exceed this size.
+    public static final int PAGE_SIZE = 1024 * 1024 * 1024;     // 1GB
+
+    private final File path;
+    private final FileChannel channel;
+    private final int numEntries;
+    private final LongBuffer offsets;
+    private final long[] segmentStarts;
+    private final MappedByteBuffer[] segments;
+
+    public MappedPhraseDictionary(File path) throws IOException {
+        this.path = path;
+        this.channel = new FileInputStream(path).getChannel();
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("invalid phrase dictionary " + path);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("unknown version " + version + " of phrase dictionary " + path);
+        }
+        this.numEntries = header.getInt();
+        long tableOffset = header.getLong();
+        this.offsets = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, 8L * numEntries).asLongBuffer();
+
+        List<Long> starts = new ArrayList<Long>();
+        List<MappedByteBuffer> buffers = new ArrayList<MappedByteBuffer>();
+        if (numEntries > 0) {
+            long start = offsets.get(0);
+            long last = start;
+            for (int i = 1; i < numEntries; i++) {
+                long pos = offsets.get(i);
+                if (pos - start > PAGE_SIZE) {
+                    starts.add(start);
+                    buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, start, last - start));
+                    start = last;
+                }
+                last = pos;
+            }
+            starts.add(start);
+            buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, start, tableOffset - start));
+        }
+        this.segmentStarts = new long[starts.size()];
+        for (int i = 0; i < starts.size(); i++) {
+            segmentStarts[i] = starts.get(i);
+        }
+        this.segments = buffers.toArray(new MappedByteBuffer[buffers.size()]);
+        LOG.info("opened phrase dictionary " + path + " with " + numEntries + " entries in " + segments.length + " segments");
+    }
+
+    /**
+     * @param key
+     * @return A buffer positioned at the start of the value associated with the key,
+     * or null if the key is not in the dictionary.
+     */
+    public ByteBuffer get(byte[] key) {
+        int lo = 0;
+        int hi = numEntries - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            ByteBuffer entry = getEntry(mid);
+            int keyLength = PhraseCountsCodec.readVarInt(entry);
+            int cmp = compareKey(entry, keyLength, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                entry.position(entry.position() + keyLength);
+                int valueLength = PhraseCountsCodec.readVarInt(entry);
+                entry.limit(entry.position() + valueLength);
+                return entry.slice();
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return numEntries;
+    }
+
+    public File getPath() {
+        return path;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer getEntry(int i) {
+        long offset = offsets.get(i);
+        int s = Arrays.binarySearch(segmentStarts, offset);
+        if (s < 0) {
+            s = -s - 2;
+        }
+        ByteBuffer buffer = segments[s].duplicate();
+        buffer.position((int) (offset - segmentStarts[s]));
+        return buffer;
+    }
+
+    /**
+     * Compares the key at the buffer's position to the target key using unsigned byte order.
+     * Does not change the buffer's position.
+     */
+    private static int compareKey(ByteBuffer buffer, int keyLength, byte[] target) {
+        int start = buffer.position();
+        int n = Math.min(keyLength, target.length);
+        for (int i = 0; i < n; i++) {
+            int b1 = buffer.get(start + i) & 0xFF;
+            int b2 = target[i] & 0xFF;
+            if (b1 != b2) {
+                return b1 - b2;
+            }
+        }
+        return keyLength - target.length;
+    }
+
+    /**
+     * Writes a dictionary file. Entries must be added in increasing unsigned byte order
+     * of their keys (the order in which a Berkeley DB cursor returns them).
+     */
+    public static class Writer {
+        private final File path;
+        private final DataOutputStream out;
+        private final DataOutputStream table;
+        private final File tablePath;
+        private long position = HEADER_SIZE;
+        private int numEntries = 0;
+        private byte[] lastKey = null;
+
+        public Writer(File path) throws IOException {
+            this.path = path;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1024 * 1024));
+            this.out.write(new byte[HEADER_SIZE]);
+            this.tablePath = File.createTempFile("phrase-dictionary-offsets", ".bin");
+            this.tablePath.deleteOnExit();
+            this.table = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tablePath), 1024 * 1024));
+        }
+
+        public void add(byte[] key, byte[] value) throws IOException {
+            if (lastKey != null && compareKey(ByteBuffer.wrap(lastKey), lastKey.length, key) >= 0) {
+                throw new IllegalArgumentException("keys must be added in increasing order");
+            }
+            ByteArrayOutputStream entry = new ByteArrayOutputStream(key.length + value.length + 10);
+            PhraseCountsCodec.writeVarInt(entry, key.length);
+            entry.write(key, 0, key.length);
+            PhraseCountsCodec.writeVarInt(entry, value.length);
+            entry.write(value, 0, value.length);
+            if (entry.size() > PAGE_SIZE) {
+                throw new IllegalArgumentException("entry of size " + entry.size() + " is too large");
+            }
+            table.writeLong(position);
+            entry.writeTo(out);
+            position += entry.size();
+            numEntries++;
+            lastKey = key;
+        }
+
+        public void finish() throws IOException {
+            table.close();
+            InputStream in = new BufferedInputStream(new FileInputStream(tablePath));
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            out.close();
+            tablePath.delete();
+
+            // header is written last so a partially written dictionary is never valid
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            try {
+                file.writeInt(MAGIC);
+                file.writeInt(VERSION);
+                file.writeInt(numEntries);
+                file.writeLong(position);
+            } finally {
+                file.close();
+            }
+            LOG.info("wrote phrase dictionary " + path + " with " + numEntries + " entries");
+        }
+    }
+}
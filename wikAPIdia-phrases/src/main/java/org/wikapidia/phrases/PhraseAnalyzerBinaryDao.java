@@ -0,0 +1,205 @@
+package org.wikapidia.phrases;
+
+import com.sleepycat.je.*;
+import com.typesafe.config.Config;
+import org.apache.commons.io.FileUtils;
+import org.wikapidia.conf.Configuration;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.StringNormalizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Persists information about phrases to page relationships in Berkeley DB using
+ * the compact encoding in PhraseCountsCodec instead of Java serialization.
+ *
+ * When the dao was opened for loading, closing it also writes read-only
+ * memory mapped dictionaries that PhraseAnalyzerMappedDao can serve from.
+ */
+public class PhraseAnalyzerBinaryDao implements PhraseAnalyzerDao {
+    private static final Logger LOG = Logger.getLogger(PhraseAnalyzerBinaryDao.class.getName());
+
+    public static final String DESCRIBE_DICTIONARY = "describe.dict";
+    public static final String RESOLVE_DICTIONARY = "resolve.dict";
+
+    private final StringNormalizer normalizer;
+    private final File path;
+    private final boolean isNew;
+    private Environment env;
+    private Database describeDb;
+    private Database resolveDb;
+
+    /**
+     * Creates a new dao using the given directory.
+     * @param path
+     * @param isNew If true, delete any information contained in the directory.
+     * @throws DaoException
+     */
+    public PhraseAnalyzerBinaryDao(StringNormalizer normalizer, File path, boolean isNew) throws DaoException {
+        this.normalizer = normalizer;
+        this.path = path;
+        this.isNew = isNew;
+        if (isNew) {
+            if (path.exists()) FileUtils.deleteQuietly(path);
+        }
+        path.mkdirs();
+        try {
+            EnvironmentConfig envConfig = new EnvironmentConfig();
+            envConfig.setTransactional(false);
+            envConfig.setAllowCreate(true);
+            this.env = new Environment(path, envConfig);
+
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setAllowCreate(true);
+            this.describeDb = env.openDatabase(null, "describe", dbConfig);
+            this.resolveDb = env.openDatabase(null, "resolve", dbConfig);
+        } catch (DatabaseException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    @Override
+    public void savePageCounts(Language lang, int wpId, PrunedCounts<String> counts) throws DaoException {
+        put(describeDb,
+                PhraseCountsCodec.encodeKey(lang, wpId),
+                PhraseCountsCodec.encodePhrases(counts));
+    }
+
+    @Override
+    public void savePhraseCounts(Language lang, String phrase, PrunedCounts<Integer> counts) throws DaoException {
+        phrase = normalizer.normalize(lang, phrase);
+        put(resolveDb,
+                PhraseCountsCodec.encodeKey(lang, phrase),
+                PhraseCountsCodec.encodePageIds(counts));
+    }
+
+    @Override
+    public StringNormalizer getStringNormalizer() {
+        return normalizer;
+    }
+
+    @Override
+    public PrunedCounts<Integer> getPhraseCounts(Language lang, String phrase, int maxPages) throws DaoException {
+        phrase = normalizer.normalize(lang, phrase);
+        ByteBuffer value = get(resolveDb, PhraseCountsCodec.encodeKey(lang, phrase));
+        return (value == null) ? null : PhraseCountsCodec.decodePageIds(value, maxPages);
+    }
+
+    @Override
+    public PrunedCounts<String> getPageCounts(Language lang, int wpId, int maxPhrases) throws DaoException {
+        ByteBuffer value = get(describeDb, PhraseCountsCodec.encodeKey(lang, wpId));
+        return (value == null) ? null : PhraseCountsCodec.decodePhrases(value, maxPhrases);
+    }
+
+    private void put(Database db, byte[] key, byte[] value) throws DaoException {
+        try {
+            db.put(null, new DatabaseEntry(key), new DatabaseEntry(value));
+        } catch (DatabaseException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    private ByteBuffer get(Database db, byte[] key) throws DaoException {
+        try {
+            DatabaseEntry value = new DatabaseEntry();
+            if (db.get(null, new DatabaseEntry(key), value, null) != OperationStatus.SUCCESS) {
+                return null;
+            }
+            return ByteBuffer.wrap(value.getData(), value.getOffset(), value.getSize());
+        } catch (DatabaseException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    /**
+     * Writes the describe and resolve entries to memory mapped dictionaries in the directory.
+     * @param dir
+     * @throws DaoException
+     */
+    public void writeDictionaries(File dir) throws DaoException {
+        dir.mkdirs();
+        writeDictionary(describeDb, new File(dir, DESCRIBE_DICTIONARY));
+        writeDictionary(resolveDb, new File(dir, RESOLVE_DICTIONARY));
+    }
+
+    private void writeDictionary(Database db, File file) throws DaoException {
+        Cursor cursor = null;
+        try {
+            MappedPhraseDictionary.Writer writer = new MappedPhraseDictionary.Writer(file);
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry value = new DatabaseEntry();
+            cursor = db.openCursor(null, CursorConfig.READ_UNCOMMITTED);
+            while (cursor.getNext(key, value, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                writer.add(key.getData(), value.getData());
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new DaoException(e);
+        } catch (DatabaseException e) {
+            throw new DaoException(e);
+        } finally {
+            if (cursor != null) {
+                try { cursor.close(); } catch (DatabaseException e) {}
+            }
+        }
+    }
+
+    @Override
+    public void close() throws DaoException {
+        if (isNew) {
+            LOG.info("writing memory mapped phrase dictionaries to " + path);
+            writeDictionaries(path);
+        }
+        abort();
+    }
+
+    @Override
+    public void abort() throws DaoException {
+        try {
+            describeDb.close();
+            resolveDb.close();
+            env.close();
+        } catch (DatabaseException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    public static class Provider extends org.wikapidia.conf.Provider<PhraseAnalyzerDao> {
+        public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
+            super(configurator, config);
+        }
+
+        @Override
+        public Class<PhraseAnalyzerDao> getType() {
+            return PhraseAnalyzerDao.class;
+        }
+
+        @Override
+        public String getPath() {
+            return "phrases.dao";
+        }
+
+        @Override
+        public PhraseAnalyzerDao get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+            if (!config.getString("type").equals("binary")) {
+                return null;
+            }
+            boolean isNew = config.getBoolean("isNew");
+            File path = new File(config.getString("path"));
+            StringNormalizer normalizer = getConfigurator().get(StringNormalizer.class, config.getString("normalizer"));
+
+            try {
+                return new PhraseAnalyzerBinaryDao(normalizer, path, isNew);
+            } catch (DaoException e) {
+                throw new ConfigurationException(e);
+            }
+        }
+    }
+}
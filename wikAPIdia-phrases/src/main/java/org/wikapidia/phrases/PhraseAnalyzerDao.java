@@ -63,4 +63,11 @@ public interface PhraseAnalyzerDao {
      * @throws DaoException
      */
     public void close() throws DaoException;
+
+    /**
+     * Closes the dao and releases its files without flushing unwritten data,
+     * for example after a load failed part way through.
+     * @throws DaoException
+     */
+    public void abort() throws DaoException;
 }
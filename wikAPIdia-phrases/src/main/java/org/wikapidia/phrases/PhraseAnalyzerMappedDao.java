@@ -0,0 +1,114 @@
+package org.wikapidia.phrases;
+
+import com.typesafe.config.Config;
+import org.wikapidia.conf.Configuration;
+import org.wikapidia.conf.ConfigurationException;
+import org.wikapidia.conf.Configurator;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.StringNormalizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A read-only phrase dao that serves lookups from the memory mapped dictionaries
+ * written by PhraseAnalyzerBinaryDao. The dictionaries can be shared by many processes
+ * and support concurrent lookups without locking.
+ */
+public class PhraseAnalyzerMappedDao implements PhraseAnalyzerDao {
+    private final StringNormalizer normalizer;
+    private final MappedPhraseDictionary describe;
+    private final MappedPhraseDictionary resolve;
+
+    /**
+     * @param normalizer
+     * @param dir Directory containing the dictionaries written by PhraseAnalyzerBinaryDao
+     * @throws DaoException
+     */
+    public PhraseAnalyzerMappedDao(StringNormalizer normalizer, File dir) throws DaoException {
+        this.normalizer = normalizer;
+        try {
+            this.describe = new MappedPhraseDictionary(new File(dir, PhraseAnalyzerBinaryDao.DESCRIBE_DICTIONARY));
+            this.resolve = new MappedPhraseDictionary(new File(dir, PhraseAnalyzerBinaryDao.RESOLVE_DICTIONARY));
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    @Override
+    public void savePageCounts(Language lang, int wpId, PrunedCounts<String> counts) throws DaoException {
+        throw new UnsupportedOperationException("memory mapped phrase daos are read-only");
+    }
+
+    @Override
+    public void savePhraseCounts(Language lang, String phrase, PrunedCounts<Integer> counts) throws DaoException {
+        throw new UnsupportedOperationException("memory mapped phrase daos are read-only");
+    }
+
+    @Override
+    public StringNormalizer getStringNormalizer() {
+        return normalizer;
+    }
+
+    @Override
+    public PrunedCounts<Integer> getPhraseCounts(Language lang, String phrase, int maxPages) throws DaoException {
+        phrase = normalizer.normalize(lang, phrase);
+        ByteBuffer value = resolve.get(PhraseCountsCodec.encodeKey(lang, phrase));
+        return (value == null) ? null : PhraseCountsCodec.decodePageIds(value, maxPages);
+    }
+
+    @Override
+    public PrunedCounts<String> getPageCounts(Language lang, int wpId, int maxPhrases) throws DaoException {
+        ByteBuffer value = describe.get(PhraseCountsCodec.encodeKey(lang, wpId));
+        return (value == null) ? null : PhraseCountsCodec.decodePhrases(value, maxPhrases);
+    }
+
+    @Override
+    public void close() throws DaoException {
+        try {
+            describe.close();
+            resolve.close();
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    @Override
+    public void abort() throws DaoException {
+        close();
+    }
+
+    public static class Provider extends org.wikapidia.conf.Provider<PhraseAnalyzerDao> {
+        public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
+            super(configurator, config);
+        }
+
+        @Override
+        public Class<PhraseAnalyzerDao> getType() {
+            return PhraseAnalyzerDao.class;
+        }
+
+        @Override
+        public String getPath() {
+            return "phrases.dao";
+        }
+
+        @Override
+        public PhraseAnalyzerDao get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+            if (!config.getString("type").equals("mmap")) {
+                return null;
+            }
+            File path = new File(config.getString("path"));
+            StringNormalizer normalizer = getConfigurator().get(StringNormalizer.class, config.getString("normalizer"));
+
+            try {
+                return new PhraseAnalyzerMappedDao(normalizer, path);
+            } catch (DaoException e) {
+                throw new ConfigurationException(e);
+            }
+        }
+    }
+}
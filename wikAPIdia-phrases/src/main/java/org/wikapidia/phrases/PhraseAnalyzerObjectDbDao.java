@@ -36,8 +36,17 @@ public class PhraseAnalyzerObjectDbDao implements PhraseAnalyzerDao {
             path.mkdirs();
         }
         try {
-            describeDb = new ObjectDb<PrunedCounts<String>>(new File(path, "describe"), isNew);
-            resolveDb = new ObjectDb<PrunedCounts<Integer>>(new File(path, "resolve"), isNew);
+            // existing databases are only read, so they can be shared by concurrent lookups
+            ObjectDb.Mode mode = ObjectDb.Mode.READ_WRITE;
+            if (isNew) {
+                mode = ObjectDb.Mode.BULK_LOAD;
+            } else if (new File(path, "describe").isDirectory() && new File(path, "resolve").isDirectory()) {
+                mode = ObjectDb.Mode.READ_ONLY;
+            }
+            describeDb = new ObjectDb<PrunedCounts<String>>(new File(path, "describe"), isNew,
+                    mode, new ObjectDb.SerializableCodec<PrunedCounts<String>>());
+            resolveDb = new ObjectDb<PrunedCounts<Integer>>(new File(path, "resolve"), isNew,
+                    mode, new ObjectDb.SerializableCodec<PrunedCounts<Integer>>());
         } catch (IOException e) {
             throw new DaoException(e);
         }
@@ -135,6 +144,11 @@ public class PhraseAnalyzerObjectDbDao implements PhraseAnalyzerDao {
         this.resolveDb.close();
     }
 
+    @Override
+    public void abort() {
+        close();
+    }
+
     public static class Provider extends org.wikapidia.conf.Provider<PhraseAnalyzerDao> {
         public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
             super(configurator, config);
@@ -0,0 +1,124 @@
+package org.wikapidia.phrases;
+
+import org.wikapidia.core.lang.Language;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary encoding of phrase dao keys and PrunedCounts.
+ *
+ * Keys start with the two byte language id instead of the language code, followed by
+ * either the four byte local page id or the UTF-8 bytes of the normalized phrase.
+ *
+ * Values are a varint total, a varint number of entries, and then the entries in
+ * decreasing order by count. Each entry is a varint page id (or a varint length and
+ * UTF-8 bytes for phrases) followed by a varint count. Decoding can stop after the
+ * first n entries, so truncated lookups never touch the tail of a record.
+ */
+public class PhraseCountsCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static byte[] encodeKey(Language lang, int wpId) {
+        return ByteBuffer.allocate(6)
+                .putShort(lang.getId())
+                .putInt(wpId)
+                .array();
+    }
+
+    public static byte[] encodeKey(Language lang, String normalizedPhrase) {
+        byte[] phrase = normalizedPhrase.getBytes(UTF8);
+        return ByteBuffer.allocate(2 + phrase.length)
+                .putShort(lang.getId())
+                .put(phrase)
+                .array();
+    }
+
+    public static byte[] encodePageIds(PrunedCounts<Integer> counts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + counts.size() * 4);
+        writeVarInt(out, counts.getTotal());
+        writeVarInt(out, counts.size());
+        for (Integer wpId : counts.keySet()) {
+            writeVarInt(out, wpId);
+            writeVarInt(out, counts.get(wpId));
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] encodePhrases(PrunedCounts<String> counts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + counts.size() * 16);
+        writeVarInt(out, counts.getTotal());
+        writeVarInt(out, counts.size());
+        for (String phrase : counts.keySet()) {
+            byte[] bytes = phrase.getBytes(UTF8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+            writeVarInt(out, counts.get(phrase));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes at most maxEntries page ids and counts starting at the buffer's position.
+     * @param buffer
+     * @param maxEntries
+     * @return
+     */
+    public static PrunedCounts<Integer> decodePageIds(ByteBuffer buffer, int maxEntries) {
+        int total = readVarInt(buffer);
+        int n = Math.min(readVarInt(buffer), maxEntries);
+        PrunedCounts<Integer> counts = new PrunedCounts<Integer>(total);
+        for (int i = 0; i < n; i++) {
+            int wpId = readVarInt(buffer);
+            counts.put(wpId, readVarInt(buffer));
+        }
+        return counts;
+    }
+
+    /**
+     * Decodes at most maxEntries phrases and counts starting at the buffer's position.
+     * @param buffer
+     * @param maxEntries
+     * @return
+     */
+    public static PrunedCounts<String> decodePhrases(ByteBuffer buffer, int maxEntries) {
+        int total = readVarInt(buffer);
+        int n = Math.min(readVarInt(buffer), maxEntries);
+        PrunedCounts<String> counts = new PrunedCounts<String>(total);
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < n; i++) {
+            int length = readVarInt(buffer);
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+            buffer.get(bytes, 0, length);
+            String phrase = new String(bytes, 0, length, UTF8);
+            counts.put(phrase, readVarInt(buffer));
+        }
+        return counts;
+    }
+
+    /**
+     * Writes a non-negative int using 7 bits per byte, low-order groups first.
+     * Negative values are written as five bytes.
+     */
+    public static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
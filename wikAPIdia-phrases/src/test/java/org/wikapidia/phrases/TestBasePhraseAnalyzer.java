@@ -0,0 +1,116 @@
+package org.wikapidia.phrases;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.IdentityStringNormalizer;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LanguageSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBasePhraseAnalyzer {
+
+    @Test
+    public void testLoadCorpus() throws IOException, DaoException {
+        File tmp = File.createTempFile("testdb", ".db", null);
+        tmp.delete();
+        FileUtils.forceDeleteOnExit(tmp);
+
+        final Language en = Language.getByLangCode("en");
+        final Language de = Language.getByLangCode("de");
+        final List<BasePhraseAnalyzer.Entry> corpus = new ArrayList<BasePhraseAnalyzer.Entry>();
+        corpus.add(new BasePhraseAnalyzer.Entry(en, 3, "apple", 4));
+        corpus.add(new BasePhraseAnalyzer.Entry(de, 7, "apfel", 2));
+        corpus.add(new BasePhraseAnalyzer.Entry(en, 5, "apple", 1));
+        corpus.add(new BasePhraseAnalyzer.Entry(en, 3, "apple", 2));
+        corpus.add(new BasePhraseAnalyzer.Entry(en, 3, "fruit", 1));
+        corpus.add(new BasePhraseAnalyzer.Entry(de, 7, "apfel", 1));
+
+        PhraseAnalyzerDao dao = new PhraseAnalyzerBinaryDao(new IdentityStringNormalizer(), tmp, true);
+        BasePhraseAnalyzer analyzer = new BasePhraseAnalyzer(dao, null,
+                new SimplePruner<String>(0, 10, 0.0), new SimplePruner<Integer>(0, 10, 0.0)) {
+            @Override
+            protected Iterable<Entry> getCorpus(LanguageSet langs) {
+                return corpus;
+            }
+        };
+        analyzer.loadCorpus(new LanguageSet(Arrays.asList(en, de)));
+
+        dao = new PhraseAnalyzerMappedDao(new IdentityStringNormalizer(), tmp);
+
+        PrunedCounts<Integer> apple = dao.getPhraseCounts(en, "apple", 10);
+        assertEquals(apple.getTotal(), 7);
+        assertEquals(new ArrayList<Integer>(apple.keySet()), Arrays.asList(3, 5));
+        assertEquals(new ArrayList<Integer>(apple.values()), Arrays.asList(6, 1));
+
+        PrunedCounts<String> page3 = dao.getPageCounts(en, 3, 10);
+        assertEquals(page3.getTotal(), 7);
+        assertEquals(new ArrayList<String>(page3.keySet()), Arrays.asList("apple", "fruit"));
+
+        PrunedCounts<Integer> apfel = dao.getPhraseCounts(de, "apfel", 10);
+        assertEquals(apfel.getTotal(), 3);
+        assertEquals(new ArrayList<Integer>(apfel.keySet()), Arrays.asList(7));
+        assertNull(dao.getPhraseCounts(de, "apple", 10));
+        dao.close();
+    }
+
+    @Test
+    public void testFailedLoadIsAborted() throws IOException, DaoException {
+        File tmp = File.createTempFile("testdb", ".db", null);
+        tmp.delete();
+        FileUtils.forceDeleteOnExit(tmp);
+
+        final Language en = Language.getByLangCode("en");
+        final List<BasePhraseAnalyzer.Entry> corpus = new ArrayList<BasePhraseAnalyzer.Entry>();
+        corpus.add(new BasePhraseAnalyzer.Entry(en, 3, "apple", 4));
+        corpus.add(new BasePhraseAnalyzer.Entry(en, 5, "apple", 1));
+
+        final boolean closed[] = { false };
+        final boolean aborted[] = { false };
+        PhraseAnalyzerDao dao = new PhraseAnalyzerBinaryDao(new IdentityStringNormalizer(), tmp, true) {
+            @Override
+            public void savePhraseCounts(Language lang, String phrase, PrunedCounts<Integer> counts) throws DaoException {
+                throw new DaoException("broken dao");
+            }
+
+            @Override
+            public void close() throws DaoException {
+                closed[0] = true;
+                super.close();
+            }
+
+            @Override
+            public void abort() throws DaoException {
+                aborted[0] = true;
+                super.abort();
+            }
+        };
+        BasePhraseAnalyzer analyzer = new BasePhraseAnalyzer(dao, null,
+                new SimplePruner<String>(0, 10, 0.0), new SimplePruner<Integer>(0, 10, 0.0)) {
+            @Override
+            protected Iterable<Entry> getCorpus(LanguageSet langs) {
+                return corpus;
+            }
+        };
+        try {
+            analyzer.loadCorpus(new LanguageSet(Arrays.asList(en)));
+            fail("a failed load must not return normally");
+        } catch (DaoException e) {
+            assertEquals("broken dao", e.getMessage());
+        }
+        assertFalse(closed[0]);
+        assertTrue(aborted[0]);
+        assertFalse(new File(tmp, PhraseAnalyzerBinaryDao.RESOLVE_DICTIONARY).exists());
+    }
+}
@@ -0,0 +1,101 @@
+package org.wikapidia.phrases;
+
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LanguageSet;
+import org.wikapidia.core.lang.LocalString;
+import org.wikapidia.core.lang.StringNormalizer;
+import org.wikapidia.core.model.LocalPage;
+import org.wikapidia.core.model.NameSpace;
+import org.wikapidia.core.model.Title;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.*;
+
+public class TestCachingPhraseAnalyzer {
+
+    @Test
+    public void testCaching() throws DaoException, IOException {
+        Language en = Language.getByLangCode("en");
+        CountingAnalyzer counting = new CountingAnalyzer();
+        CachingPhraseAnalyzer analyzer = new CachingPhraseAnalyzer(counting, new LowerCaseNormalizer(), 100);
+
+        LinkedHashMap<LocalPage, Float> pages = analyzer.resolve(en, "Apple", 5);
+        assertEquals(1, pages.size());
+        assertEquals(1, counting.numResolves);
+
+        // normalized phrases share a cache entry
+        pages = analyzer.resolve(en, "apple", 5);
+        assertEquals(1, pages.size());
+        assertEquals(1, counting.numResolves);
+
+        // a different limit is a different entry
+        analyzer.resolve(en, "apple", 10);
+        assertEquals(2, counting.numResolves);
+
+        // null results are cached, too
+        assertNull(analyzer.resolve(en, "missing", 5));
+        assertNull(analyzer.resolve(en, "missing", 5));
+        assertEquals(3, counting.numResolves);
+        assertEquals(2L, analyzer.getResolveCache().getHits());
+        assertEquals(3L, analyzer.getResolveCache().getMisses());
+
+        // callers can't modify cached results
+        analyzer.resolve(en, "apple", 5).clear();
+        assertEquals(1, analyzer.resolve(en, "apple", 5).size());
+
+        LocalPage page = new LocalPage(en, 3, new Title("Apple", en), NameSpace.ARTICLE);
+        analyzer.describe(en, page, 5);
+        analyzer.describe(en, page, 5);
+        assertEquals(1, counting.numDescribes);
+        assertEquals(1L, analyzer.getDescribeCache().getHits());
+
+        analyzer.loadCorpus(new LanguageSet("en"));
+        assertEquals(0, analyzer.getResolveCache().size());
+        analyzer.describe(en, page, 5);
+        assertEquals(2, counting.numDescribes);
+    }
+
+    private static class LowerCaseNormalizer implements StringNormalizer {
+        @Override
+        public String normalize(Language language, String text) {
+            return text.toLowerCase();
+        }
+
+        @Override
+        public String normalize(LocalString text) {
+            return normalize(text.getLanguage(), text.getString());
+        }
+    }
+
+    private static class CountingAnalyzer implements PhraseAnalyzer {
+        int numResolves = 0;
+        int numDescribes = 0;
+
+        @Override
+        public void loadCorpus(LanguageSet langs) throws DaoException, IOException {
+        }
+
+        @Override
+        public LinkedHashMap<String, Float> describe(Language language, LocalPage page, int maxPhrases) throws DaoException {
+            numDescribes++;
+            LinkedHashMap<String, Float> result = new LinkedHashMap<String, Float>();
+            result.put(page.getTitle().getCanonicalTitle().toLowerCase(), 1.0f);
+            return result;
+        }
+
+        @Override
+        public LinkedHashMap<LocalPage, Float> resolve(Language language, String phrase, int maxPages) throws DaoException {
+            numResolves++;
+            if (phrase.equals("missing")) {
+                return null;
+            }
+            LinkedHashMap<LocalPage, Float> result = new LinkedHashMap<LocalPage, Float>();
+            result.put(new LocalPage(language, 3, new Title("Apple", language), NameSpace.ARTICLE), 1.0f);
+            return result;
+        }
+    }
+}
@@ -128,4 +128,64 @@ public class TestPhraseAnalyzerDao {
         assertEquals(new ArrayList<String>(c6.keySet()), Arrays.asList("Bar", "baz"));
         assertEquals(new ArrayList<Integer>(c6.values()), Arrays.asList(9, 3));
     }
+
+    @Test
+    public void testBinaryDao() throws IOException, DaoException {
+        File tmp = File.createTempFile("testdb", ".db", null);
+        tmp.delete();
+        FileUtils.forceDeleteOnExit(tmp);
+
+        StringNormalizer normalizer = new LuceneStringNormalizer(new TokenizerOptions(true, false, false), Version.LUCENE_43);
+        PhraseAnalyzerDao dao = new PhraseAnalyzerBinaryDao(normalizer, tmp, true);
+        Language en = Language.getByLangCode("en");
+        Language simple = Language.getByLangCode("simple");
+
+        PrunedCounts<Integer> c1 = new PrunedCounts<Integer>(1200);
+        c1.put(349, 700);
+        c1.put(3121, 3);
+        dao.savePhraseCounts(en, "FOo!", c1);
+        dao.savePhraseCounts(simple, "foo", new PrunedCounts<Integer>(1));
+
+        PrunedCounts<String> c2 = new PrunedCounts<String>(13);
+        c2.put("Bar", 9);
+        c2.put("bäz", 3);
+        c2.put("boof", 1);
+        dao.savePageCounts(en, 3214, c2);
+        dao.savePageCounts(en, 3, new PrunedCounts<String>(0));
+
+        checkBinaryDao(dao, en);
+        dao.close();
+
+        // closing a newly loaded dao writes the memory mapped dictionaries
+        dao = new PhraseAnalyzerMappedDao(normalizer, tmp);
+        checkBinaryDao(dao, en);
+        assertEquals(dao.getPhraseCounts(simple, "FOO", 10).getTotal(), 1);
+        dao.close();
+    }
+
+    private void checkBinaryDao(PhraseAnalyzerDao dao, Language en) throws DaoException {
+        assertNull(dao.getPageCounts(en, 34321, 19));
+        assertNull(dao.getPhraseCounts(en, "sadfas", 19));
+
+        PrunedCounts<Integer> c3 = dao.getPhraseCounts(en, "fOO-", 5);
+        assertNotNull(c3);
+        assertEquals(c3.getTotal(), 1200);
+        assertEquals(new ArrayList<Integer>(c3.keySet()), Arrays.asList(349, 3121));
+        assertEquals(new ArrayList<Integer>(c3.values()), Arrays.asList(700, 3));
+
+        PrunedCounts<Integer> c4 = dao.getPhraseCounts(en, "fOO-", 1);
+        assertEquals(c4.getTotal(), 1200);
+        assertEquals(new ArrayList<Integer>(c4.keySet()), Arrays.asList(349));
+
+        PrunedCounts<String> c5 = dao.getPageCounts(en, 3214, 5);
+        assertNotNull(c5);
+        assertEquals(c5.getTotal(), 13);
+        assertEquals(new ArrayList<String>(c5.keySet()), Arrays.asList("Bar", "bäz", "boof"));
+        assertEquals(new ArrayList<Integer>(c5.values()), Arrays.asList(9, 3, 1));
+
+        PrunedCounts<String> c6 = dao.getPageCounts(en, 3214, 2);
+        assertEquals(new ArrayList<String>(c6.keySet()), Arrays.asList("Bar", "bäz"));
+
+        assertEquals(dao.getPageCounts(en, 3, 5).size(), 0);
+    }
 }
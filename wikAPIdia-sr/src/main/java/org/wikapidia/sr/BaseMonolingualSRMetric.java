@@ -8,7 +8,6 @@ import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang.ArrayUtils;
 import org.wikapidia.conf.ConfigurationException;
 import org.wikapidia.conf.Configurator;
 import org.wikapidia.core.WikapidiaException;
@@ -28,15 +27,11 @@ import org.wikapidia.sr.normalize.IdentityNormalizer;
 import org.wikapidia.sr.normalize.Normalizer;
 import org.wikapidia.sr.utils.Leaderboard;
 import org.wikapidia.sr.utils.SrNormalizers;
-import org.wikapidia.utils.ParallelForEach;
-import org.wikapidia.utils.Procedure;
 import org.wikapidia.utils.WpIOUtils;
-import org.wikapidia.utils.WpThreadUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +52,13 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
     private SrNormalizers normalizers;
 
     private boolean buildMostSimilarCache = false;
+    private int mostSimilarCacheShardSize = MostSimilarCacheBuilder.DEFAULT_SHARD_SIZE;
+    private int mostSimilarCacheBits = 16;
+
+    // cached similarity results, which are invalidated by incrementing the generation.
+    // Disabled unless a cache is configured or set.
+    private SimilarityCache similarityCache = null;
+    private final AtomicInteger similarityCacheGeneration = new AtomicInteger();
     private SparseMatrix mostSimilarCache = null;
     private TIntSet mostSimilarCacheRowIds = null;
 
@@ -101,11 +103,13 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
     @Override
     public void setMostSimilarNormalizer(Normalizer n){
         normalizers.setMostSimilarNormalizer(n);
+        invalidateSimilarityCache();
     }
 
     @Override
     public void setSimilarityNormalizer(Normalizer n){
         normalizers.setSimilarityNormalizer(n);
+        invalidateSimilarityCache();
     }
 
     @Override
@@ -186,6 +190,7 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
         if (getMostSimilarMatrixPath().isFile()) {
             mostSimilarCache = new SparseMatrix(getMostSimilarMatrixPath());
         }
+        invalidateSimilarityCache();
     }
 
     @Override
@@ -193,7 +198,14 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
         if (!dataset.getLanguage().equals(getLanguage())) {
             throw new IllegalArgumentException("SR metric has language " + getLanguage() + " but dataset has language " + dataset.getLanguage());
         }
-        normalizers.trainSimilarity(this, dataset);
+        // training must not see results normalized by the old normalizer, and
+        // results computed while training are not normalized at all
+        invalidateSimilarityCache();
+        try {
+            normalizers.trainSimilarity(this, dataset);
+        } finally {
+            invalidateSimilarityCache();
+        }
     }
 
     @Override
@@ -201,7 +213,12 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
         if (!dataset.getLanguage().equals(getLanguage())) {
             throw new IllegalArgumentException("SR metric has language " + getLanguage() + " but dataset has language " + dataset.getLanguage());
         }
-        normalizers.trainMostSimilar(this, disambiguator, dataset, validIds, numResults);
+        invalidateSimilarityCache();
+        try {
+            normalizers.trainMostSimilar(this, disambiguator, dataset, validIds, numResults);
+        } finally {
+            invalidateSimilarityCache();
+        }
         try {
             if (buildMostSimilarCache) {
                 writeMostSimilarCache(numResults, mostSimilarCacheRowIds, validIds);
@@ -211,11 +228,57 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
         }
     }
 
+    /**
+     * Returns the similarity between two pages, using the similarity cache if it is enabled.
+     * Subclasses implement computeSimilarity().
+     */
     @Override
-    public abstract SRResult similarity(int pageId1, int pageId2, boolean explanations) throws DaoException;
+    public SRResult similarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+        SimilarityCache cache = similarityCache;
+        if (cache == null) {
+            return computeSimilarity(pageId1, pageId2, explanations);
+        }
+        SimilarityCache.Key key = SimilarityCache.pageKey(
+                name, language, similarityCacheGeneration.get(), pageId1, pageId2, explanations);
+        SRResult result = cache.get(key);
+        if (result == null) {
+            result = computeSimilarity(pageId1, pageId2, explanations);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the similarity between two pages.
+     * @see #similarity(int, int, boolean)
+     */
+    protected abstract SRResult computeSimilarity(int pageId1, int pageId2, boolean explanations) throws DaoException;
 
+    /**
+     * Returns the similarity between two phrases, using the similarity cache if it is enabled.
+     * Subclasses may override computeSimilarity() to change how phrases are compared.
+     */
     @Override
     public SRResult similarity(String phrase1, String phrase2, boolean explanations) throws DaoException {
+        SimilarityCache cache = similarityCache;
+        if (cache == null) {
+            return computeSimilarity(phrase1, phrase2, explanations);
+        }
+        SimilarityCache.Key key = SimilarityCache.phraseKey(
+                name, language, similarityCacheGeneration.get(), phrase1, phrase2, explanations);
+        SRResult result = cache.get(key);
+        if (result == null) {
+            result = computeSimilarity(phrase1, phrase2, explanations);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the similarity between two phrases by disambiguating them to pages.
+     * @see #similarity(String, String, boolean)
+     */
+    protected SRResult computeSimilarity(String phrase1, String phrase2, boolean explanations) throws DaoException {
         Language language = getLanguage();
         List<LocalString> phrases = Arrays.asList(
                 new LocalString(language, phrase1),
@@ -390,6 +453,7 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
 
     /**
      * Creates and writes a sparse matrix that records the top-k results for every page.
+     * The matrix is built in shards, and an interrupted build resumes from the finished shards.
      * @param maxHits
      * @param rowIds
      * @param colIds
@@ -420,37 +484,24 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
 
         getDataDir().mkdirs();
         IOUtils.closeQuietly(mostSimilarCache);
-
+        mostSimilarCache = null;
 
         SRConfig config = getConfig();
-        final AtomicInteger idCounter = new AtomicInteger();
-        final AtomicLong cellCounter = new AtomicLong();
         ValueConf vconf = new ValueConf(config.minScore, config.maxScore);
-
-        final SparseMatrixWriter writer = new SparseMatrixWriter(getMostSimilarMatrixPath(), vconf);
-        final TIntSet colIdSet = colIds == null ? null : new TIntHashSet(colIds);
-
+        MostSimilarCacheBuilder builder = new MostSimilarCacheBuilder(this, getMostSimilarMatrixPath(), vconf);
+        builder.setShardSize(mostSimilarCacheShardSize);
+        builder.setValueBits(mostSimilarCacheBits);
 
         Normalizer simNormalizer = getSimilarityNormalizer();
         Normalizer mostSimNormalizer = getMostSimilarNormalizer();
         setMostSimilarNormalizer(new IdentityNormalizer());
         setSimilarityNormalizer(new IdentityNormalizer());
         try {
-            ParallelForEach.loop(
-                    Arrays.asList(ArrayUtils.toObject(rowIds.toArray())),
-                    WpThreadUtils.getMaxThreads(),
-                    new Procedure<Integer>() {
-                        public void call(Integer wpId) throws IOException, DaoException {
-                            writeSim(writer, wpId, colIdSet, maxHits, idCounter, cellCounter);
-                        }
-                    }, Integer.MAX_VALUE);
+            builder.build(rowIds, colIds, maxHits);
         } finally {
             setSimilarityNormalizer(simNormalizer);
             setMostSimilarNormalizer(mostSimNormalizer);
         }
-
-        LOG.info("wrote " + cellCounter.get() + " non-zero similarity cells");
-        writer.finish();
         mostSimilarCache = new SparseMatrix(getMostSimilarMatrixPath());
     }
 
@@ -459,18 +510,6 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
     }
 
 
-    private void writeSim(SparseMatrixWriter writer, Integer wpId, TIntSet colIds, int maxSimsPerDoc, AtomicInteger idCounter, AtomicLong cellCounter) throws IOException, DaoException {
-        if (idCounter.incrementAndGet() % 10000 == 0) {
-            LOG.info("finding matches for page " + idCounter.get());
-        }
-        SRResultList scores = mostSimilar(wpId, maxSimsPerDoc, colIds);
-        if (scores != null) {
-            int ids[] = scores.getIds();
-            cellCounter.getAndIncrement();
-            writer.writeRow(new SparseMatrixRow(writer.getValueConf(), wpId, ids, scores.getScoresAsFloat()));
-        }
-    }
-
     public Language getLanguage() {
         return language;
     }
@@ -507,6 +546,51 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
         this.buildMostSimilarCache = buildMostSimilarCache;
     }
 
+    /**
+     * @param shardSize The number of pages in each resumable shard of the most similar cache.
+     */
+    public void setMostSimilarCacheShardSize(int shardSize) {
+        this.mostSimilarCacheShardSize = shardSize;
+    }
+
+    /**
+     * @param bits 16, or 8 to pack the scores of the most similar cache with a trained quantile codebook.
+     */
+    public void setMostSimilarCacheBits(int bits) {
+        this.mostSimilarCacheBits = bits;
+    }
+
+    /**
+     * @return The cache of similarity results, or null if it is disabled (the default).
+     */
+    public SimilarityCache getSimilarityCache() {
+        return similarityCache;
+    }
+
+    /**
+     * Replaces the cache of similarity results. A cache may be shared by several metrics.
+     * @param cache The cache, or null to disable caching.
+     */
+    public void setSimilarityCache(SimilarityCache cache) {
+        this.similarityCache = cache;
+    }
+
+    /**
+     * Makes cached similarity results unreachable. Called when the metric is retrained
+     * or rebuilt, so subclasses that change their models outside training should call it, too.
+     */
+    public void invalidateSimilarityCache() {
+        similarityCacheGeneration.incrementAndGet();
+    }
+
+    /**
+     * @return A number that grows every time the metric's cached results are invalidated,
+     * so callers that memoize results computed with the metric can tell when to forget them.
+     */
+    public int getModelGeneration() {
+        return similarityCacheGeneration.get();
+    }
+
     public void setMostSimilarCacheRowIds(TIntSet rowIds) {
         this.mostSimilarCacheRowIds = rowIds;
     }
@@ -528,6 +612,16 @@ public abstract class BaseMonolingualSRMetric implements MonolingualSRMetric {
         if (config.hasPath("buildMostSimilarCache")) {
             sr.setBuildMostSimilarCache(config.getBoolean("buildMostSimilarCache"));
         }
+        if (config.hasPath("mostSimilarCacheShardSize")) {
+            sr.setMostSimilarCacheShardSize(config.getInt("mostSimilarCacheShardSize"));
+        }
+        if (config.hasPath("mostSimilarCacheBits")) {
+            sr.setMostSimilarCacheBits(config.getInt("mostSimilarCacheBits"));
+        }
+        if (config.hasPath("similarityCacheSize")) {
+            int size = config.getInt("similarityCacheSize");
+            sr.setSimilarityCache(size > 0 ? new SimilarityCache(size) : null);
+        }
 
         try {
             sr.read();
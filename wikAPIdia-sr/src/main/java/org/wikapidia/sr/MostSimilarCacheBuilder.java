@@ -0,0 +1,347 @@
+package org.wikapidia.sr;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.wikapidia.matrix.SparseMatrix;
+import org.wikapidia.matrix.SparseMatrixRow;
+import org.wikapidia.matrix.SparseMatrixWriter;
+import org.wikapidia.matrix.ValueConf;
+import org.wikapidia.utils.ParallelForEach;
+import org.wikapidia.utils.RangeProcedure;
+import org.wikapidia.utils.WpIOUtils;
+import org.wikapidia.utils.WpThreadUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the matrix of most similar pages for a set of pages in resumable shards.
+ *
+ * The sorted row ids are split into shards of consecutive ids. Shards are built one
+ * after another, each into its own matrix in a work directory next to the output file,
+ * and the pages of a shard are spread over all threads, so small builds use every
+ * thread as well. Each finished shard is recorded in a checkpoint file, and the shards
+ * are merged into the output matrix once all of them are finished. A shard in which
+ * any page fails is not recorded, so it is built again by the next build.
+ *
+ * If a build is interrupted, the next build with the same parameters only builds
+ * the shards that were not finished. A build with different row ids, column ids,
+ * number of results, shard size, or value range starts over.
+ *
+ * Shards always pack scores with the given value conf. If the value bits are set to 8,
+ * the merged matrix instead packs them with a quantile codebook trained from a sample
+ * of the shards' scores, which halves the space taken by the values.
+ */
+public class MostSimilarCacheBuilder {
+    private static final Logger LOG = Logger.getLogger(MostSimilarCacheBuilder.class.getName());
+
+    public static final int DEFAULT_SHARD_SIZE = 10000;
+
+    /**
+     * The number of consecutive pages claimed by a thread at once.
+     * mostSimilar calls are expensive, so small chunks keep the threads busy until a shard ends.
+     */
+    private static final int PAGE_CHUNK_SIZE = 4;
+
+    /**
+     * The maximum number of scores used to train a quantile codebook.
+     */
+    public static final int MAX_CODEBOOK_SAMPLE = 100000;
+
+    private static final String MANIFEST = "manifest";
+    private static final String COMPLETED = "completed";
+
+    private final MonolingualSRMetric metric;
+    private final File path;
+    private final File workDir;
+    private final ValueConf vconf;
+
+    private int shardSize = DEFAULT_SHARD_SIZE;
+    private int numThreads = WpThreadUtils.getMaxThreads();
+    private int valueBits = 16;
+
+    /**
+     * @param metric The metric whose mostSimilar results are cached.
+     * @param path The output matrix.
+     * @param vconf The range of the metric's scores.
+     */
+    public MostSimilarCacheBuilder(MonolingualSRMetric metric, File path, ValueConf vconf) {
+        this.metric = metric;
+        this.path = path;
+        this.workDir = new File(path.getPath() + ".shards");
+        this.vconf = vconf;
+    }
+
+    public void setShardSize(int shardSize) {
+        if (shardSize <= 0) {
+            throw new IllegalArgumentException("invalid shard size: " + shardSize);
+        }
+        this.shardSize = shardSize;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @param valueBits 16 to pack the merged scores with the value conf, or 8 to pack
+     *                  them with a trained quantile codebook.
+     */
+    public void setValueBits(int valueBits) {
+        if (valueBits != 8 && valueBits != 16) {
+            throw new IllegalArgumentException("values must be packed into 8 or 16 bits, not " + valueBits);
+        }
+        this.valueBits = valueBits;
+    }
+
+    /**
+     * @return The directory that holds the shards and checkpoint of an unfinished build.
+     */
+    public File getWorkDir() {
+        return workDir;
+    }
+
+    /**
+     * Builds the matrix, resuming an earlier build with the same parameters if possible.
+     *
+     * @param rowIds Pages whose most similar pages are cached.
+     * @param colIds Pages that may appear in the results, or null for all pages.
+     * @param maxHits The number of results per page.
+     * @throws IOException If a shard could not be built. Finished shards are kept,
+     * so calling build() again resumes the build.
+     */
+    public void build(TIntSet rowIds, TIntSet colIds, final int maxHits) throws IOException {
+        final int ids[] = rowIds.toArray();
+        Arrays.sort(ids);
+        final TIntSet colIdSet = (colIds == null) ? null : new TIntHashSet(colIds);
+        final int numShards = (ids.length + shardSize - 1) / shardSize;
+
+        final boolean completed[] = startOrResume(getManifest(ids, colIdSet, maxHits), numShards);
+        int numRemaining = 0;
+        for (boolean c : completed) {
+            if (!c) numRemaining++;
+        }
+        LOG.info("building " + numRemaining + " of " + numShards + " most similar shards in " + workDir);
+
+        final AtomicInteger rowCounter = new AtomicInteger();
+        final AtomicLong cellCounter = new AtomicLong();
+        BufferedWriter checkpoint = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(workDir, COMPLETED), true), "UTF-8"));
+        try {
+            for (int shard = 0; shard < numShards; shard++) {
+                if (completed[shard]) {
+                    continue;
+                }
+                int from = shard * shardSize;
+                int to = Math.min(ids.length, from + shardSize);
+                try {
+                    buildShard(shard, ids, from, to, colIdSet, maxHits, rowCounter, cellCounter);
+                } catch (IOException e) {
+                    LOG.log(Level.SEVERE, "building most similar shard " + shard + " failed", e);
+                    continue;
+                }
+                checkpoint.write("" + shard);
+                checkpoint.newLine();
+                checkpoint.flush();
+                completed[shard] = true;
+            }
+        } finally {
+            checkpoint.close();
+        }
+        LOG.info("wrote " + rowCounter.get() + " rows with " + cellCounter.get() + " non-zero similarity cells");
+
+        for (int shard = 0; shard < numShards; shard++) {
+            if (!completed[shard]) {
+                throw new IOException("most similar shard " + shard + " failed; build again to resume");
+            }
+        }
+        merge(numShards);
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    /**
+     * Prepares the work directory.
+     * @return The shards that were finished by an earlier build with the same manifest.
+     */
+    private boolean[] startOrResume(String manifest, int numShards) throws IOException {
+        boolean completed[] = new boolean[numShards];
+        File manifestFile = new File(workDir, MANIFEST);
+        if (manifestFile.isFile() && FileUtils.readFileToString(manifestFile, "UTF-8").equals(manifest)) {
+            for (String line : FileUtils.readLines(new File(workDir, COMPLETED), "UTF-8")) {
+                try {
+                    int shard = Integer.valueOf(line.trim());
+                    if (shard >= 0 && shard < numShards && getShardPath(shard).isFile()) {
+                        completed[shard] = true;
+                    }
+                } catch (NumberFormatException e) {
+                    // a partially written line
+                }
+            }
+            return completed;
+        }
+        if (workDir.exists()) {
+            LOG.info("discarding most similar shards built with different parameters in " + workDir);
+            FileUtils.deleteDirectory(workDir);
+        }
+        WpIOUtils.mkdirsQuietly(workDir);
+        FileUtils.write(new File(workDir, COMPLETED), "", "UTF-8");
+        FileUtils.write(manifestFile, manifest, "UTF-8");
+        return completed;
+    }
+
+    private void buildShard(int shard, final int ids[], int from, int to, final TIntSet colIds, final int maxHits,
+                            final AtomicInteger rowCounter, final AtomicLong cellCounter) throws IOException {
+        File tmp = new File(workDir, getShardPath(shard).getName() + ".tmp");
+        final SparseMatrixWriter writer = new SparseMatrixWriter(tmp, vconf);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        ParallelForEach.chunkedRange(from, to, numThreads, PAGE_CHUNK_SIZE, new RangeProcedure<Object>() {
+            @Override
+            public void call(int i, Object state) throws Exception {
+                if (failure.get() != null) {
+                    return;     // the shard is built again anyway
+                }
+                try {
+                    SRResultList scores = metric.mostSimilar(ids[i], maxHits, colIds);
+                    if (scores != null) {
+                        cellCounter.addAndGet(scores.numDocs());
+                        writer.writeRow(new SparseMatrixRow(vconf, ids[i], scores.getIds(), scores.getScoresAsFloat()));
+                    }
+                    rowCounter.incrementAndGet();
+                } catch (Exception e) {
+                    failure.compareAndSet(null, new IOException("mostSimilar failed for page " + ids[i], e));
+                }
+            }
+        }, "most similar shard " + shard, 60);
+        writer.finish();
+        if (failure.get() != null) {
+            FileUtils.deleteQuietly(tmp);
+            throw (IOException) failure.get();
+        }
+        File dest = getShardPath(shard);
+        if (!tmp.renameTo(dest)) {
+            throw new IOException("renaming " + tmp + " to " + dest + " failed");
+        }
+    }
+
+    private void merge(int numShards) throws IOException {
+        LOG.info("merging " + numShards + " most similar shards into " + path);
+        ValueConf merged = vconf;
+        if (valueBits != 16) {
+            merged = trainCodebook(numShards);
+            LOG.info("packing most similar scores with " + merged.getCodebook().length + " quantiles");
+        }
+        File tmp = new File(path.getPath() + ".tmp");
+        SparseMatrixWriter writer = new SparseMatrixWriter(tmp, merged);
+        for (int shard = 0; shard < numShards; shard++) {
+            SparseMatrix matrix = new SparseMatrix(getShardPath(shard));
+            try {
+                for (SparseMatrixRow row : matrix) {
+                    writer.writeRow(merged == vconf ? row : repack(merged, row));
+                }
+            } finally {
+                IOUtils.closeQuietly(matrix);
+            }
+        }
+        writer.finish();
+        FileUtils.deleteQuietly(path);
+        if (!tmp.renameTo(path)) {
+            throw new IOException("renaming " + tmp + " to " + path + " failed");
+        }
+    }
+
+    /**
+     * Trains a quantile codebook from a uniform sample of the scores in the shards.
+     */
+    private ValueConf trainCodebook(int numShards) throws IOException {
+        float sample[] = new float[MAX_CODEBOOK_SAMPLE];
+        long numScores = 0;
+        Random random = new Random(numShards);
+        for (int shard = 0; shard < numShards; shard++) {
+            SparseMatrix matrix = new SparseMatrix(getShardPath(shard));
+            try {
+                for (SparseMatrixRow row : matrix) {
+                    for (int i = 0; i < row.getNumCols(); i++) {
+                        // reservoir sampling
+                        long j = (numScores < sample.length) ? numScores : (long) (random.nextDouble() * (numScores + 1));
+                        if (j < sample.length) {
+                            sample[(int) j] = row.getColValue(i);
+                        }
+                        numScores++;
+                    }
+                }
+            } finally {
+                IOUtils.closeQuietly(matrix);
+            }
+        }
+        if (numScores == 0) {
+            return vconf;
+        }
+        return ValueConf.trainQuantiles(Arrays.copyOf(sample, (int) Math.min(numScores, sample.length)), valueBits);
+    }
+
+    private static SparseMatrixRow repack(ValueConf merged, SparseMatrixRow row) {
+        float values[] = new float[row.getNumCols()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.getColValue(i);
+        }
+        return new SparseMatrixRow(merged, row.getRowIndex(), row.getColIndexes(), values);
+    }
+
+    private File getShardPath(int shard) {
+        return new File(workDir, String.format("shard-%05d.matrix", shard));
+    }
+
+    /**
+     * Describes the parameters of a build. Shards are only reused by builds with the same description.
+     */
+    private String getManifest(int sortedRowIds[], TIntSet colIds, int maxHits) {
+        String cols = "all";
+        if (colIds != null) {
+            int sortedColIds[] = colIds.toArray();
+            Arrays.sort(sortedColIds);
+            cols = sortedColIds.length + "," + digest(sortedColIds);
+        }
+        return "rows=" + sortedRowIds.length + "," + digest(sortedRowIds) + "\n"
+                + "cols=" + cols + "\n"
+                + "maxHits=" + maxHits + "\n"
+                + "shardSize=" + shardSize + "\n"
+                + "values=" + vconf.minScore + "," + vconf.maxScore + "\n";
+    }
+
+    /**
+     * @return The hex SHA-1 digest of the ids.
+     */
+    static String digest(int ids[]) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM supports SHA-1
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int id : ids) {
+            if (buffer.remaining() < 4) {
+                md.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putInt(id);
+        }
+        md.update(buffer.array(), 0, buffer.position());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
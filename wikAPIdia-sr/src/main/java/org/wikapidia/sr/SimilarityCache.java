@@ -0,0 +1,156 @@
+package org.wikapidia.sr;
+
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.utils.BoundedCache;
+
+import java.util.ArrayList;
+
+/**
+ * A bounded, thread-safe cache of similarity results for pairs of pages and pairs of phrases.
+ *
+ * Keys identify the metric and language, so one cache can be shared by several metrics.
+ * Each key also contains the metric's generation, which the metric increments when it
+ * is retrained or rebuilt. Entries of older generations are never hit again and are
+ * evicted as the cache fills up.
+ *
+ * The weight of an entry is one plus its number of explanations.
+ */
+public class SimilarityCache {
+    public static final int DEFAULT_MAX_WEIGHT = 100000;
+
+    private final BoundedCache<Key, SRResult> cache;
+
+    public SimilarityCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * @param maxWeight The maximum total weight of the cached results.
+     */
+    public SimilarityCache(long maxWeight) {
+        this.cache = new BoundedCache<Key, SRResult>(maxWeight, new BoundedCache.Weigher<Key, SRResult>() {
+            @Override
+            public int weigh(Key key, SRResult value) {
+                return 1 + (value.explanations == null ? 0 : value.explanations.size());
+            }
+        });
+    }
+
+    /**
+     * @return The key of a similarity between two pages.
+     */
+    public static Key pageKey(String metric, Language language, int generation, int pageId1, int pageId2, boolean explanations) {
+        return new Key(metric, language, generation, pageId1, pageId2, null, null, explanations);
+    }
+
+    /**
+     * @return The key of a similarity between two phrases. Phrases that only differ in
+     * leading, trailing, or repeated whitespace share a key.
+     */
+    public static Key phraseKey(String metric, Language language, int generation, String phrase1, String phrase2, boolean explanations) {
+        return new Key(metric, language, generation, -1, -1, normalize(phrase1), normalize(phrase2), explanations);
+    }
+
+    static String normalize(String phrase) {
+        return phrase.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @param key
+     * @return A copy of the cached result, or null if there is none.
+     */
+    public SRResult get(Key key) {
+        SRResult result = cache.get(key);
+        return (result == null) ? null : copy(result);
+    }
+
+    /**
+     * Caches a copy of a result. Null results are not cached.
+     * @param key
+     * @param result
+     */
+    public void put(Key key, SRResult result) {
+        if (result != null) {
+            cache.put(key, copy(result));
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return The underlying cache, which has the size and hit and miss counts.
+     */
+    public BoundedCache<Key, SRResult> getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "SimilarityCache{" + cache + '}';
+    }
+
+    private static SRResult copy(SRResult r) {
+        return new SRResult(r.id, r.score,
+                r.explanations == null ? null : new ArrayList<Explanation>(r.explanations));
+    }
+
+    /**
+     * Identifies a cached result.
+     */
+    public static final class Key {
+        private final String metric;
+        private final Language language;
+        private final int generation;
+        private final int pageId1;
+        private final int pageId2;
+        private final String phrase1;
+        private final String phrase2;
+        private final boolean explanations;
+        private final int hash;
+
+        private Key(String metric, Language language, int generation, int pageId1, int pageId2,
+                    String phrase1, String phrase2, boolean explanations) {
+            this.metric = metric;
+            this.language = language;
+            this.generation = generation;
+            this.pageId1 = pageId1;
+            this.pageId2 = pageId2;
+            this.phrase1 = phrase1;
+            this.phrase2 = phrase2;
+            this.explanations = explanations;
+
+            int h = metric.hashCode();
+            h = 31 * h + language.hashCode();
+            h = 31 * h + generation;
+            h = 31 * h + pageId1;
+            h = 31 * h + pageId2;
+            h = 31 * h + (phrase1 == null ? 0 : phrase1.hashCode());
+            h = 31 * h + (phrase2 == null ? 0 : phrase2.hashCode());
+            h = 31 * h + (explanations ? 1 : 0);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return hash == that.hash
+                    && generation == that.generation
+                    && pageId1 == that.pageId1
+                    && pageId2 == that.pageId2
+                    && explanations == that.explanations
+                    && metric.equals(that.metric)
+                    && language.equals(that.language)
+                    && (phrase1 == null ? that.phrase1 == null : phrase1.equals(that.phrase1))
+                    && (phrase2 == null ? that.phrase2 == null : phrase2.equals(that.phrase2));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
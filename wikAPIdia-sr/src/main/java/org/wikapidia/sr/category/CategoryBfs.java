@@ -1,45 +1,48 @@
 package org.wikapidia.sr.category;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntDoubleHashMap;
 import gnu.trove.set.TIntSet;
-import org.wikapidia.core.dao.DaoException;
-import org.wikapidia.core.dao.LocalCategoryMemberDao;
-import org.wikapidia.core.lang.Language;
 import org.wikapidia.core.model.CategoryGraph;
-import org.wikapidia.core.model.LocalCategory;
-
-import java.util.Map;
-import java.util.PriorityQueue;
 
 /**
  * Conducts Dijkstra on the category hierarchy from a starting document.
  * Pages attached to visited categories are recorded, and iterations stop
  * when a certain number of unique pages have been discovered.
+ *
+ * The search reads the CSR arrays of the category graph directly and keeps its
+ * frontier in a primitive indexed heap, so it runs without database calls or
+ * per-category allocations. The heap and distance arrays live in a Workspace
+ * that callers can reuse across searches (one per search running at a time in
+ * a thread); reusing it costs constant time thanks to epoch stamping.
 
  * @author Shilad Sen
  * @author Matt Lesicko
  */
 public class CategoryBfs {
+    private static final byte UP = +1;
+    private static final byte DOWN = -1;
+
     private CategoryGraph graph;
     private int startPage;
     private int maxResults;
-    private LocalCategoryMemberDao categoryMemberDao;
-    private Language language;
 
     /**
-     * Observed distances to visited categories.
+     * Distances to categories. Visited categories have been removed from the heap.
      */
-    private TIntDoubleHashMap catDistances = new TIntDoubleHashMap();
+    private IndexedMinHeap openCats;
 
     /**
-     * Observed distances to visited pages.
+     * Direction of the best known path to each queued category:
+     * +1 (heading upwards) or -1 (heading downwards).
      */
-    private TIntDoubleHashMap pageDistances = new TIntDoubleHashMap();
+    private byte directions[];
 
     /**
-     * Categories that have been seen, but not visited.
+     * Observed distances to visited pages.
      */
-    private PriorityQueue<CategoryDistance> openCats = new PriorityQueue<CategoryDistance>();
+    private TIntDoubleHashMap pageDistances;
 
     /**
      * Results of the current iteration.
@@ -62,21 +65,33 @@ public class CategoryBfs {
      */
     private TIntSet validWpIds;
 
-    public CategoryBfs(CategoryGraph graph, int startCatId, Language language, int maxResults, TIntSet validWpIds, LocalCategoryMemberDao categoryMemberDao) throws DaoException {
-        this.startPage = startCatId;
+    public CategoryBfs(CategoryGraph graph, int startPage, int maxResults, TIntSet validWpIds) {
+        this(graph, startPage, maxResults, validWpIds, new Workspace(graph));
+    }
+
+    /**
+     * @param graph
+     * @param startPage Local id of the starting page.
+     * @param maxResults
+     * @param validWpIds Pages that can appear in the results, or null for all pages.
+     * @param workspace Scratch space for the search. It is cleared, and must not be
+     *                  used by another search until this one is done.
+     */
+    public CategoryBfs(CategoryGraph graph, int startPage, int maxResults, TIntSet validWpIds, Workspace workspace) {
+        this.startPage = startPage;
         this.maxResults = maxResults;
         this.graph = graph;
         this.validWpIds = validWpIds;
-        this.categoryMemberDao = categoryMemberDao;
-        this.language = language;
+        workspace.clear();
+        this.openCats = workspace.heap;
+        this.directions = workspace.directions;
+        this.pageDistances = workspace.pageDistances;
         pageDistances.put(startPage, 0.000000);
-        Map<Integer,LocalCategory> cats = categoryMemberDao.getCategories(language,startCatId);
-        if (cats!=null){
-            for (int catId : categoryMemberDao.getCategories(language,startCatId).keySet()) {
-                int ci = graph.getCategoryIndex(catId);
-                if (ci >= 0) {
-                    openCats.add(new CategoryDistance(ci, graph.cats[ci], graph.catCosts[ci], (byte)+1));
-                }
+        int pageIndex = graph.getPageIndex(startPage);
+        if (pageIndex >= 0) {
+            for (int j = graph.pageCatOffsets.get(pageIndex); j < graph.pageCatOffsets.get(pageIndex + 1); j++) {
+                int ci = graph.pageCats.get(j);
+                offer(ci, graph.catCosts.get(ci), UP);
             }
         }
     }
@@ -90,7 +105,7 @@ public class CategoryBfs {
     }
 
     public boolean hasMoreResults() {
-        return openCats.size() > 0 && pageDistances.size() < maxResults;
+        return !openCats.isEmpty() && pageDistances.size() < maxResults;
     }
 
     /**
@@ -102,24 +117,21 @@ public class CategoryBfs {
         if (!hasMoreResults()) {
             return visited;
         }
-        CategoryDistance cs;
-        do {
-            cs = openCats.poll();
-        } while (hasMoreResults() && catDistances.contains(cs.getCatIndex()));
-
-        visited.cats.put(cs.getCatIndex(), cs.getDistance());
-        catDistances.put(cs.getCatIndex(), cs.getDistance());
-//        System.out.println("visited " + cs.toString());
+        int ci = openCats.poll();
+        double distance = openCats.getKey(ci);
+        visited.cats.add(ci);
+        visited.catDistances.add(distance);
 
         // add directly linked pages
         if (addPages) {
-            for (int i : graph.catPages[cs.getCatIndex()]) {
+            for (int j = graph.catPageOffsets.get(ci); j < graph.catPageOffsets.get(ci + 1); j++) {
+                int i = graph.catPages.get(j);
                 if (validWpIds != null && !validWpIds.contains(i)) {
                     continue;
                 }
-                if (!pageDistances.containsKey(i) || pageDistances.get(i) > cs.getDistance()) {
-                    pageDistances.put(i, cs.getDistance());
-                    visited.pages.put(i, cs.getDistance());
+                if (!pageDistances.containsKey(i) || pageDistances.get(i) > distance) {
+                    pageDistances.put(i, distance);
+                    visited.pages.put(i, distance);
                 }
                 if (pageDistances.size() >= maxResults) {
                     break;  // may be an issue for huge categories
@@ -129,27 +141,35 @@ public class CategoryBfs {
 
         // next steps downwards
         if (exploreChildren) {
-            for (int i : graph.catChildren[cs.getCatIndex()]) {
-                if (!catDistances.containsKey(i)) {
-                    double d = cs.getDistance() + graph.catCosts[i];
-                    openCats.add(new CategoryDistance(i, graph.cats[i], d, (byte)-1));
-                }
+            for (int j = graph.catChildOffsets.get(ci); j < graph.catChildOffsets.get(ci + 1); j++) {
+                int i = graph.catChildren.get(j);
+                offer(i, distance + graph.catCosts.get(i), DOWN);
             }
         }
 
         // next steps upwards (if still possible)
-        if (cs.getDirection() == +1) {
-            for (int i : graph.catParents[cs.getCatIndex()]) {
-                if (!catDistances.containsKey(i)) {
-                    double d = cs.getDistance() + graph.catCosts[i];
-                    openCats.add(new CategoryDistance(i, graph.cats[i], d, (byte)+1));
-                }
+        if (directions[ci] == UP) {
+            for (int j = graph.catParentOffsets.get(ci); j < graph.catParentOffsets.get(ci + 1); j++) {
+                int i = graph.catParents.get(j);
+                offer(i, distance + graph.catCosts.get(i), UP);
             }
         }
 
         return visited;
     }
 
+    /**
+     * Records a path to a category if it is the best one seen so far.
+     * Upward paths win ties because they can continue in both directions.
+     */
+    private void offer(int catIndex, double distance, byte direction) {
+        if (openCats.offer(catIndex, distance)) {
+            directions[catIndex] = direction;
+        } else if (direction == UP && openCats.contains(catIndex) && openCats.getKey(catIndex) == distance) {
+            directions[catIndex] = UP;
+        }
+    }
+
     public TIntDoubleHashMap getPageDistances() {
         return pageDistances;
     }
@@ -159,19 +179,20 @@ public class CategoryBfs {
     public double getPageDistance(int pageId) {
         return pageDistances.get(pageId);
     }
-    public boolean hasCategoryDistance(int categoryId) {
-        return catDistances.containsKey(categoryId);
+    public boolean hasCategoryDistance(int catIndex) {
+        return openCats.isRemoved(catIndex);
     }
-    public double getCategoryDistance(int categoryId) {
-        return catDistances.get(categoryId);
+    public double getCategoryDistance(int catIndex) {
+        return openCats.getKey(catIndex);
     }
 
     public class BfsVisited {
         TIntDoubleHashMap pages = new TIntDoubleHashMap();
-        TIntDoubleHashMap cats = new TIntDoubleHashMap();
-        public void clear() { pages.clear(); cats.clear(); }
+        TIntArrayList cats = new TIntArrayList();
+        TDoubleArrayList catDistances = new TDoubleArrayList();
+        public void clear() { pages.clear(); cats.resetQuick(); catDistances.resetQuick(); }
         public double maxPageDistance() { return max(pages.values()); }
-        public double maxCatDistance() { return max(cats.values()); }
+        public double maxCatDistance() { return max(catDistances.toArray()); }
     }
 
     private double max(double []A) {
@@ -181,4 +202,24 @@ public class CategoryBfs {
         }
         return max;
     }
+
+    /**
+     * Reusable scratch space for searches over one category graph.
+     * A workspace is not thread-safe; keep one per concurrent search, for example in a ThreadLocal.
+     */
+    public static class Workspace {
+        private final IndexedMinHeap heap;
+        private final byte directions[];
+        private final TIntDoubleHashMap pageDistances = new TIntDoubleHashMap();
+
+        public Workspace(CategoryGraph graph) {
+            this.heap = new IndexedMinHeap(graph.getNumCategories());
+            this.directions = new byte[graph.getNumCategories()];
+        }
+
+        private void clear() {
+            heap.clear();
+            pageDistances.clear();
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package org.wikapidia.sr.category;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap over the integers 0 ... capacity-1, keyed by doubles,
+ * that supports decrease-key.
+ *
+ * All storage is allocated once in primitive arrays. Each index is stamped with the
+ * epoch in which it was last touched, so clear() runs in constant time and the heap
+ * can be reused across searches without refilling its arrays.
+ *
+ * An index is in one of three states during an epoch: untouched, queued, or removed
+ * (polled). The key of a removed index remains readable until the next clear().
+ */
+public class IndexedMinHeap {
+    private static final int REMOVED = -1;
+
+    private final double keys[];
+    private final int stamps[];
+    private final int positions[];
+    private final int heap[];
+    private int size = 0;
+    private int epoch = 1;
+
+    public IndexedMinHeap(int capacity) {
+        this.keys = new double[capacity];
+        this.stamps = new int[capacity];
+        this.positions = new int[capacity];
+        this.heap = new int[capacity];
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Empties the heap and forgets all keys.
+     */
+    public void clear() {
+        size = 0;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            epoch = 0;
+        }
+        epoch++;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i
+     * @return True if the index has been offered since the last clear().
+     */
+    public boolean isTouched(int i) {
+        return stamps[i] == epoch;
+    }
+
+    /**
+     * @param i
+     * @return True if the index is currently queued.
+     */
+    public boolean contains(int i) {
+        return stamps[i] == epoch && positions[i] != REMOVED;
+    }
+
+    /**
+     * @param i
+     * @return True if the index has been polled since the last clear().
+     */
+    public boolean isRemoved(int i) {
+        return stamps[i] == epoch && positions[i] == REMOVED;
+    }
+
+    /**
+     * @param i
+     * @return The key of a touched index, or positive infinity.
+     */
+    public double getKey(int i) {
+        return stamps[i] == epoch ? keys[i] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Queues an untouched index, or lowers the key of a queued index.
+     * Removed indexes and keys that are not lower than the queued key are ignored.
+     * @param i
+     * @param key
+     * @return True if the heap changed.
+     */
+    public boolean offer(int i, double key) {
+        if (stamps[i] != epoch) {
+            stamps[i] = epoch;
+            keys[i] = key;
+            positions[i] = size;
+            heap[size++] = i;
+            siftUp(size - 1);
+            return true;
+        } else if (positions[i] != REMOVED && key < keys[i]) {
+            keys[i] = key;
+            siftUp(positions[i]);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @return The index with the smallest key. The heap must not be empty.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * @return The smallest key. The heap must not be empty.
+     */
+    public double peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Removes the index with the smallest key.
+     * @return The index. The heap must not be empty.
+     */
+    public int poll() {
+        int top = heap[0];
+        positions[top] = REMOVED;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int pos) {
+        int i = heap[pos];
+        double key = keys[i];
+        while (pos > 0) {
+            int parentPos = (pos - 1) >>> 1;
+            int parent = heap[parentPos];
+            if (keys[parent] <= key) {
+                break;
+            }
+            heap[pos] = parent;
+            positions[parent] = pos;
+            pos = parentPos;
+        }
+        heap[pos] = i;
+        positions[i] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int i = heap[pos];
+        double key = keys[i];
+        int half = size >>> 1;
+        while (pos < half) {
+            int childPos = 2 * pos + 1;
+            int child = heap[childPos];
+            int rightPos = childPos + 1;
+            if (rightPos < size && keys[heap[rightPos]] < keys[child]) {
+                childPos = rightPos;
+                child = heap[childPos];
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            heap[pos] = child;
+            positions[child] = pos;
+            pos = childPos;
+        }
+        heap[pos] = i;
+        positions[i] = pos;
+    }
+}
@@ -0,0 +1,258 @@
+package org.wikapidia.sr.category;
+
+import org.wikapidia.core.model.CategoryGraph;
+import org.wikapidia.utils.ParallelForEach;
+import org.wikapidia.utils.RangeProcedure;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Precomputed distances from every category up to a small set of landmark categories.
+ *
+ * The category graph distance between two pages is the cost of the cheapest pair of
+ * upward paths from the pages' categories to a common ancestor. Any landmark that is a
+ * common ancestor yields such a pair of paths, so the cheapest one gives an upper
+ * bound on the distance in a few array lookups. A category shared by both pages is a
+ * common ancestor too, and its cost also bounds the distance from above. Every path
+ * must pass through one category of each page, so the larger of the cheapest category
+ * costs of the two pages bounds the distance from below.
+ *
+ * Landmarks are the categories with the highest cost, which are the highest ranked
+ * categories near the top of the hierarchy. Each landmark's distances are computed
+ * by a downward Dijkstra search, and the searches run in parallel.
+ *
+ * Distances are stored category-major as floats rounded up, so the bounds stay valid.
+ * The file written by write() is memory-mapped by read().
+ */
+public class LandmarkIndex {
+    private static final Logger LOG = Logger.getLogger(LandmarkIndex.class.getName());
+
+    /**
+     * Version of the file format. Files written by other versions are rejected.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x4c6e644b;     // "LndK"
+    private static final int HEADER_BYTES = 24;
+
+    private final CategoryGraph graph;
+    private final int landmarks[];
+    private final double landmarkCosts[];
+    private final FloatBuffer distances;
+
+    private LandmarkIndex(CategoryGraph graph, int landmarks[], FloatBuffer distances) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+        this.distances = distances;
+        this.landmarkCosts = new double[landmarks.length];
+        for (int i = 0; i < landmarks.length; i++) {
+            landmarkCosts[i] = graph.getCategoryCost(landmarks[i]);
+        }
+    }
+
+    /**
+     * Builds an index for a graph.
+     * @param graph
+     * @param numLandmarks The maximum number of landmarks.
+     * @param numThreads
+     * @return The index.
+     */
+    public static LandmarkIndex build(final CategoryGraph graph, int numLandmarks, int numThreads) {
+        final int landmarks[] = chooseLandmarks(graph, numLandmarks);
+        final int n = graph.getNumCategories();
+        final float distances[] = new float[n * landmarks.length];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        LOG.info("computing distances from " + landmarks.length + " landmark categories");
+        // each thread reuses one heap for all of its searches
+        ParallelForEach.chunkedRange(0, landmarks.length, numThreads, 1, new RangeProcedure<IndexedMinHeap>() {
+            @Override
+            public IndexedMinHeap createState() {
+                return new IndexedMinHeap(n);
+            }
+
+            @Override
+            public void call(int l, IndexedMinHeap heap) throws Exception {
+                computeDistances(graph, heap, landmarks[l], l, landmarks.length, distances);
+            }
+        }, "landmark distances", 60);
+        return new LandmarkIndex(graph, landmarks, FloatBuffer.wrap(distances));
+    }
+
+    /**
+     * @return The category indexes of the (at most) n categories with the highest cost.
+     */
+    static int[] chooseLandmarks(CategoryGraph graph, int n) {
+        n = Math.min(n, graph.getNumCategories());
+        IndexedMinHeap top = new IndexedMinHeap(graph.getNumCategories());
+        for (int i = 0; i < graph.getNumCategories(); i++) {
+            if (top.size() < n) {
+                top.offer(i, graph.getCategoryCost(i));
+            } else if (n > 0 && graph.getCategoryCost(i) > top.peekKey()) {
+                top.poll();
+                top.offer(i, graph.getCategoryCost(i));
+            }
+        }
+        int landmarks[] = new int[top.size()];
+        for (int i = landmarks.length - 1; i >= 0; i--) {
+            landmarks[i] = top.poll();
+        }
+        return landmarks;
+    }
+
+    /**
+     * Fills in the cheapest upward path cost from every descendant of a landmark to
+     * the landmark, counting the costs of both end points.
+     */
+    private static void computeDistances(CategoryGraph graph, IndexedMinHeap heap, int landmark, int column, int numColumns, float distances[]) {
+        heap.clear();
+        heap.offer(landmark, graph.getCategoryCost(landmark));
+        while (!heap.isEmpty()) {
+            double d = heap.peekKey();
+            int ci = heap.poll();
+            distances[ci * numColumns + column] = roundUp(d);
+            for (int j = graph.catChildOffsets.get(ci); j < graph.catChildOffsets.get(ci + 1); j++) {
+                int child = graph.catChildren.get(j);
+                heap.offer(child, d + graph.getCategoryCost(child));
+            }
+        }
+    }
+
+    private static float roundUp(double d) {
+        float f = (float) d;
+        return (f < d) ? Math.nextUp(f) : f;
+    }
+
+    public int getNumLandmarks() {
+        return landmarks.length;
+    }
+
+    /**
+     * @return A distance between the pages that is at least as large as the true
+     * distance, or positive infinity if no bound is known.
+     */
+    public double getUpperBound(int pageId1, int pageId2) {
+        int cats1[] = graph.getPageCategories(pageId1);
+        int cats2[] = graph.getPageCategories(pageId2);
+        if (cats1.length == 0 || cats2.length == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double best = Double.POSITIVE_INFINITY;
+
+        // shared categories are common ancestors
+        for (int c1 : cats1) {
+            for (int c2 : cats2) {
+                if (c1 == c2) {
+                    best = Math.min(best, graph.getCategoryCost(c1));
+                }
+            }
+        }
+
+        int k = landmarks.length;
+        for (int l = 0; l < k; l++) {
+            double d1 = Double.POSITIVE_INFINITY;
+            for (int c : cats1) {
+                d1 = Math.min(d1, distances.get(c * k + l));
+            }
+            double d2 = Double.POSITIVE_INFINITY;
+            for (int c : cats2) {
+                d2 = Math.min(d2, distances.get(c * k + l));
+            }
+            best = Math.min(best, d1 + d2 - landmarkCosts[l]);  // landmark counted twice
+        }
+        return best;
+    }
+
+    /**
+     * @return A distance between the pages that is at most as large as the true distance.
+     */
+    public double getLowerBound(int pageId1, int pageId2) {
+        return Math.max(getCheapestCategoryCost(pageId1), getCheapestCategoryCost(pageId2));
+    }
+
+    private double getCheapestCategoryCost(int pageId) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int c : graph.getPageCategories(pageId)) {
+            min = Math.min(min, graph.getCategoryCost(c));
+        }
+        return min;
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(landmarks.length);
+            out.writeInt(graph.getNumCategories());
+            out.writeLong(getFingerprint(graph));
+            for (int l : landmarks) {
+                out.writeInt(l);
+            }
+            for (int i = 0; i < distances.capacity(); i++) {
+                out.writeFloat(distances.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Memory-maps an index written by write().
+     * @param file
+     * @param graph The graph the index was built for.
+     * @return The index.
+     * @throws IOException If the file has the wrong format or version, or was built
+     * for a different graph.
+     */
+    public static LandmarkIndex read(File file, CategoryGraph graph) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("" + file + " is not a landmark index");
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("" + file + " has landmark index version " + version + ", expected " + FORMAT_VERSION);
+            }
+            int numLandmarks = header.getInt();
+            int numCats = header.getInt();
+            long fingerprint = header.getLong();
+            if (numCats != graph.getNumCategories() || fingerprint != getFingerprint(graph)) {
+                throw new IOException("" + file + " was built for a different category graph");
+            }
+            long bytes = 4L * numLandmarks + 4L * numLandmarks * numCats;
+            if (HEADER_BYTES + bytes > channel.size()) {
+                throw new IOException("" + file + " is truncated");
+            }
+            IntBuffer landmarks = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 4L * numLandmarks).asIntBuffer();
+            int landmarkArray[] = new int[numLandmarks];
+            landmarks.get(landmarkArray);
+            FloatBuffer distances = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + 4L * numLandmarks, 4L * numLandmarks * numCats).asFloatBuffer();
+            return new LandmarkIndex(graph, landmarkArray, distances);
+        } finally {
+            raf.close();    // mappings remain valid after the channel is closed
+        }
+    }
+
+    /**
+     * Identifies the graph an index was built for.
+     */
+    private static long getFingerprint(CategoryGraph graph) {
+        long h = graph.getNumCategories();
+        for (int i = 0; i < graph.getNumCategories(); i++) {
+            h = h * 31 + graph.getCategoryId(i);
+            h = h * 31 + graph.getNumParents(i);
+            h = h * 31 + Double.doubleToLongBits(graph.getCategoryCost(i));
+        }
+        return h;
+    }
+}
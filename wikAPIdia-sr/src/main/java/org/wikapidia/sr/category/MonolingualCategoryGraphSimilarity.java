@@ -18,18 +18,50 @@ import org.wikapidia.sr.SRResult;
 import org.wikapidia.sr.SRResultList;
 import org.wikapidia.sr.dataset.Dataset;
 import org.wikapidia.sr.disambig.Disambiguator;
+import org.wikapidia.utils.WpIOUtils;
+import org.wikapidia.utils.WpThreadUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author Matt Lesicko
  * @author Shilad Sen
  */
 public class MonolingualCategoryGraphSimilarity extends BaseMonolingualSRMetric{
+    private static final Logger LOG = Logger.getLogger(MonolingualCategoryGraphSimilarity.class.getName());
+
     private final CategoryGraph graph;
     LocalCategoryMemberDao catHelper;
 
+    /**
+     * Number of landmarks in the distance index built during training, or 0 for no index.
+     */
+    private int numLandmarks = 0;
+
+    /**
+     * If true, similarity() returns the landmark upper bound instead of searching.
+     */
+    private boolean useLandmarkEstimates = false;
+
+    private LandmarkIndex landmarks = null;
+
+    /**
+     * Two search workspaces per thread: similarity() runs two searches at once.
+     */
+    private final ThreadLocal<CategoryBfs.Workspace[]> workspaces = new ThreadLocal<CategoryBfs.Workspace[]>() {
+        @Override
+        protected CategoryBfs.Workspace[] initialValue() {
+            return new CategoryBfs.Workspace[] {
+                    new CategoryBfs.Workspace(graph),
+                    new CategoryBfs.Workspace(graph)
+            };
+        }
+    };
+
     public MonolingualCategoryGraphSimilarity(String name, Language language, LocalPageDao pageDao, Disambiguator disambiguator, LocalCategoryMemberDao categoryMemberDao) throws DaoException {
         super(name, language,pageDao,disambiguator);
         this.catHelper=categoryMemberDao;
@@ -58,15 +90,32 @@ public class MonolingualCategoryGraphSimilarity extends BaseMonolingualSRMetric{
     }
 
     @Override
-    public SRResult similarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
-        CategoryBfs bfs1 = new CategoryBfs(graph,pageId1,getLanguage(), Integer.MAX_VALUE, null, catHelper);
-        CategoryBfs bfs2 = new CategoryBfs(graph,pageId2,getLanguage(), Integer.MAX_VALUE, null, catHelper);
+    protected SRResult computeSimilarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+        return new SRResult(distanceToScore(distance(pageId1, pageId2)));
+    }
+
+    /**
+     * Returns the category graph distance between two pages. If a landmark index is
+     * available its upper bound seeds the search, which can then stop earlier, and it
+     * replaces the search when it matches the lower bound or estimates are enabled.
+     */
+    private double distance(int pageId1, int pageId2) {
+        double shortestDistance = Double.POSITIVE_INFINITY;
+        if (landmarks != null) {
+            shortestDistance = landmarks.getUpperBound(pageId1, pageId2);
+            if (useLandmarkEstimates || shortestDistance <= landmarks.getLowerBound(pageId1, pageId2)) {
+                return shortestDistance;
+            }
+        }
+
+        CategoryBfs.Workspace ws[] = workspaces.get();
+        CategoryBfs bfs1 = new CategoryBfs(graph, pageId1, Integer.MAX_VALUE, null, ws[0]);
+        CategoryBfs bfs2 = new CategoryBfs(graph, pageId2, Integer.MAX_VALUE, null, ws[1]);
         bfs1.setAddPages(false);
         bfs1.setExploreChildren(false);
         bfs2.setAddPages(false);
         bfs2.setExploreChildren(false);
 
-        double shortestDistance = Double.POSITIVE_INFINITY;
         double maxDist1 = 0;
         double maxDist2 = 0;
 
@@ -75,11 +124,12 @@ public class MonolingualCategoryGraphSimilarity extends BaseMonolingualSRMetric{
             // Search from d1
             while (bfs1.hasMoreResults() && (maxDist1 <= maxDist2 || !bfs2.hasMoreResults())) {
                 CategoryBfs.BfsVisited visited = bfs1.step();
-                for (int catId : visited.cats.keys()) {
+                for (int i = 0; i < visited.cats.size(); i++) {
+                    int catId = visited.cats.get(i);
                     if (bfs2.hasCategoryDistance(catId)) {
                         double d = bfs1.getCategoryDistance(catId)
                                 + bfs2.getCategoryDistance(catId)
-                                - graph.catCosts[catId];    // counted twice
+                                - graph.getCategoryCost(catId);    // counted twice
                         shortestDistance = Math.min(d, shortestDistance);
                     }
                 }
@@ -89,11 +139,12 @@ public class MonolingualCategoryGraphSimilarity extends BaseMonolingualSRMetric{
             // Search from d2
             while (bfs2.hasMoreResults() && (maxDist2 <= maxDist1 || !bfs1.hasMoreResults())) {
                 CategoryBfs.BfsVisited visited = bfs2.step();
-                for (int catId : visited.cats.keys()) {
+                for (int i = 0; i < visited.cats.size(); i++) {
+                    int catId = visited.cats.get(i);
                     if (bfs1.hasCategoryDistance(catId)) {
                         double d = bfs1.getCategoryDistance(catId) +
                                 bfs2.getCategoryDistance(catId) + 0
-                                - graph.catCosts[catId];    // counted twice;
+                                - graph.getCategoryCost(catId);    // counted twice;
                         shortestDistance = Math.min(d, shortestDistance);
                     }
                 }
@@ -101,7 +152,57 @@ public class MonolingualCategoryGraphSimilarity extends BaseMonolingualSRMetric{
             }
         }
 
-        return new SRResult(distanceToScore(shortestDistance));
+        return shortestDistance;
+    }
+
+    @Override
+    public synchronized void trainSimilarity(Dataset dataset) throws DaoException {
+        if (numLandmarks > 0 && landmarks == null) {
+            buildLandmarkIndex();
+        }
+        super.trainSimilarity(dataset);
+    }
+
+    /**
+     * Builds the landmark distance index and writes it to the data directory.
+     */
+    public void buildLandmarkIndex() throws DaoException {
+        landmarks = LandmarkIndex.build(graph, numLandmarks, WpThreadUtils.getMaxThreads());
+        try {
+            WpIOUtils.mkdirsQuietly(getDataDir());
+            landmarks.write(getLandmarkIndexPath());
+        } catch (IOException e) {
+            throw new DaoException(e);
+        }
+    }
+
+    @Override
+    public void read() throws IOException {
+        super.read();
+        landmarks = null;
+        if (numLandmarks > 0 && getLandmarkIndexPath().isFile()) {
+            try {
+                landmarks = LandmarkIndex.read(getLandmarkIndexPath(), graph);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "ignoring landmark index that does not match the category graph", e);
+            }
+        }
+    }
+
+    protected File getLandmarkIndexPath() {
+        return new File(getDataDir(), "landmarks.bin");
+    }
+
+    public LandmarkIndex getLandmarkIndex() {
+        return landmarks;
+    }
+
+    public void setNumLandmarks(int numLandmarks) {
+        this.numLandmarks = numLandmarks;
+    }
+
+    public void setUseLandmarkEstimates(boolean useLandmarkEstimates) {
+        this.useLandmarkEstimates = useLandmarkEstimates;
     }
 
     @Override
@@ -111,7 +212,7 @@ public class MonolingualCategoryGraphSimilarity extends BaseMonolingualSRMetric{
         if (results != null) {
             return results;
         }
-        CategoryBfs bfs = new CategoryBfs(graph,pageId,getLanguage(), maxResults, validIds, catHelper);
+        CategoryBfs bfs = new CategoryBfs(graph, pageId, maxResults, validIds, workspaces.get()[0]);
         while (bfs.hasMoreResults()) {
             bfs.step();
         }
@@ -162,6 +263,12 @@ public class MonolingualCategoryGraphSimilarity extends BaseMonolingualSRMetric{
             } catch (DaoException e) {
                 throw new ConfigurationException(e);
             }
+            if (config.hasPath("landmarks")) {
+                sr.setNumLandmarks(config.getInt("landmarks"));
+            }
+            if (config.hasPath("useLandmarkEstimates")) {
+                sr.setUseLandmarkEstimates(config.getBoolean("useLandmarkEstimates"));
+            }
             configureBase(getConfigurator(), sr, config);
             return sr;
         }
@@ -14,18 +14,39 @@ import org.wikapidia.core.lang.LocalId;
 import org.wikapidia.core.lang.LocalString;
 import org.wikapidia.core.model.LocalPage;
 import org.wikapidia.phrases.PhraseAnalyzer;
+import org.wikapidia.sr.BaseMonolingualSRMetric;
 import org.wikapidia.sr.MonolingualSRMetric;
+import org.wikapidia.utils.BoundedCache;
 import org.wikapidia.utils.MathUtils;
 import org.wikapidia.utils.WpCollectionUtils;
 
 import java.util.*;
 
+/**
+ * Disambiguates phrases by choosing the candidate senses that are most popular and
+ * most similar to the candidate senses of the other phrases and the context.
+ *
+ * All phrases are resolved in one pass, the cosimilarity matrix of all candidates
+ * is computed with a single call to the metric, and the results for each set of
+ * phrases and context are memoized. Memoized results are forgotten when a metric
+ * derived from BaseMonolingualSRMetric is retrained or rebuilt. Other metrics must
+ * call clearCache() themselves.
+ */
 public class SimilarityDisambiguator extends Disambiguator {
 
     public static final int DEFAULT_NUM_CANDIDATES = 5;
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
     protected final PhraseAnalyzer phraseAnalyzer;
     private int numCandidates = DEFAULT_NUM_CANDIDATES;
 
+    // Memoized results, keyed by phrases and context. Null if caching is disabled.
+    private BoundedCache<ContextKey, List<LinkedHashMap<LocalId, Float>>> cache =
+            new BoundedCache<ContextKey, List<LinkedHashMap<LocalId, Float>>>(DEFAULT_CACHE_SIZE);
+
+    // The model generation of the metrics that computed the memoized results.
+    private long cacheGeneration = 0;
+
     private final Map<Language, MonolingualSRMetric> metrics;
 
     /**
@@ -48,16 +69,52 @@ public class SimilarityDisambiguator extends Disambiguator {
 
     @Override
     public List<LinkedHashMap<LocalId, Float>> disambiguate(List<LocalString> phrases, Set<LocalString> context) throws DaoException {
+        BoundedCache<ContextKey, List<LinkedHashMap<LocalId, Float>>> cache = this.cache;
+        if (cache == null) {
+            return disambiguateUncached(phrases, context);
+        }
+        long generation = getModelGeneration();
+        if (generation != cacheGeneration) {
+            synchronized (this) {
+                if (generation != cacheGeneration) {
+                    cache.clear();
+                    cacheGeneration = generation;
+                }
+            }
+        }
+        ContextKey key = new ContextKey(phrases, context);
+        List<LinkedHashMap<LocalId, Float>> result = cache.get(key);
+        if (result == null) {
+            result = disambiguateUncached(phrases, context);
+            // results computed while a metric was retrained are not memoized
+            if (getModelGeneration() == generation) {
+                cache.put(key, result);
+            }
+        }
+        return copy(result);
+    }
+
+    /**
+     * @return The sum of the model generations of the metrics, which grows whenever one is retrained.
+     */
+    private long getModelGeneration() {
+        long generation = 0;
+        for (MonolingualSRMetric metric : metrics.values()) {
+            if (metric instanceof BaseMonolingualSRMetric) {
+                generation += ((BaseMonolingualSRMetric) metric).getModelGeneration();
+            }
+        }
+        return generation;
+    }
+
+    private List<LinkedHashMap<LocalId, Float>> disambiguateUncached(List<LocalString> phrases, Set<LocalString> context) throws DaoException {
         List<LinkedHashMap<LocalId, Float>> results = new ArrayList<LinkedHashMap<LocalId, Float>>();
 
         List<LocalString> allPhrases = new ArrayList<LocalString>(
                 (context == null) ? phrases : CollectionUtils.union(phrases, context));
 
         // Step 0: calculate most frequent candidate senses for each phrase
-        Map<LocalString, LinkedHashMap<LocalPage, Float>> candidates = Maps.newHashMap();
-        for (LocalString s : allPhrases) {
-            candidates.put(s, phraseAnalyzer.resolve(s.getLanguage(), s.getString(), numCandidates));
-        }
+        Map<LocalString, LinkedHashMap<LocalPage, Float>> candidates = resolveAll(allPhrases);
 
         // Skip using the sr metric at all!
         if (critera == Criteria.POPULARITY) {
@@ -84,11 +141,37 @@ public class SimilarityDisambiguator extends Disambiguator {
         return result;
     }
 
+    /**
+     * Resolves each distinct phrase once.
+     * @param phrases
+     * @return A map from phrase to its candidate senses, which may be empty.
+     * @throws DaoException
+     */
+    private Map<LocalString, LinkedHashMap<LocalPage, Float>> resolveAll(Collection<LocalString> phrases) throws DaoException {
+        Map<LocalString, LinkedHashMap<LocalPage, Float>> candidates = Maps.newHashMap();
+        for (LocalString s : phrases) {
+            if (!candidates.containsKey(s)) {
+                LinkedHashMap<LocalPage, Float> senses = phraseAnalyzer.resolve(s.getLanguage(), s.getString(), numCandidates);
+                candidates.put(s, (senses == null) ? new LinkedHashMap<LocalPage, Float>() : senses);
+            }
+        }
+        return candidates;
+    }
+
+    private static List<LinkedHashMap<LocalId, Float>> copy(List<LinkedHashMap<LocalId, Float>> results) {
+        List<LinkedHashMap<LocalId, Float>> copy = new ArrayList<LinkedHashMap<LocalId, Float>>(results.size());
+        for (LinkedHashMap<LocalId, Float> m : results) {
+            copy.add(m == null ? null : new LinkedHashMap<LocalId, Float>(m));
+        }
+        return copy;
+    }
+
     private LinkedHashMap<LocalId, Float> selectFinalPhraseSenses(Map<LocalPage, Float> pageSims, Map<LocalPage, Float> phrasePops) {
         if (phrasePops == null || phrasePops.isEmpty()) {
             return null;
         }
         double sum = 0.0;
+        Map<LocalPage, Float> scores = new LinkedHashMap<LocalPage, Float>();
         for (LocalPage lp : phrasePops.keySet()) {
             float pop = phrasePops.get(lp);
             float sim =  pageSims.get(lp);
@@ -111,12 +194,12 @@ public class SimilarityDisambiguator extends Disambiguator {
                     throw new IllegalStateException();
             }
 
-            phrasePops.put(lp, score);
+            scores.put(lp, score);
             sum += score;
         }
         LinkedHashMap<LocalId, Float> pageResult = new LinkedHashMap<LocalId, Float>();
-        for (LocalPage key : WpCollectionUtils.sortMapKeys(phrasePops, true)) {
-            pageResult.put(key.toLocalId(), (float)(phrasePops.get(key) / sum));
+        for (LocalPage key : WpCollectionUtils.sortMapKeys(scores, true)) {
+            pageResult.put(key.toLocalId(), (float)(scores.get(key) / sum));
         }
         return pageResult;
     }
@@ -172,6 +255,7 @@ public class SimilarityDisambiguator extends Disambiguator {
 
     public void setCritera(Criteria critera) {
         this.critera = critera;
+        clearCache();
     }
 
     public int getNumCandidates() {
@@ -180,6 +264,65 @@ public class SimilarityDisambiguator extends Disambiguator {
 
     public void setNumCandidates(int numCandidates) {
         this.numCandidates = numCandidates;
+        clearCache();
+    }
+
+    /**
+     * Sets the number of memoized results.
+     * @param cacheSize The maximum number of results, or 0 to disable memoization.
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize <= 0) {
+            cache = null;
+        } else {
+            cache = new BoundedCache<ContextKey, List<LinkedHashMap<LocalId, Float>>>(cacheSize);
+        }
+    }
+
+    /**
+     * @return The cache of memoized results, or null if memoization is disabled.
+     */
+    public BoundedCache<ContextKey, List<LinkedHashMap<LocalId, Float>>> getCache() {
+        return cache;
+    }
+
+    /**
+     * Forgets all memoized results, for example after the metrics have been retrained.
+     */
+    public void clearCache() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * The phrases and context of a call to disambiguate().
+     */
+    public static final class ContextKey {
+        private final List<LocalString> phrases;
+        private final Set<LocalString> context;
+        private final int hash;
+
+        ContextKey(List<LocalString> phrases, Set<LocalString> context) {
+            this.phrases = new ArrayList<LocalString>(phrases);
+            this.context = (context == null) ? null : new HashSet<LocalString>(context);
+            this.hash = 31 * this.phrases.hashCode() + (context == null ? 0 : this.context.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ContextKey)) return false;
+            ContextKey that = (ContextKey) o;
+            return hash == that.hash
+                    && phrases.equals(that.phrases)
+                    && (context == null ? that.context == null : context.equals(that.context));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 
     public static class Provider extends org.wikapidia.conf.Provider<Disambiguator>{
@@ -224,6 +367,9 @@ public class SimilarityDisambiguator extends Disambiguator {
             if (config.hasPath("criteria")) {
                 dab.setCritera(Criteria.valueOf(config.getString("criteria").toUpperCase()));
             }
+            if (config.hasPath("cacheSize")) {
+                dab.setCacheSize(config.getInt("cacheSize"));
+            }
             return dab;
         }
     }
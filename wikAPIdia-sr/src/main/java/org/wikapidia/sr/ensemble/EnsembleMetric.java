@@ -56,7 +56,7 @@ public class EnsembleMetric extends BaseMonolingualSRMetric {
     }
 
     @Override
-    public SRResult similarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+    protected SRResult computeSimilarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
         List<SRResult> scores = new ArrayList<SRResult>();
         for (MonolingualSRMetric metric : metrics){
             scores.add(metric.similarity(pageId1,pageId2,explanations));
@@ -65,9 +65,9 @@ public class EnsembleMetric extends BaseMonolingualSRMetric {
     }
 
     @Override
-    public SRResult similarity(String phrase1, String phrase2, boolean explanations) throws DaoException {
+    protected SRResult computeSimilarity(String phrase1, String phrase2, boolean explanations) throws DaoException {
         if (resolvePhrases) {
-            return super.similarity(phrase1, phrase2, explanations);
+            return super.computeSimilarity(phrase1, phrase2, explanations);
         }
         List<SRResult> scores = new ArrayList<SRResult>();
         for (MonolingualSRMetric metric : metrics){
@@ -108,6 +108,8 @@ public class EnsembleMetric extends BaseMonolingualSRMetric {
      */
     @Override
     public void trainSimilarity(final Dataset dataset) throws DaoException {
+        // cached ensemble results were combined from the base metrics' old scores
+        invalidateSimilarityCache();
         if (trainSubmetrics) {
             for (MonolingualSRMetric metric : metrics) {
                 metric.trainSimilarity(dataset);
@@ -152,6 +154,7 @@ public class EnsembleMetric extends BaseMonolingualSRMetric {
         if (getMostSimilarCache() != null) {
             clearMostSimilarCache();
         }
+        invalidateSimilarityCache();
         if (trainSubmetrics) {
             for (MonolingualSRMetric metric : metrics){
                 metric.trainMostSimilar(dataset,numResults,validIds);
@@ -1,5 +1,7 @@
 package org.wikapidia.sr.esa;
 
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import org.apache.commons.cli.*;
@@ -13,9 +15,13 @@ import org.wikapidia.core.dao.DaoException;
 import org.wikapidia.core.dao.DaoFilter;
 import org.wikapidia.core.dao.LocalLinkDao;
 import org.wikapidia.core.dao.LocalPageDao;
+import org.wikapidia.core.dao.matrix.MatrixLocalLinkDao;
+import org.wikapidia.core.dao.sql.LocalLinkSqlDao;
 import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LocalId;
 import org.wikapidia.core.model.LocalPage;
 import org.wikapidia.core.model.NameSpace;
+import org.wikapidia.matrix.SparseMatrixRow;
 import org.wikapidia.sr.SRResultList;
 import org.wikapidia.sr.utils.Leaderboard;
 
@@ -56,6 +62,7 @@ public class SRConceptSpaceGenerator {
     public TIntSet getConcepts() throws DaoException {
         int numStopArticles =getNumStopConcepts();
         Leaderboard mostLinked = new Leaderboard(getMaxConcepts() + numStopArticles);
+        TIntIntMap inDegrees = getInDegrees();
 
         for (LocalPage lp : (Iterable<LocalPage>)pageDao.get(getFilter())) {
             if (lp == null) {
@@ -71,8 +78,13 @@ public class SRConceptSpaceGenerator {
                 continue;
             }
 
-            DaoFilter query = new DaoFilter().setLanguages(lang).setDestIds(lp.getLocalId());
-            int n = linkDao.getCount(query);
+            int n;
+            if (inDegrees != null) {
+                n = inDegrees.get(lp.getLocalId());
+            } else {
+                DaoFilter query = new DaoFilter().setLanguages(lang).setDestIds(lp.getLocalId());
+                n = linkDao.getCount(query);
+            }
             mostLinked.tallyScore(lp.getLocalId(), n);
         }
 
@@ -93,6 +105,50 @@ public class SRConceptSpaceGenerator {
         return result;
     }
 
+    /**
+     * Computes the number of distinct pages linking to every page in the language in
+     * one pass, from the rows of the inlink matrix or with a grouped sql query.
+     * @return The inlink counts, which are 0 for missing pages, or null if the
+     * link dao supports neither.
+     */
+    private TIntIntMap getInDegrees() throws DaoException {
+        TIntIntMap degrees = new TIntIntHashMap();
+        if (linkDao instanceof MatrixLocalLinkDao && ((MatrixLocalLinkDao) linkDao).getTranspose() != null) {
+            LOG.info("counting inlinks in " + lang + " from the inlink matrix");
+            for (SparseMatrixRow row : ((MatrixLocalLinkDao) linkDao).getTranspose()) {
+                LocalId id = LocalId.fromInt(row.getRowIndex());
+                if (id.getLanguage().equals(lang)) {
+                    degrees.put(id.getId(), countDistinctCols(row));
+                }
+            }
+            return degrees;
+        } else if (linkDao instanceof LocalLinkSqlDao) {
+            LOG.info("counting inlinks in " + lang + " with a grouped query");
+            return ((LocalLinkSqlDao) linkDao).getInDegrees(lang);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Counts the distinct column ids of a row. The matrix keeps one column per link,
+     * so a page linked several times from the same source has repeated columns.
+     */
+    static int countDistinctCols(SparseMatrixRow row) {
+        int n = 0;
+        for (int i = 0; i < row.getNumCols(); i++) {
+            int id = row.getColIndex(i);
+            if (i > 0 && id < row.getColIndex(i - 1)) {
+                // unsorted row
+                return new TIntHashSet(row.getColIndexes()).size();
+            }
+            if (i == 0 || id != row.getColIndex(i - 1)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
     public void writeConcepts(File path) throws DaoException, IOException {
         BufferedWriter writer = new BufferedWriter(new FileWriter(path));
         for (int wpId : getConcepts().toArray()) {
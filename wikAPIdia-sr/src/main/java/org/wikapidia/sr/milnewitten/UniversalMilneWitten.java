@@ -16,8 +16,10 @@ import org.wikapidia.core.dao.DaoException;
 import org.wikapidia.core.dao.DaoFilter;
 import org.wikapidia.core.dao.UniversalLinkDao;
 import org.wikapidia.core.dao.UniversalPageDao;
+import org.wikapidia.core.dao.matrix.MatrixUniversalLinkDao;
 import org.wikapidia.core.lang.LocalString;
 import org.wikapidia.core.model.UniversalPage;
+import org.wikapidia.matrix.SparseMatrixRow;
 import org.wikapidia.sr.*;
 import org.wikapidia.sr.disambig.Disambiguator;
 import org.wikapidia.sr.normalize.Normalizer;
@@ -114,8 +116,23 @@ public class UniversalMilneWitten extends BaseUniversalSRMetric {
             return mostSimilar;
         } else {
             //Only check pages that share at least one inlink/outlink.
-            TIntSet linkPages = getLinks(page.getUnivId(), algorithmId);
             TIntIntMap worthChecking = new TIntIntHashMap();
+            if (getMatrixDao() != null) {
+                // read the rows directly instead of building a set per linked page
+                MatrixUniversalLinkDao matrixDao = getMatrixDao();
+                SparseMatrixRow linkPages = matrixDao.getLinks(page.getUnivId(), algorithmId, outLinks);
+                for (int i = 0; linkPages != null && i < linkPages.getNumCols(); i++) {
+                    SparseMatrixRow links = matrixDao.getLinks(linkPages.getColIndex(i), algorithmId, !outLinks);
+                    for (int j = 0; links != null && j < links.getNumCols(); j++) {
+                        int link = links.getColIndex(j);
+                        if (validIds==null||validIds.contains(link)){
+                            worthChecking.adjustOrPutValue(link,1,1);
+                        }
+                    }
+                }
+                return mostSimilarFromKnown(page, maxResults, worthChecking);
+            }
+            TIntSet linkPages = getLinks(page.getUnivId(), algorithmId);
             for (int id : linkPages.toArray()){
                 TIntSet links;
                 if (outLinks){
@@ -253,6 +270,17 @@ public class UniversalMilneWitten extends BaseUniversalSRMetric {
         return linkIds;
     }
 
+    /**
+     * @return The link dao if it holds the links of this metric's algorithm in matrices, else null.
+     */
+    private MatrixUniversalLinkDao getMatrixDao() {
+        if (universalLinkDao instanceof MatrixUniversalLinkDao
+                && ((MatrixUniversalLinkDao) universalLinkDao).hasMatrix(algorithmId)) {
+            return (MatrixUniversalLinkDao) universalLinkDao;
+        }
+        return null;
+    }
+
     private int getNumLinks(int universeId, int algorithmId, boolean outLinks) throws DaoException {
         DaoFilter daoFilter = new DaoFilter().setAlgorithmIds(algorithmId);
         if (outLinks){
@@ -113,12 +113,27 @@ public abstract class BaseNormalizer implements Serializable, Normalizer {
     public SRResultList normalize(SRResultList list) {
         SRResultList dsl = new SRResultList(list.numDocs());
         list.setMissingScore(missingMean);
+        double normalized[] = normalize(list.getScores());
         for (int i = 0; i < list.numDocs(); i++) {
-            dsl.set(i, list.getId(i), normalize(list.getScore(i)));
+            dsl.set(i, list.getId(i), normalized[i]);
         }
         return dsl;
     }
 
+    /**
+     * A basic implementation of batch normalization that normalizes each value.
+     * Subclasses with expensive setup should override it to do the setup once.
+     * @param X
+     */
+    @Override
+    public double[] normalize(double X[]) {
+        double normalized[] = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            normalized[i] = normalize(X[i]);
+        }
+        return normalized;
+    }
+
 
     public String toString() { return "min=" + min + ", max=" + max; }
 
@@ -33,9 +33,19 @@ public class LoessNormalizer extends BaseNormalizer {
     private boolean logTransform = false;
     private boolean monotonic = false;
 
+    /**
+     * Maximum absolute error of the lookup table used for normalization.
+     */
+    public static final double TABLE_TOLERANCE = 1E-4;
+
     transient private double interpolatorMin;
     transient private double interpolatorMax;
-    transient private UnivariateFunction interpolator = null;
+    transient private double yMin;
+    transient private double yMax;
+    transient private LookupTable table = null;
+
+    // Assigned last by init(), so a non-null value means all interpolation state is ready.
+    transient private volatile UnivariateFunction interpolator = null;
 
     @Override
     public void reset() {
@@ -44,6 +54,7 @@ public class LoessNormalizer extends BaseNormalizer {
         Y.clear();
         interpolatorMin = 0;
         interpolatorMax = 0;
+        table = null;
         interpolator = null;
     }
 
@@ -60,10 +71,13 @@ public class LoessNormalizer extends BaseNormalizer {
 
     @Override
     public void observationsFinished(){
-        // lazily initialized to overcome problems
-        // with PolynomialSplineFunction serialization.
+        // The interpolator is transient to overcome problems with PolynomialSplineFunction
+        // serialization, so it is also lazily initialized after a normalizer is read.
         super.observationsFinished();
-
+        if (!X.isEmpty()) {
+            interpolator = null;
+            init();
+        }
     }
 
     private static final double EPSILON = 1E-10;
@@ -73,34 +87,46 @@ public class LoessNormalizer extends BaseNormalizer {
         if (Double.isNaN(x) || Double.isInfinite(x)) {
             return missingMean;
         }
-        init();
-        x = logIfNeeded(x);
-        double sMin = interpolatorMin;
-        double sMax = interpolatorMax;
+        if (interpolator == null) {
+            init();
+        }
+        return normalizeTransformed(logIfNeeded(x));
+    }
 
-        double x2;
-        if (sMin <= x && x <= sMax) {
-            x2 = getInterpolationFunction().value(x);
-        } else {
-            double yMin = getInterpolationFunction().value(sMin);
-            double yMax = getInterpolationFunction().value(sMax);
-            double halfLife = (sMax - sMin) / 4.0;
-            double yDelta = 0.1 * (yMax - yMin);
-            if (x < sMin) {
-                x2 =  MathUtils.toAsymptote(sMin - x, halfLife, yMin, yMin - yDelta);
-            } else if (x > sMax) {
-                x2 = MathUtils.toAsymptote(x - sMax, halfLife, yMax, yMax + yDelta);
+    @Override
+    public double[] normalize(double X[]) {
+        if (interpolator == null) {
+            init();
+        }
+        double normalized[] = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            double x = X[i];
+            if (Double.isNaN(x) || Double.isInfinite(x)) {
+                normalized[i] = missingMean;
             } else {
-                throw new IllegalStateException("" + x + " not in [" + sMin + "," + sMax + "]");
+                normalized[i] = normalizeTransformed(logIfNeeded(x));
             }
         }
-        return x2;
+        return normalized;
     }
 
+    /**
+     * Normalizes a value that has already been log transformed, if necessary.
+     */
+    private double normalizeTransformed(double x) {
+        double sMin = interpolatorMin;
+        double sMax = interpolatorMax;
 
-    private synchronized  UnivariateFunction getInterpolationFunction() {
-        init();
-        return interpolator;
+        if (sMin <= x && x <= sMax) {
+            return (table != null) ? table.value(x) : interpolator.value(x);
+        }
+        double halfLife = (sMax - sMin) / 4.0;
+        double yDelta = 0.1 * (yMax - yMin);
+        if (x < sMin) {
+            return MathUtils.toAsymptote(sMin - x, halfLife, yMin, yMin - yDelta);
+        } else {
+            return MathUtils.toAsymptote(x - sMax, halfLife, yMax, yMax + yDelta);
+        }
     }
 
     private synchronized void init() {
@@ -152,8 +178,19 @@ public class LoessNormalizer extends BaseNormalizer {
             MathUtils.makeMonotonicIncreasing(smoothedY, EPSILON);
         }
 
-        // create the interpolator
-        interpolator = new LoessInterpolator().interpolate(smoothedX, smoothedY);
+        // create the interpolator and a table that approximates it
+        UnivariateFunction f = new LoessInterpolator().interpolate(smoothedX, smoothedY);
+        yMin = f.value(interpolatorMin);
+        yMax = f.value(interpolatorMax);
+        double checkpoints[] = new double[2 * smoothedX.length - 1];
+        for (int i = 0; i < smoothedX.length; i++) {
+            checkpoints[2 * i] = smoothedX[i];
+            if (i > 0) {
+                checkpoints[2 * i - 1] = (smoothedX[i - 1] + smoothedX[i]) / 2;
+            }
+        }
+        table = LookupTable.fit(f, interpolatorMin, interpolatorMax, checkpoints, TABLE_TOLERANCE);
+        interpolator = f;
     }
 
     private double logIfNeeded(double x) {
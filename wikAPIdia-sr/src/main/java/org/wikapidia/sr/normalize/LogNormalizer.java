@@ -32,6 +32,15 @@ public class LogNormalizer implements Normalizer{
         return normalized;
     }
 
+    @Override
+    public double[] normalize(double X[]) {
+        double normalized[] = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            normalized[i] = normalize(X[i]);
+        }
+        return normalized;
+    }
+
     @Override
     public double normalize(double x) {
         if (Double.isNaN(x)) {
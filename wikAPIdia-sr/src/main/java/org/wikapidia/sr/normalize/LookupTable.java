@@ -0,0 +1,121 @@
+package org.wikapidia.sr.normalize;
+
+import org.apache.commons.math3.analysis.UnivariateFunction;
+
+import java.util.Arrays;
+
+/**
+ * The values of a function at evenly spaced points of an interval.
+ * Values between the points are linearly interpolated, so evaluating the table costs
+ * a multiplication and an array lookup instead of a spline search.
+ */
+public class LookupTable {
+    /**
+     * Default number of points in a table.
+     */
+    public static final int DEFAULT_RESOLUTION = 8192;
+
+    /**
+     * Largest number of points tried by fit().
+     */
+    public static final int MAX_RESOLUTION = 1 << 19;
+
+    private final double min;
+    private final double max;
+    private final double scale;
+    private final double values[];
+
+    /**
+     * @param f The function, which must be defined on [min, max].
+     * @param min
+     * @param max
+     * @param resolution The number of points, at least 2.
+     */
+    public LookupTable(UnivariateFunction f, double min, double max, int resolution) {
+        if (!(min <= max) || resolution < 2) {
+            throw new IllegalArgumentException("invalid table range [" + min + ", " + max + "] or resolution " + resolution);
+        }
+        this.min = min;
+        this.max = max;
+        this.values = new double[resolution];
+        if (max > min) {
+            this.scale = (resolution - 1) / (max - min);
+            for (int i = 0; i < resolution; i++) {
+                double x = (i == resolution - 1) ? max : min + i / scale;
+                values[i] = f.value(x);
+            }
+        } else {
+            this.scale = 0.0;
+            Arrays.fill(values, f.value(min));
+        }
+    }
+
+    /**
+     * Builds the smallest table, starting at DEFAULT_RESOLUTION points and growing by
+     * a factor of four, whose error at each checkpoint in [min, max] is within the tolerance.
+     * For piecewise linear functions, checking the breakpoints bounds the error everywhere.
+     *
+     * @param f
+     * @param min
+     * @param max
+     * @param checkpoints Points at which the table's error is measured.
+     * @param tolerance The maximum absolute error.
+     * @return The table, or null if no table up to MAX_RESOLUTION points is accurate enough.
+     */
+    public static LookupTable fit(UnivariateFunction f, double min, double max, double checkpoints[], double tolerance) {
+        for (int resolution = DEFAULT_RESOLUTION; resolution <= MAX_RESOLUTION; resolution *= 4) {
+            LookupTable table = new LookupTable(f, min, max, resolution);
+            if (table.maxError(f, checkpoints) <= tolerance) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The largest absolute difference between the table and f at the given
+     * points that lie in the table's interval.
+     */
+    public double maxError(UnivariateFunction f, double X[]) {
+        double error = 0.0;
+        for (double x : X) {
+            if (contains(x)) {
+                error = Math.max(error, Math.abs(value(x) - f.value(x)));
+            }
+        }
+        return error;
+    }
+
+    public int getResolution() {
+        return values.length;
+    }
+
+    /**
+     * @return True if x is in the table's interval (false for NaN).
+     */
+    public boolean contains(double x) {
+        return min <= x && x <= max;
+    }
+
+    /**
+     * @param x A value in the table's interval.
+     * @return The interpolated value of the function.
+     */
+    public double value(double x) {
+        double pos = (x - min) * scale;
+        int i = (int) pos;
+        if (i >= values.length - 1) {
+            return values[values.length - 1];
+        }
+        double frac = pos - i;
+        return values[i] + frac * (values[i + 1] - values[i]);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
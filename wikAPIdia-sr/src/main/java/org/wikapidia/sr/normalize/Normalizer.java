@@ -8,6 +8,13 @@ public interface Normalizer extends Serializable {
     public SRResultList normalize(SRResultList list);
     public double normalize(double x);
 
+    /**
+     * Normalizes many values at once.
+     * @param X The values, which are not modified.
+     * @return A new array with the normalized values.
+     */
+    public double[] normalize(double X[]);
+
     public void observe(SRResultList sims, int rank, double y);
     public void observe(double x, double y);
     public void observe(double x);
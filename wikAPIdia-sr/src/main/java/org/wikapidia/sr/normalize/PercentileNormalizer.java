@@ -19,12 +19,21 @@ import java.util.Map;
  * This class is called percentile normalizer, but it returns normalized values in [0,1].
  */
 public class PercentileNormalizer extends BaseNormalizer {
+    /**
+     * Maximum absolute error of the lookup table used for normalization.
+     */
+    public static final double TABLE_TOLERANCE = 1E-4;
+
     protected transient PolynomialSplineFunction interpolator;
 
+    // Approximates the interpolator, or null if no table is accurate enough.
+    protected transient LookupTable table;
+
     @Override
     public void reset() {
         super.reset();
         interpolator = null;
+        table = null;
     }
 
     @Override
@@ -44,6 +53,7 @@ public class PercentileNormalizer extends BaseNormalizer {
         }
 
         interpolator = new LinearInterpolator().interpolate(X.toArray(), Y.toArray());
+        table = LookupTable.fit(interpolator, sample.get(0), sample.get(sample.size() - 1), X.toArray(), TABLE_TOLERANCE);
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
@@ -63,10 +73,12 @@ public class PercentileNormalizer extends BaseNormalizer {
         double halfLife = (sMax - sMin) / 4.0;
         double yDelta = 1.0 / (sample.size() + 1);
 
-        if (x < sample.get(0)) {
+        if (x < sMin) {
             return MathUtils.toAsymptote(sMin - x, halfLife, yDelta, 0.0);
-        } else if (x > sample.get(sample.size() - 1)) {
+        } else if (x > sMax) {
             return MathUtils.toAsymptote(x - sMax, halfLife, 1.0 - yDelta, 1.0);
+        } else if (table != null) {
+            return table.value(x);
         } else {
             return interpolator.value(x);
         }
@@ -17,14 +17,12 @@ import org.wikapidia.sr.normalize.IdentityNormalizer;
 import org.wikapidia.sr.normalize.Normalizer;
 import org.wikapidia.sr.utils.Leaderboard;
 import org.wikapidia.utils.ParallelForEach;
-import org.wikapidia.utils.Procedure;
+import org.wikapidia.utils.RangeProcedure;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -256,12 +254,12 @@ public class MostSimilarCache implements Closeable {
         // Write the feature matrix
         ValueConf vconf = new ValueConf();
         final SparseMatrixWriter writer = new SparseMatrixWriter(getFeatureMatrixPath(), vconf);
-        ParallelForEach.loop(intArrayToList(rowIds), maxThreads,
-                new Procedure<Integer>() {
-                    public void call(Integer wpId) throws IOException, DaoException, WikapidiaException {
-                        writeFeatureVector(writer, wpId);
-                    }
-                }, 10000);
+        ParallelForEach.chunkedRange(0, rowIds.length, maxThreads, 100, new RangeProcedure<Object>() {
+            @Override
+            public void call(int i, Object state) throws IOException, DaoException, WikapidiaException {
+                writeFeatureVector(writer, rowIds[i]);
+            }
+        }, "feature vectors", 60);
         writer.finish();
 
         // Reload the feature
@@ -306,12 +304,12 @@ public class MostSimilarCache implements Closeable {
         monoSr.setMostSimilarNormalizer(new IdentityNormalizer());
         monoSr.setSimilarityNormalizer(new IdentityNormalizer());
         try {
-            ParallelForEach.loop(intArrayToList(rowIds), maxThreads,
-                    new Procedure<Integer>() {
-                        public void call(Integer wpId) throws IOException, DaoException {
-                            writeSim(writer, wpId, colIdSet, maxSimsPerDoc, idCounter, cellCounter);
-                        }
-                    }, Integer.MAX_VALUE);
+            ParallelForEach.chunkedRange(0, rowIds.length, maxThreads, 1, new RangeProcedure<Object>() {
+                @Override
+                public void call(int i, Object state) throws IOException, DaoException {
+                    writeSim(writer, rowIds[i], colIdSet, maxSimsPerDoc, idCounter, cellCounter);
+                }
+            }, "cosimilarity rows", 60);
         } finally {
             monoSr.setSimilarityNormalizer(simNormalizer);
             monoSr.setMostSimilarNormalizer(mostSimNormalizer);
@@ -383,12 +381,6 @@ public class MostSimilarCache implements Closeable {
         return results;
     }
 
-    private List<Integer> intArrayToList(int[] ints) {
-        List<Integer> result = new ArrayList<Integer>();
-        for (int id : ints) { result.add(id); }
-        return result;
-    }
-
     private void ensureDataDirectoryExists() {
         if (!dir.isDirectory()) { dir.mkdirs(); }
     }
@@ -1,10 +1,14 @@
 package org.wikapidia.sr.utils;
 
 import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.iterator.TIntFloatIterator;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.TIntFloatMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
 import gnu.trove.map.hash.TIntFloatHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import org.apache.commons.lang3.ArrayUtils;
 import org.wikapidia.lucene.WikapidiaScoreDoc;
 
@@ -51,6 +55,130 @@ public class SimUtils {
         return xDotX * yDotY != 0 ? xDotY / Math.sqrt(xDotX * yDotY): 0.0;
     }
 
+    /**
+     * Counts the ids two sorted arrays of distinct ids have in common.
+     * The arrays are merged in step, unless one is much longer than the other,
+     * in which case each id of the shorter array is binary searched in the longer one.
+     */
+    public static int intersectionSize(int ids1[], int ids2[]) {
+        if (ids1.length > ids2.length) {
+            int tmp[] = ids1;
+            ids1 = ids2;
+            ids2 = tmp;
+        }
+        int n = 0;
+        if (ids1.length * 16 < ids2.length) {
+            int from = 0;
+            for (int id : ids1) {
+                int i = Arrays.binarySearch(ids2, from, ids2.length, id);
+                if (i >= 0) {
+                    n++;
+                    from = i + 1;
+                } else {
+                    from = -i - 1;
+                }
+            }
+            return n;
+        }
+        int i = 0, j = 0;
+        while (i < ids1.length && j < ids2.length) {
+            if (ids1[i] < ids2[j]) {
+                i++;
+            } else if (ids1[i] > ids2[j]) {
+                j++;
+            } else {
+                n++;
+                i++;
+                j++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Computes the cosine similarity of two binary vectors given as sorted arrays
+     * of the distinct ids whose value is 1.
+     */
+    public static double cosineSimilarity(int ids1[], int ids2[]) {
+        if (ids1.length == 0 || ids2.length == 0) {
+            return 0.0;
+        }
+        return intersectionSize(ids1, ids2) / Math.sqrt(1.0 * ids1.length * ids2.length);
+    }
+
+    /**
+     * Computes the cosine similarity of every row vector with every column vector.
+     *
+     * The matrix is the product of the unit length row vectors and the transpose of
+     * the unit length column vectors. The column vectors are indexed by feature, and each
+     * row only visits the columns that share one of its features, so the cost depends
+     * on the overlap of the vectors rather than on the number of pairs.
+     *
+     * @param rows Vectors for the rows of the result. Null vectors are treated as zero vectors.
+     * @param cols Vectors for the columns of the result. Null vectors are treated as zero vectors.
+     * @return A rows.size() x cols.size() matrix. Entries involving a zero vector are 0.
+     */
+    public static double[][] cosineSimilarities(List<TIntFloatMap> rows, List<TIntFloatMap> cols) {
+        double results[][] = new double[rows.size()][cols.size()];
+
+        // inverted index from feature to (column, normalized value) postings
+        TIntObjectHashMap<TIntArrayList> postingCols = new TIntObjectHashMap<TIntArrayList>();
+        TIntObjectHashMap<TFloatArrayList> postingVals = new TIntObjectHashMap<TFloatArrayList>();
+        for (int j = 0; j < cols.size(); j++) {
+            TIntFloatMap v = cols.get(j);
+            double norm = norm(v);
+            if (norm == 0.0) {
+                continue;
+            }
+            TIntFloatIterator iter = v.iterator();
+            while (iter.hasNext()) {
+                iter.advance();
+                TIntArrayList c = postingCols.get(iter.key());
+                if (c == null) {
+                    c = new TIntArrayList();
+                    postingCols.put(iter.key(), c);
+                    postingVals.put(iter.key(), new TFloatArrayList());
+                }
+                c.add(j);
+                postingVals.get(iter.key()).add((float) (iter.value() / norm));
+            }
+        }
+
+        for (int i = 0; i < rows.size(); i++) {
+            TIntFloatMap v = rows.get(i);
+            double norm = norm(v);
+            if (norm == 0.0) {
+                continue;
+            }
+            double row[] = results[i];
+            TIntFloatIterator iter = v.iterator();
+            while (iter.hasNext()) {
+                iter.advance();
+                TIntArrayList c = postingCols.get(iter.key());
+                if (c == null) {
+                    continue;
+                }
+                TFloatArrayList vals = postingVals.get(iter.key());
+                double x = iter.value() / norm;
+                for (int k = 0; k < c.size(); k++) {
+                    row[c.getQuick(k)] += x * vals.getQuick(k);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static double norm(TIntFloatMap X) {
+        if (X == null) {
+            return 0.0;
+        }
+        double sumSquares = 0.0;
+        for (float x : X.values()) {
+            sumSquares += x * x;
+        }
+        return Math.sqrt(sumSquares);
+    }
+
     public static double googleSimilarity(int sizeA, int sizeB, int intersection, int numTotal) {
         return 1.0 - (Math.log(Math.max(sizeA,sizeB))-Math.log(intersection))
                         / (Math.log(numTotal)-Math.log(Math.min(sizeA,sizeB)));
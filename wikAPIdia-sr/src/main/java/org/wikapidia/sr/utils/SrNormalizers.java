@@ -17,7 +17,7 @@ import org.wikapidia.sr.disambig.Disambiguator;
 import org.wikapidia.sr.normalize.IdentityNormalizer;
 import org.wikapidia.sr.normalize.Normalizer;
 import org.wikapidia.utils.ParallelForEach;
-import org.wikapidia.utils.Procedure;
+import org.wikapidia.utils.RangeProcedure;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -117,13 +117,16 @@ public class SrNormalizers {
         similarityNormalizer = new IdentityNormalizer();
         try {
             trainee.reset();
-            ParallelForEach.loop(dataset.getData(), new Procedure<KnownSim>() {
-                public void call(KnownSim ks) throws IOException, DaoException {
+            final List<KnownSim> data = dataset.getData();
+            ParallelForEach.chunkedRange(0, data.size(), 1, new RangeProcedure<Object>() {
+                @Override
+                public void call(int i, Object state) throws IOException, DaoException {
+                    KnownSim ks = data.get(i);
                     ks.maybeSwap();
                     SRResult sim = metric.similarity(ks.phrase1, ks.phrase2, false);
                     trainee.observe(sim == null ? Double.NaN : sim.getScore(), ks.similarity);
                 }
-            }, 100);
+            }, "similarity normalizer training");
             trainee.observationsFinished();
             LOG.info("trained similarity normalizer: " + trainee.dump());
         } finally {
@@ -144,15 +147,18 @@ public class SrNormalizers {
         similarityNormalizer = new IdentityNormalizer();
         try {
             trainee.reset();
-            ParallelForEach.loop(dataset.getData(), new Procedure<KnownSim>() {
-                public void call(KnownSim ks) throws IOException, DaoException {
+            final List<KnownSim> data = dataset.getData();
+            ParallelForEach.chunkedRange(0, data.size(), 1, new RangeProcedure<Object>() {
+                @Override
+                public void call(int i, Object state) throws IOException, DaoException {
+                    KnownSim ks = data.get(i);
                     ks.maybeSwap();
                     LocalString ls1 = new LocalString(ks.language,ks.phrase1);
                     LocalString ls2 = new LocalString(ks.language,ks.phrase2);
                     SRResult sim = metric.similarity(ls1, ls2, false);
                     trainee.observe(sim.getScore(), ks.similarity);
                 }
-            }, 100);
+            }, "similarity normalizer training");
             trainee.observationsFinished();
             LOG.info("trained similarity normalizer: " + trainee.dump());
         } finally {
@@ -181,8 +187,11 @@ public class SrNormalizers {
         mostSimilarNormalizer = new IdentityNormalizer();
         try {
             trainee.reset();
-            ParallelForEach.loop(dataset.getData(), new Procedure<KnownSim>() {
-                public void call(KnownSim ks) throws IOException, DaoException {
+            final List<KnownSim> data = dataset.getData();
+            ParallelForEach.chunkedRange(0, data.size(), 1, new RangeProcedure<Object>() {
+                @Override
+                public void call(int i, Object state) throws IOException, DaoException {
+                    KnownSim ks = data.get(i);
                     ks.maybeSwap();
                     List<LocalString> localStrings = new ArrayList<LocalString>();
                     localStrings.add(new LocalString(ks.language, ks.phrase1));
@@ -197,7 +206,7 @@ public class SrNormalizers {
                         }
                     }
                 }
-            }, 100);
+            }, "most similar normalizer training");
             trainee.observationsFinished();
             LOG.info("trained most similar normalizer: " + trainee.dump());
         } finally {
@@ -221,8 +230,11 @@ public class SrNormalizers {
         mostSimilarNormalizer = new IdentityNormalizer();
         try {
             trainee.reset();
-            ParallelForEach.loop(dataset.getData(), new Procedure<KnownSim>() {
-                public void call(KnownSim ks) throws IOException, DaoException {
+            final List<KnownSim> data = dataset.getData();
+            ParallelForEach.chunkedRange(0, data.size(), 1, new RangeProcedure<Object>() {
+                @Override
+                public void call(int i, Object state) throws IOException, DaoException {
+                    KnownSim ks = data.get(i);
                     ks.maybeSwap();
                     List<LocalString> localStrings = new ArrayList<LocalString>();
                     localStrings.add(new LocalString(ks.language, ks.phrase1));
@@ -240,7 +252,7 @@ public class SrNormalizers {
                         }
                     }
                 }
-            }, 100);
+            }, "most similar normalizer training");
             trainee.observationsFinished();
             LOG.info("trained most similar normalizer: " + trainee.dump());
         } finally {
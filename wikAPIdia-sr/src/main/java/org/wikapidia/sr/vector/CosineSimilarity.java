@@ -55,6 +55,16 @@ public class CosineSimilarity implements VectorSimilarity {
         return SimUtils.cosineSimilarity(vector1, vector2);
     }
 
+    /**
+     * Computes the similarity between two binary vectors, such as link sets.
+     * @param ids1 The sorted, distinct ids of the first vector.
+     * @param ids2 The sorted, distinct ids of the second vector.
+     * @return The same score as similarity() for the corresponding vectors.
+     */
+    public double similarity(int ids1[], int ids2[]) {
+        return SimUtils.cosineSimilarity(ids1, ids2);
+    }
+
     @Override
     public SRResultList mostSimilar(TIntFloatMap query, int maxResults, TIntSet validIds) throws IOException {
         if (validIds != null && validIds.size() < 10000) {
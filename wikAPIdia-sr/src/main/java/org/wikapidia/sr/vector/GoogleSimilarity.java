@@ -89,6 +89,23 @@ public class GoogleSimilarity implements VectorSimilarity {
         return SimUtils.googleSimilarity(size1, size2, intersect, numPages);
     }
 
+    /**
+     * Computes the similarity between two binary vectors, such as link sets.
+     * @param ids1 The sorted, distinct ids of the first vector.
+     * @param ids2 The sorted, distinct ids of the second vector.
+     * @return The same score as similarity() for the corresponding vectors.
+     */
+    public double similarity(int ids1[], int ids2[]) {
+        if (ids1.length == 0 || ids2.length == 0) {
+            return 0.0;
+        }
+        int intersect = SimUtils.intersectionSize(ids1, ids2);
+        if (intersect == 0) {
+            return 0.0;
+        }
+        return SimUtils.googleSimilarity(ids1.length, ids2.length, intersect, numPages);
+    }
+
     @Override
     public SRResultList mostSimilar(TIntFloatMap query, int maxResults, TIntSet validIds) throws IOException {
         TIntIntMap intersections = new TIntIntHashMap();
@@ -1,6 +1,7 @@
 package org.wikapidia.sr.vector;
 
 import com.typesafe.config.Config;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.TIntFloatMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
@@ -19,6 +20,7 @@ import org.wikapidia.core.dao.LocalLinkDao;
 import org.wikapidia.core.dao.LocalPageDao;
 import org.wikapidia.core.dao.matrix.MatrixLocalLinkDao;
 import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LocalId;
 import org.wikapidia.core.model.LocalLink;
 import org.wikapidia.core.model.LocalPage;
 import org.wikapidia.core.model.NameSpace;
@@ -27,6 +29,7 @@ import org.wikapidia.lucene.QueryBuilder;
 import org.wikapidia.lucene.WikapidiaScoreDoc;
 import org.wikapidia.lucene.WpIdFilter;
 import org.wikapidia.matrix.SparseMatrix;
+import org.wikapidia.matrix.SparseMatrixRow;
 import org.wikapidia.sr.Explanation;
 import org.wikapidia.sr.SRResult;
 import org.wikapidia.sr.SRResultList;
@@ -63,17 +66,68 @@ public class MilneWittenGenerator implements VectorGenerator {
 
     @Override
     public TIntFloatMap getVector(int pageId) throws DaoException {
-        TIntFloatMap vector = new TIntFloatHashMap();
+        int ids[] = getLinkIds(pageId);
+        TIntFloatMap vector = new TIntFloatHashMap(ids.length);
+        for (int id : ids) {
+            vector.put(id, 1);
+        }
+        return vector;
+    }
+
+    /**
+     * Returns the pages linked to (or from, for inlinks) a page.
+     * If the link dao has an adjacency matrix, the ids are read from the matrix row
+     * without creating link objects.
+     * @param pageId
+     * @return The sorted, distinct page ids. Each is a "1" in the page's vector.
+     * @throws DaoException
+     */
+    public int[] getLinkIds(int pageId) throws DaoException {
         if (pageId <= 0) {
             throw new IllegalArgumentException("Invalid page id: " + pageId);
         }
-        for (LocalLink link : linkDao.getLinks(language, pageId, outLinks)) {
-            int columnId = outLinks ? link.getDestId() : link.getSourceId();
-            if (columnId >= 0) {
-                vector.put(columnId, 1);
+        SparseMatrix matrix = getAdjacencyMatrix();
+        LocalId localId = new LocalId(language, pageId);
+        TIntArrayList ids = new TIntArrayList();
+        if (matrix != null && localId.canPackInInt()) {
+            try {
+                SparseMatrixRow row = matrix.getRow(localId.toInt());
+                for (int i = 0; row != null && i < row.getNumCols(); i++) {
+                    LocalId columnId = LocalId.fromInt(row.getColIndex(i));
+                    if (columnId.getLanguage().equals(language) && columnId.getId() >= 0) {
+                        ids.add(columnId.getId());
+                    }
+                }
+            } catch (IOException e) {
+                throw new DaoException(e);
+            }
+        } else {
+            for (LocalLink link : linkDao.getLinks(language, pageId, outLinks)) {
+                int columnId = outLinks ? link.getDestId() : link.getSourceId();
+                if (columnId >= 0) {
+                    ids.add(columnId);
+                }
             }
         }
-        return vector;
+        ids.sort();
+        int n = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            if (n == 0 || ids.getQuick(i) != ids.getQuick(n - 1)) {
+                ids.setQuick(n++, ids.getQuick(i));
+            }
+        }
+        return ids.toArray(0, n);
+    }
+
+    /**
+     * @return The matrix whose rows hold the links of the vectors, or null.
+     */
+    private SparseMatrix getAdjacencyMatrix() {
+        if (!(linkDao instanceof MatrixLocalLinkDao)) {
+            return null;
+        }
+        MatrixLocalLinkDao matrixDao = (MatrixLocalLinkDao) linkDao;
+        return outLinks ? matrixDao.getMatrix() : matrixDao.getTranspose();
     }
 
     @Override
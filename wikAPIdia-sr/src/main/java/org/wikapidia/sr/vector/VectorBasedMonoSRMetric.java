@@ -28,6 +28,7 @@ import org.wikapidia.sr.SRResult;
 import org.wikapidia.sr.SRResultList;
 import org.wikapidia.sr.dataset.Dataset;
 import org.wikapidia.sr.disambig.Disambiguator;
+import org.wikapidia.sr.utils.SimUtils;
 import org.wikapidia.utils.*;
 
 import java.io.File;
@@ -95,9 +96,9 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
     }
 
     @Override
-    public SRResult similarity(String phrase1, String phrase2, boolean explanations) throws DaoException {
+    protected SRResult computeSimilarity(String phrase1, String phrase2, boolean explanations) throws DaoException {
         if (phraseMode == PhraseMode.NONE) {
-            return super.similarity(phrase1, phrase2, explanations);
+            return super.computeSimilarity(phrase1, phrase2, explanations);
         }
         TIntFloatMap vector1 = null;
         TIntFloatMap vector2 = null;
@@ -123,7 +124,7 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
         }
         if (vector1 == null || vector2 == null) {
             // fallback on parent's phrase resolution algorithm
-            return super.similarity(phrase1, phrase2, explanations);
+            return super.computeSimilarity(phrase1, phrase2, explanations);
         } else {
             return normalize(new SRResult(similarity.similarity(vector1, vector2)));
         }
@@ -131,7 +132,11 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
 
 
     @Override
-    public SRResult similarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+    protected SRResult computeSimilarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+        if (hasLinkSimilarity()) {
+            MilneWittenGenerator links = (MilneWittenGenerator) generator;
+            return normalize(new SRResult(linkSimilarity(links.getLinkIds(pageId1), links.getLinkIds(pageId2))));
+        }
         TIntFloatMap vector1 = null;
         TIntFloatMap vector2 = null;
         try {
@@ -289,6 +294,22 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
      */
     @Override
     public double[][] cosimilarity(int rowIds[], int colIds[]) throws DaoException {
+        if (hasLinkSimilarity()) {
+            MilneWittenGenerator links = (MilneWittenGenerator) generator;
+            Map<Integer, int[]> linkIds = new HashMap<Integer, int[]>();
+            for (int pageId : ArrayUtils.addAll(colIds, rowIds)) {
+                if (!linkIds.containsKey(pageId)) {
+                    linkIds.put(pageId, links.getLinkIds(pageId));
+                }
+            }
+            double results[][] = new double[rowIds.length][colIds.length];
+            for (int i = 0; i < rowIds.length; i++) {
+                for (int j = 0; j < colIds.length; j++) {
+                    results[i][j] = linkSimilarity(linkIds.get(rowIds[i]), linkIds.get(colIds[j]));
+                }
+            }
+            return results;
+        }
         // Build up vectors for unique pages
         Map<Integer, TIntFloatMap> vectors = new HashMap<Integer, TIntFloatMap>();
         for (int pageId : ArrayUtils.addAll(colIds, rowIds)) {
@@ -313,11 +334,15 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
 
     /**
      * Computes the cosimilarity between a set of vectors.
+     * Cosine similarities are computed with a single sparse matrix product.
      * @param rowVectors
      * @param colVectors
      * @return
      */
     protected double[][] cosimilarity(List<TIntFloatMap> rowVectors, List<TIntFloatMap> colVectors) {
+        if (similarity instanceof CosineSimilarity) {
+            return SimUtils.cosineSimilarities(rowVectors, colVectors);
+        }
         double results[][] = new double[rowVectors.size()][colVectors.size()];
         for (int i = 0; i < rowVectors.size(); i++) {
             for (int j = 0; j < colVectors.size(); j++) {
@@ -329,6 +354,25 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
         return results;
     }
 
+    /**
+     * @return True if page similarities can be computed from sorted link id arrays.
+     * This is the case for link vectors without a feature matrix, compared with the
+     * google or cosine similarity, which only depend on which links the pages share.
+     */
+    private boolean hasLinkSimilarity() {
+        return !hasFeatureMatrix()
+                && generator instanceof MilneWittenGenerator
+                && (similarity instanceof GoogleSimilarity || similarity instanceof CosineSimilarity);
+    }
+
+    private double linkSimilarity(int ids1[], int ids2[]) {
+        if (similarity instanceof GoogleSimilarity) {
+            return ((GoogleSimilarity) similarity).similarity(ids1, ids2);
+        } else {
+            return ((CosineSimilarity) similarity).similarity(ids1, ids2);
+        }
+    }
+
     /**
      * Rebuild the feature and transpose matrices.
      * If the matrices are available from the feature generator, they will be used.
@@ -351,17 +395,16 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
         ValueConf vconf = new ValueConf((float)similarity.getMinValue(),
                                         (float)similarity.getMaxValue());
         final SparseMatrixWriter writer = new SparseMatrixWriter(getFeatureMatrixPath(), vconf);
-        ParallelForEach.loop(
-                WpArrayUtils.toList(validIds.toArray()),
-                WpThreadUtils.getMaxThreads(),
-                new Procedure<Integer>() {
-                    public void call(Integer pageId) throws IOException {
-                        TIntFloatMap scores = getPageVector(pageId);
-                        if (scores != null && !scores.isEmpty()) {
-                            writer.writeRow(new SparseMatrixRow(writer.getValueConf(), pageId, scores));
-                        }
-                    }
-                }, 10000);
+        final int pageIds[] = validIds.toArray();
+        ParallelForEach.chunkedRange(0, pageIds.length, 100, new RangeProcedure<Object>() {
+            @Override
+            public void call(int i, Object state) throws IOException {
+                TIntFloatMap scores = getPageVector(pageIds[i]);
+                if (scores != null && !scores.isEmpty()) {
+                    writer.writeRow(new SparseMatrixRow(writer.getValueConf(), pageIds[i], scores));
+                }
+            }
+        }, "page vectors");
         writer.finish();
 
         // Reload the feature matrix
@@ -373,6 +416,7 @@ public class VectorBasedMonoSRMetric extends BaseMonolingualSRMetric {
         transposeMatrix = new SparseMatrix(getTransposeMatrixPath());
 
         similarity.setMatrices(featureMatrix, transposeMatrix);
+        invalidateSimilarityCache();
     }
 
     private TIntSet getAllPageIds() throws IOException {
@@ -4,6 +4,7 @@ import com.jolbox.bonecp.BoneCPDataSource;
 import org.junit.Test;
 import org.wikapidia.conf.ConfigurationException;
 import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.dao.matrix.MatrixLocalLinkDao;
 import org.wikapidia.core.dao.sql.LocalArticleSqlDao;
 import org.wikapidia.core.dao.sql.LocalLinkSqlDao;
 import org.wikapidia.core.dao.sql.WpDataSource;
@@ -25,6 +26,10 @@ import org.wikapidia.utils.WpIOUtils;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created with IntelliJ IDEA.
@@ -146,5 +151,43 @@ public class TestMilneWitten {
         assert(srOut.similarity(page3.getLocalId(),page3.getLocalId(),true).getScore()==1);
     }
 
+    @Test
+    public void testMatrixLinkIds() throws ClassNotFoundException, IOException, SQLException, DaoException {
+        Class.forName("org.h2.Driver");
+        File tmpDir = WpIOUtils.createTempDirectory("wikapidia-h2");
+        BoneCPDataSource ds = new BoneCPDataSource();
+        ds.setJdbcUrl("jdbc:h2:"+new File(tmpDir,"db").getAbsolutePath());
+        ds.setUsername("sa");
+        ds.setPassword("");
+        WpDataSource wpDs = new WpDataSource(ds);
+
+        LocalArticleSqlDao dao = new LocalArticleSqlDao(wpDs);
+        LocalLinkSqlDao sqlDao = new LocalLinkSqlDao(wpDs);
+        MatrixLocalLinkDao matrixDao = new MatrixLocalLinkDao(sqlDao, new File(tmpDir, "matrix"));
+        matrixDao.beginLoad();
+        for (int i = 1; i <= 30; i++) {
+            for (int j = 1; j <= 30; j++) {
+                if ((i * j) % 7 == 1) {
+                    matrixDao.save(new LocalLink(SIMPLE, "", i, j, true, 0, false, LocalLink.LocationType.NONE));
+                }
+            }
+        }
+        // a repeated link and a red link
+        matrixDao.save(new LocalLink(SIMPLE, "", 1, 1, true, 0, false, LocalLink.LocationType.NONE));
+        matrixDao.save(new LocalLink(SIMPLE, "", 2, -1, true, 0, false, LocalLink.LocationType.NONE));
+        matrixDao.endLoad();
 
+        for (boolean outLinks : new boolean[] { true, false }) {
+            MilneWittenGenerator fromSql = new MilneWittenGenerator(SIMPLE, sqlDao, dao, outLinks);
+            MilneWittenGenerator fromMatrix = new MilneWittenGenerator(SIMPLE, matrixDao, dao, outLinks);
+            for (int i = 1; i <= 31; i++) {
+                int ids[] = fromMatrix.getLinkIds(i);
+                assertTrue(Arrays.equals(fromSql.getLinkIds(i), ids));
+                for (int j = 1; j < ids.length; j++) {
+                    assertTrue(ids[j - 1] < ids[j]);
+                }
+                assertEquals(fromSql.getVector(i), fromMatrix.getVector(i));
+            }
+        }
+    }
 }
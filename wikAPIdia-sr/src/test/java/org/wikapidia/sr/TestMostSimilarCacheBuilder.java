@@ -0,0 +1,168 @@
+package org.wikapidia.sr;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.matrix.SparseMatrix;
+import org.wikapidia.matrix.SparseMatrixRow;
+import org.wikapidia.matrix.ValueConf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestMostSimilarCacheBuilder {
+
+    @Test
+    public void testBuildAndResume() throws IOException {
+        File dir = File.createTempFile("most-similar", null);
+        dir.delete();
+        dir.mkdirs();
+        try {
+            File path = new File(dir, "mostSimilar.matrix");
+            TIntSet rowIds = new TIntHashSet();
+            for (int i = 0; i < 95; i++) {
+                rowIds.add(i * 3);
+            }
+            CountingMetric metric = new CountingMetric();
+            MostSimilarCacheBuilder builder = new MostSimilarCacheBuilder(metric, path, new ValueConf(-1.1f, 1.1f));
+            builder.setShardSize(10);
+            builder.setNumThreads(3);
+
+            // one page fails, so its shard is not finished and nothing is merged
+            metric.failingId = 42;
+            try {
+                builder.build(rowIds, null, 2);
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            assertFalse(path.exists());
+            assertTrue(builder.getWorkDir().isDirectory());
+            // the other shards are finished, the failed shard stops soon after page 42
+            assertTrue(metric.numCalls.get() > 85);
+            assertTrue(metric.numCalls.get() <= 95);
+
+            // the next build only rebuilds the failed shard
+            metric.failingId = -1;
+            metric.numCalls.set(0);
+            builder.build(rowIds, null, 2);
+            assertEquals(10, metric.numCalls.get());
+            assertFalse(builder.getWorkDir().exists());
+            checkMatrix(path, rowIds);
+
+            // different parameters start over
+            metric.failingId = 0;
+            try {
+                builder.build(rowIds, null, 2);
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            metric.failingId = -1;
+            metric.numCalls.set(0);
+            builder.build(rowIds, null, 3);
+            assertEquals(95, metric.numCalls.get());
+            checkMatrix(path, rowIds);
+
+            // column ids with the same hash code are still different parameters
+            metric.failingId = 0;
+            try {
+                builder.build(rowIds, new TIntHashSet(new int[] {1, 2}), 3);
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(new TIntHashSet(new int[] {1, 2}).hashCode(), new TIntHashSet(new int[] {0, 3}).hashCode());
+            metric.failingId = -1;
+            metric.numCalls.set(0);
+            builder.build(rowIds, new TIntHashSet(new int[] {0, 3}), 3);
+            assertEquals(95, metric.numCalls.get());
+            checkMatrix(path, rowIds);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void testQuantileValues() throws IOException {
+        File dir = File.createTempFile("most-similar", null);
+        dir.delete();
+        dir.mkdirs();
+        try {
+            File path = new File(dir, "mostSimilar.matrix");
+            TIntSet rowIds = new TIntHashSet();
+            for (int i = 0; i < 95; i++) {
+                rowIds.add(i * 3);
+            }
+            MostSimilarCacheBuilder builder = new MostSimilarCacheBuilder(new CountingMetric(), path, new ValueConf(-1.1f, 1.1f));
+            builder.setShardSize(10);
+            builder.setValueBits(8);
+            builder.build(rowIds, null, 2);
+            checkMatrix(path, rowIds);
+
+            SparseMatrix matrix = new SparseMatrix(path);
+            try {
+                assertEquals(ValueConf.Codec.QUANTILE, matrix.getValueConf().getCodec());
+                assertEquals(8, matrix.getValueConf().getBits());
+            } finally {
+                matrix.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private void checkMatrix(File path, TIntSet rowIds) throws IOException {
+        SparseMatrix matrix = new SparseMatrix(path);
+        try {
+            assertEquals(rowIds.size(), matrix.getNumRows());
+            for (int id : rowIds.toArray()) {
+                SparseMatrixRow row = matrix.getRow(id);
+                assertEquals(2, row.getNumCols());
+                assertEquals(id + 1, row.getColIndex(0));
+                assertEquals(0.5, row.getColValue(0), 0.01);
+                assertEquals(id + 2, row.getColIndex(1));
+                assertEquals(0.25, row.getColValue(1), 0.01);
+            }
+        } finally {
+            matrix.close();
+        }
+    }
+
+    private static class CountingMetric extends BaseMonolingualSRMetric {
+        final AtomicInteger numCalls = new AtomicInteger();
+        volatile int failingId = -1;
+
+        CountingMetric() {
+            super("counting", Language.getByLangCode("en"), null, null);
+        }
+
+        @Override
+        public SRConfig getConfig() {
+            return new SRConfig();
+        }
+
+        @Override
+        protected SRResult computeSimilarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SRResultList mostSimilar(int pageId, int maxResults, TIntSet validIds) throws DaoException {
+            numCalls.incrementAndGet();
+            if (pageId == failingId) {
+                throw new DaoException("failed on purpose");
+            }
+            SRResultList results = new SRResultList(2);
+            results.set(0, pageId + 1, 0.5);
+            results.set(1, pageId + 2, 0.25);
+            return results;
+        }
+    }
+}
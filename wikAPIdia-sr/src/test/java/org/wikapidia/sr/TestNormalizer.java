@@ -2,6 +2,10 @@ package org.wikapidia.sr;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.junit.Test;
+import org.apache.commons.math3.analysis.UnivariateFunction;
+import org.wikapidia.sr.normalize.LoessNormalizer;
+import org.wikapidia.sr.normalize.LookupTable;
+import org.wikapidia.sr.normalize.Normalizer;
 import org.wikapidia.sr.normalize.PercentileNormalizer;
 
 import java.io.ByteArrayInputStream;
@@ -9,9 +13,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.Random;
 
 import static junit.framework.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class TestNormalizer {
     @Test
@@ -64,4 +69,72 @@ public class TestNormalizer {
         assertTrue(p.normalize(20) < 1.0);
         assertTrue(p.normalize(20) < p.normalize(200));
     }
+
+    @Test
+    public void testBatchNormalize() {
+        Random random = new Random(0);
+        PercentileNormalizer p = new PercentileNormalizer();
+        LoessNormalizer l = new LoessNormalizer();
+        for (int i = 0; i < 5000; i++) {
+            double x = (i % 3 == 0) ? 0.0 : Math.pow(random.nextDouble(), 3);
+            p.observe(x);
+            l.observe(x, x + 0.1 * random.nextDouble());
+        }
+        p.observationsFinished();
+        l.observationsFinished();
+
+        double X[] = new double[1000];
+        for (int i = 0; i < X.length; i++) {
+            X[i] = random.nextDouble() * 1.2 - 0.1;
+        }
+        X[0] = Double.NaN;
+        for (Normalizer n : Arrays.asList((Normalizer) p, l)) {
+            double Y[] = n.normalize(X);
+            assertEquals(X.length, Y.length);
+            for (int i = 1; i < X.length; i++) {
+                assertEquals(n.normalize(X[i]), Y[i], 0.0);
+            }
+        }
+        assertTrue(Double.isNaN(l.normalize(X)[0]));
+
+        SRResultList list = new SRResultList(3);
+        list.set(0, 7, 0.9);
+        list.set(1, 8, 0.5);
+        list.set(2, 9, 0.1);
+        SRResultList normalized = p.normalize(list);
+        assertEquals(8, normalized.getId(1));
+        assertEquals(p.normalize(0.5), normalized.getScore(1), 0.0);
+    }
+
+    @Test
+    public void testLookupTable() {
+        UnivariateFunction f = new UnivariateFunction() {
+            @Override
+            public double value(double x) {
+                return Math.sqrt(x);
+            }
+        };
+        LookupTable table = new LookupTable(f, 0.0, 4.0, 1001);
+        assertTrue(table.contains(0.0));
+        assertTrue(table.contains(4.0));
+        assertFalse(table.contains(4.01));
+        assertFalse(table.contains(Double.NaN));
+        assertEquals(0.0, table.value(0.0), 0.0);
+        assertEquals(2.0, table.value(4.0), 0.0);
+        for (double x = 0.5; x < 4.0; x += 0.1) {
+            assertEquals(Math.sqrt(x), table.value(x), 1E-4);
+        }
+
+        // a step at 1 needs a very fine table
+        UnivariateFunction step = new UnivariateFunction() {
+            @Override
+            public double value(double x) {
+                return (x < 1.0) ? 0.0 : Math.min(1.0, (x - 1.0) * 1E6);
+            }
+        };
+        double checkpoints[] = { 0.0, 1.0, 1.0 + 1E-6, 2.0 };
+        assertNull(LookupTable.fit(step, 0.0, 2.0, checkpoints, 1E-4));
+        table = LookupTable.fit(f, 0.0, 4.0, new double[] { 1.0, 2.0, 3.0 }, 1E-4);
+        assertEquals(LookupTable.DEFAULT_RESOLUTION, table.getResolution());
+    }
 }
@@ -0,0 +1,138 @@
+package org.wikapidia.sr;
+
+import gnu.trove.set.TIntSet;
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.sr.dataset.Dataset;
+import org.wikapidia.sr.normalize.IdentityNormalizer;
+import org.wikapidia.sr.normalize.LogNormalizer;
+import org.wikapidia.sr.utils.KnownSim;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestSimilarityCache {
+    private static final Language EN = Language.getByLangCode("en");
+
+    @Test
+    public void testPageSimilarity() throws DaoException {
+        CountingMetric metric = new CountingMetric("counting");
+        assertNull(metric.getSimilarityCache());    // disabled by default
+        SimilarityCache cache = new SimilarityCache();
+        metric.setSimilarityCache(cache);
+
+        assertEquals(3.0, metric.similarity(1, 2, false).getScore(), 0.0);
+        assertEquals(3.0, metric.similarity(1, 2, false).getScore(), 0.0);
+        assertEquals(1, metric.numPageCalls);
+        assertEquals(1L, cache.getCache().getHits());
+
+        // order and the explanations flag are part of the key
+        metric.similarity(2, 1, false);
+        metric.similarity(1, 2, true);
+        assertEquals(3, metric.numPageCalls);
+
+        // callers can't modify cached results
+        metric.similarity(1, 2, false).getExplanations().clear();
+        assertEquals(1, metric.similarity(1, 2, false).getExplanations().size());
+
+        // retraining or replacing the normalizer invalidates results
+        metric.setSimilarityNormalizer(new IdentityNormalizer());
+        metric.similarity(1, 2, false);
+        assertEquals(4, metric.numPageCalls);
+        metric.invalidateSimilarityCache();
+        metric.similarity(1, 2, false);
+        assertEquals(5, metric.numPageCalls);
+
+        metric.setSimilarityCache(null);
+        metric.similarity(1, 2, false);
+        metric.similarity(1, 2, false);
+        assertEquals(7, metric.numPageCalls);
+    }
+
+    @Test
+    public void testPhraseSimilarity() throws DaoException {
+        CountingMetric metric = new CountingMetric("counting");
+        metric.setSimilarityCache(new SimilarityCache());
+        metric.similarity("apple", "orange", false);
+        metric.similarity("  apple ", "orange", false);
+        assertEquals(1, metric.numPhraseCalls);
+        metric.similarity("orange", "apple", false);
+        metric.similarity("apple  pie", "orange", false);
+        metric.similarity("apple pie", "orange", false);
+        assertEquals(3, metric.numPhraseCalls);
+    }
+
+    @Test
+    public void testTraining() throws DaoException {
+        CountingMetric metric = new CountingMetric("counting");
+        metric.setSimilarityCache(new SimilarityCache());
+        metric.setSimilarityNormalizer(new LogNormalizer());
+        metric.similarity("apple", "orange", false);
+        assertEquals(1, metric.numPhraseCalls);
+
+        // training sees unnormalized scores, and its results are not kept
+        List<KnownSim> sims = Arrays.asList(new KnownSim("apple", "orange", 0.5, EN));
+        metric.trainSimilarity(new Dataset("test", EN, sims));
+        assertEquals(2, metric.numPhraseCalls);
+        metric.similarity("apple", "orange", false);
+        assertEquals(3, metric.numPhraseCalls);
+    }
+
+    @Test
+    public void testSharedCache() throws DaoException {
+        SimilarityCache cache = new SimilarityCache(1000);
+        CountingMetric metric1 = new CountingMetric("one");
+        CountingMetric metric2 = new CountingMetric("two");
+        metric1.setSimilarityCache(cache);
+        metric2.setSimilarityCache(cache);
+
+        // metrics don't see each other's results, and invalidating one keeps the other
+        metric1.similarity(1, 2, false);
+        metric2.similarity(1, 2, false);
+        assertEquals(1, metric2.numPageCalls);
+        metric1.invalidateSimilarityCache();
+        metric1.similarity(1, 2, false);
+        metric2.similarity(1, 2, false);
+        assertEquals(2, metric1.numPageCalls);
+        assertEquals(1, metric2.numPageCalls);
+
+        // entries are weighed by their explanations
+        assertEquals(3, cache.getCache().size());
+        assertEquals(6L, cache.getCache().getWeight());
+    }
+
+    private static class CountingMetric extends BaseMonolingualSRMetric {
+        int numPageCalls = 0;
+        int numPhraseCalls = 0;
+
+        CountingMetric(String name) {
+            super(name, EN, null, null);
+        }
+
+        @Override
+        public SRConfig getConfig() {
+            return new SRConfig();
+        }
+
+        @Override
+        protected SRResult computeSimilarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+            numPageCalls++;
+            Explanation e = new Explanation("pages ? and ?", pageId1, pageId2);
+            return new SRResult(-2, pageId1 + pageId2, Arrays.asList(e));
+        }
+
+        @Override
+        protected SRResult computeSimilarity(String phrase1, String phrase2, boolean explanations) throws DaoException {
+            numPhraseCalls++;
+            return new SRResult(phrase1.length() + phrase2.length());
+        }
+
+        @Override
+        public SRResultList mostSimilar(int pageId, int maxResults, TIntSet validIds) throws DaoException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
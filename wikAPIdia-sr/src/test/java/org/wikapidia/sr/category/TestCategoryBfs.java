@@ -0,0 +1,74 @@
+package org.wikapidia.sr.category;
+
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import org.junit.Test;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.model.CategoryGraph;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestCategoryBfs {
+
+    /**
+     * Categories 10 ... 13 (indexes 0 ... 3): 11 and 12 are children of 10, and 13 is a child of 11.
+     * Page 100 is in 13, 101 is in 12, and 102 is in 11 and 13.
+     */
+    static CategoryGraph makeGraph() {
+        return new CategoryGraph(
+                Language.getByLangCode("simple"),
+                new int[] { 10, 11, 12, 13 },
+                new String[] { "Root", "A", "B", "AA" },
+                new double[] { 1.0, 1.0, 1.0, 1.0 },
+                0.5,
+                new int[] { 0, 0, 1, 2, 3 }, new int[] { 0, 0, 1 },
+                new int[] { 0, 2, 3, 3, 3 }, new int[] { 1, 2, 3 },
+                new int[] { 0, 0, 1, 2, 4 }, new int[] { 102, 101, 100, 102 },
+                new int[] { 11, 12, 13, 100, 101, 102 },
+                new int[] { 0, 1, 2, 3, 4, 5, 7 },
+                new int[] { 0, 0, 1, 3, 2, 1, 3 });
+    }
+
+    @Test
+    public void testGraph() {
+        CategoryGraph graph = makeGraph();
+        assertEquals(4, graph.getNumCategories());
+        assertEquals(2, graph.getNumChildren(0));
+        assertEquals(1, graph.getNumParents(3));
+        assertTrue(Arrays.equals(new int[] { 1, 3 }, graph.getPageCategories(102)));
+        assertEquals(0, graph.getPageCategories(999).length);
+    }
+
+    @Test
+    public void testSearch() {
+        CategoryGraph graph = makeGraph();
+        CategoryBfs.Workspace workspace = new CategoryBfs.Workspace(graph);
+        for (int round = 0; round < 2; round++) {
+            CategoryBfs bfs = new CategoryBfs(graph, 100, 100, null, workspace);
+            while (bfs.hasMoreResults()) {
+                bfs.step();
+            }
+            TIntDoubleHashMap distances = bfs.getPageDistances();
+            assertEquals(3, distances.size());
+            assertEquals(0.0, distances.get(100), 0.0);
+            assertEquals(1.0, distances.get(102), 0.0);
+            assertEquals(4.0, distances.get(101), 0.0);
+            assertEquals(3.0, bfs.getCategoryDistance(0), 0.0);
+        }
+
+        // without children the search only travels upwards
+        CategoryBfs bfs = new CategoryBfs(graph, 100, 100, null, workspace);
+        bfs.setExploreChildren(false);
+        while (bfs.hasMoreResults()) {
+            bfs.step();
+        }
+        assertFalse(bfs.hasCategoryDistance(2));
+        assertFalse(bfs.hasPageDistance(101));
+
+        // pages that have no categories have no neighbors
+        bfs = new CategoryBfs(graph, 999, 100, null, workspace);
+        assertFalse(bfs.hasMoreResults());
+        assertEquals(1, bfs.getPageDistances().size());
+    }
+}
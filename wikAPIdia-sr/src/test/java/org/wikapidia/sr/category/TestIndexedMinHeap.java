@@ -0,0 +1,68 @@
+package org.wikapidia.sr.category;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestIndexedMinHeap {
+
+    @Test
+    public void testDecreaseKey() {
+        IndexedMinHeap heap = new IndexedMinHeap(5);
+        assertTrue(heap.offer(3, 4.0));
+        assertTrue(heap.offer(1, 2.0));
+        assertTrue(heap.offer(4, 3.0));
+        assertFalse(heap.offer(1, 5.0));     // not an improvement
+        assertTrue(heap.offer(3, 1.0));
+        assertEquals(3, heap.size());
+        assertEquals(3, heap.poll());
+        assertTrue(heap.isRemoved(3));
+        assertEquals(1.0, heap.getKey(3), 0.0);
+        assertFalse(heap.offer(3, 0.5));     // removed indexes stay removed
+        assertEquals(1, heap.poll());
+        assertEquals(4, heap.poll());
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.isTouched(0));
+        assertEquals(Double.POSITIVE_INFINITY, heap.getKey(0), 0.0);
+
+        heap.clear();
+        assertFalse(heap.isTouched(3));
+        assertTrue(heap.offer(3, 7.0));
+        assertTrue(heap.contains(3));
+        assertEquals(7.0, heap.peekKey(), 0.0);
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(0);
+        IndexedMinHeap heap = new IndexedMinHeap(1000);
+        for (int round = 0; round < 5; round++) {
+            heap.clear();
+            double best[] = new double[1000];
+            Arrays.fill(best, Double.POSITIVE_INFINITY);
+            for (int i = 0; i < 5000; i++) {
+                int j = random.nextInt(1000);
+                double key = random.nextDouble();
+                heap.offer(j, key);
+                best[j] = Math.min(best[j], key);
+            }
+            double last = Double.NEGATIVE_INFINITY;
+            int n = 0;
+            while (!heap.isEmpty()) {
+                double key = heap.peekKey();
+                int j = heap.poll();
+                assertEquals(best[j], key, 0.0);
+                assertTrue(key >= last);
+                last = key;
+                n++;
+            }
+            for (int j = 0; j < 1000; j++) {
+                assertEquals(!Double.isInfinite(best[j]), heap.isRemoved(j));
+            }
+            assertTrue(n > 900);
+        }
+    }
+}
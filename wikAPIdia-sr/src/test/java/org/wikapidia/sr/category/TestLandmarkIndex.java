@@ -0,0 +1,56 @@
+package org.wikapidia.sr.category;
+
+import org.junit.Test;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.model.CategoryGraph;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TestLandmarkIndex {
+
+    @Test
+    public void testBounds() throws IOException {
+        CategoryGraph graph = TestCategoryBfs.makeGraph();
+        LandmarkIndex index = LandmarkIndex.build(graph, 4, 2);
+        check(index);
+
+        File file = File.createTempFile("landmarks", ".bin");
+        file.deleteOnExit();
+        index.write(file);
+        check(LandmarkIndex.read(file, graph));
+
+        // the root alone is a landmark for every pair except the shared category
+        index = LandmarkIndex.build(graph, 1, 1);
+        assertEquals(1, index.getNumLandmarks());
+        assertEquals(1.0, index.getUpperBound(100, 102), 0.0);
+    }
+
+    @Test
+    public void testWrongGraph() throws IOException {
+        File file = File.createTempFile("landmarks", ".bin");
+        file.deleteOnExit();
+        LandmarkIndex.build(TestCategoryBfs.makeGraph(), 2, 1).write(file);
+        CategoryGraph other = new CategoryGraph(
+                Language.getByLangCode("simple"),
+                new int[] { 10 }, new String[] { "Root" }, new double[] { 1.0 }, 1.0,
+                new int[] { 0, 0 }, new int[0], new int[] { 0, 0 }, new int[0],
+                new int[] { 0, 0 }, new int[0], new int[0], new int[] { 0 }, new int[0]);
+        try {
+            LandmarkIndex.read(file, other);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    private void check(LandmarkIndex index) {
+        assertEquals(4, index.getNumLandmarks());
+        assertEquals(4.0, index.getUpperBound(100, 101), 0.0);
+        assertEquals(1.0, index.getUpperBound(100, 102), 0.0);
+        assertEquals(3.0, index.getUpperBound(101, 102), 0.0);
+        assertEquals(1.0, index.getLowerBound(100, 101), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, index.getUpperBound(100, 999), 0.0);
+    }
+}
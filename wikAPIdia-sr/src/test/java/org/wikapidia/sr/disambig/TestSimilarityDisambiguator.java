@@ -0,0 +1,144 @@
+package org.wikapidia.sr.disambig;
+
+import gnu.trove.set.TIntSet;
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.lang.LanguageSet;
+import org.wikapidia.core.lang.LocalId;
+import org.wikapidia.core.lang.LocalString;
+import org.wikapidia.core.model.LocalPage;
+import org.wikapidia.core.model.NameSpace;
+import org.wikapidia.core.model.Title;
+import org.wikapidia.phrases.PhraseAnalyzer;
+import org.wikapidia.sr.BaseMonolingualSRMetric;
+import org.wikapidia.sr.MonolingualSRMetric;
+import org.wikapidia.sr.SRResult;
+import org.wikapidia.sr.SRResultList;
+import org.wikapidia.sr.normalize.IdentityNormalizer;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestSimilarityDisambiguator {
+    private static final Language EN = Language.getByLangCode("en");
+
+    @Test
+    public void testMemoization() throws DaoException {
+        CountingAnalyzer analyzer = new CountingAnalyzer();
+        TableMetric metric = new TableMetric();
+        Map<Language, MonolingualSRMetric> metrics = new HashMap<Language, MonolingualSRMetric>();
+        metrics.put(EN, metric);
+        SimilarityDisambiguator dab = new SimilarityDisambiguator(analyzer, metrics);
+
+        List<LocalString> phrases = Arrays.asList(new LocalString(EN, "apple"), new LocalString(EN, "apple"));
+        Set<LocalString> context = new HashSet<LocalString>(Arrays.asList(new LocalString(EN, "iphone")));
+
+        // the context makes the company the best sense, and repeated phrases are resolved once
+        List<LinkedHashMap<LocalId, Float>> result = dab.disambiguate(phrases, context);
+        assertEquals(2, result.size());
+        assertEquals(2, result.get(0).keySet().iterator().next().getId());
+        assertEquals(result.get(0), result.get(1));
+        assertEquals(2, analyzer.numResolves);
+        assertEquals(1, metric.numCosimilarities);
+
+        // callers can't modify memoized results
+        result.get(0).clear();
+        result = dab.disambiguate(phrases, context);
+        assertEquals(2, result.get(0).size());
+        assertEquals(2, analyzer.numResolves);
+        assertEquals(1, metric.numCosimilarities);
+        assertEquals(1L, dab.getCache().getHits());
+
+        // a different context is a different entry
+        result = dab.disambiguate(phrases, null);
+        assertEquals(1, result.get(0).keySet().iterator().next().getId());
+        assertEquals(3, analyzer.numResolves);
+        assertEquals(2, metric.numCosimilarities);
+
+        // retraining the metric invalidates memoized results
+        metric.setSimilarityNormalizer(new IdentityNormalizer());
+        dab.disambiguate(phrases, null);
+        assertEquals(3, metric.numCosimilarities);
+        dab.disambiguate(phrases, null);
+        assertEquals(3, metric.numCosimilarities);
+
+        // changing the criteria invalidates memoized results
+        dab.setCritera(SimilarityDisambiguator.Criteria.POPULARITY);
+        result = dab.disambiguate(phrases, context);
+        assertEquals(1, result.get(0).keySet().iterator().next().getId());
+        assertEquals(6, analyzer.numResolves);
+        assertEquals(3, metric.numCosimilarities);
+
+        dab.setCacheSize(0);
+        assertNull(dab.getCache());
+        dab.disambiguate(phrases, context);
+        dab.disambiguate(phrases, context);
+        assertEquals(10, analyzer.numResolves);
+    }
+
+    private static LocalPage page(int id, String title) {
+        return new LocalPage(EN, id, new Title(title, EN), NameSpace.ARTICLE);
+    }
+
+    private static class CountingAnalyzer implements PhraseAnalyzer {
+        int numResolves = 0;
+
+        @Override
+        public void loadCorpus(LanguageSet langs) throws DaoException, IOException {
+        }
+
+        @Override
+        public LinkedHashMap<String, Float> describe(Language language, LocalPage page, int maxPhrases) throws DaoException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LinkedHashMap<LocalPage, Float> resolve(Language language, String phrase, int maxPages) throws DaoException {
+            numResolves++;
+            LinkedHashMap<LocalPage, Float> result = new LinkedHashMap<LocalPage, Float>();
+            if (phrase.equals("apple")) {
+                result.put(page(1, "Apple"), 0.6f);
+                result.put(page(2, "Apple Inc."), 0.4f);
+            } else if (phrase.equals("iphone")) {
+                result.put(page(3, "IPhone"), 1.0f);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Only the company and the phone are related.
+     */
+    private static class TableMetric extends BaseMonolingualSRMetric {
+        int numCosimilarities = 0;
+
+        TableMetric() {
+            super("table", EN, null, null);
+        }
+
+        @Override
+        public SRConfig getConfig() {
+            return new SRConfig();
+        }
+
+        @Override
+        protected SRResult computeSimilarity(int pageId1, int pageId2, boolean explanations) throws DaoException {
+            boolean related = Math.min(pageId1, pageId2) == 2 && Math.max(pageId1, pageId2) == 3;
+            return new SRResult(related ? 0.9 : 0.1);
+        }
+
+        @Override
+        public SRResultList mostSimilar(int pageId, int maxResults, TIntSet validIds) throws DaoException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public double[][] cosimilarity(int[] ids) throws DaoException {
+            numCosimilarities++;
+            return super.cosimilarity(ids);
+        }
+    }
+}
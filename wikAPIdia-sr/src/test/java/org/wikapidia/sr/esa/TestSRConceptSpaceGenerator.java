@@ -0,0 +1,76 @@
+package org.wikapidia.sr.esa;
+
+import com.jolbox.bonecp.BoneCPDataSource;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.dao.matrix.MatrixLocalLinkDao;
+import org.wikapidia.core.dao.sql.LocalArticleSqlDao;
+import org.wikapidia.core.dao.sql.LocalLinkSqlDao;
+import org.wikapidia.core.dao.sql.WpDataSource;
+import org.wikapidia.core.lang.Language;
+import org.wikapidia.core.model.LocalLink;
+import org.wikapidia.core.model.LocalPage;
+import org.wikapidia.core.model.NameSpace;
+import org.wikapidia.core.model.Title;
+import org.wikapidia.utils.WpIOUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSRConceptSpaceGenerator {
+    private static final Language SIMPLE = Language.getByLangCode("simple");
+
+    @Test
+    public void testConcepts() throws ClassNotFoundException, IOException, DaoException {
+        Class.forName("org.h2.Driver");
+        File tmpDir = WpIOUtils.createTempDirectory("wikapidia-h2");
+        BoneCPDataSource ds = new BoneCPDataSource();
+        ds.setJdbcUrl("jdbc:h2:"+new File(tmpDir,"db").getAbsolutePath());
+        ds.setUsername("sa");
+        ds.setPassword("");
+        WpDataSource wpDs = new WpDataSource(ds);
+
+        LocalArticleSqlDao pageDao = new LocalArticleSqlDao(wpDs);
+        pageDao.beginLoad();
+        for (int i = 1; i <= 40; i++) {
+            pageDao.save(new LocalPage(SIMPLE, i, new Title("Page " + i, SIMPLE), NameSpace.ARTICLE));
+        }
+        // blacklisted titles are never concepts
+        pageDao.save(new LocalPage(SIMPLE, 41, new Title("List of pages", SIMPLE), NameSpace.ARTICLE));
+        pageDao.endLoad();
+
+        // page j is linked from pages 1 through j - 1, and the list links to everything
+        LocalLinkSqlDao sqlDao = new LocalLinkSqlDao(wpDs);
+        MatrixLocalLinkDao matrixDao = new MatrixLocalLinkDao(sqlDao, new File(tmpDir, "matrix"));
+        matrixDao.beginLoad();
+        for (int j = 1; j <= 41; j++) {
+            for (int i = 1; i < j; i++) {
+                matrixDao.save(new LocalLink(SIMPLE, "", i, j, true, 0, true, LocalLink.LocationType.NONE));
+            }
+            matrixDao.save(new LocalLink(SIMPLE, "", 41, j, true, 0, true, LocalLink.LocationType.NONE));
+        }
+        // repeated links from one page count once, so page 5 does not become a stop concept
+        for (int k = 0; k < 50; k++) {
+            matrixDao.save(new LocalLink(SIMPLE, "", 1, 5, true, k + 1, true, LocalLink.LocationType.NONE));
+        }
+        matrixDao.endLoad();
+
+        // the most linked pages are stop concepts, and the next ten are concepts
+        SRConceptSpaceGenerator fromSql = new SRConceptSpaceGenerator(SIMPLE, sqlDao, pageDao);
+        fromSql.setMaxConcepts(10);
+        int numStop = fromSql.getNumStopConcepts();
+        TIntSet expected = new TIntHashSet();
+        for (int i = 0; i < 10; i++) {
+            expected.add(40 - numStop - i);
+        }
+        assertEquals(expected, fromSql.getConcepts());
+
+        SRConceptSpaceGenerator fromMatrix = new SRConceptSpaceGenerator(SIMPLE, matrixDao, pageDao);
+        fromMatrix.setMaxConcepts(10);
+        assertEquals(expected, fromMatrix.getConcepts());
+    }
+}
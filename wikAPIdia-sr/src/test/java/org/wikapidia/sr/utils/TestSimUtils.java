@@ -1,10 +1,16 @@
 package org.wikapidia.sr.utils;
 
 import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntFloatMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntFloatHashMap;
 import org.junit.Assert;
 import org.junit.Test;
+import org.wikapidia.sr.vector.GoogleSimilarity;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -89,4 +95,66 @@ public class TestSimUtils {
 //        }
     }
 
+
+    @Test
+    public void testCosineSimilarities() {
+        Random random = new Random(17);
+        List<TIntFloatMap> vectors = new ArrayList<TIntFloatMap>();
+        for (int i = 0; i < 20; i++) {
+            TIntFloatMap v = new TIntFloatHashMap();
+            for (int j = 0; j < 10; j++) {
+                v.put(random.nextInt(30), random.nextFloat() - 0.2f);
+            }
+            vectors.add(v);
+        }
+        vectors.add(new TIntFloatHashMap());
+        vectors.add(null);
+        List<TIntFloatMap> cols = vectors.subList(5, vectors.size());
+        double sims[][] = SimUtils.cosineSimilarities(vectors, cols);
+        assertEquals(vectors.size(), sims.length);
+        for (int i = 0; i < vectors.size(); i++) {
+            assertEquals(cols.size(), sims[i].length);
+            for (int j = 0; j < cols.size(); j++) {
+                TIntFloatMap vi = vectors.get(i);
+                TIntFloatMap vj = cols.get(j);
+                double expected = (vi == null || vj == null) ? 0.0 : SimUtils.cosineSimilarity(vi, vj);
+                assertEquals(expected, sims[i][j], 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void testSortedIdSimilarities() {
+        Random random = new Random(23);
+        for (int n = 0; n < 200; n++) {
+            // sizes vary enough to use both the merge and the binary search
+            TIntFloatMap v1 = new TIntFloatHashMap();
+            TIntFloatMap v2 = new TIntFloatHashMap();
+            int size1 = random.nextInt(10);
+            int size2 = (n % 2 == 0) ? random.nextInt(10) : random.nextInt(500);
+            for (int j = 0; j < size1; j++) {
+                v1.put(random.nextInt(1000) - 100, 1);
+            }
+            for (int j = 0; j < size2; j++) {
+                v2.put(random.nextInt(1000) - 100, 1);
+            }
+            int ids1[] = v1.keys();
+            int ids2[] = v2.keys();
+            Arrays.sort(ids1);
+            Arrays.sort(ids2);
+
+            int intersection = 0;
+            for (int id : ids1) {
+                if (v2.containsKey(id)) {
+                    intersection++;
+                }
+            }
+            assertEquals(intersection, SimUtils.intersectionSize(ids1, ids2));
+            assertEquals(intersection, SimUtils.intersectionSize(ids2, ids1));
+            assertEquals(SimUtils.cosineSimilarity(v1, v2), SimUtils.cosineSimilarity(ids1, ids2), 0.000001);
+
+            GoogleSimilarity google = new GoogleSimilarity(2000);
+            assertEquals(google.similarity(v1, v2), google.similarity(ids1, ids2), 0.000001);
+        }
+    }
 }
@@ -6,10 +6,15 @@ import org.apache.commons.lang3.reflect.ConstructorUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.clapper.util.classutil.*;
 import org.wikapidia.utils.JvmUtils;
+import org.wikapidia.utils.ParallelForEach;
+import org.wikapidia.utils.Procedure;
+import org.wikapidia.utils.WpThreadUtils;
 
 import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -53,7 +58,10 @@ import java.util.logging.Logger;
  * method.
  *
  * All generated components are considered singletons. Once a named component is
- * generated once, it is cached and reused for future requests.
+ * generated once, it is cached and reused for future requests. Lookups of cached
+ * components do not lock, and each component is constructed by a single thread
+ * while other threads requesting it wait. warmUp() constructs components in
+ * parallel ahead of their first use.
  */
 public class Configurator {
     private static final Logger LOG = Logger.getLogger(Configurator.class.getName());
@@ -89,7 +97,18 @@ public class Configurator {
     /**
      * Named instances of each component.
      */
-    private final Map<Class, Map<String, Object>> components = new HashMap<Class, Map<String, Object>>();
+    private final Map<Class, ConcurrentHashMap<String, Object>> components = new HashMap<Class, ConcurrentHashMap<String, Object>>();
+
+    /**
+     * Names of the default implementation of each component.
+     */
+    private final ConcurrentHashMap<Class, String> defaultNames = new ConcurrentHashMap<Class, String>();
+
+    /**
+     * Components that are currently being constructed.
+     */
+    private final ConcurrentHashMap<Pair<Class, String>, FutureTask<Pair<Provider, Object>>> pending =
+            new ConcurrentHashMap<Pair<Class, String>, FutureTask<Pair<Provider, Object>>>();
 
     /**
      * Constructs a new configuration object with the specified configuration.
@@ -179,7 +198,7 @@ public class Configurator {
             if (pset == null) {
                 pset = new ProviderSet(type, path);
                 providers.put(type, pset);
-                components.put(type, new HashMap<String, Object>());
+                components.put(type, new ConcurrentHashMap<String, Object>());
             }
             if (pset.type != type) {
                 throw new IllegalStateException();
@@ -250,22 +269,144 @@ public class Configurator {
      *                      will be cached independently.
      * @return The requested component.
      */
-    public <T> T get(Class<T> klass, String name, Map<String, String> runtimeParams) throws ConfigurationException {
+    public <T> T get(final Class<T> klass, String name, final Map<String, String> runtimeParams) throws ConfigurationException {
         name = resolveComponentName(klass, name);
-        Config config = getConfig(klass, name);
         Map<String, Object> cache = components.get(klass);
         String key = makeCacheKey(name, runtimeParams);
-        synchronized (cache) {
-            if (cache.containsKey(key)) {
-                return (T) cache.get(key);
-            } else {
-                Pair<Provider, T> pair = constructInternal(klass, name, config, runtimeParams);
+        Object component = cache.get(key);
+        if (component != null) {
+            return (T) component;
+        }
+
+        // Construct the component, or wait for the thread that is already constructing it.
+        final String resolvedName = name;
+        Pair<Class, String> pendingKey = Pair.of((Class) klass, key);
+        FutureTask<Pair<Provider, Object>> task = new FutureTask<Pair<Provider, Object>>(
+                new Callable<Pair<Provider, Object>>() {
+                    @Override
+                    public Pair<Provider, Object> call() throws Exception {
+                        Config config = getConfig(klass, resolvedName);
+                        return (Pair<Provider, Object>) constructInternal(klass, resolvedName, config, runtimeParams);
+                    }
+                });
+        FutureTask<Pair<Provider, Object>> existing = pending.putIfAbsent(pendingKey, task);
+        if (existing == null) {
+            // check again in case the component was cached after the first lookup
+            component = cache.get(key);
+            if (component != null) {
+                pending.remove(pendingKey);
+                return (T) component;
+            }
+            try {
+                task.run();
+                Pair<Provider, Object> pair = getConstructed(task);
                 if (pair.getLeft().getScope() == Provider.Scope.SINGLETON) {
                     cache.put(key, pair.getRight());
                 }
-                return pair.getRight();
+                return (T) pair.getRight();
+            } finally {
+                pending.remove(pendingKey);
+            }
+        } else {
+            Pair<Provider, Object> pair = getConstructed(existing);
+            if (pair.getLeft().getScope() == Provider.Scope.SINGLETON) {
+                return (T) pair.getRight();
+            } else {
+                // components that aren't singletons are never shared
+                return constructInternal(klass, resolvedName, getConfig(klass, resolvedName), runtimeParams).getRight();
+            }
+        }
+    }
+
+    private Pair<Provider, Object> getConstructed(FutureTask<Pair<Provider, Object>> task) throws ConfigurationException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new ConfigurationException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ConfigurationException) {
+                throw (ConfigurationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new ConfigurationException((Exception) cause);
+            }
+        }
+    }
+
+    /**
+     * Constructs the components listed in the "warmup.components" configuration
+     * entry in parallel.
+     * @see #warmUp(java.util.List, int)
+     */
+    public Map<String, Long> warmUp() throws ConfigurationException {
+        if (!conf.get().hasPath("warmup.components")) {
+            return new LinkedHashMap<String, Long>();
+        }
+        return warmUp(conf.get().getStringList("warmup.components"), WpThreadUtils.getMaxThreads());
+    }
+
+    /**
+     * Constructs and caches the specified components in parallel so that the first
+     * requests for them do not pay for loading them.
+     *
+     * @param componentPaths Full configuration paths of components, for example
+     *                       "phrases.analyzer.default" or "dao.localPage.sql".
+     * @param numThreads
+     * @return The construction time in milliseconds of each component, in the order
+     * of componentPaths.
+     * @throws ConfigurationException If a path does not belong to a known component,
+     * or if a component could not be constructed. All components are attempted before
+     * the first failure is thrown.
+     */
+    public Map<String, Long> warmUp(List<String> componentPaths, int numThreads) throws ConfigurationException {
+        final Map<String, Pair<Class, String>> requests = new LinkedHashMap<String, Pair<Class, String>>();
+        for (String path : componentPaths) {
+            int i = path.lastIndexOf('.');
+            Class klass = null;
+            for (ProviderSet pset : providers.values()) {
+                if (i > 0 && pset.path.equals(path.substring(0, i))) {
+                    klass = pset.type;
+                }
+            }
+            if (klass == null) {
+                throw new ConfigurationException("No registered providers for component at path " + path);
+            }
+            requests.put(path, Pair.of(klass, path.substring(i + 1)));
+        }
+
+        final Map<String, Long> elapsed = new ConcurrentHashMap<String, Long>();
+        final List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+        ParallelForEach.loop(requests.keySet(), numThreads, new Procedure<String>() {
+            @Override
+            public void call(String path) throws Exception {
+                try {
+                    long start = System.currentTimeMillis();
+                    get(requests.get(path).getLeft(), requests.get(path).getRight());
+                    long millis = System.currentTimeMillis() - start;
+                    LOG.info("warmed up component " + path + " in " + millis + " millis");
+                    elapsed.put(path, millis);
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "warm up of component " + path + " failed", e);
+                    failures.add(e);
+                }
             }
+        }, Integer.MAX_VALUE);
+        if (!failures.isEmpty()) {
+            Exception e = failures.get(0);
+            throw (e instanceof ConfigurationException)
+                    ? (ConfigurationException) e
+                    : new ConfigurationException(e);
+        }
+
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (String path : requests.keySet()) {
+            result.put(path, elapsed.get(path));
         }
+        return result;
     }
 
     /**
@@ -308,6 +449,10 @@ public class Configurator {
             name = null;
         }
 
+        if (name == null && defaultNames.containsKey(klass)) {
+            return defaultNames.get(klass);
+        }
+
         // If name is null, check to see if there is a default entry or only one option.
         if (name == null) {
             if (!conf.get().hasPath(pset.path)) {
@@ -327,6 +472,7 @@ public class Configurator {
                                 "Available provider implementations are: " + Arrays.toString(pset.providers.toArray())
                 );
             }
+            defaultNames.put(klass, name);
         }
         return name;
     }
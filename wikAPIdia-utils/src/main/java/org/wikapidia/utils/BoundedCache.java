@@ -0,0 +1,246 @@
+package org.wikapidia.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, size bounded, least recently used cache.
+ *
+ * Keys are spread over independently locked segments so that concurrent lookups
+ * rarely contend. Each entry has a weight (by default 1) and a segment evicts its
+ * least recently used entries when its share of the total weight is exceeded.
+ * The cache counts hits, misses, and evictions.
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Computes the weight of a cache entry, for example the number of elements it holds.
+     */
+    public static interface Weigher<K, V> {
+        public int weigh(K key, V value);
+    }
+
+    private static final Weigher UNIT_WEIGHER = new Weigher() {
+        @Override
+        public int weigh(Object key, Object value) {
+            return 1;
+        }
+    };
+
+    private final Segment<K, V>[] segments;
+    private final Weigher<K, V> weigher;
+    private final long maxWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache that holds at most maxSize entries.
+     * @param maxSize
+     */
+    public BoundedCache(long maxSize) {
+        this(maxSize, UNIT_WEIGHER);
+    }
+
+    /**
+     * Creates a cache whose entries have a total weight of at most maxWeight.
+     * @param maxWeight
+     * @param weigher
+     */
+    public BoundedCache(long maxWeight, Weigher<K, V> weigher) {
+        this(maxWeight, weigher, 4 * WpThreadUtils.getMaxThreads());
+    }
+
+    public BoundedCache(long maxWeight, Weigher<K, V> weigher, int numSegments) {
+        if (maxWeight <= 0 || numSegments <= 0) {
+            throw new IllegalArgumentException();
+        }
+        numSegments = (int) Math.min(numSegments, maxWeight);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment<K, V>(maxWeight / numSegments + (i < maxWeight % numSegments ? 1 : 0));
+        }
+    }
+
+    /**
+     * @param key
+     * @return The cached value, or null if it is not in the cache.
+     */
+    public V get(K key) {
+        V value = segmentFor(key).get(key);
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Adds or replaces a value. Null values are not allowed.
+     * @param key
+     * @param value
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int weight = weigher.weigh(key, value);
+        evictions.addAndGet(segmentFor(key).put(key, value, weight));
+    }
+
+    public void remove(K key) {
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * Removes all entries, for example after the data backing the cache has changed.
+     */
+    public void clear() {
+        for (Segment<K, V> s : segments) {
+            s.clear();
+        }
+    }
+
+    /**
+     * @return The number of entries in the cache.
+     */
+    public int size() {
+        int n = 0;
+        for (Segment<K, V> s : segments) {
+            n += s.size();
+        }
+        return n;
+    }
+
+    /**
+     * @return The total weight of the entries in the cache.
+     */
+    public long getWeight() {
+        long w = 0;
+        for (Segment<K, V> s : segments) {
+            w += s.getWeight();
+        }
+        return w;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return Fraction of lookups that were hits, or 0 if there were no lookups.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0) ? 0.0 : 1.0 * h / total;
+    }
+
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedCache{" +
+                "size=" + size() +
+                ", weight=" + getWeight() + "/" + maxWeight +
+                ", hits=" + hits.get() +
+                ", misses=" + misses.get() +
+                ", evictions=" + evictions.get() +
+                ", hitRate=" + getHitRate() +
+                '}';
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    private static class Segment<K, V> {
+        private final long maxWeight;
+        private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+        private long weight = 0;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized V get(K key) {
+            Entry<V> e = map.get(key);
+            return (e == null) ? null : e.value;
+        }
+
+        /**
+         * @return The number of entries evicted.
+         */
+        synchronized int put(K key, V value, int entryWeight) {
+            Entry<V> old = map.put(key, new Entry<V>(value, entryWeight));
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += entryWeight;
+            int evicted = 0;
+            Iterator<Map.Entry<K, Entry<V>>> iter = map.entrySet().iterator();
+            while (weight > maxWeight && iter.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = iter.next();
+                weight -= eldest.getValue().weight;
+                iter.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        synchronized void remove(K key) {
+            Entry<V> old = map.remove(key);
+            if (old != null) {
+                weight -= old.weight;
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long getWeight() {
+            return weight;
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final int weight;
+
+        Entry(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
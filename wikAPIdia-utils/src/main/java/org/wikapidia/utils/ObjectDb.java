@@ -8,18 +8,120 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 
 /**
  * A key / value database where keys are strings and objects are serializable.
  *
+ * Values are converted to bytes by a Codec, which defaults to Java serialization.
+ * The database can be opened in one of three modes:
+ *
+ * - READ_WRITE: every put is written to the database immediately.
+ * - BULK_LOAD: puts are buffered, sorted by key, and written in batches to a deferred
+ *   write database with a large cache. Data is only durable after flush() or close().
+ * - READ_ONLY: the database is opened without locking for concurrent lookups.
  */
 public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V>> {
     private static final Logger LOG = Logger.getLogger(ObjectDb.class.getName());
+
+    public enum Mode { READ_WRITE, BULK_LOAD, READ_ONLY }
+
+    /**
+     * Percentage of the heap used for the cache shared by databases in bulk load mode.
+     */
+    public static final int BULK_LOAD_CACHE_PERCENT = 40;
+
+    /**
+     * Maximum number of key and value bytes buffered in bulk load mode.
+     */
+    public static final int MAX_BUFFER_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Converts values to and from bytes.
+     */
+    public static interface Codec<V> {
+        public byte[] encode(V value) throws IOException;
+        public V decode(byte[] bytes) throws IOException, ClassNotFoundException;
+    }
+
+    /**
+     * Encodes values with Java serialization.
+     */
+    public static class SerializableCodec<V extends Serializable> implements Codec<V> {
+        @Override
+        public byte[] encode(V value) throws IOException {
+            return WpIOUtils.objectToBytes(value);
+        }
+
+        @Override
+        public V decode(byte[] bytes) throws IOException, ClassNotFoundException {
+            return (V) WpIOUtils.bytesToObject(bytes);
+        }
+    }
+
+    /**
+     * Stores byte arrays as they are.
+     */
+    public static class BytesCodec implements Codec<byte[]> {
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] bytes) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Stores int arrays as big-endian ints, without any header.
+     */
+    public static class IntArrayCodec implements Codec<int[]> {
+        @Override
+        public byte[] encode(int[] value) {
+            ByteBuffer buffer = ByteBuffer.allocate(value.length * 4);
+            buffer.asIntBuffer().put(value);
+            return buffer.array();
+        }
+
+        @Override
+        public int[] decode(byte[] bytes) {
+            int[] value = new int[bytes.length / 4];
+            ByteBuffer.wrap(bytes).asIntBuffer().get(value);
+            return value;
+        }
+    }
+
+    private static final Comparator<byte[]> KEY_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int d = (a[i] & 0xff) - (b[i] & 0xff);
+                if (d != 0) {
+                    return d;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
     private Environment env;
     private Database db;
+    private final Mode mode;
+    private final Codec<V> codec;
+    private final LockMode lockMode;
+
+    // Buffered puts in bulk load mode, sorted by key
+    private final TreeMap<byte[], byte[]> buffer = new TreeMap<byte[], byte[]>(KEY_COMPARATOR);
+    private long bufferBytes = 0;
 
     public ObjectDb(File path) throws IOException, DatabaseException {
         this(path, false);
@@ -33,6 +135,25 @@ public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V
      * @throws DatabaseException
      */
     public ObjectDb(File path, boolean isNew) throws IOException, DatabaseException {
+        this(path, isNew, Mode.READ_WRITE, new SerializableCodec());
+    }
+
+    /**
+     * Creates a new object database.
+     * @param path Path to the directory containing the dictionary.
+     * @param isNew If true, resets the mapper database.
+     * @param mode
+     * @param codec Converts values to and from bytes.
+     * @throws java.io.IOException
+     * @throws DatabaseException
+     */
+    public ObjectDb(File path, boolean isNew, Mode mode, Codec<V> codec) throws IOException, DatabaseException {
+        if (isNew && mode == Mode.READ_ONLY) {
+            throw new IllegalArgumentException("a new object database can't be read-only");
+        }
+        this.mode = mode;
+        this.codec = codec;
+        this.lockMode = (mode == Mode.READ_ONLY) ? LockMode.READ_UNCOMMITTED : null;
         if (isNew) {
             if (path.isDirectory()) {
                 FileUtils.deleteDirectory(path);
@@ -43,11 +164,20 @@ public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V
         }
         EnvironmentConfig envConfig = new EnvironmentConfig();
         envConfig.setTransactional(false);
-        envConfig.setAllowCreate(true);
-        this.env = new Environment(path, envConfig);
-
+        envConfig.setAllowCreate(mode != Mode.READ_ONLY);
         DatabaseConfig dbConfig = new DatabaseConfig();
-        dbConfig.setAllowCreate(true);
+        dbConfig.setAllowCreate(mode != Mode.READ_ONLY);
+        if (mode == Mode.BULK_LOAD) {
+            envConfig.setSharedCache(true);
+            envConfig.setCachePercent(BULK_LOAD_CACHE_PERCENT);
+            dbConfig.setDeferredWrite(true);
+        } else if (mode == Mode.READ_ONLY) {
+            envConfig.setReadOnly(true);
+            envConfig.setLocking(false);
+            envConfig.setSharedCache(true);
+            dbConfig.setReadOnly(true);
+        }
+        this.env = new Environment(path, envConfig);
         this.db = env.openDatabase(null,
                 FilenameUtils.getName(path.toString()),
                 dbConfig);
@@ -62,13 +192,22 @@ public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V
      * @throws ClassNotFoundException
      */
     public V get(String key) throws DatabaseException, IOException, ClassNotFoundException {
+        byte[] keyBytes = key.getBytes("UTF-8");
+        if (mode == Mode.BULK_LOAD) {
+            synchronized (buffer) {
+                byte[] buffered = buffer.get(keyBytes);
+                if (buffered != null) {
+                    return codec.decode(buffered);
+                }
+            }
+        }
         DatabaseEntry current = new DatabaseEntry();
-        DatabaseEntry entryKey = new DatabaseEntry(key.getBytes("UTF-8"));
-        OperationStatus status = db.get(null, entryKey, current, null);
+        DatabaseEntry entryKey = new DatabaseEntry(keyBytes);
+        OperationStatus status = db.get(null, entryKey, current, lockMode);
         if (status.equals(OperationStatus.NOTFOUND)) {
             return null;
         } else {
-            return (V) WpIOUtils.bytesToObject(current.getData());
+            return codec.decode(current.getData());
         }
     }
 
@@ -79,9 +218,34 @@ public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V
      * @throws DatabaseException
      */
     public void put(String key, V record) throws DatabaseException, IOException {
-        db.put(null,
-                new DatabaseEntry(key.getBytes("UTF-8")),
-                new DatabaseEntry(WpIOUtils.objectToBytes(record)));
+        byte[] keyBytes = key.getBytes("UTF-8");
+        byte[] valueBytes = codec.encode(record);
+        if (mode == Mode.BULK_LOAD) {
+            synchronized (buffer) {
+                byte[] old = buffer.put(keyBytes, valueBytes);
+                bufferBytes += keyBytes.length + valueBytes.length;
+                if (old != null) {
+                    bufferBytes -= keyBytes.length + old.length;
+                }
+                if (bufferBytes >= MAX_BUFFER_BYTES) {
+                    writeBuffer();
+                }
+            }
+        } else {
+            db.put(null, new DatabaseEntry(keyBytes), new DatabaseEntry(valueBytes));
+        }
+    }
+
+    /**
+     * Writes buffered puts to the database in key order.
+     * Must be called while holding the buffer lock.
+     */
+    private void writeBuffer() throws DatabaseException {
+        for (Map.Entry<byte[], byte[]> entry : buffer.entrySet()) {
+            db.put(null, new DatabaseEntry(entry.getKey()), new DatabaseEntry(entry.getValue()));
+        }
+        buffer.clear();
+        bufferBytes = 0;
     }
 
     /**
@@ -89,16 +253,43 @@ public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V
      * @throws DatabaseException
      */
     public void close() throws DatabaseException {
+        if (mode == Mode.BULK_LOAD) {
+            synchronized (buffer) {
+                writeBuffer();
+            }
+        }
         this.db.close();
         this.env.close();
     }
 
     public void flush() {
+        if (mode == Mode.READ_ONLY) {
+            return;
+        }
+        if (mode == Mode.BULK_LOAD) {
+            synchronized (buffer) {
+                writeBuffer();
+            }
+            this.db.sync();
+        }
         this.env.flushLog(true);
     }
 
     public void remove(String key) throws UnsupportedEncodingException, DatabaseException {
-        this.db.delete(null, new DatabaseEntry(key.getBytes("UTF-8")));
+        byte[] keyBytes = key.getBytes("UTF-8");
+        if (mode == Mode.BULK_LOAD) {
+            synchronized (buffer) {
+                byte[] old = buffer.remove(keyBytes);
+                if (old != null) {
+                    bufferBytes -= keyBytes.length + old.length;
+                }
+            }
+        }
+        this.db.delete(null, new DatabaseEntry(keyBytes));
+    }
+
+    public Mode getMode() {
+        return mode;
     }
 
     /**
@@ -125,6 +316,11 @@ public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V
      */
     @Override
     public Iterator<Pair<String, V>> iterator() {
+        if (mode == Mode.BULK_LOAD) {
+            synchronized (buffer) {
+                writeBuffer();
+            }
+        }
         final DatabaseEntry key = new DatabaseEntry();
         final DatabaseEntry val = new DatabaseEntry();
         final Cursor cursor;
@@ -151,7 +347,7 @@ public class ObjectDb<V extends Serializable> implements Iterable<Pair<String, V
                 try {
                     return Pair.of(
                             new String(key.getData(), "UTF-8"),
-                            (V)WpIOUtils.bytesToObject(val.getData())
+                            codec.decode(val.getData())
                     );
                 } catch (IOException e) {
                     close();
@@ -9,6 +9,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -188,6 +189,223 @@ public class ParallelForEach {
         }
     }
 
+    /**
+     * Runs fn on every integer in [from, to) using chunks of the range instead of one
+     * task per element. Each thread starts with a contiguous part of the range and claims
+     * chunks from it. A thread that runs out of work steals the upper half of the largest
+     * remaining part of another thread. Progress, throughput and an estimated time
+     * remaining are logged at most every logSeconds seconds.
+     *
+     * @param from bottom of range (inclusive), must not be negative
+     * @param to top of range (exclusive)
+     * @param numThreads
+     * @param chunkSize Number of consecutive elements claimed at once.
+     * @param fn callback, with per-thread state
+     * @param name Description of the work used in progress messages.
+     * @param logSeconds
+     */
+    public static <S> void chunkedRange(
+            int from,
+            int to,
+            int numThreads,
+            int chunkSize,
+            final RangeProcedure<S> fn,
+            String name,
+            int logSeconds) {
+        if (from < 0) {
+            throw new IllegalArgumentException("range must not be negative: " + from);
+        }
+        if (to <= from) {
+            return;
+        }
+        numThreads = Math.max(1, Math.min(numThreads, to - from));
+        chunkSize = Math.max(1, chunkSize);
+        final Span spans[] = new Span[numThreads];
+        long n = to - from;
+        for (int i = 0; i < numThreads; i++) {
+            spans[i] = new Span(
+                    (int) (from + n * i / numThreads),
+                    (int) (from + n * (i + 1) / numThreads));
+        }
+        final Progress progress = new Progress(name, n, logSeconds);
+        final ExecutorService exec = new ThreadPoolErrors(numThreads);
+        final CountDownLatch latch = new CountDownLatch(numThreads);
+        final int finalChunkSize = chunkSize;
+        try {
+            for (int i = 0; i < numThreads; i++) {
+                final int worker = i;
+                exec.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            runWorker(spans, worker, finalChunkSize, fn, progress);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            latch.await();
+            progress.finish();
+        } catch (InterruptedException e) {
+            LOG.log(Level.SEVERE, "Interrupted parallel for each", e);
+            throw new RuntimeException(e);
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    public static <S> void chunkedRange(int from, int to, int chunkSize, final RangeProcedure<S> fn, String name) {
+        chunkedRange(from, to, WpThreadUtils.getMaxThreads(), chunkSize, fn, name, 60);
+    }
+
+    private static <S> void runWorker(Span spans[], int worker, int chunkSize, RangeProcedure<S> fn, Progress progress) {
+        S state;
+        try {
+            state = fn.createState();
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "error creating state for worker " + worker, e);
+            return;
+        }
+        Span mine = spans[worker];
+        while (true) {
+            long chunk = mine.claim(chunkSize);
+            if (chunk < 0) {
+                if (steal(spans, worker)) {
+                    continue;
+                } else {
+                    break;
+                }
+            }
+            int lo = (int) (chunk >>> 32);
+            int hi = (int) chunk;
+            for (int i = lo; i < hi; i++) {
+                try {
+                    fn.call(i, state);
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "error processing range element " + i, e);
+                    LOG.log(Level.SEVERE, "stacktrace: " + ExceptionUtils.getStackTrace(e).replaceAll("\n", " ").replaceAll("\\s+", " "));
+                }
+            }
+            progress.increment(hi - lo);
+        }
+        try {
+            fn.finishState(state);
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "error finishing state for worker " + worker, e);
+        }
+    }
+
+    /**
+     * Moves the upper half of the largest remaining span of another worker to the thief.
+     * @return false if there is no work left to steal.
+     */
+    private static boolean steal(Span spans[], int thief) {
+        while (true) {
+            Span victim = null;
+            int remaining = 0;
+            for (int i = 0; i < spans.length; i++) {
+                int r = spans[i].remaining();
+                if (i != thief && r > remaining) {
+                    victim = spans[i];
+                    remaining = r;
+                }
+            }
+            if (victim == null) {
+                return false;
+            }
+            long stolen = victim.split();
+            if (stolen >= 0) {
+                spans[thief].reset((int) (stolen >>> 32), (int) stolen);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The part of a range that is still assigned to a worker.
+     * Chunks are packed into longs as (lo << 32 | hi), or -1 if there is none.
+     */
+    private static class Span {
+        private int next;
+        private int end;
+
+        Span(int next, int end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        synchronized long claim(int chunkSize) {
+            if (next >= end) {
+                return -1;
+            }
+            int lo = next;
+            int hi = (int) Math.min(end, (long) lo + chunkSize);
+            next = hi;
+            return pack(lo, hi);
+        }
+
+        synchronized long split() {
+            if (next >= end) {
+                return -1;
+            }
+            int mid = next + (end - next) / 2;
+            int hi = end;
+            end = mid;
+            return pack(mid, hi);
+        }
+
+        synchronized void reset(int next, int end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        synchronized int remaining() {
+            return end - next;
+        }
+
+        private static long pack(int lo, int hi) {
+            return ((long) lo << 32) | (hi & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Tracks and periodically logs the progress of a chunked loop.
+     */
+    private static class Progress {
+        private final String name;
+        private final long total;
+        private final long logMillis;
+        private final long start = System.currentTimeMillis();
+        private final AtomicLong done = new AtomicLong();
+        private final AtomicLong nextLog;
+
+        Progress(String name, long total, int logSeconds) {
+            this.name = name;
+            this.total = total;
+            this.logMillis = logSeconds * 1000L;
+            this.nextLog = new AtomicLong(start + logMillis);
+        }
+
+        void increment(int n) {
+            long d = done.addAndGet(n);
+            long now = System.currentTimeMillis();
+            long t = nextLog.get();
+            if (now >= t && nextLog.compareAndSet(t, now + logMillis)) {
+                double rate = 1000.0 * d / Math.max(1, now - start);
+                long etaSecs = (long) ((total - d) / Math.max(rate, 0.001));
+                LOG.info(String.format("%s: processed %d of %d (%.1f%%) at %.1f per second, about %d:%02d:%02d remaining",
+                        name, d, total, 100.0 * d / total, rate,
+                        etaSecs / 3600, (etaSecs / 60) % 60, etaSecs % 60));
+            }
+        }
+
+        void finish() {
+            long millis = Math.max(1, System.currentTimeMillis() - start);
+            LOG.info(String.format("%s: processed %d elements in %.1f seconds (%.1f per second)",
+                    name, done.get(), millis / 1000.0, 1000.0 * done.get() / millis));
+        }
+    }
+
     /**
      * This code adapted from:
      * http://stackoverflow.com/questions/2248131/handling-exceptions-from-java-executorservice-tasks
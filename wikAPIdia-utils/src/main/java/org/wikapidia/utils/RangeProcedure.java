@@ -0,0 +1,38 @@
+package org.wikapidia.utils;
+
+/**
+ * A procedure called for each integer in a range by ParallelForEach.chunkedRange.
+ *
+ * Each worker thread creates its own state object once and passes it to every call
+ * it makes, so expensive scratch objects (buffers, cursors, parsers) can be reused
+ * without synchronization.
+ *
+ * @param <S> Type of the per-thread state.
+ */
+public abstract class RangeProcedure<S> {
+
+    /**
+     * Creates the state used by a single worker thread.
+     * @return The state, or null if none is needed.
+     * @throws Exception
+     */
+    public S createState() throws Exception {
+        return null;
+    }
+
+    /**
+     * Call the procedure. If an exception occurs, it must be handled by the caller.
+     * @param i
+     * @param state The state of the calling thread.
+     * @throws Exception
+     */
+    public abstract void call(int i, S state) throws Exception;
+
+    /**
+     * Called once by each worker thread after it has finished all its work.
+     * @param state
+     * @throws Exception
+     */
+    public void finishState(S state) throws Exception {
+    }
+}
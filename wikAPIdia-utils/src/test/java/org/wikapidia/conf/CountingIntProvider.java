@@ -0,0 +1,44 @@
+package org.wikapidia.conf;
+
+import com.typesafe.config.Config;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts how often it constructs a component. Construction is slow so that
+ * concurrent requests for the same component overlap.
+ */
+public class CountingIntProvider extends Provider<Integer> {
+    public static final AtomicInteger NUM_CONSTRUCTED = new AtomicInteger();
+
+    public CountingIntProvider(Configurator configurator, Configuration config) throws ConfigurationException {
+        super(configurator, config);
+    }
+
+    @Override
+    public Class getType() {
+        return Integer.class;
+    }
+
+    @Override
+    public String getPath() {
+        return TestConfigurator.INTMAKER_PATH;
+    }
+
+    @Override
+    public Integer get(String name, Config config, Map<String, String> runtimeParams) throws ConfigurationException {
+        if (!config.getString("type").equals("counting")) {
+            return null;
+        }
+        if (config.hasPath("fail") && config.getBoolean("fail")) {
+            throw new ConfigurationException("failed on purpose");
+        }
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            throw new ConfigurationException(e);
+        }
+        return NUM_CONSTRUCTED.incrementAndGet();
+    }
+}
@@ -2,12 +2,12 @@ package org.wikapidia.conf;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import org.wikapidia.utils.Function;
+import org.wikapidia.utils.ParallelForEach;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -120,6 +120,47 @@ public class TestConfigurator {
         tmp.delete();
     }
 
+    @Test
+    public void testWarmUp() throws ConfigurationException {
+        Configurator conf = new Configurator(new Configuration());
+        Map<String, Long> times = conf.warmUp(
+                Arrays.asList(INTMAKER_PATH + ".foo", INTMAKER_PATH + ".baz"), 2);
+        assertEquals(Arrays.asList(INTMAKER_PATH + ".foo", INTMAKER_PATH + ".baz"),
+                new ArrayList<String>(times.keySet()));
+        assertEquals(42, (int) conf.get(Integer.class, "foo"));
+        assertEquals(0, (int) conf.get(Integer.class, "baz"));
+        assertEquals(1, (int) conf.get(Integer.class, "biff"));
+        try {
+            conf.warmUp(Arrays.asList("some.other.path.foo"), 2);
+            fail();
+        } catch (ConfigurationException e) {
+            // expected
+        }
+
+        // a component that cannot be constructed fails the warm up
+        try {
+            conf.warmUp(Arrays.asList(INTMAKER_PATH + ".broken", INTMAKER_PATH + ".foo"), 2);
+            fail();
+        } catch (ConfigurationException e) {
+            assertEquals("failed on purpose", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConcurrentGet() throws ConfigurationException {
+        final Configurator conf = new Configurator(new Configuration());
+        CountingIntProvider.NUM_CONSTRUCTED.set(0);
+        List<Integer> values = ParallelForEach.range(0, 16, 8, new Function<Integer, Integer>() {
+            @Override
+            public Integer call(Integer i) throws Exception {
+                return conf.get(Integer.class, "counted");
+            }
+        });
+        assertEquals(16, values.size());
+        assertEquals(Collections.singleton(1), new HashSet<Integer>(values));
+        assertEquals(1, CountingIntProvider.NUM_CONSTRUCTED.get());
+    }
+
     @Test
     public void testRuntimeParams() throws ConfigurationException, IOException {
         // Should pick up configuration in reference.conf
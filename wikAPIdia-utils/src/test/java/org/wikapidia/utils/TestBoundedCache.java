@@ -0,0 +1,66 @@
+package org.wikapidia.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestBoundedCache {
+
+    @Test
+    public void testHitsAndMisses() {
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(10);
+        assertNull(cache.get("a"));
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(1, (int) cache.get("a"));
+        assertEquals(2, (int) cache.get("b"));
+        assertNull(cache.get("c"));
+        assertEquals(2L, cache.getHits());
+        assertEquals(2L, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLruEviction() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(3, new BoundedCache.Weigher<Integer, Integer>() {
+            @Override
+            public int weigh(Integer key, Integer value) {
+                return 1;
+            }
+        }, 1);
+        cache.put(1, 1);
+        cache.put(2, 2);
+        cache.put(3, 3);
+        cache.get(1);           // 2 is now the least recently used
+        cache.put(4, 4);
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertNotNull(cache.get(4));
+        assertEquals(1L, cache.getEvictions());
+    }
+
+    @Test
+    public void testWeights() {
+        BoundedCache<Integer, int[]> cache = new BoundedCache<Integer, int[]>(10, new BoundedCache.Weigher<Integer, int[]>() {
+            @Override
+            public int weigh(Integer key, int[] value) {
+                return value.length;
+            }
+        }, 1);
+        cache.put(1, new int[4]);
+        cache.put(2, new int[4]);
+        assertEquals(8L, cache.getWeight());
+        cache.put(3, new int[4]);
+        assertEquals(8L, cache.getWeight());
+        assertNull(cache.get(1));
+        cache.put(2, new int[1]);
+        assertEquals(5L, cache.getWeight());
+        cache.put(4, new int[20]);
+        assertNull(cache.get(4));
+        assertTrue(cache.getWeight() <= 10);
+    }
+}
@@ -1,12 +1,14 @@
 package org.wikapidia.utils;
 
 import com.sleepycat.je.DatabaseException;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 import org.wikapidia.conf.ConfigurationException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -72,6 +74,46 @@ public class TestObjectDb {
         assertNull(db.get("foo"));
     }
 
+    @Test
+    public void testBulkLoadAndReadOnly() throws IOException, DatabaseException, ClassNotFoundException {
+        File tmp = File.createTempFile("testdb", ".db", null);
+        tmp.delete();
+        FileUtils.forceDeleteOnExit(tmp);
+
+        ObjectDb<int[]> db = new ObjectDb<int[]>(tmp, true, ObjectDb.Mode.BULK_LOAD, new ObjectDb.IntArrayCodec());
+        for (int i = 0; i < 1000; i++) {
+            db.put("" + (i * 7919 % 1000), new int[] { i, -i });
+        }
+        assertTrue(Arrays.equals(new int[] { 1, -1 }, db.get("919")));
+        db.put("919", new int[] { 3 });
+        assertTrue(Arrays.equals(new int[] { 3 }, db.get("919")));
+        db.remove("0");
+        assertNull(db.get("0"));
+        db.flush();
+        assertTrue(Arrays.equals(new int[] { 3 }, db.get("919")));
+        db.put("0", new int[0]);
+        db.close();
+
+        db = new ObjectDb<int[]>(tmp, false, ObjectDb.Mode.READ_ONLY, new ObjectDb.IntArrayCodec());
+        assertTrue(Arrays.equals(new int[0], db.get("0")));
+        assertTrue(Arrays.equals(new int[] { 3 }, db.get("919")));
+        int n = 0;
+        String last = "";
+        for (Pair<String, int[]> pair : db) {
+            assertTrue(pair.getKey().compareTo(last) > 0);
+            last = pair.getKey();
+            n++;
+        }
+        assertEquals(n, 1000);
+        try {
+            db.put("1", new int[] { 1 });
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        db.close();
+    }
+
     private ObjectDb getObjectDb() throws IOException, DatabaseException {
         File tmp = File.createTempFile("testdb", ".db", null);
         tmp.deleteOnExit();
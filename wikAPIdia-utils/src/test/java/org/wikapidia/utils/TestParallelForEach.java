@@ -44,6 +44,47 @@ public class TestParallelForEach {
     }
 
 
+    @Test
+    public void testChunkedRange() {
+        final AtomicLong actual = new AtomicLong();
+        final AtomicLong numStates = new AtomicLong();
+        final int counts[] = new int[1000003];
+
+        ParallelForEach.chunkedRange(
+                0, counts.length, 7, 1000,
+                new RangeProcedure<long[]>() {
+                    @Override
+                    public long[] createState() {
+                        numStates.incrementAndGet();
+                        return new long[1];
+                    }
+
+                    @Override
+                    public void call(int i, long[] sum) throws Exception {
+                        counts[i]++;
+                        sum[0] += i;
+                        // the last elements are much slower, so they must be stolen
+                        if (i > counts.length - 1000) {
+                            Thread.sleep(1);
+                        }
+                    }
+
+                    @Override
+                    public void finishState(long[] sum) {
+                        actual.addAndGet(sum[0]);
+                    }
+                },
+                "test", 1
+        );
+
+        long n = counts.length;
+        assertEquals(n * (n - 1) / 2, actual.get());
+        assertEquals(7L, numStates.get());
+        for (int c : counts) {
+            assertEquals(1, c);
+        }
+    }
+
     /**
      * @param begin inclusive
      * @param end exclusive
@@ -5,6 +5,7 @@ import org.wikapidia.core.dao.DaoException;
 import org.wikapidia.core.lang.Language;
 import org.wikapidia.core.model.LocalPage;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -82,6 +83,18 @@ public interface WikidataDao extends Dao<WikidataStatement> {
      */
     public LocalWikidataStatement getLocalStatement(Language language, WikidataStatement statement) throws DaoException;
 
+    /**
+     * Fetches the labels of many entities at once.
+     *
+     * @param type Type of the entities (item or property)
+     * @param ids numeric ids (i.e. suffix after "Q" or "P")
+     * @param languages Languages in order of preference. If null, an arbitrary label is returned.
+     * @return The most preferred label for each entity. Entities without a label in
+     * any of the languages are omitted.
+     * @throws DaoException
+     */
+    public Map<Integer, String> getLabels(WikidataEntity.Type type, Collection<Integer> ids, List<Language> languages) throws DaoException;
+
     /**
      * Returns all statements that meet some sort of criterion.
      * @param filter
@@ -16,54 +16,338 @@ import org.wikapidia.core.lang.Language;
 import org.wikapidia.core.lang.LanguageSet;
 import org.wikapidia.download.DumpFileDownloader;
 import org.wikapidia.download.RequestedLinkGetter;
-import org.wikapidia.utils.ParallelForEach;
-import org.wikapidia.utils.Procedure;
+import org.wikapidia.parser.DumpSplitter;
+import org.wikapidia.utils.WpThreadUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Load the contents of a dump into the various daos.
+ *
+ * Loading is pipelined. Reader threads decompress dump files and split them into
+ * pages, and a pool of parser threads turns pages into entities. The parsers hand
+ * the entities to writer threads in groups, and the writers save them one by one.
+ * The inserts themselves are batched by the dao's fast loaders. The stages are
+ * connected by bounded queues so that a slow stage throttles the stages before it.
+ *
+ * Errors in single pages or entities are counted and logged. Any other failure in a
+ * stage stops the whole pipeline, and load() rethrows it once all threads are done.
  */
 public class WikidataDumpLoader {
     private static final Logger LOG = Logger.getLogger(WikidataDumpLoader.class.getName());
 
-    private final AtomicInteger counter = new AtomicInteger();
+    private static final String PAGE_POISON_PILL = new String("");
+    private static final List<WikidataEntity> BATCH_POISON_PILL = new ArrayList<WikidataEntity>();
+
+    // maximum number of unparsed pages waiting for a parser
+    public static final int MAX_PAGE_QUEUE = 1000;
+
+    // maximum number of groups of parsed entities waiting for a writer
+    public static final int MAX_BATCH_QUEUE = 100;
+
+    // number of entities a parser hands to a writer at once
+    public static final int BATCH_SIZE = 100;
+
+    // number of saved entities between progress reports
+    public static final int LOG_MODULO = 10000;
+
+    // how often blocked threads check whether the pipeline has failed
+    private static final long POLL_MILLIS = 100;
+
+    private final AtomicLong numPages = new AtomicLong();
+    private final AtomicLong numParsed = new AtomicLong();
+    private final AtomicLong numSaved = new AtomicLong();
+    private final AtomicLong numErrors = new AtomicLong();
+    private volatile long startMillis;
 
     private final MetaInfoDao metaDao;
     private final WikidataDao wikidataDao;
+    private final int numParsers;
+    private final int numWriters;
+
+    private BlockingQueue<String> pageQueue;
+    private BlockingQueue<List<WikidataEntity>> batchQueue;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
 
     public WikidataDumpLoader(WikidataDao wikidataDao, MetaInfoDao metaDao) {
+        this(wikidataDao, metaDao, WpThreadUtils.getMaxThreads(), 2);
+    }
+
+    /**
+     * @param wikidataDao
+     * @param metaDao
+     * @param numParsers Number of threads parsing pages into entities.
+     * @param numWriters Number of threads saving entities.
+     */
+    public WikidataDumpLoader(WikidataDao wikidataDao, MetaInfoDao metaDao, int numParsers, int numWriters) {
         this.wikidataDao = wikidataDao;
         this.metaDao = metaDao;
+        this.numParsers = numParsers;
+        this.numWriters = numWriters;
     }
 
     /**
      * Expects file name format starting with lang + "wiki" for example, "enwiki"
      * @param file
      */
-    public void load(File file) {
-        WikidataDumpParser parser = new WikidataDumpParser(file);
-        for (WikidataEntity rp : parser) {
-            if (counter.incrementAndGet() % 10000 == 0) {
-                LOG.info("processing wikidata entity " + counter.get());
+    public void load(File file) throws InterruptedException, DaoException {
+        load(Arrays.asList(file));
+    }
+
+    /**
+     * Loads several dump files through the pipeline, reading up to numParsers files at once.
+     * @param files
+     * @throws InterruptedException
+     * @throws DaoException If a stage of the pipeline failed. Some entities may have been saved.
+     */
+    public synchronized void load(List<File> files) throws InterruptedException, DaoException {
+        if (files.isEmpty()) {
+            return;
+        }
+        pageQueue = new ArrayBlockingQueue<String>(MAX_PAGE_QUEUE);
+        batchQueue = new ArrayBlockingQueue<List<WikidataEntity>>(MAX_BATCH_QUEUE);
+        failure.set(null);
+        startMillis = System.currentTimeMillis();
+
+        final Queue<File> unread = new ConcurrentLinkedQueue<File>(files);
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < Math.max(1, Math.min(files.size(), numParsers)); i++) {
+            readers.add(new Thread(new Reader(unread), "wikidata-reader-" + i));
+        }
+        List<Thread> parsers = new ArrayList<Thread>();
+        for (int i = 0; i < numParsers; i++) {
+            parsers.add(new Thread(new Parser(), "wikidata-parser-" + i));
+        }
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < numWriters; i++) {
+            writers.add(new Thread(new Writer(), "wikidata-writer-" + i));
+        }
+        startAll(readers);
+        startAll(parsers);
+        startAll(writers);
+        try {
+            joinAll(readers);
+            offer(pageQueue, PAGE_POISON_PILL);
+            joinAll(parsers);
+            offer(batchQueue, BATCH_POISON_PILL);
+            joinAll(writers);
+        } catch (InterruptedException e) {
+            fail(e);
+            throw e;
+        } finally {
+            for (Thread t : readers) t.interrupt();
+            for (Thread t : parsers) t.interrupt();
+            for (Thread t : writers) t.interrupt();
+            pageQueue = null;
+            batchQueue = null;
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof DaoException) {
+            throw (DaoException) t;
+        } else if (t instanceof Exception) {
+            throw new DaoException("loading of " + files + " failed", (Exception) t);
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        LOG.info("finished loading " + files + ": " + getProgress());
+    }
+
+    /**
+     * Records the first failure of the pipeline. Every stage stops soon after.
+     */
+    private void fail(Throwable t) {
+        if (failure.compareAndSet(null, t)) {
+            LOG.log(Level.SEVERE, "loading of wikidata failed, stopping all threads:", t);
+        }
+    }
+
+    private boolean hasFailed() {
+        return failure.get() != null;
+    }
+
+    /**
+     * Adds an item to a queue, waiting for space unless the pipeline fails.
+     * @return False if the pipeline failed before the item was added.
+     */
+    private <T> boolean offer(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!hasFailed()) {
+            if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
             }
-            save(file, rp);
+        }
+        return false;
+    }
+
+    /**
+     * Takes an item from a queue, waiting for one unless the pipeline fails.
+     * @return The item, or null if the pipeline failed.
+     */
+    private <T> T poll(BlockingQueue<T> queue) throws InterruptedException {
+        while (!hasFailed()) {
+            T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private static void startAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
         }
     }
 
-    private void save(File file, WikidataEntity rp) {
+    private static void joinAll(List<Thread> threads) throws InterruptedException {
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    public long getNumPages() {
+        return numPages.get();
+    }
+
+    public long getNumParsed() {
+        return numParsed.get();
+    }
+
+    public long getNumSaved() {
+        return numSaved.get();
+    }
+
+    public long getNumErrors() {
+        return numErrors.get();
+    }
+
+    /**
+     * @return A human readable summary of the progress and throughput of the current load.
+     */
+    public String getProgress() {
+        double secs = Math.max(0.001, (System.currentTimeMillis() - startMillis) / 1000.0);
+        BlockingQueue<String> pq = pageQueue;
+        BlockingQueue<List<WikidataEntity>> bq = batchQueue;
+        return String.format(
+                "read %d pages, parsed %d entities, saved %d entities (%.1f per second), %d errors, " +
+                "%d pages and %d groups of entities queued",
+                numPages.get(), numParsed.get(), numSaved.get(), numSaved.get() / secs, numErrors.get(),
+                (pq == null) ? 0 : pq.size(), (bq == null) ? 0 : bq.size());
+    }
+
+    private class Reader implements Runnable {
+        private final Queue<File> files;
+
+        Reader(Queue<File> files) {
+            this.files = files;
+        }
+
+        @Override
+        public void run() {
+            try {
+                File file;
+                while ((file = files.poll()) != null) {
+                    LOG.info("processing file: " + file);
+                    for (String page : new DumpSplitter(file)) {
+                        numPages.incrementAndGet();
+                        if (!offer(pageQueue, page)) {
+                            return;
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+    }
+
+    private class Parser implements Runnable {
+        @Override
+        public void run() {
+            // parsers are not thread-safe, so each thread has its own
+            WikidataDumpParser parser = new WikidataDumpParser();
+            List<WikidataEntity> batch = new ArrayList<WikidataEntity>();
+            try {
+                while (true) {
+                    String page = poll(pageQueue);
+                    if (page == null) {
+                        return;
+                    }
+                    if (page == PAGE_POISON_PILL) {
+                        offer(pageQueue, page);
+                        break;
+                    }
+                    try {
+                        WikidataEntity entity = parser.parse(page);
+                        if (entity != null) {
+                            numParsed.incrementAndGet();
+                            batch.add(entity);
+                        }
+                    } catch (Exception e) {
+                        numErrors.incrementAndGet();
+                        LOG.log(Level.WARNING, "parsing of wikidata page failed:", e);
+                    }
+                    if (batch.size() >= BATCH_SIZE) {
+                        if (!offer(batchQueue, batch)) {
+                            return;
+                        }
+                        batch = new ArrayList<WikidataEntity>();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    offer(batchQueue, batch);
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    List<WikidataEntity> batch = poll(batchQueue);
+                    if (batch == null) {
+                        return;
+                    }
+                    if (batch == BATCH_POISON_PILL) {
+                        offer(batchQueue, batch);
+                        break;
+                    }
+                    for (WikidataEntity entity : batch) {
+                        save(entity);
+                    }
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+    }
+
+    private void save(WikidataEntity entity) {
         try {
-            wikidataDao.save(rp);
-            metaDao.incrementRecords(rp.getClass());
+            wikidataDao.save(entity);
+            metaDao.incrementRecords(entity.getClass());
         } catch (DaoException e) {
-            LOG.log(Level.WARNING, "parsing of " + file + " failed:", e);
-            metaDao.incrementErrorsQuietly(rp.getClass());
+            numErrors.incrementAndGet();
+            LOG.log(Level.WARNING, "saving of wikidata entity " + entity.getId() + " failed:", e);
+            metaDao.incrementErrorsQuietly(entity.getClass());
+        }
+        if (numSaved.incrementAndGet() % LOG_MODULO == 0) {
+            LOG.info("loading wikidata: " + getProgress());
         }
     }
 
@@ -137,15 +421,8 @@ public class WikidataDumpLoader {
         wdDao.beginLoad();
         metaDao.beginLoad();
 
-        // loads multiple dumps in parallel
-        ParallelForEach.loop(paths,
-                new Procedure<File>() {
-                    @Override
-                    public void call(File path) throws Exception {
-                        LOG.info("processing file: " + path);
-                        loader.load(path);
-                    }
-                });
+        // loads the dumps through a single pipeline
+        loader.load(paths);
 
         wdDao.endLoad();
         metaDao.endLoad();
@@ -34,11 +34,36 @@ public class WikidataDumpParser implements Iterable<WikidataEntity> {
         this.wdParser = new WikidataParser();
     }
 
+    /**
+     * Creates a parser for individual pages that is not backed by a dump file.
+     * Only parse() may be called on it.
+     */
+    public WikidataDumpParser() {
+        this(null);
+    }
+
     @Override
     public Iterator<WikidataEntity> iterator() {
         return new IteratorImpl();
     }
 
+    /**
+     * Parses the xml of a single page produced by a DumpSplitter.
+     * Parsers are not thread-safe, so each thread should use its own.
+     * @param xml
+     * @return The entity, or null if the page does not contain an item or property.
+     * @throws WpParseException
+     */
+    public WikidataEntity parse(String xml) throws WpParseException {
+        RawPage rp = xmlParser.parse(xml);
+        if (rp.getModel().equals("wikibase-item") || rp.getModel().equals("wikibase-property")) {
+            return wdParser.parse(rp);
+        } else if (!Arrays.asList("wikitext", "css", "javascript").contains(rp.getModel())) {
+            LOG.warning("unknown model: " + rp.getModel() + " in page " + rp.getTitle());
+        }
+        return null;
+    }
+
     public class IteratorImpl implements Iterator<WikidataEntity> {
         private final Iterator<String> iterImpl;
         private WikidataEntity buff;
@@ -62,14 +87,7 @@ public class WikidataDumpParser implements Iterable<WikidataEntity> {
             // try to queue up the next article
             while (buff == null && iterImpl.hasNext()) {
                 try {
-                    RawPage rp = xmlParser.parse(iterImpl.next());
-                    if (rp.getModel().equals("wikibase-item") || rp.getModel().equals("wikibase-property")) {
-                        buff = wdParser.parse(rp);
-                    } else if (Arrays.asList("wikitext", "css", "javascript").contains(rp.getModel())) {
-                        buff = null;
-                    } else {
-                        LOG.warning("unknown model: " + rp.getModel() + " in page " + rp.getTitle());
-                    }
+                    buff = parse(iterImpl.next());
                 } catch (Exception e) {
                     LOG.log(Level.WARNING, "parsing of " + impl.getPath() + " failed:", e);
                 }
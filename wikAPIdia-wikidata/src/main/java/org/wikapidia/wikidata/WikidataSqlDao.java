@@ -1,8 +1,9 @@
 package org.wikapidia.wikidata;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.typesafe.config.Config;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
@@ -40,6 +41,11 @@ import static org.wikapidia.core.jooq.tables.WikidataStatement.*;
 public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements WikidataDao {
     private static Language FALLBACK_LANGUAGE = Language.getByLangCode("en");
 
+    /**
+     * Maximum number of entity ids in a single label query.
+     */
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
     private static TableField[] FIELDS = new TableField[] {
             WIKIDATA_STATEMENT.ID,
             WIKIDATA_STATEMENT.ENTITY_TYPE,
@@ -47,6 +53,7 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
             WIKIDATA_STATEMENT.PROP_ID,
             WIKIDATA_STATEMENT.VAL_TYPE,
             WIKIDATA_STATEMENT.VAL_STR,
+            WIKIDATA_STATEMENT.VAL_NUM,
             WIKIDATA_STATEMENT.RANK
     };
     private final LocalPageDao lpDao;
@@ -249,13 +256,33 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
 
     @Override
     public void save(WikidataStatement item) throws DaoException {
+        WikidataValue val = item.getValue();
+        String str;
+        Long num = null;
+        switch (val.getType()) {
+            case STRING:
+                str = val.getStringValue();
+                break;
+            case ITEM:
+            case INT:
+                str = gson.toJson(val.getJsonValue());
+                num = (long) val.getIntValue();
+                break;
+            case TIME:
+                str = gson.toJson(val.getJsonValue());
+                num = val.getTimeValue().getTime();
+                break;
+            default:
+                str = gson.toJson(val.getJsonValue());
+        }
         insert(
                 item.getId(),
                 item.getItem().getType().code,
                 item.getItem().getId(),
                 item.getProperty().getId(),
-                item.getValue().getType().toString().toLowerCase(),
-                gson.toJson(item.getValue().getJsonValue()),
+                val.getType().toString().toLowerCase(),
+                str,
+                num,
                 item.getRank().ordinal()
         );
     }
@@ -281,9 +308,15 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
                 .withEntityType(type)
                 .withEntityId(id)
                 .build();
+        List<WikidataStatement> statements = IteratorUtils.toList(get(filter).iterator());
+        Set<Integer> itemIds = new HashSet<Integer>();
+        for (WikidataStatement st : statements) {
+            addItemIds(st, itemIds);
+        }
+        Map<Integer, String> itemNames = getItemNames(lang, itemIds);
         Map<String, List<LocalWikidataStatement>> local = new HashMap<String, List<LocalWikidataStatement>>();
-        for (WikidataStatement st : get(filter)) {
-            LocalWikidataStatement lws = getLocalStatement(lang, st);
+        for (WikidataStatement st : statements) {
+            LocalWikidataStatement lws = getLocalStatement(lang, st, itemNames);
             if (!local.containsKey(lws.getProperty())) {
                 local.put(lws.getProperty(), new ArrayList<LocalWikidataStatement>());
             }
@@ -295,12 +328,27 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
     @Override
     public LocalWikidataStatement getLocalStatement(Language language, WikidataStatement statement) throws DaoException {
         language = getRealLang(language );
-        String item = getLocalName(language, statement.getItem().getType(), statement.getItem().getId());
-        String prop = getLocalName(language, statement.getProperty().getType(), statement.getProperty().getId());
+        Set<Integer> itemIds = new HashSet<Integer>();
+        addItemIds(statement, itemIds);
+        return getLocalStatement(language, statement, getItemNames(language, itemIds));
+    }
+
+    private void addItemIds(WikidataStatement statement, Set<Integer> itemIds) {
+        if (statement.getItem().getType() == WikidataEntity.Type.ITEM) {
+            itemIds.add(statement.getItem().getId());
+        }
+        if (statement.getValue().getType() == WikidataValue.Type.ITEM) {
+            itemIds.add(statement.getValue().getItemValue());
+        }
+    }
+
+    private LocalWikidataStatement getLocalStatement(Language language, WikidataStatement statement, Map<Integer, String> itemNames) throws DaoException {
+        String item = getLocalName(language, statement.getItem().getType(), statement.getItem().getId(), itemNames);
+        String prop = getLocalName(language, statement.getProperty().getType(), statement.getProperty().getId(), itemNames);
         String value = null;
         WikidataValue wdv = statement.getValue();
         if (wdv.getType() == WikidataValue.Type.ITEM) {
-            value = getLocalName(language, WikidataEntity.Type.ITEM, wdv.getItemValue());
+            value = getLocalName(language, WikidataEntity.Type.ITEM, wdv.getItemValue(), itemNames);
         } else if (wdv.getValue() == null) {
             value = "unknown";
         } else {
@@ -310,7 +358,7 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
         return new LocalWikidataStatement(language, statement, full, item, prop, value);
     }
 
-    private String getLocalName(Language language, WikidataEntity.Type type, int id) throws DaoException {
+    private String getLocalName(Language language, WikidataEntity.Type type, int id, Map<Integer, String> itemNames) throws DaoException {
         if (type == WikidataEntity.Type.PROPERTY) {
             WikidataEntity prop = getProperty(id);  // should be cached, fast
             if (prop.getLabels().isEmpty()) {
@@ -325,37 +373,75 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
                 return prop.getLabels().values().iterator().next();
             }
         } else if (type == WikidataEntity.Type.ITEM) {
-            DSLContext jooq = getJooq();
-            try {
-                for (Language l : Arrays.asList(language, FALLBACK_LANGUAGE)) {
-                    Result<Record1<String>> result = jooq.select(Tables.WIKIDATA_ENTITY_LABELS.LABEL)
-                            .from(Tables.WIKIDATA_ENTITY_LABELS)
-                            .where(Tables.WIKIDATA_ENTITY_LABELS.ENTITY_TYPE.eq(""+type.code))
-                            .and(WIKIDATA_ENTITY_LABELS.ENTITY_ID.eq(id))
-                            .and(WIKIDATA_ENTITY_LABELS.LANG_ID.eq(l.getId()))
-                            .fetch();
-                    if (result.size() >= 1) {
-                        return result.get(0).value1();
-                    }
+            String name = itemNames.get(id);
+            if (name == null) {
+                LOG.warning("no labels for item " + id);
+                return "unknown";
+            }
+            return name;
+        } else {
+            throw new IllegalArgumentException("Unknown entity type: " + type);
+        }
+    }
+
+    /**
+     * Returns the names of items in the requested language, falling back to English
+     * and then to an arbitrary label. Items without any labels are omitted.
+     */
+    private Map<Integer, String> getItemNames(Language language, Collection<Integer> ids) throws DaoException {
+        Map<Integer, String> names = getLabels(WikidataEntity.Type.ITEM, ids, Arrays.asList(language, FALLBACK_LANGUAGE));
+        if (names.size() < ids.size()) {
+            Set<Integer> missing = new HashSet<Integer>(ids);
+            missing.removeAll(names.keySet());
+            names.putAll(getLabels(WikidataEntity.Type.ITEM, missing, null));
+        }
+        return names;
+    }
+
+    @Override
+    public Map<Integer, String> getLabels(WikidataEntity.Type type, Collection<Integer> ids, List<Language> languages) throws DaoException {
+        Map<Integer, String> labels = new HashMap<Integer, String>();
+        if (ids.isEmpty()) {
+            return labels;
+        }
+        List<Short> langIds = null;
+        if (languages != null) {
+            langIds = new ArrayList<Short>();
+            for (Language l : languages) {
+                langIds.add(l.getId());
+            }
+        }
+        // preference rank of the label currently stored for each id
+        Map<Integer, Integer> ranks = new HashMap<Integer, Integer>();
+        List<Integer> idList = new ArrayList<Integer>(ids);
+        DSLContext jooq = getJooq();
+        try {
+            for (int i = 0; i < idList.size(); i += MAX_IDS_PER_QUERY) {
+                List<Condition> conditions = new ArrayList<Condition>();
+                conditions.add(WIKIDATA_ENTITY_LABELS.ENTITY_TYPE.eq("" + type.code));
+                conditions.add(WIKIDATA_ENTITY_LABELS.ENTITY_ID.in(
+                        idList.subList(i, Math.min(idList.size(), i + MAX_IDS_PER_QUERY))));
+                if (langIds != null) {
+                    conditions.add(WIKIDATA_ENTITY_LABELS.LANG_ID.in(langIds));
                 }
-                Result<Record1<String>> result = jooq.select(Tables.WIKIDATA_ENTITY_LABELS.LABEL)
-                        .from(Tables.WIKIDATA_ENTITY_LABELS)
-                        .where(Tables.WIKIDATA_ENTITY_LABELS.ENTITY_TYPE.eq(""+type.code))
-                        .and(WIKIDATA_ENTITY_LABELS.ENTITY_ID.eq(id))
-                        .limit(1)
+                Result<Record3<Integer, Short, String>> result = jooq
+                        .select(WIKIDATA_ENTITY_LABELS.ENTITY_ID, WIKIDATA_ENTITY_LABELS.LANG_ID, WIKIDATA_ENTITY_LABELS.LABEL)
+                        .from(WIKIDATA_ENTITY_LABELS)
+                        .where(conditions)
                         .fetch();
-                if (result.size() >= 1) {
-                    return result.get(0).value1();
-                } else {
-                    LOG.warning("no labels for item " + id);
-                    return "unknown";
+                for (Record3<Integer, Short, String> record : result) {
+                    int id = record.value1();
+                    int rank = (langIds == null) ? 0 : langIds.indexOf(record.value2());
+                    if (!ranks.containsKey(id) || rank < ranks.get(id)) {
+                        ranks.put(id, rank);
+                        labels.put(id, record.value3());
+                    }
                 }
-            } finally {
-                freeJooq(jooq);
             }
-        } else {
-            throw new IllegalArgumentException("Unknown entity type: " + type);
+        } finally {
+            freeJooq(jooq);
         }
+        return labels;
     }
 
     @Override
@@ -417,13 +503,10 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
         WikidataEntity prop = getProperty(record.getValue(Tables.WIKIDATA_STATEMENT.PROP_ID));
         Short rankOrdinal = record.getValue(Tables.WIKIDATA_STATEMENT.RANK);
 
-        JsonElement json = new JsonParser().parse(record.getValue(Tables.WIKIDATA_STATEMENT.VAL_STR));
-        WikidataValue val;
-        try {
-            val = JsonUtils.jsonToValue( record.getValue(Tables.WIKIDATA_STATEMENT.VAL_TYPE), json);
-        } catch (WpParseException e) {
-            throw new DaoException(e);
-        }
+        WikidataValue val = buildValue(
+                record.getValue(Tables.WIKIDATA_STATEMENT.VAL_TYPE),
+                record.getValue(Tables.WIKIDATA_STATEMENT.VAL_STR),
+                record.getValue(Tables.WIKIDATA_STATEMENT.VAL_NUM));
 
         WikidataStatement stmt = new WikidataStatement(
                 record.getValue(Tables.WIKIDATA_STATEMENT.ID),
@@ -435,6 +518,33 @@ public class WikidataSqlDao extends AbstractSqlDao<WikidataStatement> implements
         return stmt;
     }
 
+    /**
+     * Builds a value from its typed columns. Only values without a typed representation
+     * have their json parsed eagerly; the json of other values is parsed on request.
+     */
+    private WikidataValue buildValue(String valType, String str, Long num) throws DaoException {
+        WikidataValue.Type type = null;
+        for (WikidataValue.Type t : WikidataValue.Type.values()) {
+            if (t.toString().toLowerCase().equals(valType)) {
+                type = t;
+            }
+        }
+        if (type == WikidataValue.Type.STRING) {
+            return new WikidataValue(type, str, new JsonPrimitive(str));
+        } else if ((type == WikidataValue.Type.ITEM || type == WikidataValue.Type.INT) && num != null) {
+            return new WikidataValue(type, num.intValue(), str);
+        } else if (type == WikidataValue.Type.TIME && num != null) {
+            return new WikidataValue(type, new Date(num), str);
+        } else if (type == WikidataValue.Type.NOVALUE || type == WikidataValue.Type.SOMEVALUE) {
+            return new WikidataValue(type, null, JsonNull.INSTANCE);
+        }
+        try {
+            return JsonUtils.jsonToValue(valType, new JsonParser().parse(str));
+        } catch (WpParseException e) {
+            throw new DaoException(e);
+        }
+    }
+
     public static class Provider extends org.wikapidia.conf.Provider<WikidataDao> {
         public Provider(Configurator configurator, Configuration config) throws ConfigurationException {
             super(configurator, config);
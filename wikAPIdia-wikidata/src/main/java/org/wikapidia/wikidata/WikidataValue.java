@@ -20,6 +20,7 @@ public class WikidataValue implements Serializable {
     private String typeName;
     private Object value;
     private JsonElement jsonValue;
+    private String jsonString;  // unparsed json, if jsonValue has not been parsed yet
 
     public WikidataValue(String typeName, Object value, JsonElement jsonValue) {
         for (Type t : Type.values()) {
@@ -43,13 +44,25 @@ public class WikidataValue implements Serializable {
         this.jsonValue = jsonValue;
     }
 
+    /**
+     * Creates a value whose json representation is only parsed if it is requested.
+     * @param type
+     * @param value
+     * @param jsonString
+     */
+    public WikidataValue(Type type, Object value, String jsonString) {
+        this.type = type;
+        this.typeName =  type.toString();
+        this.value = value;
+        this.jsonString = jsonString;
+    }
 
     private void writeObject(ObjectOutputStream o)
             throws IOException {
         o.writeObject(type);
         o.writeObject(typeName);
         o.writeObject(value);
-        o.writeObject(jsonValue.toString());
+        o.writeObject(getJsonValue().toString());
     }
 
     private void readObject(ObjectInputStream o)
@@ -89,6 +102,9 @@ public class WikidataValue implements Serializable {
     }
 
     public JsonElement getJsonValue() {
+        if (jsonValue == null && jsonString != null) {
+            jsonValue = new JsonParser().parse(jsonString);
+        }
         return jsonValue;
     }
 
@@ -12,9 +12,9 @@ import org.wikapidia.core.dao.sql.MetaInfoSqlDao;
 import org.wikapidia.core.dao.sql.TestDaoUtil;
 import org.wikapidia.core.dao.sql.WpDataSource;
 import org.wikapidia.core.lang.Language;
+import org.wikapidia.parser.WpParseException;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.*;
@@ -31,7 +31,7 @@ public class TestWikidataDao {
     public static File dbDir;
 
     @BeforeClass
-    public static void createDb() throws IOException, DaoException, ClassNotFoundException, URISyntaxException {
+    public static void createDb() throws IOException, DaoException, ClassNotFoundException, URISyntaxException, InterruptedException {
         dbDir = File.createTempFile("dao", "cache");
         dbDir.delete();
         dbDir.mkdirs();
@@ -50,6 +50,8 @@ public class TestWikidataDao {
         WikidataDumpLoader loader = new WikidataDumpLoader(wd, md);
         URL url = TestWikidataDao.class.getResource("/testDump.xml.bz2");
         loader.load(new File(url.toURI()));
+        assertEquals(0, loader.getNumErrors());
+        assertEquals(loader.getNumParsed(), loader.getNumSaved());
         wd.endLoad();
         md.endLoad();
 
@@ -111,6 +113,89 @@ public class TestWikidataDao {
         assertEquals(new TIntHashSet(new int[] {84020, 10855226, 13422143, 14539990}), ids);
     }
 
+    @Test
+    public void testLabels() throws DaoException, IOException, ClassNotFoundException {
+        WpDataSource ds = TestDaoUtil.getWpDataSource(dbDir);
+        WikidataDao wd = new WikidataSqlDao(ds, null, null);
+        Language ru = Language.getByLangCode("ru");
+
+        Map<Integer, String> labels = wd.getLabels(WikidataEntity.Type.ITEM, Arrays.asList(157, 84020), Arrays.asList(ru, EN));
+        assertEquals(1, labels.size());
+        assertEquals("\u041e\u043b\u043b\u0430\u043d\u0434, \u0424\u0440\u0430\u043d\u0441\u0443\u0430", labels.get(157));
+
+        labels = wd.getLabels(WikidataEntity.Type.ITEM, Arrays.asList(157), Arrays.asList(EN, ru));
+        assertEquals("Fran\u00e7ois Hollande", labels.get(157));
+
+        labels = wd.getLabels(WikidataEntity.Type.PROPERTY, Arrays.asList(127, 166), Arrays.asList(EN));
+        assertEquals("owned by", labels.get(127));
+        assertEquals("award received", labels.get(166));
+
+        assertEquals(1, wd.getLabels(WikidataEntity.Type.ITEM, Arrays.asList(157), null).size());
+    }
+
+    @Test
+    public void testLabelsOfManyIds() throws DaoException, IOException, ClassNotFoundException {
+        WpDataSource ds = TestDaoUtil.getWpDataSource(dbDir);
+        WikidataDao wd = new WikidataSqlDao(ds, null, null);
+
+        // more ids than fit in one query, including ids without labels
+        List<Integer> ids = new ArrayList<Integer>(wd.getProperties().keySet());
+        for (int i = 0; ids.size() < 2500; i++) {
+            ids.add(100000000 + i);
+        }
+        Map<Integer, String> expected = new HashMap<Integer, String>();
+        for (int i = 0; i < ids.size(); i += 100) {
+            expected.putAll(wd.getLabels(WikidataEntity.Type.PROPERTY, ids.subList(i, Math.min(i + 100, ids.size())), Arrays.asList(EN)));
+        }
+        assertTrue(expected.size() > 800);
+        assertEquals(expected, wd.getLabels(WikidataEntity.Type.PROPERTY, ids, Arrays.asList(EN)));
+        assertTrue(wd.getLabels(WikidataEntity.Type.PROPERTY, new ArrayList<Integer>(), Arrays.asList(EN)).isEmpty());
+    }
+
+    @Test
+    public void testTypedValues() throws DaoException, IOException, ClassNotFoundException, WpParseException {
+        WpDataSource ds = TestDaoUtil.getWpDataSource(dbDir);
+        WikidataDao wd = new WikidataSqlDao(ds, null, null);
+        WikidataFilter filter = new WikidataFilter.Builder()
+                .withEntityType(WikidataEntity.Type.ITEM)
+                .withEntityId(157)
+                .build();
+        Set<WikidataValue.Type> types = new HashSet<WikidataValue.Type>();
+        int n = 0;
+        for (WikidataStatement st : wd.get(filter)) {
+            WikidataValue value = st.getValue();
+            types.add(value.getType());
+
+            // values built from the typed columns match the values parsed from their json
+            WikidataValue parsed = JsonUtils.jsonToValue(value.getType().toString(), value.getJsonValue());
+            assertEquals(parsed.getType(), value.getType());
+            assertEquals(parsed.getValue(), value.getValue());
+
+            // values survive serialization without having their json parsed first
+            WikidataValue copy = (WikidataValue) deserialize(serialize(st.getValue()));
+            assertEquals(value.getType(), copy.getType());
+            assertEquals(value.getValue(), copy.getValue());
+            assertEquals(value.getJsonValue(), copy.getJsonValue());
+            n++;
+        }
+        assertEquals(36, n);
+        assertTrue(types.contains(WikidataValue.Type.ITEM));
+        assertTrue(types.contains(WikidataValue.Type.TIME));
+        assertTrue(types.contains(WikidataValue.Type.STRING));
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
     @Test
     public void testLocalStatements() throws DaoException, IOException, ClassNotFoundException {
         WpDataSource ds = TestDaoUtil.getWpDataSource(dbDir);
@@ -130,5 +215,13 @@ public class TestWikidataDao {
         for (LocalWikidataStatement lws : almaMaters) {
             assertEquals("François Hollande alma mater unknown", lws.getFullStatement());
         }
+
+        // a single statement is named the same way as the statements of a whole entity
+        for (LocalWikidataStatement lws : statements.get("award received")) {
+            LocalWikidataStatement single = wd.getLocalStatement(EN, lws.getStatement());
+            assertEquals(lws.getFullStatement(), single.getFullStatement());
+            assertEquals("François Hollande", single.getItem());
+            assertEquals("award received", single.getProperty());
+        }
     }
 }
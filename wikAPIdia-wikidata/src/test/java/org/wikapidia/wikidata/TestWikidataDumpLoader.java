@@ -0,0 +1,57 @@
+package org.wikapidia.wikidata;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.wikapidia.core.dao.DaoException;
+import org.wikapidia.core.dao.MetaInfoDao;
+import org.wikapidia.core.dao.sql.MetaInfoSqlDao;
+import org.wikapidia.core.dao.sql.TestDaoUtil;
+import org.wikapidia.core.dao.sql.WpDataSource;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestWikidataDumpLoader {
+
+    @Test
+    public void testEmpty() throws Exception {
+        WikidataDumpLoader loader = new WikidataDumpLoader(null, null);
+        loader.load(new ArrayList<File>());
+        assertEquals(0, loader.getNumPages());
+    }
+
+    @Test(timeout = 60000)
+    public void testWriterFailure() throws Exception {
+        File dbDir = File.createTempFile("dao", "cache");
+        dbDir.delete();
+        dbDir.mkdirs();
+        try {
+            WpDataSource ds = TestDaoUtil.getWpDataSource(dbDir);
+            MetaInfoDao md = new MetaInfoSqlDao(ds);
+            WikidataSqlDao wd = new WikidataSqlDao(ds, null, null) {
+                @Override
+                public void save(WikidataEntity entity) throws DaoException {
+                    throw new IllegalStateException("broken dao");
+                }
+            };
+
+            // a single slow writer and parser fill both queues before the failure is seen
+            WikidataDumpLoader loader = new WikidataDumpLoader(wd, md, 1, 1);
+            URL url = TestWikidataDumpLoader.class.getResource("/testDump.xml.bz2");
+            try {
+                loader.load(new File(url.toURI()));
+                fail("a failed load must not return normally");
+            } catch (DaoException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals(0, loader.getNumSaved());
+        } finally {
+            FileUtils.deleteQuietly(dbDir);
+        }
+    }
+}